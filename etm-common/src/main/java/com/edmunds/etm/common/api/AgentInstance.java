@@ -16,8 +16,7 @@
 package com.edmunds.etm.common.api;
 
 import com.edmunds.etm.common.thrift.AgentInstanceDto;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import com.edmunds.etm.common.util.HostResolver;
 import java.util.UUID;
 import org.apache.commons.lang.Validate;
 import org.apache.log4j.Logger;
@@ -37,7 +36,6 @@ public class AgentInstance {
     private String activeRuleSetDigest;
     private RuleSetDeploymentEvent lastDeploymentEvent;
     private RuleSetDeploymentEvent lastFailedDeploymentEvent;
-    private String hostName;
 
     /**
      * Constructs a new AgentInstance with the specified parameters.
@@ -74,20 +72,14 @@ public class AgentInstance {
     }
 
     /**
-     * Gets the host name.
+     * Gets the host name. <p/> The reverse lookup is cached and performed in the background by {@link HostResolver},
+     * so this method never blocks.
      *
-     * @return host name
+     * @return host name, or the ip address if it has not been resolved yet or cannot be resolved
      */
     public String getHostName() {
-        if(hostName == null) {
-            try {
-                InetAddress addr = InetAddress.getByName(ipAddress);
-                hostName = addr.getHostName();
-            } catch(UnknownHostException e) {
-                return "Unknown";
-            }
-        }
-        return hostName;
+        String hostName = HostResolver.getDefault().getHostName(ipAddress);
+        return hostName != null ? hostName : ipAddress;
     }
 
 
@@ -16,15 +16,23 @@
 package com.edmunds.etm.common.api;
 
 import com.edmunds.etm.common.util.RegexUtil;
+import com.google.common.collect.Sets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 /**
+ * A token matching any one of a fixed list of literal values.
+ * <p/>
+ * The generated regular expression shares common prefixes between values, which keeps it compact for tokens with
+ * thousands of values. {@link #match(CharSequence)} tests membership with a hash lookup instead of the regular
+ * expression whenever the two agree.
+ *
  * @author Ryan Holmes
  */
 public class FixedUrlToken extends UrlToken {
 
-    private String regex;
+    private volatile ValueSet valueSet;
 
     public FixedUrlToken(String name, List<String> values) {
         super(name, values);
@@ -35,28 +43,33 @@ public class FixedUrlToken extends UrlToken {
     }
 
     @Override
-    public String toRegex() {
-
-        if(regex == null) {
-            // list of explicit values; regular-expression-ize
-            List<String> values = getValues();
-            StringBuilder sb = new StringBuilder();
-            sb.append('(');
-            for(String value : values) {
-                sb.append(RegexUtil.escapeRegex(value));
-                sb.append('|');
-            }
-
-            // delete the trailing '|'
-            if(!values.isEmpty()) {
-                sb.deleteCharAt(sb.length() - 1);
-            }
+    protected String createRegex(List<String> values) {
+        return '(' + RegexUtil.toPrefixTreeRegex(values) + ')';
+    }
 
-            sb.append(')');
-            regex = sb.toString();
+    /**
+     * Returns whether the specified input matches this token in its entirety.
+     * <p/>
+     * When every value is literal, the input matches exactly if it equals one of the values, which is tested with a
+     * hash lookup. Values containing '*' or '\' are not escaped in the regular expression and an empty token
+     * matches the empty string, so in those cases the regular expression is used.
+     *
+     * @param input the input to test
+     * @return true if the input matches
+     * @see RegexUtil#isLiteral(String)
+     */
+    @Override
+    public boolean match(CharSequence input) {
+        List<String> values = getValues();
+        ValueSet current = valueSet;
+        if(current == null || current.values != values) {
+            current = new ValueSet(values);
+            valueSet = current;
         }
-
-        return regex;
+        if(current.set == null) {
+            return super.match(input);
+        }
+        return input != null && current.set.contains(input.toString());
     }
 
     @Override
@@ -64,4 +77,28 @@ public class FixedUrlToken extends UrlToken {
         return UrlTokenType.FIXED;
     }
 
+    /**
+     * Hash set of the values in a particular value list, or null if the list cannot be matched by a hash lookup.
+     */
+    private static final class ValueSet {
+        private final List<String> values;
+        private final Set<String> set;
+
+        private ValueSet(List<String> values) {
+            this.values = values;
+            this.set = isHashable(values) ? Sets.newHashSet(values) : null;
+        }
+
+        private static boolean isHashable(List<String> values) {
+            if(values.isEmpty()) {
+                return false;
+            }
+            for(String value : values) {
+                if(!RegexUtil.isLiteral(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
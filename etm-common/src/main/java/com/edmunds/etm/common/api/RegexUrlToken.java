@@ -16,6 +16,7 @@
 package com.edmunds.etm.common.api;
 
 import java.util.Collections;
+import java.util.List;
 import org.apache.commons.lang.StringUtils;
 
 /**
@@ -23,18 +24,13 @@ import org.apache.commons.lang.StringUtils;
  */
 public class RegexUrlToken extends UrlToken {
 
-    private String regex;
-
     public RegexUrlToken(String name, String value) {
         super(name, Collections.singletonList(value));
     }
 
     @Override
-    public String toRegex() {
-        if(regex == null) {
-            regex = StringUtils.join(getValues(), "|");
-        }
-        return regex;
+    protected String createRegex(List<String> values) {
+        return StringUtils.join(values, "|");
     }
 
     @Override
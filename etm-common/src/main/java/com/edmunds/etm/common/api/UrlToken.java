@@ -16,26 +16,36 @@
 package com.edmunds.etm.common.api;
 
 import com.edmunds.etm.common.thrift.UrlTokenDto;
+import com.edmunds.etm.common.util.PatternCache;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 import org.apache.commons.lang.Validate;
 import org.apache.log4j.Logger;
 
 /**
+ * Base class for named URL tokens.
+ * <p/>
+ * The regular expression and compiled pattern of a token are built on first use and rebuilt whenever its values
+ * change. The values are held in an immutable list that is replaced on every modification, and the derived forms
+ * are cached together with the list they were built from, so a token can be read safely from several threads and
+ * never returns a regular expression that is out of date.
+ *
  * @author Ryan Holmes
  */
 public abstract class UrlToken {
     private static final Logger logger = Logger.getLogger(UrlToken.class);
 
-    private String name;
-    private List<String> values;
+    private final String name;
+    private volatile List<String> values;
+    private volatile CompiledToken compiled;
 
 
     public UrlToken(String name, List<String> values) {
         Validate.notEmpty(name, "UrlToken name is empty");
         this.name = name;
-        this.values = values == null ? new ArrayList<String>() : values;
+        this.values = copyOf(values);
     }
 
     /**
@@ -50,10 +60,10 @@ public abstract class UrlToken {
     /**
      * Gets the list of values represented by this token.
      *
-     * @return list of string values
+     * @return unmodifiable list of string values
      */
     public List<String> getValues() {
-        return Collections.unmodifiableList(values);
+        return values;
     }
 
     /**
@@ -61,8 +71,8 @@ public abstract class UrlToken {
      *
      * @param values list of string values
      */
-    public void setValues(List<String> values) {
-        this.values = values == null ? new ArrayList<String>() : values;
+    public synchronized void setValues(List<String> values) {
+        this.values = copyOf(values);
     }
 
     /**
@@ -70,16 +80,74 @@ public abstract class UrlToken {
      *
      * @param value the value to add
      */
-    public void addValue(String value) {
-        this.values.add(value);
+    public synchronized void addValue(String value) {
+        List<String> updated = new ArrayList<String>(values.size() + 1);
+        updated.addAll(values);
+        updated.add(value);
+        this.values = Collections.unmodifiableList(updated);
     }
 
     /**
      * Returns the regular expression that corresponds to this token.
      *
-     * @return
+     * @return the regular expression
+     */
+    public String toRegex() {
+        return getCompiled().regex;
+    }
+
+    /**
+     * Returns the compiled regular expression that corresponds to this token.
+     * <p/>
+     * Tokens with identical regular expressions share one compiled pattern through the {@link PatternCache}.
+     *
+     * @return the compiled pattern
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is invalid
+     */
+    public Pattern toPattern() {
+        CompiledToken current = getCompiled();
+        Pattern pattern = current.pattern;
+        if(pattern == null) {
+            pattern = PatternCache.compile(current.regex);
+            current.pattern = pattern;
+        }
+        return pattern;
+    }
+
+    /**
+     * Returns whether the specified input matches this token in its entirety.
+     *
+     * @param input the input to test
+     * @return true if the input matches
      */
-    public abstract String toRegex();
+    public boolean match(CharSequence input) {
+        return input != null && toPattern().matcher(input).matches();
+    }
+
+    /**
+     * Builds the regular expression for the specified values.
+     *
+     * @param values the current token values
+     * @return the regular expression
+     */
+    protected abstract String createRegex(List<String> values);
+
+    private CompiledToken getCompiled() {
+        List<String> currentValues = values;
+        CompiledToken current = compiled;
+        if(current == null || current.values != currentValues) {
+            current = new CompiledToken(currentValues, createRegex(currentValues));
+            compiled = current;
+        }
+        return current;
+    }
+
+    private static List<String> copyOf(List<String> values) {
+        if(values == null || values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<String>(values));
+    }
 
     /**
      * Gets the type of this token as an enum.
@@ -154,4 +222,18 @@ public abstract class UrlToken {
         return dto;
 
     }
+
+    /**
+     * Regular expression and compiled pattern derived from a particular list of values.
+     */
+    private static final class CompiledToken {
+        private final List<String> values;
+        private final String regex;
+        private volatile Pattern pattern;
+
+        private CompiledToken(List<String> values, String regex) {
+            this.values = values;
+            this.regex = regex;
+        }
+    }
 }
@@ -0,0 +1,569 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.etm.common.api.AgentInstance;
+import com.edmunds.etm.common.api.AgentPaths;
+import com.edmunds.etm.common.api.RuleSetDeploymentEvent;
+import com.edmunds.etm.common.api.RuleSetDeploymentResult;
+import com.edmunds.etm.common.thrift.AgentInstanceDto;
+import com.edmunds.zookeeper.connection.ZooKeeperConnection;
+import com.edmunds.zookeeper.connection.ZooKeeperConnectionListener;
+import com.edmunds.zookeeper.connection.ZooKeeperConnectionState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Live view of the connected ETM agents.
+ * <p/>
+ * The registry watches the children of {@link AgentPaths#getConnected()} and the data of each agent node, decoding
+ * an agent only when its node changes. Agents are indexed by active rule set digest, by version and by the result of
+ * their last deployment, so counts such as "agents running digest X" are constant-time lookups instead of a scan of
+ * the whole fleet.
+ * <p/>
+ * Registered {@link AgentRegistryListener}s are told when every connected agent reports the same digest. Listeners
+ * are called outside the registry lock, on the ZooKeeper event thread or on the registry's retry thread.
+ * <p/>
+ * If a read fails or the connected node is deleted, the registry is discarded and loaded again at once; if that load
+ * fails too, it is retried with a doubling delay until it succeeds. When the session expires the watches are lost
+ * with it, so the registry is discarded and loaded again when the connection reports a new session.
+ * <p/>
+ * The {@link AgentInstance} objects returned by the registry are shared and must not be modified.
+ */
+@Component
+public class AgentRegistry implements Watcher, ZooKeeperConnectionListener {
+
+    private static final Logger logger = Logger.getLogger(AgentRegistry.class);
+
+    /**
+     * Default delay before the first retry of a failed load, in milliseconds.
+     */
+    public static final long DEFAULT_INITIAL_RETRY_DELAY = 1000;
+
+    /**
+     * Default maximum delay between retries of a failed load, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_RETRY_DELAY = 60000;
+
+    private final ZooKeeperConnection connection;
+    private final AgentPaths agentPaths;
+    private final ObjectSerializer objectSerializer;
+    private final List<AgentRegistryListener> listeners = new CopyOnWriteArrayList<AgentRegistryListener>();
+
+    private final Map<String, AgentInstance> agents = Maps.newHashMap();
+    private final Index<String> byDigest = new Index<String>();
+    private final Index<String> byVersion = new Index<String>();
+    private final Index<RuleSetDeploymentResult> byResult = new Index<RuleSetDeploymentResult>();
+    private final ScheduledExecutorService retryExecutor =
+        Executors.newSingleThreadScheduledExecutor(new RetryThreadFactory());
+
+    private long initialRetryDelay = DEFAULT_INITIAL_RETRY_DELAY;
+    private long maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+    private String convergedDigest;
+    private boolean loaded;
+    private int failedLoads;
+    private ScheduledFuture<?> retry;
+    private volatile boolean closed;
+
+    @Autowired
+    public AgentRegistry(ZooKeeperConnection connection, AgentPaths agentPaths, ObjectSerializer objectSerializer) {
+        Validate.notNull(connection, "ZooKeeper connection is null");
+        Validate.notNull(agentPaths, "Agent paths is null");
+        Validate.notNull(objectSerializer, "Object serializer is null");
+        this.connection = connection;
+        this.agentPaths = agentPaths;
+        this.objectSerializer = objectSerializer;
+        connection.addListener(this);
+    }
+
+    /**
+     * Sets the delay between retries of a failed load. The delay doubles after each failure up to the maximum.
+     *
+     * @param initialRetryDelay delay before the first retry in milliseconds
+     * @param maxRetryDelay     maximum delay in milliseconds
+     */
+    public synchronized void setRetryDelay(long initialRetryDelay, long maxRetryDelay) {
+        Validate.isTrue(initialRetryDelay > 0, "Initial retry delay must be positive");
+        Validate.isTrue(maxRetryDelay >= initialRetryDelay, "Maximum retry delay is less than initial retry delay");
+        this.initialRetryDelay = initialRetryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    /**
+     * Adds a listener to be notified of fleet convergence.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(AgentRegistryListener listener) {
+        Validate.notNull(listener, "Listener is null");
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a previously added listener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(AgentRegistryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Loads the connected agents and sets the watches that keep the registry current.
+     * <p/>
+     * The registry is also loaded on first access, so calling this method is only needed to start receiving listener
+     * notifications before anything is read.
+     */
+    public void start() {
+        fireConvergence(load());
+    }
+
+    /**
+     * Stops the registry. Pending watches are ignored when they fire and pending retries are cancelled.
+     */
+    public synchronized void close() {
+        closed = true;
+        clear();
+        retryExecutor.shutdownNow();
+    }
+
+    /**
+     * Gets all connected agents.
+     *
+     * @return connected agents
+     */
+    public synchronized Collection<AgentInstance> getAgents() {
+        ensureLoaded();
+        return ImmutableList.copyOf(agents.values());
+    }
+
+    /**
+     * Gets the number of connected agents.
+     *
+     * @return number of connected agents
+     */
+    public synchronized int getAgentCount() {
+        ensureLoaded();
+        return agents.size();
+    }
+
+    /**
+     * Gets the agents whose active rule set has the specified digest.
+     *
+     * @param ruleSetDigest rule set digest
+     * @return agents running the rule set
+     */
+    public synchronized Set<AgentInstance> getAgentsWithDigest(String ruleSetDigest) {
+        ensureLoaded();
+        return byDigest.get(ruleSetDigest);
+    }
+
+    /**
+     * Gets the number of agents whose active rule set has the specified digest.
+     *
+     * @param ruleSetDigest rule set digest
+     * @return number of agents running the rule set
+     */
+    public synchronized int getConvergedCount(String ruleSetDigest) {
+        ensureLoaded();
+        return byDigest.count(ruleSetDigest);
+    }
+
+    /**
+     * Indicates whether every connected agent is running the rule set with the specified digest.
+     *
+     * @param ruleSetDigest rule set digest
+     * @return true if at least one agent is connected and all of them run the rule set
+     */
+    public synchronized boolean isConverged(String ruleSetDigest) {
+        ensureLoaded();
+        return !agents.isEmpty() && byDigest.count(ruleSetDigest) == agents.size();
+    }
+
+    /**
+     * Gets the agents running the specified application version.
+     *
+     * @param version agent version
+     * @return agents with the version
+     */
+    public synchronized Set<AgentInstance> getAgentsWithVersion(String version) {
+        ensureLoaded();
+        return byVersion.get(version);
+    }
+
+    /**
+     * Gets the number of agents running the specified application version.
+     *
+     * @param version agent version
+     * @return number of agents with the version
+     */
+    public synchronized int getVersionCount(String version) {
+        ensureLoaded();
+        return byVersion.count(version);
+    }
+
+    /**
+     * Gets the agents whose last rule set deployment had the specified result.
+     *
+     * @param result deployment result
+     * @return agents whose last deployment had the result
+     */
+    public synchronized Set<AgentInstance> getAgentsWithResult(RuleSetDeploymentResult result) {
+        ensureLoaded();
+        return byResult.get(result);
+    }
+
+    /**
+     * Gets the number of agents whose last rule set deployment had the specified result.
+     *
+     * @param result deployment result
+     * @return number of agents whose last deployment had the result
+     */
+    public synchronized int getResultCount(RuleSetDeploymentResult result) {
+        ensureLoaded();
+        return byResult.count(result);
+    }
+
+    @Override
+    public void onConnectionStateChanged(ZooKeeperConnectionState state) {
+        if(closed) {
+            return;
+        }
+        if(state == ZooKeeperConnectionState.EXPIRED) {
+            logger.info("ZooKeeper session expired, discarding agent registry");
+            invalidate();
+        } else if(state == ZooKeeperConnectionState.INITIALIZED) {
+            // The watches of an expired session are gone, so load again to set them on the new one.
+            invalidate();
+            fireConvergence(load());
+        }
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        if(closed) {
+            return;
+        }
+        if(event.getType() == EventType.None) {
+            // The connection reports the new session through onConnectionStateChanged.
+            if(event.getState() == KeeperState.Expired) {
+                invalidate();
+            }
+            return;
+        }
+
+        String path = event.getPath();
+        String parentPath = agentPaths.getConnected();
+        String digest = null;
+        try {
+            if(parentPath.equals(path)) {
+                if(event.getType() == EventType.NodeDeleted) {
+                    digest = reload();
+                } else {
+                    digest = refreshChildren();
+                }
+            } else if(path != null && path.startsWith(parentPath + "/")) {
+                digest = refreshAgent(path.substring(parentPath.length() + 1));
+            }
+        } catch(KeeperException e) {
+            logger.error(String.format("Error refreshing agent registry for %s", path), e);
+            digest = reload();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            digest = reload();
+        }
+        fireConvergence(digest);
+    }
+
+    private void ensureLoaded() {
+        if(!loaded && !closed) {
+            load();
+        }
+    }
+
+    private synchronized String load() {
+        if(loaded || closed) {
+            return null;
+        }
+        try {
+            List<String> names = connection.getChildren(agentPaths.getConnected(), this);
+            for(String name : names) {
+                AgentInstance agent = readAgent(name);
+                if(agent != null) {
+                    putAgent(name, agent);
+                }
+            }
+            loaded = true;
+            failedLoads = 0;
+            logger.debug(String.format("Loaded %d connected agents", agents.size()));
+        } catch(KeeperException e) {
+            logger.error("Error loading connected agents", e);
+            clear();
+            scheduleRetry();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            clear();
+            scheduleRetry();
+        }
+        return checkConvergence();
+    }
+
+    /**
+     * Discards the registry and loads it again, so that the watches are set once more.
+     *
+     * @return the digest if the reloaded fleet has converged, otherwise null
+     */
+    private synchronized String reload() {
+        invalidate();
+        return load();
+    }
+
+    private void scheduleRetry() {
+        if(closed || (retry != null && !retry.isDone())) {
+            return;
+        }
+        long delay = initialRetryDelay << Math.min(failedLoads, 30);
+        if(delay <= 0 || delay > maxRetryDelay) {
+            delay = maxRetryDelay;
+        }
+        failedLoads++;
+        logger.info(String.format("Loading connected agents again in %d ms", delay));
+        retry = retryExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fireConvergence(retryLoad());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized String retryLoad() {
+        // This retry is running, so a failed load must be able to schedule the next one.
+        retry = null;
+        return load();
+    }
+
+    private synchronized String refreshChildren() throws KeeperException, InterruptedException {
+        if(!loaded) {
+            return null;
+        }
+        List<String> names = connection.getChildren(agentPaths.getConnected(), this);
+        Set<String> removed = Sets.newHashSet(agents.keySet());
+        for(String name : names) {
+            if(!removed.remove(name)) {
+                AgentInstance agent = readAgent(name);
+                if(agent != null) {
+                    putAgent(name, agent);
+                }
+            }
+        }
+        for(String name : removed) {
+            removeAgent(name);
+        }
+        return checkConvergence();
+    }
+
+    private synchronized String refreshAgent(String name) throws KeeperException, InterruptedException {
+        if(!loaded) {
+            return null;
+        }
+        AgentInstance agent = readAgent(name);
+        if(agent != null) {
+            putAgent(name, agent);
+        } else {
+            removeAgent(name);
+        }
+        return checkConvergence();
+    }
+
+    private synchronized void invalidate() {
+        clear();
+    }
+
+    private void clear() {
+        agents.clear();
+        byDigest.clear();
+        byVersion.clear();
+        byResult.clear();
+        convergedDigest = null;
+        loaded = false;
+    }
+
+    private void putAgent(String name, AgentInstance agent) {
+        removeAgent(name);
+        agents.put(name, agent);
+        byDigest.add(agent.getActiveRuleSetDigest(), agent);
+        byVersion.add(agent.getVersion(), agent);
+        byResult.add(lastResult(agent), agent);
+    }
+
+    private void removeAgent(String name) {
+        AgentInstance agent = agents.remove(name);
+        if(agent != null) {
+            byDigest.remove(agent.getActiveRuleSetDigest(), agent);
+            byVersion.remove(agent.getVersion(), agent);
+            byResult.remove(lastResult(agent), agent);
+        }
+    }
+
+    /**
+     * Checks whether the fleet has just converged on a digest.
+     *
+     * @return the digest if convergence was reached since the last check, otherwise null
+     */
+    private String checkConvergence() {
+        String digest = null;
+        if(byDigest.size() == 1 && !agents.isEmpty()) {
+            String candidate = byDigest.keys().iterator().next();
+            if(byDigest.count(candidate) == agents.size()) {
+                digest = candidate;
+            }
+        }
+        String reached = digest != null && !digest.equals(convergedDigest) ? digest : null;
+        convergedDigest = digest;
+        return reached;
+    }
+
+    private void fireConvergence(String digest) {
+        if(digest == null) {
+            return;
+        }
+        int agentCount = getAgentCount();
+        logger.info(String.format("All %d agents converged on rule set %s", agentCount, digest));
+        for(AgentRegistryListener listener : listeners) {
+            try {
+                listener.onConvergence(digest, agentCount);
+            } catch(RuntimeException e) {
+                logger.error("Agent registry listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Reads an agent and sets a data watch on its node.
+     *
+     * @param name name of the agent node
+     * @return the agent, or null if the node does not exist or cannot be decoded
+     * @throws KeeperException      if the read fails for a reason other than a missing node
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private AgentInstance readAgent(String name) throws KeeperException, InterruptedException {
+        byte[] data;
+        try {
+            data = connection.getData(agentPaths.getConnected() + "/" + name, this, null);
+        } catch(KeeperException e) {
+            if(e.code() == Code.NONODE) {
+                return null;
+            }
+            throw e;
+        }
+
+        try {
+            return AgentInstance.readDto(objectSerializer.readValue(data, AgentInstanceDto.class));
+        } catch(IOException e) {
+            logger.error(String.format("Unable to read agent instance: %s", name), e);
+            return null;
+        }
+    }
+
+    private static RuleSetDeploymentResult lastResult(AgentInstance agent) {
+        RuleSetDeploymentEvent event = agent.getLastDeploymentEvent();
+        return event != null ? event.getResult() : null;
+    }
+
+    private static final class RetryThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "etm-agent-registry-retry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Groups agents by a single attribute. Agents with a null attribute are not indexed.
+     */
+    private static final class Index<K> {
+
+        private final Map<K, Set<AgentInstance>> entries = Maps.newHashMap();
+
+        void add(K key, AgentInstance agent) {
+            if(key == null) {
+                return;
+            }
+            Set<AgentInstance> set = entries.get(key);
+            if(set == null) {
+                set = Sets.newHashSet();
+                entries.put(key, set);
+            }
+            set.add(agent);
+        }
+
+        void remove(K key, AgentInstance agent) {
+            Set<AgentInstance> set = entries.get(key);
+            if(set != null) {
+                set.remove(agent);
+                if(set.isEmpty()) {
+                    entries.remove(key);
+                }
+            }
+        }
+
+        int count(K key) {
+            Set<AgentInstance> set = entries.get(key);
+            return set != null ? set.size() : 0;
+        }
+
+        Set<AgentInstance> get(K key) {
+            Set<AgentInstance> set = entries.get(key);
+            return set != null ? ImmutableSet.copyOf(set) : ImmutableSet.<AgentInstance>of();
+        }
+
+        Set<K> keys() {
+            return entries.keySet();
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        void clear() {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+/**
+ * Receives notifications from an {@link AgentRegistry}.
+ */
+public interface AgentRegistryListener {
+
+    /**
+     * Called when every connected agent reports the same active rule set digest.
+     * <p/>
+     * The notification is sent once each time the fleet converges on a digest. A later change that breaks and then
+     * restores convergence on the same digest triggers another notification.
+     *
+     * @param ruleSetDigest the digest all agents are running
+     * @param agentCount    the number of connected agents
+     */
+    void onConvergence(String ruleSetDigest, int agentCount);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import org.apache.thrift.TBase;
+
+/**
+ * Creates empty Thrift objects for {@link ObjectSerializer} to read into.
+ *
+ * @param <T> the Thrift type created
+ */
+public interface DtoFactory<T extends TBase<?, ?>> {
+
+    /**
+     * Creates a new, empty instance.
+     *
+     * @return new instance
+     */
+    T newInstance();
+}
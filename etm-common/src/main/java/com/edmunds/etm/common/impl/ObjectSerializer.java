@@ -15,26 +15,208 @@
  */
 package com.edmunds.etm.common.impl;
 
+import com.edmunds.etm.common.thrift.AgentInstanceDto;
+import com.edmunds.etm.common.thrift.ClientConfigDto;
+import com.edmunds.etm.common.thrift.ControllerInstanceDto;
+import com.edmunds.etm.common.thrift.ManagementVipDto;
+import com.edmunds.etm.common.thrift.RuleSetDeploymentEventDto;
+import com.edmunds.etm.common.thrift.UrlTokenDto;
 import org.apache.commons.lang.Validate;
 import org.apache.thrift.TBase;
-import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
-import org.apache.thrift.TSerializer;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
 import org.springframework.stereotype.Component;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Provides serialization and deserialization of Thrift objects.
+ * <p/>
+ * This class is safe for concurrent use. Thrift protocols and transports are not thread-safe, so each thread gets
+ * its own set, created on first use and reused afterwards together with its output buffer. Objects are created
+ * through registered {@link DtoFactory} instances; the DTOs stored in ZooKeeper are registered up front and other
+ * types get a factory based on their cached no-argument constructor.
+ * <p/>
+ * Values are written in the configured {@link PayloadFormat}. Formats other than {@link PayloadFormat#BINARY} start
+ * with a three byte header (a marker byte that cannot begin a binary Thrift struct, a version and the format id), so
+ * every format, including the original headerless binary encoding, is accepted when reading. The serializer keeps
+ * running totals of the protocol bytes produced and the bytes actually written so the savings can be monitored.
+ * <p/>
+ * The zlib streams used for compressed formats hold native memory, so they are created for each compressed value and
+ * ended before the call returns rather than kept with the other per-thread state.
  *
  * @author Ryan Holmes
  */
 @Component
 public class ObjectSerializer {
 
-    TSerializer serializer = new TSerializer(new TBinaryProtocol.Factory());
-    private TDeserializer deserializer = new TDeserializer(new TBinaryProtocol.Factory());
+    /**
+     * Initial size of each thread's output buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * Output buffers that grow beyond this size are discarded after use rather than retained by the thread.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * First byte of a payload header. Binary Thrift structs start with a field type between 0 and 16.
+     */
+    private static final byte HEADER_MARKER = (byte) 0xE7;
+
+    /**
+     * Current payload header version.
+     */
+    private static final byte HEADER_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 3;
+
+    /**
+     * Largest uncompressed payload accepted when reading.
+     */
+    private static final int MAX_UNCOMPRESSED_SIZE = 64 * 1024 * 1024;
+
+    private volatile PayloadFormat payloadFormat = PayloadFormat.BINARY;
+
+    private final AtomicLong payloadBytesWritten = new AtomicLong();
+    private final AtomicLong encodedBytesWritten = new AtomicLong();
+
+    private final ConcurrentMap<Class<?>, DtoFactory<?>> factories = new ConcurrentHashMap<Class<?>, DtoFactory<?>>();
+
+    private final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+
+    public ObjectSerializer() {
+        registerFactory(AgentInstanceDto.class, new DtoFactory<AgentInstanceDto>() {
+            @Override
+            public AgentInstanceDto newInstance() {
+                return new AgentInstanceDto();
+            }
+        });
+        registerFactory(ClientConfigDto.class, new DtoFactory<ClientConfigDto>() {
+            @Override
+            public ClientConfigDto newInstance() {
+                return new ClientConfigDto();
+            }
+        });
+        registerFactory(ControllerInstanceDto.class, new DtoFactory<ControllerInstanceDto>() {
+            @Override
+            public ControllerInstanceDto newInstance() {
+                return new ControllerInstanceDto();
+            }
+        });
+        registerFactory(ManagementVipDto.class, new DtoFactory<ManagementVipDto>() {
+            @Override
+            public ManagementVipDto newInstance() {
+                return new ManagementVipDto();
+            }
+        });
+        registerFactory(RuleSetDeploymentEventDto.class, new DtoFactory<RuleSetDeploymentEventDto>() {
+            @Override
+            public RuleSetDeploymentEventDto newInstance() {
+                return new RuleSetDeploymentEventDto();
+            }
+        });
+        registerFactory(UrlTokenDto.class, new DtoFactory<UrlTokenDto>() {
+            @Override
+            public UrlTokenDto newInstance() {
+                return new UrlTokenDto();
+            }
+        });
+    }
+
+    /**
+     * Registers the factory used to create instances of the specified type when reading.
+     *
+     * @param valueType the value object's Java class
+     * @param factory   factory creating empty instances
+     * @param <T>       value type
+     */
+    public <T extends TBase<?, ?>> void registerFactory(Class<T> valueType, DtoFactory<T> factory) {
+        Validate.notNull(valueType, "Value type is null");
+        Validate.notNull(factory, "Factory is null");
+        factories.put(valueType, factory);
+    }
+
+    /**
+     * Gets the format used when writing.
+     *
+     * @return the payload format
+     */
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    /**
+     * Sets the format used when writing. Reading always accepts every format.
+     * <p/>
+     * The default is {@link PayloadFormat#BINARY}, which older readers understand. Switch to another format only
+     * once every process reading the data has been upgraded.
+     *
+     * @param payloadFormat the payload format
+     */
+    public void setPayloadFormat(PayloadFormat payloadFormat) {
+        Validate.notNull(payloadFormat, "Payload format is null");
+        this.payloadFormat = payloadFormat;
+    }
+
+    /**
+     * Gets the total number of Thrift protocol bytes produced by writes, before compression and headers.
+     *
+     * @return uncompressed payload bytes written
+     */
+    public long getPayloadBytesWritten() {
+        return payloadBytesWritten.get();
+    }
+
+    /**
+     * Gets the total number of bytes produced by writes, including headers.
+     *
+     * @return encoded bytes written
+     */
+    public long getEncodedBytesWritten() {
+        return encodedBytesWritten.get();
+    }
+
+    /**
+     * Encodes a value in every payload format and returns the resulting sizes, for comparing formats.
+     *
+     * @param value the value object to measure
+     * @return encoded size in bytes for each format
+     * @throws java.io.IOException if serialization fails
+     */
+    public Map<PayloadFormat, Integer> measure(TBase<?, ?> value) throws IOException {
+        Validate.notNull(value, "Value object is null");
+
+        ThreadState state = threadState.get();
+        Map<PayloadFormat, Integer> sizes = new EnumMap<PayloadFormat, Integer>(PayloadFormat.class);
+        for (PayloadFormat format : PayloadFormat.values()) {
+            encode(value, format, state);
+            sizes.put(format, state.outputBuffer.size());
+        }
+        return sizes;
+    }
 
     /**
      * Reads a value object from a byte array.
@@ -45,24 +227,43 @@ public class ObjectSerializer {
      * @return deserialized object
      * @throws java.io.IOException if deserialization failed
      */
-    public <T extends TBase> T readValue(byte[] src, Class<T> valueType) throws IOException {
+    public <T extends TBase<?, ?>> T readValue(byte[] src, Class<T> valueType) throws IOException {
 
         Validate.notNull(src, "Source byte array is null");
         Validate.notNull(valueType, "Value type is null");
 
-        T value;
-        try {
-            value = valueType.newInstance();
-        } catch (Exception e) {
-            String message = String.format("Unable to instantiate object of type %s", valueType.toString());
-            throw new IllegalArgumentException(message, e);
-        }
+        return read(src, 0, src.length, valueType);
+    }
 
-        try {
-            deserializer.deserialize(value, src);
-        } catch (TException e) {
-            throw new IOException(e);
+    /**
+     * Reads a value object from the remaining bytes of a buffer, advancing its position past the bytes read.
+     * <p/>
+     * Heap buffers are read in place without copying.
+     *
+     * @param src       the buffer to read
+     * @param valueType the value object's Java class
+     * @param <T>       value type
+     * @return deserialized object
+     * @throws java.io.IOException if deserialization failed
+     */
+    public <T extends TBase<?, ?>> T readFrom(ByteBuffer src, Class<T> valueType) throws IOException {
+
+        Validate.notNull(src, "Source buffer is null");
+        Validate.notNull(valueType, "Value type is null");
+
+        byte[] bytes;
+        int offset;
+        if (src.hasArray()) {
+            bytes = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            bytes = new byte[src.remaining()];
+            src.duplicate().get(bytes);
+            offset = 0;
         }
+
+        T value = read(bytes, offset, src.remaining(), valueType);
+        src.position(src.position() + threadState.get().lastReadLength);
         return value;
     }
 
@@ -73,16 +274,330 @@ public class ObjectSerializer {
      * @return serialized byte array
      * @throws java.io.IOException if serialization fails
      */
-    public byte[] writeValue(TBase value) throws IOException {
+    public byte[] writeValue(TBase<?, ?> value) throws IOException {
         Validate.notNull(value, "Value object is null");
 
-        byte[] bytes;
+        ThreadState state = threadState.get();
+        int payloadSize = encode(value, payloadFormat, state);
+        OutputBuffer buffer = state.outputBuffer;
+        recordWrite(payloadSize, buffer.size());
+
+        byte[] bytes = buffer.toByteArray();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE || state.scratchBuffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            threadState.remove();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a value object directly to an output stream, without an intermediate byte array.
+     * <p/>
+     * The stream is neither flushed nor closed.
+     *
+     * @param value the value object to write
+     * @param out   the stream to write to
+     * @throws java.io.IOException if serialization or writing fails
+     */
+    public void writeTo(TBase<?, ?> value, OutputStream out) throws IOException {
+        Validate.notNull(value, "Value object is null");
+        Validate.notNull(out, "Output stream is null");
+
+        PayloadFormat format = payloadFormat;
+        ThreadState state = threadState.get();
+        if (format.isCompressed()) {
+            int payloadSize = encode(value, format, state);
+            state.outputBuffer.writeTo(out);
+            recordWrite(payloadSize, state.outputBuffer.size());
+            return;
+        }
+
+        CountingStream target = state.streamTarget;
+        target.target = out;
+        target.count = 0;
         try {
-            bytes = serializer.serialize(value);
+            if (format != PayloadFormat.BINARY) {
+                target.write(HEADER_MARKER);
+                target.write(HEADER_VERSION);
+                target.write(format.getId());
+            }
+            TProtocol protocol = format.isCompact() ? state.compactStreamProtocol : state.binaryStreamProtocol;
+            write(value, protocol);
+            int headerSize = format == PayloadFormat.BINARY ? 0 : HEADER_LENGTH;
+            recordWrite(target.count - headerSize, target.count);
+        } finally {
+            target.target = null;
+        }
+    }
+
+    /**
+     * Encodes a value into the thread's output buffer.
+     *
+     * @return the size of the Thrift payload before compression
+     */
+    private int encode(TBase<?, ?> value, PayloadFormat format, ThreadState state) throws IOException {
+        OutputBuffer buffer = state.outputBuffer;
+        buffer.reset();
+        if (format == PayloadFormat.BINARY) {
+            write(value, state.binaryBufferProtocol);
+            return buffer.size();
+        }
+
+        writeHeader(buffer, format);
+        if (!format.isCompressed()) {
+            write(value, state.compactBufferProtocol);
+            return buffer.size() - HEADER_LENGTH;
+        }
+
+        OutputBuffer scratch = state.scratchBuffer;
+        scratch.reset();
+        write(value, state.compactScratchProtocol);
+        int payloadSize = scratch.size();
+
+        writeInt(buffer, payloadSize);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(scratch.buffer(), 0, payloadSize);
+            deflater.finish();
+            byte[] chunk = state.chunk;
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                buffer.write(chunk, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        // Fall back to the uncompressed form if compression did not help
+        if (buffer.size() >= HEADER_LENGTH + payloadSize) {
+            buffer.reset();
+            writeHeader(buffer, PayloadFormat.COMPACT);
+            buffer.write(scratch.buffer(), 0, payloadSize);
+        }
+        return payloadSize;
+    }
+
+    private static void write(TBase<?, ?> value, TProtocol protocol) throws IOException {
+        try {
+            value.write(protocol);
         } catch (TException e) {
             throw new IOException(e);
+        } finally {
+            protocol.reset();
         }
+    }
 
-        return bytes;
+    private static void writeHeader(OutputBuffer buffer, PayloadFormat format) {
+        buffer.write(HEADER_MARKER);
+        buffer.write(HEADER_VERSION);
+        buffer.write(format.getId());
+    }
+
+    private static void writeInt(OutputBuffer buffer, int i) {
+        buffer.write(i >>> 24);
+        buffer.write(i >>> 16);
+        buffer.write(i >>> 8);
+        buffer.write(i);
+    }
+
+    private static int readInt(byte[] src, int offset) {
+        return ((src[offset] & 0xff) << 24) | ((src[offset + 1] & 0xff) << 16) |
+            ((src[offset + 2] & 0xff) << 8) | (src[offset + 3] & 0xff);
+    }
+
+    private void recordWrite(int payloadSize, int encodedSize) {
+        payloadBytesWritten.addAndGet(payloadSize);
+        encodedBytesWritten.addAndGet(encodedSize);
+    }
+
+    private <T extends TBase<?, ?>> T read(byte[] src, int offset, int length, Class<T> valueType) throws IOException {
+        T value = getFactory(valueType).newInstance();
+        ThreadState state = threadState.get();
+
+        if (length == 0 || src[offset] != HEADER_MARKER) {
+            state.lastReadLength = readStruct(value, src, offset, length, state.binaryInputProtocol, state);
+            return value;
+        }
+
+        if (length < HEADER_LENGTH) {
+            throw new IOException("Truncated payload header");
+        }
+        if (src[offset + 1] != HEADER_VERSION) {
+            throw new IOException(String.format("Unsupported payload version: %d", src[offset + 1]));
+        }
+        PayloadFormat format = PayloadFormat.fromId(src[offset + 2]);
+        if (format == null) {
+            throw new IOException(String.format("Unsupported payload format: %d", src[offset + 2]));
+        }
+
+        TProtocol protocol = format.isCompact() ? state.compactInputProtocol : state.binaryInputProtocol;
+        int position = offset + HEADER_LENGTH;
+        int end = offset + length;
+        if (!format.isCompressed()) {
+            state.lastReadLength = HEADER_LENGTH + readStruct(value, src, position, end - position, protocol, state);
+            return value;
+        }
+
+        if (end - position < 4) {
+            throw new IOException("Truncated compressed payload");
+        }
+        int size = readInt(src, position);
+        position += 4;
+        if (size < 0 || size > MAX_UNCOMPRESSED_SIZE) {
+            throw new IOException(String.format("Invalid uncompressed payload size: %d", size));
+        }
+
+        byte[] inflated = state.inflateBuffer(size);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src, position, end - position);
+            int total = 0;
+            while (total < size && !inflater.finished()) {
+                int n = inflater.inflate(inflated, total, size - total);
+                if (n == 0) {
+                    break;
+                }
+                total += n;
+            }
+            if (total != size) {
+                throw new IOException("Truncated compressed payload");
+            }
+            state.lastReadLength = end - inflater.getRemaining() - offset;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+
+        readStruct(value, inflated, 0, size, protocol, state);
+        return value;
+    }
+
+    /**
+     * Reads a struct from a byte range using the thread's input transport.
+     *
+     * @return the number of bytes consumed
+     */
+    private static int readStruct(TBase<?, ?> value, byte[] src, int offset, int length, TProtocol protocol,
+                                  ThreadState state) throws IOException {
+        TMemoryInputTransport transport = state.inputTransport;
+        try {
+            transport.reset(src, offset, length);
+            value.read(protocol);
+            return transport.getBufferPosition() - offset;
+        } catch (TException e) {
+            throw new IOException(e);
+        } finally {
+            transport.clear();
+            protocol.reset();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends TBase<?, ?>> DtoFactory<T> getFactory(Class<T> valueType) {
+        DtoFactory<T> factory = (DtoFactory<T>) factories.get(valueType);
+        if (factory == null) {
+            factory = new ConstructorFactory<T>(valueType);
+            factories.putIfAbsent(valueType, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Factory for types that were not registered, using the cached no-argument constructor.
+     */
+    private static final class ConstructorFactory<T extends TBase<?, ?>> implements DtoFactory<T> {
+        private final Constructor<T> constructor;
+
+        private ConstructorFactory(Class<T> valueType) {
+            try {
+                constructor = valueType.getConstructor();
+            } catch (NoSuchMethodException e) {
+                String message = String.format("Unable to instantiate object of type %s", valueType.toString());
+                throw new IllegalArgumentException(message, e);
+            }
+        }
+
+        @Override
+        public T newInstance() {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                String message = String.format("Unable to instantiate object of type %s", constructor.getName());
+                throw new IllegalArgumentException(message, e);
+            }
+        }
+    }
+
+    /**
+     * Protocols, transports and buffers owned by one thread.
+     */
+    private static final class ThreadState {
+        private final OutputBuffer outputBuffer = new OutputBuffer(INITIAL_BUFFER_SIZE);
+        private final OutputBuffer scratchBuffer = new OutputBuffer(INITIAL_BUFFER_SIZE);
+        private final TProtocol binaryBufferProtocol = new TBinaryProtocol(new TIOStreamTransport(outputBuffer));
+        private final TProtocol compactBufferProtocol = new TCompactProtocol(new TIOStreamTransport(outputBuffer));
+        private final TProtocol compactScratchProtocol = new TCompactProtocol(new TIOStreamTransport(scratchBuffer));
+        private final CountingStream streamTarget = new CountingStream();
+        private final TProtocol binaryStreamProtocol = new TBinaryProtocol(new TIOStreamTransport(streamTarget));
+        private final TProtocol compactStreamProtocol = new TCompactProtocol(new TIOStreamTransport(streamTarget));
+        private final TMemoryInputTransport inputTransport = new TMemoryInputTransport();
+        private final TProtocol binaryInputProtocol = new TBinaryProtocol(inputTransport);
+        private final TProtocol compactInputProtocol = new TCompactProtocol(inputTransport);
+        private final byte[] chunk = new byte[INITIAL_BUFFER_SIZE];
+        private byte[] inflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+        private int lastReadLength;
+
+        private byte[] inflateBuffer(int size) {
+            if (size <= inflateBuffer.length) {
+                return inflateBuffer;
+            }
+            byte[] buffer = new byte[size];
+            if (size <= MAX_RETAINED_BUFFER_SIZE) {
+                inflateBuffer = buffer;
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Reusable output buffer exposing its backing array.
+     */
+    private static final class OutputBuffer extends ByteArrayOutputStream {
+        private OutputBuffer(int size) {
+            super(size);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * Output stream forwarding to a target that is replaced on each write, counting the bytes written.
+     */
+    private static final class CountingStream extends OutputStream {
+        private OutputStream target;
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+/**
+ * Wire formats written by {@link ObjectSerializer}.
+ * <p/>
+ * {@link #BINARY} is the original headerless Thrift binary encoding. The other formats start with a short header
+ * that identifies the format, so a reader accepts every format regardless of how the serializer is configured.
+ *
+ * @see ObjectSerializer#setPayloadFormat(PayloadFormat)
+ */
+public enum PayloadFormat {
+
+    /**
+     * Thrift binary protocol without a header. Readable by all versions.
+     */
+    BINARY(0, false, false),
+
+    /**
+     * Thrift compact protocol.
+     */
+    COMPACT(1, true, false),
+
+    /**
+     * Thrift compact protocol compressed with Deflate. Payloads that do not shrink are written as {@link #COMPACT}.
+     */
+    COMPACT_DEFLATE(2, true, true);
+
+    private final int id;
+    private final boolean compact;
+    private final boolean compressed;
+
+    private PayloadFormat(int id, boolean compact, boolean compressed) {
+        this.id = id;
+        this.compact = compact;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Gets the identifier written in the payload header.
+     *
+     * @return format identifier
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Returns whether the payload uses the Thrift compact protocol.
+     *
+     * @return true for compact formats
+     */
+    boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Returns whether the payload is compressed.
+     *
+     * @return true for compressed formats
+     */
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Returns the format with the specified header identifier.
+     *
+     * @param id format identifier
+     * @return the format, or null if the identifier is unknown
+     */
+    static PayloadFormat fromId(int id) {
+        for(PayloadFormat format : values()) {
+            if(format.id == id) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.etm.common.api.ControllerPaths;
+import com.edmunds.etm.common.api.UrlToken;
+import com.edmunds.etm.common.thrift.UrlTokenDto;
+import com.edmunds.zookeeper.connection.ZooKeeperConnection;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+
+/**
+ * In-memory copy of the persisted URL tokens, kept current through ZooKeeper watches.
+ * <p/>
+ * The tokens are loaded on first access. A child watch on the tokens node and a data watch on every token node
+ * trigger a reload of just the node that changed. Reads are served from an immutable snapshot that is replaced
+ * whenever a change is applied, so readers never lock. If the ZooKeeper session expires or a watch cannot be
+ * re-registered, the snapshot is discarded and reloaded on the next read.
+ */
+class UrlTokenCache implements Watcher {
+
+    private static final Logger logger = Logger.getLogger(UrlTokenCache.class);
+
+    private final ZooKeeperConnection connection;
+    private final ControllerPaths controllerPaths;
+    private final ObjectSerializer objectSerializer;
+
+    private volatile ImmutableMap<String, UrlToken> tokens;
+    private volatile boolean closed;
+
+    UrlTokenCache(ZooKeeperConnection connection,
+                  ControllerPaths controllerPaths,
+                  ObjectSerializer objectSerializer) {
+        this.connection = connection;
+        this.controllerPaths = controllerPaths;
+        this.objectSerializer = objectSerializer;
+    }
+
+    /**
+     * Gets the current token snapshot, loading it if necessary.
+     * <p/>
+     * The returned map and the tokens it holds are shared and must not be modified.
+     *
+     * @return token snapshot keyed by name, or null if the tokens could not be loaded
+     */
+    Map<String, UrlToken> getTokens() {
+        ImmutableMap<String, UrlToken> snapshot = tokens;
+        if(snapshot == null && !closed) {
+            snapshot = load();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Stops the cache. Pending watches are ignored when they fire.
+     */
+    void close() {
+        closed = true;
+        tokens = null;
+    }
+
+    /**
+     * Applies a token written through this process so it is visible before the watch fires.
+     *
+     * @param token the created or updated token
+     */
+    synchronized void tokenWritten(UrlToken token) {
+        if(tokens != null) {
+            Map<String, UrlToken> updated = Maps.newHashMap(tokens);
+            updated.put(token.getName(), copyOf(token));
+            tokens = ImmutableMap.copyOf(updated);
+        }
+    }
+
+    /**
+     * Applies a token deleted through this process so it is visible before the watch fires.
+     *
+     * @param name name of the deleted token
+     */
+    synchronized void tokenDeleted(String name) {
+        if(tokens != null && tokens.containsKey(name)) {
+            Map<String, UrlToken> updated = Maps.newHashMap(tokens);
+            updated.remove(name);
+            tokens = ImmutableMap.copyOf(updated);
+        }
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        if(closed) {
+            return;
+        }
+        if(event.getType() == EventType.None) {
+            if(event.getState() == KeeperState.Expired) {
+                logger.info("ZooKeeper session expired, discarding cached URL tokens");
+                invalidate();
+            }
+            return;
+        }
+
+        String path = event.getPath();
+        String parentPath = controllerPaths.getUrlTokens();
+        try {
+            if(parentPath.equals(path)) {
+                if(event.getType() == EventType.NodeDeleted) {
+                    invalidate();
+                } else {
+                    refreshChildren();
+                }
+            } else if(path != null && path.startsWith(parentPath + "/")) {
+                refreshToken(path.substring(parentPath.length() + 1));
+            }
+        } catch(KeeperException e) {
+            logger.error(String.format("Error refreshing cached URL tokens for %s", path), e);
+            invalidate();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            invalidate();
+        }
+    }
+
+    private synchronized ImmutableMap<String, UrlToken> load() {
+        if(tokens != null) {
+            return tokens;
+        }
+        try {
+            List<String> names = connection.getChildren(controllerPaths.getUrlTokens(), this);
+            Map<String, UrlToken> loaded = Maps.newHashMapWithExpectedSize(names.size());
+            for(String name : names) {
+                UrlToken token = readToken(name);
+                if(token != null) {
+                    loaded.put(name, token);
+                }
+            }
+            tokens = ImmutableMap.copyOf(loaded);
+            logger.debug(String.format("Loaded %d URL tokens into cache", loaded.size()));
+        } catch(KeeperException e) {
+            logger.error("Error loading URL tokens into cache", e);
+        } catch(InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return tokens;
+    }
+
+    private synchronized void refreshChildren() throws KeeperException, InterruptedException {
+        if(tokens == null) {
+            return;
+        }
+        List<String> names = connection.getChildren(controllerPaths.getUrlTokens(), this);
+        Map<String, UrlToken> updated = Maps.newHashMapWithExpectedSize(names.size());
+        for(String name : names) {
+            UrlToken token = tokens.get(name);
+            if(token == null) {
+                token = readToken(name);
+            }
+            if(token != null) {
+                updated.put(name, token);
+            }
+        }
+        tokens = ImmutableMap.copyOf(updated);
+    }
+
+    private synchronized void refreshToken(String name) throws KeeperException, InterruptedException {
+        if(tokens == null) {
+            return;
+        }
+        Map<String, UrlToken> updated = Maps.newHashMap(tokens);
+        UrlToken token = readToken(name);
+        if(token != null) {
+            updated.put(name, token);
+        } else {
+            updated.remove(name);
+        }
+        tokens = ImmutableMap.copyOf(updated);
+    }
+
+    private synchronized void invalidate() {
+        tokens = null;
+    }
+
+    /**
+     * Reads a token and sets a data watch on its node.
+     *
+     * @param name token name
+     * @return the token, or null if the node does not exist or cannot be decoded
+     * @throws KeeperException      if the read fails for a reason other than a missing node
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private UrlToken readToken(String name) throws KeeperException, InterruptedException {
+        byte[] data;
+        try {
+            data = connection.getData(controllerPaths.getUrlToken(name), this, null);
+        } catch(KeeperException e) {
+            if(e.code() == Code.NONODE) {
+                return null;
+            }
+            throw e;
+        }
+
+        try {
+            return UrlToken.readDto(objectSerializer.readValue(data, UrlTokenDto.class));
+        } catch(IOException e) {
+            logger.error(String.format("Unable to read URL token: %s", name), e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates a private copy of a token so callers cannot modify the cached instance.
+     *
+     * @param token the token to copy
+     * @return a new token with the same type, name and values
+     */
+    static UrlToken copyOf(UrlToken token) {
+        return UrlToken.newUrlToken(token.getType(), token.getName(), Lists.newArrayList(token.getValues()));
+    }
+}
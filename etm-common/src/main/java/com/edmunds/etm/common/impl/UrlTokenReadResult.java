@@ -0,0 +1,73 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.etm.common.api.UrlToken;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.SortedMap;
+import org.apache.commons.lang.Validate;
+
+/**
+ * Result of reading all persisted URL tokens in a single bulk operation.
+ * <p/>
+ * Tokens that were read successfully are keyed by token name. Nodes that could not be read or decoded are
+ * reported individually, keyed by node path, so that one bad node does not hide the rest of the tokens.
+ */
+public class UrlTokenReadResult {
+
+    private final Map<String, UrlToken> tokens;
+    private final Map<String, Exception> errors;
+
+    public UrlTokenReadResult(SortedMap<String, UrlToken> tokens, SortedMap<String, Exception> errors) {
+        Validate.notNull(tokens, "Tokens map is null");
+        Validate.notNull(errors, "Errors map is null");
+        this.tokens = ImmutableMap.copyOf(tokens);
+        this.errors = ImmutableMap.copyOf(errors);
+    }
+
+    /**
+     * Gets the tokens that were read successfully, ordered by name.
+     *
+     * @return unmodifiable map of token name to token
+     */
+    public Map<String, UrlToken> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Gets the errors encountered while reading, ordered by node path.
+     *
+     * @return unmodifiable map of node path to the exception that prevented it from being read
+     */
+    public Map<String, Exception> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns whether every token node was read successfully.
+     *
+     * @return true if there were no errors
+     */
+    public boolean isComplete() {
+        return errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UrlTokenReadResult{tokens=%d, errors=%s}", tokens.size(), errors.keySet());
+    }
+}
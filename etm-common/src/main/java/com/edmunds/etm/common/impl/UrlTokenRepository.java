@@ -19,24 +19,41 @@ import com.edmunds.etm.common.api.ControllerPaths;
 import com.edmunds.etm.common.api.UrlToken;
 import com.edmunds.etm.common.thrift.UrlTokenCollectionDto;
 import com.edmunds.etm.common.thrift.UrlTokenDto;
-import com.edmunds.etm.common.xml.XmlMarshaller;
 import com.edmunds.etm.common.xml.XmlValidationException;
 import com.edmunds.etm.common.xml.XmlValidator;
 import com.edmunds.zookeeper.connection.ZooKeeperConnection;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import org.apache.commons.io.FileUtils;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
 import org.apache.log4j.Logger;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.data.Stat;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
  * Provides direct access and allows modification of persisted {@link UrlToken} objects.
+ * <p/>
+ * By default every read goes to ZooKeeper. When the cache is enabled, {@link #getToken(String)} and {@link
+ * #getTokenNames()} are served from an in-memory copy that is kept current through ZooKeeper watches. Tokens
+ * returned from the cache are private copies and may be modified by the caller.
  *
  * @author Ryan Holmes
  */
@@ -49,6 +66,8 @@ public class UrlTokenRepository {
     private final ControllerPaths controllerPaths;
     private final ObjectSerializer objectSerializer;
 
+    private volatile UrlTokenCache cache;
+
     @Autowired
     public UrlTokenRepository(ZooKeeperConnection connection,
                               ControllerPaths controllerPaths,
@@ -58,12 +77,43 @@ public class UrlTokenRepository {
         this.objectSerializer = objectSerializer;
     }
 
+    /**
+     * Returns whether reads are served from the watch-backed token cache.
+     *
+     * @return true if the cache is enabled
+     */
+    public boolean isCacheEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Enables or disables the watch-backed token cache.
+     * <p/>
+     * The cache is populated on the first read after it is enabled. Reads fall back to ZooKeeper whenever the cache
+     * cannot be loaded.
+     *
+     * @param cacheEnabled true to serve reads from the cache
+     */
+    public synchronized void setCacheEnabled(boolean cacheEnabled) {
+        if(cacheEnabled && cache == null) {
+            cache = new UrlTokenCache(connection, controllerPaths, objectSerializer);
+        } else if(!cacheEnabled && cache != null) {
+            cache.close();
+            cache = null;
+        }
+    }
+
     /**
      * Gets the names of all defined tokens.
      *
      * @return list of token names
      */
     public List<String> getTokenNames() {
+        Map<String, UrlToken> cachedTokens = getCachedTokens();
+        if(cachedTokens != null) {
+            return Lists.newArrayList(cachedTokens.keySet());
+        }
+
         List<String> tokenNames;
         try {
             tokenNames = connection.getChildren(controllerPaths.getUrlTokens(), null);
@@ -84,6 +134,12 @@ public class UrlTokenRepository {
      * @return the requested token or null if not found
      */
     public UrlToken getToken(String name) {
+        Map<String, UrlToken> cachedTokens = getCachedTokens();
+        if(cachedTokens != null) {
+            UrlToken token = cachedTokens.get(name);
+            return token != null ? UrlTokenCache.copyOf(token) : null;
+        }
+
         byte[] data;
         try {
             data = connection.getData(controllerPaths.getUrlToken(name), null, null);
@@ -106,6 +162,91 @@ public class UrlTokenRepository {
         }
     }
 
+    /**
+     * Reads all persisted tokens with a single pipelined request.
+     * <p/>
+     * The token names are listed first and then every token node is requested asynchronously, so the whole read
+     * costs roughly two round trips instead of one per token. Tokens are decoded as their responses arrive. Tokens
+     * deleted between the listing and the read are omitted. Any other failure is recorded per node in the result.
+     * <p/>
+     * This method blocks until every response has arrived and must not be called from a ZooKeeper callback or
+     * watcher thread.
+     *
+     * @return the tokens that were read and the errors for nodes that were not
+     */
+    public UrlTokenReadResult getAllTokens() {
+        return readAllTokens(null);
+    }
+
+    /**
+     * Reads all persisted tokens, optionally recording the node version of each token that was read.
+     *
+     * @param versions map that receives the node version of each token keyed by name, or null
+     * @return the tokens that were read and the errors for nodes that were not
+     */
+    private UrlTokenReadResult readAllTokens(final ConcurrentMap<String, Integer> versions) {
+        final SortedMap<String, UrlToken> tokens = Maps.newTreeMap();
+        final SortedMap<String, Exception> errors = Maps.newTreeMap();
+
+        String parentPath = controllerPaths.getUrlTokens();
+        List<String> tokenNames;
+        try {
+            tokenNames = connection.getChildren(parentPath, null);
+        } catch(KeeperException e) {
+            logger.error("Error fetching URL token names", e);
+            errors.put(parentPath, e);
+            return new UrlTokenReadResult(tokens, errors);
+        } catch(InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        final ConcurrentMap<String, UrlToken> readTokens = new ConcurrentHashMap<String, UrlToken>();
+        final ConcurrentMap<String, Exception> readErrors = new ConcurrentHashMap<String, Exception>();
+        final CountDownLatch pending = new CountDownLatch(tokenNames.size());
+
+        DataCallback callback = new DataCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+                String name = (String) ctx;
+                try {
+                    Code code = Code.get(rc);
+                    if(code == Code.OK) {
+                        UrlTokenDto dto = objectSerializer.readValue(data, UrlTokenDto.class);
+                        readTokens.put(name, UrlToken.readDto(dto));
+                        if(versions != null) {
+                            versions.put(name, stat.getVersion());
+                        }
+                    } else if(code != Code.NONODE) {
+                        readErrors.put(path, KeeperException.create(code, path));
+                    }
+                } catch(IOException e) {
+                    readErrors.put(path, e);
+                } catch(RuntimeException e) {
+                    readErrors.put(path, e);
+                } finally {
+                    pending.countDown();
+                }
+            }
+        };
+
+        for(String name : tokenNames) {
+            connection.getData(controllerPaths.getUrlToken(name), null, callback, name);
+        }
+
+        try {
+            pending.await();
+        } catch(InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        tokens.putAll(readTokens);
+        errors.putAll(readErrors);
+        for(Map.Entry<String, Exception> entry : errors.entrySet()) {
+            logger.error(String.format("Error fetching URL token: %s", entry.getKey()), entry.getValue());
+        }
+        return new UrlTokenReadResult(tokens, errors);
+    }
+
     /**
      * Creates the specified UrlToken.
      *
@@ -123,6 +264,7 @@ public class UrlTokenRepository {
         String path = controllerPaths.getUrlToken(token.getName());
         try {
             connection.createPersistent(path, data);
+            tokenWritten(token);
         } catch(KeeperException e) {
             if(e.code() == Code.NODEEXISTS) {
                 throw new TokenExistsException(e);
@@ -153,6 +295,7 @@ public class UrlTokenRepository {
         String path = controllerPaths.getUrlToken(token.getName());
         try {
             connection.setData(path, data, -1);
+            tokenWritten(token);
         } catch(KeeperException e) {
             if(e.code() == Code.NONODE) {
                 throw new TokenNotFoundException(e);
@@ -176,6 +319,7 @@ public class UrlTokenRepository {
         String path = controllerPaths.getUrlToken(name);
         try {
             connection.delete(path, -1);
+            tokenDeleted(name);
         } catch(KeeperException e) {
             if(e.code() == Code.NONODE) {
                 throw new TokenNotFoundException(e);
@@ -204,6 +348,9 @@ public class UrlTokenRepository {
 
     /**
      * Loads URL tokens definitions from the specified XML file, optionally replacing the existing tokens.
+     * <p/>
+     * When replacing, the persisted tokens are synchronized with the file as described in {@link
+     * #syncTokens(Collection)}, so existing tokens never disappear while the file is loaded.
      *
      * @param file an XML file containing token definitions
      * @param replace true to replace existing tokens, false to merge with existing
@@ -213,9 +360,11 @@ public class UrlTokenRepository {
 
         List<UrlToken> tokens = readTokensFromFile(file);
 
-        // Delete existing tokens
+        // Replace existing tokens
         if(replace) {
-            deleteAllTokens();
+            UrlTokenSyncResult result = syncTokens(tokens);
+            logger.info(String.format("Synchronized URL tokens from %s: %s", file, result));
+            return;
         }
 
         // Add new tokens
@@ -228,19 +377,100 @@ public class UrlTokenRepository {
         }
     }
 
+    /**
+     * Synchronizes the persisted tokens with the definitions in the specified XML file.
+     *
+     * @param file an XML file containing token definitions
+     * @return summary of the changes made
+     * @throws IOException if an error occurred while reading the file
+     * @see #syncTokens(Collection)
+     */
+    public UrlTokenSyncResult syncTokensFromFile(File file) throws IOException {
+        return syncTokens(readTokensFromFile(file));
+    }
+
+    /**
+     * Makes the persisted tokens match the specified definitions, writing only what differs.
+     * <p/>
+     * The current tokens are read in bulk and compared with the definitions. New tokens are created and changed
+     * tokens are updated before any token is deleted, so tokens that remain defined are never absent. Updates and
+     * deletes are conditional on the node version that was read; a token modified concurrently is reported as a
+     * conflict and left untouched.
+     *
+     * @param tokens the complete set of token definitions
+     * @return summary of the changes made
+     * @throws IllegalStateException if the current tokens could not be read
+     */
+    public UrlTokenSyncResult syncTokens(Collection<UrlToken> tokens) {
+        Validate.notNull(tokens, "Tokens collection is null");
+
+        ConcurrentMap<String, Integer> versions = new ConcurrentHashMap<String, Integer>();
+        UrlTokenReadResult current = readAllTokens(versions);
+        if(!current.isComplete()) {
+            String message = String.format("Unable to read current URL tokens: %s", current.getErrors().keySet());
+            throw new IllegalStateException(message);
+        }
+
+        Map<String, UrlToken> desired = Maps.newLinkedHashMap();
+        for(UrlToken token : tokens) {
+            desired.put(token.getName(), token);
+        }
+
+        List<String> created = Lists.newArrayList();
+        List<String> updated = Lists.newArrayList();
+        List<String> deleted = Lists.newArrayList();
+        List<String> unchanged = Lists.newArrayList();
+        List<String> conflicts = Lists.newArrayList();
+
+        // Create and update before deleting so that no defined token is ever missing
+        for(UrlToken token : desired.values()) {
+            String name = token.getName();
+            UrlToken existing = current.getTokens().get(name);
+            if(existing == null) {
+                if(writeToken(token, null)) {
+                    created.add(name);
+                } else {
+                    conflicts.add(name);
+                }
+            } else if(isSameDefinition(existing, token)) {
+                unchanged.add(name);
+            } else {
+                if(writeToken(token, versions.get(name))) {
+                    updated.add(name);
+                } else {
+                    conflicts.add(name);
+                }
+            }
+        }
+
+        for(String name : current.getTokens().keySet()) {
+            if(!desired.containsKey(name)) {
+                if(removeToken(name, versions.get(name))) {
+                    deleted.add(name);
+                } else {
+                    conflicts.add(name);
+                }
+            }
+        }
+
+        return new UrlTokenSyncResult(created, updated, deleted, unchanged, conflicts);
+    }
+
     /**
      * Reads a list of tokens from the specified XML file.
+     * <p/>
+     * The file is validated and unmarshalled in a single streaming pass.
      *
      * @param file an XML file containing token definitions
      * @return list of URL tokens
      * @throws IOException if an error occurs while reading the XML
      */
     public List<UrlToken> readTokensFromFile(File file) throws IOException {
-        byte[] xmlData = FileUtils.readFileToByteArray(file);
-
+        InputStream in = null;
         List<UrlToken> tokens;
         try {
-            tokens = unmarshalTokensFromXml(xmlData);
+            in = new BufferedInputStream(new FileInputStream(file));
+            tokens = unmarshalTokens(in);
         } catch(XmlValidationException e) {
             String message = "Invalid default URL token XML file";
             logger.error(message, e);
@@ -249,6 +479,8 @@ public class UrlTokenRepository {
             String message = "Error loading default tokens";
             logger.error(message, e);
             throw new IOException(message, e);
+        } finally {
+            IOUtils.closeQuietly(in);
         }
 
         return tokens;
@@ -262,20 +494,113 @@ public class UrlTokenRepository {
      * @throws XmlValidationException if the XML data is invalid
      */
     public List<UrlToken> unmarshalTokensFromXml(byte[] xmlData) throws XmlValidationException {
+        return unmarshalTokens(new ByteArrayInputStream(xmlData));
+    }
 
-        // Validate XML
+    /**
+     * Validates and unmarshalls tokens from an XML stream in a single pass.
+     *
+     * @param in an XML document containing UrlToken definitions
+     * @return list of UrlToken objects
+     * @throws XmlValidationException if the XML data is invalid
+     */
+    private List<UrlToken> unmarshalTokens(InputStream in) throws XmlValidationException {
         XmlValidator xmlValidator = new XmlValidator();
-        xmlValidator.validate(xmlData, XmlValidator.URL_TOKENS_XSD);
+        UrlTokenCollectionDto tokenCollection =
+            xmlValidator.unmarshal(in, XmlValidator.URL_TOKENS_XSD, UrlTokenCollectionDto.class);
 
-        // Unmarshall XML data and convert to UrlToken objects
-        UrlTokenCollectionDto tokenCollection = XmlMarshaller.unmarshal(xmlData, UrlTokenCollectionDto.class);
+        // Convert to UrlToken objects
         List<UrlTokenDto> tokenDtos = tokenCollection.getTokens();
         ArrayList<UrlToken> tokens = Lists.newArrayListWithCapacity(tokenDtos.size());
-        for(UrlTokenDto dto : tokenCollection.getTokens()) {
+        for(UrlTokenDto dto : tokenDtos) {
             tokens.add(UrlToken.readDto(dto));
         }
 
         return tokens;
     }
 
+    /**
+     * Creates a token or conditionally updates it.
+     *
+     * @param token the token to write
+     * @param version expected node version, or null to create the node
+     * @return true if the token was written, false if the node was modified concurrently
+     */
+    private boolean writeToken(UrlToken token, Integer version) {
+        byte[] data;
+        try {
+            data = objectSerializer.writeValue(UrlToken.writeDto(token));
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        String path = controllerPaths.getUrlToken(token.getName());
+        try {
+            if(version == null) {
+                connection.createPersistent(path, data);
+            } else {
+                connection.setData(path, data, version);
+            }
+            tokenWritten(token);
+            return true;
+        } catch(KeeperException e) {
+            if(e.code() == Code.NODEEXISTS || e.code() == Code.NONODE || e.code() == Code.BADVERSION) {
+                logger.warn(String.format("URL token modified concurrently: %s", token.getName()));
+                return false;
+            }
+            logger.error(String.format("Error writing URL token: %s", token.getName()), e);
+            throw new RuntimeException(e);
+        } catch(InterruptedException e) {
+            logger.error(String.format("Error writing URL token: %s", token.getName()), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Conditionally deletes a token.
+     *
+     * @param name name of the token to delete
+     * @param version expected node version
+     * @return true if the token was deleted, false if the node was modified concurrently
+     */
+    private boolean removeToken(String name, int version) {
+        String path = controllerPaths.getUrlToken(name);
+        try {
+            connection.delete(path, version);
+            tokenDeleted(name);
+            return true;
+        } catch(KeeperException e) {
+            if(e.code() == Code.NONODE || e.code() == Code.BADVERSION) {
+                logger.warn(String.format("URL token modified concurrently: %s", name));
+                return false;
+            }
+            logger.error(String.format("Error deleting URL token: %s", name), e);
+            throw new RuntimeException(e);
+        } catch(InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isSameDefinition(UrlToken a, UrlToken b) {
+        return a.getType() == b.getType() && a.getValues().equals(b.getValues());
+    }
+
+    private Map<String, UrlToken> getCachedTokens() {
+        UrlTokenCache currentCache = cache;
+        return currentCache != null ? currentCache.getTokens() : null;
+    }
+
+    private void tokenWritten(UrlToken token) {
+        UrlTokenCache currentCache = cache;
+        if(currentCache != null) {
+            currentCache.tokenWritten(token);
+        }
+    }
+
+    private void tokenDeleted(String name) {
+        UrlTokenCache currentCache = cache;
+        if(currentCache != null) {
+            currentCache.tokenDeleted(name);
+        }
+    }
 }
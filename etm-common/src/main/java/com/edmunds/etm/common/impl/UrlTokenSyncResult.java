@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import org.apache.commons.lang.Validate;
+
+/**
+ * Summary of the changes made when synchronizing the persisted URL tokens with a set of token definitions.
+ * <p/>
+ * Each list holds token names. A conflict means the token was modified by another process between the time it was
+ * read and the time the change was applied; conflicting tokens are left as the other process wrote them.
+ */
+public class UrlTokenSyncResult {
+
+    private final List<String> created;
+    private final List<String> updated;
+    private final List<String> deleted;
+    private final List<String> unchanged;
+    private final List<String> conflicts;
+
+    public UrlTokenSyncResult(List<String> created,
+                              List<String> updated,
+                              List<String> deleted,
+                              List<String> unchanged,
+                              List<String> conflicts) {
+        Validate.notNull(created, "Created list is null");
+        Validate.notNull(updated, "Updated list is null");
+        Validate.notNull(deleted, "Deleted list is null");
+        Validate.notNull(unchanged, "Unchanged list is null");
+        Validate.notNull(conflicts, "Conflicts list is null");
+        this.created = ImmutableList.copyOf(created);
+        this.updated = ImmutableList.copyOf(updated);
+        this.deleted = ImmutableList.copyOf(deleted);
+        this.unchanged = ImmutableList.copyOf(unchanged);
+        this.conflicts = ImmutableList.copyOf(conflicts);
+    }
+
+    /**
+     * Gets the names of tokens that were created.
+     *
+     * @return unmodifiable list of token names
+     */
+    public List<String> getCreated() {
+        return created;
+    }
+
+    /**
+     * Gets the names of tokens whose type or values were updated.
+     *
+     * @return unmodifiable list of token names
+     */
+    public List<String> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Gets the names of tokens that were deleted.
+     *
+     * @return unmodifiable list of token names
+     */
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Gets the names of tokens that already matched their definitions and were not written.
+     *
+     * @return unmodifiable list of token names
+     */
+    public List<String> getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Gets the names of tokens that were modified concurrently and therefore not written.
+     *
+     * @return unmodifiable list of token names
+     */
+    public List<String> getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Returns whether any token was created, updated or deleted.
+     *
+     * @return true if the persisted tokens changed
+     */
+    public boolean isChanged() {
+        return !created.isEmpty() || !updated.isEmpty() || !deleted.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UrlTokenSyncResult{created=%s, updated=%s, deleted=%s, unchanged=%d, conflicts=%s}",
+            created, updated, deleted, unchanged.size(), conflicts);
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.util;
+
+import com.google.common.collect.Lists;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+/**
+ * Caching DNS resolver that never blocks the caller.
+ * <p/>
+ * Forward (name to address) and reverse (address to name) lookups are performed by a small, bounded pool of daemon
+ * threads. The {@code get} methods return whatever is cached and, if the entry is missing or expired, queue a lookup
+ * in the background; until the first lookup completes they return {@code null}. Successful results are kept for the
+ * positive TTL and failures for the shorter negative TTL. An expired entry keeps serving its last value while it is
+ * refreshed, and a failed refresh does not discard a previously resolved value.
+ * <p/>
+ * If the lookup queue is full the request is dropped and retried on a later access. Each cache holds at most
+ * {@link #setMaxEntries max entries}; when it grows beyond that, expired entries are swept and then the entries
+ * closest to expiry are dropped. Most callers should use the shared instance returned by {@link #getDefault()}.
+ */
+public class HostResolver {
+
+    private static final Logger logger = Logger.getLogger(HostResolver.class);
+
+    /**
+     * Default number of resolver threads.
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Default maximum number of queued lookups.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /**
+     * Default time to keep a successful lookup, in milliseconds.
+     */
+    public static final long DEFAULT_POSITIVE_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Default time to keep a failed lookup, in milliseconds.
+     */
+    public static final long DEFAULT_NEGATIVE_TTL = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Default maximum number of entries in each of the forward and reverse caches.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final Comparator<Map.Entry<String, Entry>> EXPIRY_ORDER =
+        new Comparator<Map.Entry<String, Entry>>() {
+            @Override
+            public int compare(Map.Entry<String, Entry> e1, Map.Entry<String, Entry> e2) {
+                long t1 = e1.getValue().expiresAt;
+                long t2 = e2.getValue().expiresAt;
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        };
+
+    private static final Pattern IPV4_LITERAL = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    private final ConcurrentMap<String, Entry> addresses = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, Entry> hostNames = new ConcurrentHashMap<String, Entry>();
+    private final ThreadPoolExecutor executor;
+
+    private volatile long positiveTtl = DEFAULT_POSITIVE_TTL;
+    private volatile long negativeTtl = DEFAULT_NEGATIVE_TTL;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Creates a resolver with its own thread pool.
+     *
+     * @param threads   maximum number of concurrent lookups
+     * @param queueSize maximum number of lookups waiting for a thread
+     */
+    public HostResolver(int threads, int queueSize) {
+        Validate.isTrue(threads > 0, "Thread count must be positive");
+        Validate.isTrue(queueSize > 0, "Queue size must be positive");
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new ResolverThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the process-wide resolver.
+     *
+     * @return the shared resolver
+     */
+    public static HostResolver getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Gets the cached ip address of a host without blocking.
+     * <p/>
+     * A literal IPv4 or IPv6 address is returned as is.
+     *
+     * @param host host name or ip address
+     * @return the ip address, or {@code null} if the host has not been resolved or cannot be resolved
+     */
+    public String getIpAddress(String host) {
+        Validate.notEmpty(host, "Host is empty");
+        if(isLiteralAddress(host)) {
+            return host;
+        }
+        return get(addresses, host, false);
+    }
+
+    /**
+     * Indicates whether the ip address of a host is known to be unresolvable, that is, the last lookup failed and no
+     * previously resolved address is cached. A host whose first lookup is still pending is not unresolvable.
+     *
+     * @param host host name or ip address
+     * @return true if the host is cached as unresolvable
+     */
+    public boolean isUnresolvable(String host) {
+        Validate.notEmpty(host, "Host is empty");
+        if(isLiteralAddress(host)) {
+            return false;
+        }
+        Entry entry = addresses.get(host);
+        return entry != null && entry.failed && entry.value == null;
+    }
+
+    /**
+     * Gets the cached host name of a host without blocking.
+     *
+     * @param host host name or ip address
+     * @return the host name, or {@code null} if the host has not been resolved or cannot be resolved
+     */
+    public String getHostName(String host) {
+        Validate.notEmpty(host, "Host is empty");
+        return get(hostNames, host, true);
+    }
+
+    /**
+     * Gets the host name of a host, waiting up to the specified time for the first lookup to complete.
+     *
+     * @param host    host name or ip address
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return the host name, or {@code null} if the host cannot be resolved within the timeout
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public String resolveHostName(String host, long timeout, TimeUnit unit) throws InterruptedException {
+        Validate.notEmpty(host, "Host is empty");
+        Entry entry = entry(hostNames, host, true);
+        entry.completed.await(timeout, unit);
+        return entry.value;
+    }
+
+    /**
+     * Sets the time to keep successful lookups.
+     *
+     * @param ttl time to live in milliseconds
+     */
+    public void setPositiveTtl(long ttl) {
+        Validate.isTrue(ttl >= 0, "TTL is negative");
+        this.positiveTtl = ttl;
+    }
+
+    /**
+     * Sets the time to keep failed lookups.
+     *
+     * @param ttl time to live in milliseconds
+     */
+    public void setNegativeTtl(long ttl) {
+        Validate.isTrue(ttl >= 0, "TTL is negative");
+        this.negativeTtl = ttl;
+    }
+
+    /**
+     * Sets the maximum number of entries kept in each of the forward and reverse caches.
+     *
+     * @param maxEntries maximum cache size
+     */
+    public void setMaxEntries(int maxEntries) {
+        Validate.isTrue(maxEntries > 0, "Max entries must be positive");
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the number of cached forward and reverse entries.
+     *
+     * @return the cache size
+     */
+    public int size() {
+        return addresses.size() + hostNames.size();
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void clear() {
+        addresses.clear();
+        hostNames.clear();
+    }
+
+    /**
+     * Stops the resolver threads. Queued lookups are discarded and cached values remain available.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Looks up the ip address of a host. Called on a resolver thread.
+     *
+     * @param host host name
+     * @return the ip address
+     * @throws UnknownHostException if the host cannot be resolved
+     */
+    protected String lookupAddress(String host) throws UnknownHostException {
+        return InetAddress.getByName(host).getHostAddress();
+    }
+
+    /**
+     * Looks up the host name of a host. Called on a resolver thread.
+     *
+     * @param host host name or ip address
+     * @return the host name
+     * @throws UnknownHostException if the host cannot be resolved
+     */
+    protected String lookupHostName(String host) throws UnknownHostException {
+        return InetAddress.getByName(host).getHostName();
+    }
+
+    private String get(ConcurrentMap<String, Entry> cache, String host, boolean reverse) {
+        return entry(cache, host, reverse).value;
+    }
+
+    private Entry entry(ConcurrentMap<String, Entry> cache, String host, boolean reverse) {
+        Entry entry = cache.get(host);
+        boolean added = false;
+        if(entry == null) {
+            Entry created = new Entry();
+            entry = cache.putIfAbsent(host, created);
+            if(entry == null) {
+                entry = created;
+                added = true;
+            }
+        }
+        if(entry.isExpired()) {
+            schedule(entry, host, reverse);
+        }
+        // Evict only once the new entry's lookup is pending, so that the sweep does not remove it.
+        if(added && cache.size() > maxEntries) {
+            evict(cache);
+        }
+        return entry;
+    }
+
+    /**
+     * Shrinks a cache to three quarters of the maximum size, first by removing expired entries and then by removing
+     * the entries that expire soonest. Entries with a lookup in progress are kept.
+     */
+    private void evict(ConcurrentMap<String, Entry> cache) {
+        synchronized(cache) {
+            int max = maxEntries;
+            if(cache.size() <= max) {
+                return;
+            }
+            int target = max - max / 4;
+            long now = System.currentTimeMillis();
+
+            Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator();
+            while(it.hasNext()) {
+                Entry entry = it.next().getValue();
+                if(!entry.pending.get() && entry.expiresAt <= now) {
+                    it.remove();
+                }
+            }
+            if(cache.size() <= target) {
+                return;
+            }
+
+            List<Map.Entry<String, Entry>> entries = Lists.newArrayList(cache.entrySet());
+            Collections.sort(entries, EXPIRY_ORDER);
+            for(Map.Entry<String, Entry> e : entries) {
+                if(cache.size() <= target) {
+                    break;
+                }
+                if(!e.getValue().pending.get()) {
+                    cache.remove(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+    private void schedule(final Entry entry, final String host, final boolean reverse) {
+        if(!entry.pending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    resolve(entry, host, reverse);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            entry.pending.set(false);
+            logger.debug(String.format("DNS lookup queue full, skipping lookup of %s", host));
+        }
+    }
+
+    private void resolve(Entry entry, String host, boolean reverse) {
+        try {
+            String value = reverse ? lookupHostName(host) : lookupAddress(host);
+            entry.value = value;
+            entry.failed = false;
+            entry.expiresAt = System.currentTimeMillis() + positiveTtl;
+        } catch(UnknownHostException e) {
+            failed(entry, host, e);
+        } catch(RuntimeException e) {
+            failed(entry, host, e);
+        } finally {
+            entry.pending.set(false);
+            entry.completed.countDown();
+        }
+    }
+
+    private void failed(Entry entry, String host, Exception e) {
+        logger.debug(String.format("DNS lookup of %s failed", host), e);
+        entry.failed = true;
+        entry.expiresAt = System.currentTimeMillis() + negativeTtl;
+    }
+
+    private static boolean isLiteralAddress(String host) {
+        return host.indexOf(':') >= 0 || IPV4_LITERAL.matcher(host).matches();
+    }
+
+    /**
+     * A cached lookup result. A {@code null} value means the host has not been resolved yet or could not be resolved.
+     */
+    private static final class Entry {
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile String value;
+        private volatile boolean failed;
+        private volatile long expiresAt;
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+
+    private static final class ResolverThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "etm-dns-resolver-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class DefaultHolder {
+        private static final HostResolver INSTANCE = new HostResolver(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.Validate;
+
+/**
+ * A process-wide, size-bounded cache of compiled regular expressions.
+ * <p/>
+ * Tokens and rules with identical definitions produce identical regular expressions, so they can share a single
+ * compiled {@link Pattern} instead of each compiling their own. Compiled patterns are immutable and safe to share
+ * between threads. When the cache is full the least recently used entry is evicted.
+ */
+public abstract class PatternCache {
+
+    /**
+     * Default maximum number of cached patterns.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private static final Map<String, Pattern> cache = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private static int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Returns the compiled form of the specified regular expression, compiling it if it is not cached.
+     *
+     * @param regex the regular expression
+     * @return the compiled pattern
+     * @throws java.util.regex.PatternSyntaxException if the expression is invalid
+     */
+    public static Pattern compile(String regex) {
+        Validate.notNull(regex, "Regex is null");
+        synchronized(cache) {
+            Pattern pattern = cache.get(regex);
+            if(pattern != null) {
+                return pattern;
+            }
+        }
+
+        // Compile outside the lock; a concurrent compile of the same expression is harmless
+        Pattern pattern = Pattern.compile(regex);
+        synchronized(cache) {
+            Pattern existing = cache.get(regex);
+            if(existing != null) {
+                return existing;
+            }
+            cache.put(regex, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Sets the maximum number of cached patterns, evicting entries if necessary.
+     *
+     * @param size the maximum size, which must be positive
+     */
+    public static void setMaxSize(int size) {
+        Validate.isTrue(size > 0, "Max size must be positive");
+        synchronized(cache) {
+            maxSize = size;
+            while(cache.size() > maxSize) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of cached patterns.
+     *
+     * @return the cache size
+     */
+    public static int size() {
+        synchronized(cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Removes all cached patterns.
+     */
+    public static void clear() {
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+}
@@ -15,11 +15,15 @@
  */
 package com.edmunds.etm.common.util;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.google.common.collect.Lists;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.commons.lang.StringUtils;
 
 /**
- * A utility class whose only purpose so far is to allow escaping regex metacharacters.
+ * A utility class for escaping regex metacharacters and building regular expressions from literal values.
  *
  * @author Julian Cardona
  */
@@ -28,7 +32,13 @@ public abstract class RegexUtil {
     /**
      * escapable regular expression metacaracters
      */
-    private static final Pattern REGEX_SPECIAL_CHARS_PATTERN = Pattern.compile("([+\\[\\](){}\\$.?\\^|])");
+    private static final String REGEX_SPECIAL_CHARS = "+[](){}$.?^|";
+
+    /**
+     * Characters that are passed through unescaped by {@link #escapeRegex(String)} but change the meaning of the
+     * characters around them, so values containing them cannot be split into a prefix tree.
+     */
+    private static final String UNESCAPED_OPERATOR_CHARS = "*\\";
 
     /**
      * Escapes the given string, replacing occurrences of regular expression metacaracters with their escaped form.
@@ -38,8 +48,136 @@ public abstract class RegexUtil {
      *         '?', '^', '|', ']' replaced by their corresponding escaped form, "\+", "\[", "\]", etc.
      */
     public static String escapeRegex(String string) {
-        Matcher matcher = REGEX_SPECIAL_CHARS_PATTERN.matcher(string);
-        return matcher.replaceAll("\\\\$1");
+        StringBuilder sb = null;
+        for(int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if(REGEX_SPECIAL_CHARS.indexOf(c) >= 0) {
+                if(sb == null) {
+                    sb = new StringBuilder(string.length() + 8);
+                    sb.append(string, 0, i);
+                }
+                sb.append('\\');
+            }
+            if(sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? string : sb.toString();
+    }
+
+    /**
+     * Returns whether the escaped form of the given string matches only the string itself.
+     *
+     * @param string the string to test
+     * @return false if the string contains '*' or '\', which {@link #escapeRegex(String)} leaves unescaped
+     */
+    public static boolean isLiteral(String string) {
+        return !StringUtils.containsAny(string, UNESCAPED_OPERATOR_CHARS);
+    }
+
+    /**
+     * Builds a regular expression that matches exactly the given literal values, factoring out shared prefixes.
+     * <p/>
+     * The values are arranged in a prefix tree so that, for example, "ford", "fiat" and "fisker" produce
+     * "f(?:iat|isker|ord)" rather than a flat alternation; the engine then examines each input character once per
+     * level instead of once per value. Branches that end in single letters or digits are collapsed into a character
+     * class. The result contains no capturing groups and no top-level grouping, so callers can wrap it as needed.
+     * <p/>
+     * Values are escaped with {@link #escapeRegex(String)}. Values containing '*' or '\', which that method leaves
+     * unescaped, are appended as plain alternatives after the prefix tree so their meaning is unchanged.
+     *
+     * @param values the literal values to match
+     * @return a regular expression matching the same strings as the escaped alternation of the values
+     */
+    public static String toPrefixTreeRegex(Collection<String> values) {
+        TrieNode root = new TrieNode();
+        boolean rootUsed = false;
+        List<String> plainAlternatives = Lists.newArrayList();
+        for(String value : values) {
+            if(isLiteral(value)) {
+                root.add(value);
+                rootUsed = true;
+            } else {
+                plainAlternatives.add(escapeRegex(value));
+            }
+        }
+
+        List<String> alternatives = Lists.newArrayList();
+        if(rootUsed) {
+            alternatives.add(toRegex(root, false));
+        }
+        alternatives.addAll(plainAlternatives);
+        return StringUtils.join(alternatives, '|');
     }
 
+    /**
+     * Returns the regular expression for the suffixes below the specified node.
+     *
+     * @param node a prefix tree node
+     * @param concatenated true if the result will be appended to a preceding expression
+     * @return the regular expression for the node
+     */
+    private static String toRegex(TrieNode node, boolean concatenated) {
+        if(node.children.isEmpty()) {
+            return "";
+        }
+
+        List<String> alternatives = Lists.newArrayListWithCapacity(node.children.size());
+        boolean singleCharsOnly = true;
+        for(Character c : node.children.keySet()) {
+            TrieNode child = node.children.get(c);
+            String escaped = escapeRegex(String.valueOf(c));
+            if(child.children.isEmpty()) {
+                singleCharsOnly &= Character.isLetterOrDigit(c);
+                alternatives.add(escaped);
+            } else {
+                singleCharsOnly = false;
+                alternatives.add(escaped + toRegex(child, true));
+            }
+        }
+
+        String body;
+        boolean atom;
+        boolean alternation = false;
+        if(alternatives.size() == 1) {
+            body = alternatives.get(0);
+            atom = node.children.values().iterator().next().children.isEmpty();
+        } else if(singleCharsOnly) {
+            body = '[' + StringUtils.join(alternatives, "") + ']';
+            atom = true;
+        } else {
+            body = StringUtils.join(alternatives, '|');
+            atom = false;
+            alternation = true;
+        }
+
+        if(node.terminal) {
+            return atom ? body + '?' : "(?:" + body + ")?";
+        } else if(alternation && concatenated) {
+            return "(?:" + body + ')';
+        }
+        return body;
+    }
+
+    /**
+     * Character-level prefix tree of literal values.
+     */
+    private static final class TrieNode {
+        private final SortedMap<Character, TrieNode> children = new TreeMap<Character, TrieNode>();
+        private boolean terminal;
+
+        private void add(String value) {
+            TrieNode node = this;
+            for(int i = 0; i < value.length(); i++) {
+                Character c = value.charAt(i);
+                TrieNode child = node.children.get(c);
+                if(child == null) {
+                    child = new TrieNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+        }
+    }
 }
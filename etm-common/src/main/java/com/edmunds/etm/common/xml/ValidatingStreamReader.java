@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.xml;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.validation.ValidatorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * StAX reader that validates the document as it is read.
+ * <p/>
+ * Every event pulled from the underlying reader is passed to a schema {@link ValidatorHandler} before it is
+ * returned, so a consumer such as the JiBX unmarshaller and the validator share a single parse of the document. A
+ * validation error stops reading with an {@link XMLStreamException} and is available from {@link
+ * #getValidationError()}.
+ */
+class ValidatingStreamReader extends StreamReaderDelegate {
+
+    private final ValidatorHandler validatorHandler;
+    private final AttributesImpl attributes = new AttributesImpl();
+    private SAXException validationError;
+
+    ValidatingStreamReader(XMLStreamReader reader, ValidatorHandler validatorHandler) throws XMLStreamException {
+        super(reader);
+        this.validatorHandler = validatorHandler;
+        try {
+            validatorHandler.startDocument();
+        } catch(SAXException e) {
+            throw validationFailed(e);
+        }
+        if(reader.getEventType() != START_DOCUMENT) {
+            forward(reader.getEventType());
+        }
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        int event = super.next();
+        forward(event);
+        return event;
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int event = next();
+        while((event == CHARACTERS && isWhiteSpace()) || (event == CDATA && isWhiteSpace()) || event == SPACE ||
+            event == PROCESSING_INSTRUCTION || event == COMMENT) {
+            event = next();
+        }
+        if(event != START_ELEMENT && event != END_ELEMENT) {
+            throw new XMLStreamException("Expected start or end tag", getLocation());
+        }
+        return event;
+    }
+
+    /**
+     * Reads the rest of the document so that validation constraints checked at the end of the document are applied.
+     *
+     * @throws XMLStreamException if the document is malformed or invalid
+     */
+    public void finish() throws XMLStreamException {
+        while(getEventType() != END_DOCUMENT) {
+            next();
+        }
+    }
+
+    /**
+     * Gets the validation error that stopped reading, if any.
+     *
+     * @return the validation error or null
+     */
+    public SAXException getValidationError() {
+        return validationError;
+    }
+
+    private void forward(int event) throws XMLStreamException {
+        try {
+            switch(event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement();
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    validatorHandler.characters(getTextCharacters(), getTextStart(), getTextLength());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    validatorHandler.endDocument();
+                    break;
+                default:
+                    break;
+            }
+        } catch(SAXException e) {
+            throw validationFailed(e);
+        }
+    }
+
+    private void startElement() throws SAXException {
+        for(int i = 0; i < getNamespaceCount(); i++) {
+            validatorHandler.startPrefixMapping(nullToEmpty(getNamespacePrefix(i)), nullToEmpty(getNamespaceURI(i)));
+        }
+
+        attributes.clear();
+        for(int i = 0; i < getAttributeCount(); i++) {
+            String localName = getAttributeLocalName(i);
+            attributes.addAttribute(nullToEmpty(getAttributeNamespace(i)), localName,
+                qualifiedName(getAttributePrefix(i), localName), getAttributeType(i), getAttributeValue(i));
+        }
+
+        String localName = getLocalName();
+        validatorHandler.startElement(nullToEmpty(getNamespaceURI()), localName,
+            qualifiedName(getPrefix(), localName), attributes);
+    }
+
+    private void endElement() throws SAXException {
+        String localName = getLocalName();
+        validatorHandler.endElement(nullToEmpty(getNamespaceURI()), localName, qualifiedName(getPrefix(), localName));
+        for(int i = 0; i < getNamespaceCount(); i++) {
+            validatorHandler.endPrefixMapping(nullToEmpty(getNamespacePrefix(i)));
+        }
+    }
+
+    private XMLStreamException validationFailed(SAXException e) {
+        validationError = e;
+        return new XMLStreamException(e.getMessage(), getLocation(), e);
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.length() == 0 ? localName : prefix + ':' + localName;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
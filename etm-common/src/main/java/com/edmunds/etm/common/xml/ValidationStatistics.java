@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.xml;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency totals for the validations performed against one schema.
+ * <p/>
+ * Updates are lock-free, so statistics can be recorded by many validating threads at once. Values are read
+ * individually and may be slightly out of step with each other while validations are in progress.
+ */
+public class ValidationStatistics {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalTimeNanos = new AtomicLong();
+    private final AtomicLong maxTimeNanos = new AtomicLong();
+
+    /**
+     * Records one validation.
+     *
+     * @param elapsedNanos time taken in nanoseconds
+     * @param valid true if the document was valid
+     */
+    void record(long elapsedNanos, boolean valid) {
+        count.incrementAndGet();
+        if(!valid) {
+            failureCount.incrementAndGet();
+        }
+        totalTimeNanos.addAndGet(elapsedNanos);
+
+        long max = maxTimeNanos.get();
+        while(elapsedNanos > max && !maxTimeNanos.compareAndSet(max, elapsedNanos)) {
+            max = maxTimeNanos.get();
+        }
+    }
+
+    /**
+     * Gets the number of documents validated.
+     *
+     * @return validation count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the number of documents that failed validation.
+     *
+     * @return failure count
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Gets the total time spent validating.
+     *
+     * @param unit the time unit of the result
+     * @return total validation time
+     */
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the average time per validation.
+     *
+     * @param unit the time unit of the result
+     * @return average validation time, or zero if nothing has been validated
+     */
+    public long getAverageTime(TimeUnit unit) {
+        long n = count.get();
+        return n == 0 ? 0 : unit.convert(totalTimeNanos.get() / n, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the longest time taken by a single validation.
+     *
+     * @param unit the time unit of the result
+     * @return maximum validation time
+     */
+    public long getMaxTime(TimeUnit unit) {
+        return unit.convert(maxTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, failures=%d, avg=%dus, max=%dus", getCount(), getFailureCount(),
+            getAverageTime(TimeUnit.MICROSECONDS), getMaxTime(TimeUnit.MICROSECONDS));
+    }
+}
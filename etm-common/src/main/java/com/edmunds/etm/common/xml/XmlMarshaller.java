@@ -20,12 +20,19 @@ import org.jibx.runtime.IBindingFactory;
 import org.jibx.runtime.IMarshallingContext;
 import org.jibx.runtime.IUnmarshallingContext;
 import org.jibx.runtime.JiBXException;
+import org.jibx.runtime.impl.StAXReaderWrapper;
+import org.jibx.runtime.impl.UnmarshallingContext;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.StringReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
 
 import static java.text.MessageFormat.format;
 
@@ -57,6 +64,11 @@ public final class XmlMarshaller {
      */
     private static final String UTF_8_ENCODING = "UTF-8";
 
+    /**
+     * Shared StAX factory. Factories are thread-safe once configured.
+     */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
     /**
      * Private constructor.
      */
@@ -101,6 +113,43 @@ public final class XmlMarshaller {
         }
     }
 
+    /**
+     * Validates and unmarshalls data model object from an XML stream in a single pass.
+     * <p/>
+     * The document is read once with StAX; each event is checked against the schema before JiBX consumes it, so the
+     * document is never buffered in memory or parsed twice. The stream is not closed.
+     *
+     * @param xml    xml document stream
+     * @param clazz  target class for binding
+     * @param schema schema the document must conform to
+     * @return data model object.
+     * @throws XmlValidationException if the document is malformed or does not conform to the schema
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T unmarshal(InputStream xml, Class<T> clazz, Schema schema) throws XmlValidationException {
+        XMLStreamReader reader = null;
+        ValidatingStreamReader validatingReader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(xml);
+            validatingReader = new ValidatingStreamReader(reader, schema.newValidatorHandler());
+            IBindingFactory bindingFactory = BindingDirectory.getFactory(clazz);
+            UnmarshallingContext unmarshallCtx = (UnmarshallingContext) bindingFactory.createUnmarshallingContext();
+            unmarshallCtx.setDocument(new StAXReaderWrapper(validatingReader, null, true));
+            T result = (T) unmarshallCtx.unmarshalElement();
+            validatingReader.finish();
+            return result;
+        } catch (XMLStreamException e) {
+            throw new XmlValidationException(e);
+        } catch (JiBXException e) {
+            if (validatingReader != null && validatingReader.getValidationError() != null) {
+                throw new XmlValidationException(validatingReader.getValidationError());
+            }
+            throw new RuntimeException(e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
     /**
      * Marshalls data model object to XML document. Returns document as byte array.
      *
@@ -140,4 +189,22 @@ public final class XmlMarshaller {
             throw new RuntimeException(format(FILE_NOT_FOUND_MESSAGE, fileName), e);
         }
     }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        return factory;
+    }
+
+    private static void closeQuietly(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // ignore
+            }
+        }
+    }
 }
@@ -21,6 +21,9 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.PostConstruct;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
@@ -31,6 +34,10 @@ import org.xml.sax.SAXException;
 
 /**
  * XML validator for Etm configuration files. <p/> <p/> Copyright (C) 2010 Edmunds.com <p/> <p/> Date: Mar 3, 2010
+ * <p/>
+ * The validator is safe for concurrent use. Compiled schemas are immutable and shared process-wide, while the
+ * {@link Validator} objects that apply them are not thread-safe and are therefore kept per thread. Validation counts
+ * and latencies are recorded per schema and exposed through {@link #getStatistics(String)}.
  *
  * @author Aliaksandr Savin
  * @author Ryan Holmes
@@ -51,9 +58,66 @@ public class XmlValidator {
     public static final String W3_ORG_XMLSCHEMA = "http://www.w3.org/2001/XMLSchema";
 
     /**
-     * Validators map. Key is a XSD schema file name, value is a validator instance for schema.
+     * Schemas loaded by {@link #preloadSchemas()}.
      */
-    private Map<String, Validator> validatorsMap = new HashMap<String, Validator>();
+    private static final String[] PRELOADED_SCHEMAS = {CLIENT_CONFIG_XSD, URL_TOKENS_XSD};
+
+    /**
+     * Compiled schemas. Key is a XSD schema file name. Schemas are immutable and shared by all instances.
+     */
+    private static final ConcurrentMap<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+
+    /**
+     * Validators of the current thread. Key is a XSD schema file name, value is a validator instance for schema.
+     */
+    private static final ThreadLocal<Map<String, Validator>> validators = new ThreadLocal<Map<String, Validator>>() {
+        @Override
+        protected Map<String, Validator> initialValue() {
+            return new HashMap<String, Validator>();
+        }
+    };
+
+    /**
+     * Validation statistics. Key is a XSD schema file name.
+     */
+    private static final ConcurrentMap<String, ValidationStatistics> statistics =
+        new ConcurrentHashMap<String, ValidationStatistics>();
+
+    /**
+     * Loads and compiles the standard Etm schemas so that the first validation does not pay for it.
+     *
+     * @throws IllegalStateException if a schema cannot be loaded
+     */
+    @PostConstruct
+    public void preloadSchemas() {
+        for(String schemaFile : PRELOADED_SCHEMAS) {
+            try {
+                getSchema(schemaFile);
+            } catch(SAXException e) {
+                throw new IllegalStateException(String.format("Invalid schema: %s", schemaFile), e);
+            } catch(IOException e) {
+                throw new IllegalStateException(String.format("Unable to load schema: %s", schemaFile), e);
+            }
+        }
+    }
+
+    /**
+     * Gets the validation statistics for the specified schema, which include streaming unmarshalling.
+     *
+     * @param schemaFile XSD schema file name
+     * @return statistics for the schema
+     */
+    public ValidationStatistics getStatistics(String schemaFile) {
+        ValidationStatistics stats = statistics.get(schemaFile);
+        if(stats == null) {
+            stats = new ValidationStatistics();
+            ValidationStatistics existing = statistics.putIfAbsent(schemaFile, stats);
+            if(existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
 
     /**
      * Validate configuration against XSD schema.
@@ -79,6 +143,32 @@ public class XmlValidator {
         validate(source, schemaFile);
     }
 
+    /**
+     * Validates and unmarshalls an XML document in a single streaming pass.
+     *
+     * @param input XML document stream, which is not closed
+     * @param schemaFile XSD schema file name
+     * @param clazz target class for binding
+     * @return data model object
+     * @throws XmlValidationException if the document is malformed or does not conform to the schema
+     */
+    public <T> T unmarshal(InputStream input, String schemaFile, Class<T> clazz) throws XmlValidationException {
+        ValidationStatistics stats = getStatistics(schemaFile);
+        long start = System.nanoTime();
+        boolean valid = false;
+        try {
+            T result = XmlMarshaller.unmarshal(input, clazz, getSchema(schemaFile));
+            valid = true;
+            return result;
+        } catch(SAXException e) {
+            throw new XmlValidationException(e);
+        } catch(IOException e) {
+            throw new XmlValidationException(e);
+        } finally {
+            stats.record(System.nanoTime() - start, valid);
+        }
+    }
+
     /**
      * Validate configuration against XSD schema.
      *
@@ -87,34 +177,73 @@ public class XmlValidator {
      * @throws XmlValidationException if validation fails
      */
     private void validate(Source source, String schemaFile) throws XmlValidationException {
+        ValidationStatistics stats = getStatistics(schemaFile);
+        long start = System.nanoTime();
+        boolean valid = false;
         try {
-            if(!validatorsMap.containsKey(schemaFile)) {
-                validatorsMap.put(schemaFile, initValidator(schemaFile));
+            Validator validator = getValidator(schemaFile);
+            try {
+                validator.validate(source);
+                valid = true;
+            } finally {
+                validator.reset();
             }
-            validatorsMap.get(schemaFile).validate(source);
         } catch(SAXException e) {
             throw new XmlValidationException(e);
         } catch(IOException e) {
             throw new XmlValidationException(e);
+        } finally {
+            stats.record(System.nanoTime() - start, valid);
         }
     }
 
     /**
-     * Creates schema factory, opens schema file and initializes schema rulesConfigValidator.
+     * Returns the current thread's validator for the specified schema, creating it on first use.
      *
      * @param schemaFileName XSD schema file name.
      * @return validator object.
      * @throws org.xml.sax.SAXException when parser error occurs.
      * @throws java.io.IOException when IO error occurs.
      */
-    private Validator initValidator(String schemaFileName) throws SAXException, IOException {
+    private static Validator getValidator(String schemaFileName) throws SAXException, IOException {
+        Map<String, Validator> threadValidators = validators.get();
+        Validator validator = threadValidators.get(schemaFileName);
+        if(validator == null) {
+            validator = getSchema(schemaFileName).newValidator();
+            threadValidators.put(schemaFileName, validator);
+        }
+        return validator;
+    }
+
+    /**
+     * Returns the compiled schema for the specified schema file, loading it on first use.
+     *
+     * @param schemaFileName XSD schema file name.
+     * @return compiled schema.
+     * @throws org.xml.sax.SAXException when parser error occurs.
+     * @throws java.io.IOException when IO error occurs.
+     */
+    private static Schema getSchema(String schemaFileName) throws SAXException, IOException {
+        Schema schema = schemas.get(schemaFileName);
+        if(schema == null) {
+            schema = loadSchema(schemaFileName);
+            Schema existing = schemas.putIfAbsent(schemaFileName, schema);
+            if(existing != null) {
+                schema = existing;
+            }
+        }
+        return schema;
+    }
+
+    private static Schema loadSchema(String schemaFileName) throws SAXException, IOException {
         InputStream is = null;
         try {
             SchemaFactory factory = SchemaFactory.newInstance(W3_ORG_XMLSCHEMA);
-            is = getClass().getResourceAsStream(schemaFileName);
-            Source source = new StreamSource(is);
-            Schema schema = factory.newSchema(source);
-            return schema.newValidator();
+            is = XmlValidator.class.getResourceAsStream(schemaFileName);
+            if(is == null) {
+                throw new IOException(String.format("Schema not found: %s", schemaFileName));
+            }
+            return factory.newSchema(new StreamSource(is));
         } finally {
             if(is != null) {
                 is.close();
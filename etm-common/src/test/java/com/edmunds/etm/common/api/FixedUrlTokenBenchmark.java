@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.api;
+
+import com.edmunds.etm.common.util.RegexUtil;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Compares the flat alternation formerly produced by {@link FixedUrlToken#toRegex()} with the prefix tree regex and
+ * with {@link FixedUrlToken#match(CharSequence)}.
+ * <p/>
+ * This is not a unit test; run it manually with the test classpath, optionally passing the number of token values.
+ */
+public class FixedUrlTokenBenchmark {
+
+    private static final int INPUT_COUNT = 20000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int valueCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        Random random = new Random(1);
+
+        List<String> values = Lists.newArrayListWithCapacity(valueCount);
+        for(int i = 0; i < valueCount; i++) {
+            values.add(randomWord(random) + '-' + randomWord(random));
+        }
+        List<String> inputs = Lists.newArrayListWithCapacity(INPUT_COUNT);
+        for(int i = 0; i < INPUT_COUNT; i++) {
+            inputs.add(i % 2 == 0 ? values.get(random.nextInt(valueCount)) : randomWord(random));
+        }
+
+        FixedUrlToken token = new FixedUrlToken("benchmark", values);
+        String flatRegex = flatRegex(values);
+        String treeRegex = token.toRegex();
+        System.out.println(String.format("%d values, flat regex %d chars, prefix tree regex %d chars",
+            valueCount, flatRegex.length(), treeRegex.length()));
+
+        for(int round = 0; round < ROUNDS; round++) {
+            System.out.println(String.format("round %d: flat %s, prefix tree %s, match() %s", round,
+                timeRegex(flatRegex, inputs), timeRegex(treeRegex, inputs), timeMatch(token, inputs)));
+        }
+    }
+
+    private static String timeRegex(String regex, List<String> inputs) {
+        long start = System.nanoTime();
+        Pattern pattern = Pattern.compile("^/" + regex + "/reviews/$");
+        long compiled = System.nanoTime();
+        int hits = 0;
+        for(String input : inputs) {
+            if(pattern.matcher('/' + input + "/reviews/").matches()) {
+                hits++;
+            }
+        }
+        long matched = System.nanoTime();
+        return String.format("compile %.1fms match %.0fns/op (%d hits)",
+            (compiled - start) / 1e6, (double) (matched - compiled) / inputs.size(), hits);
+    }
+
+    private static String timeMatch(FixedUrlToken token, List<String> inputs) {
+        long start = System.nanoTime();
+        int hits = 0;
+        for(String input : inputs) {
+            if(token.match(input)) {
+                hits++;
+            }
+        }
+        long matched = System.nanoTime();
+        return String.format("%.0fns/op (%d hits)", (double) (matched - start) / inputs.size(), hits);
+    }
+
+    private static String flatRegex(List<String> values) {
+        List<String> escaped = Lists.newArrayListWithCapacity(values.size());
+        for(String value : values) {
+            escaped.add(RegexUtil.escapeRegex(value));
+        }
+        return '(' + StringUtils.join(escaped, '|') + ')';
+    }
+
+    private static String randomWord(Random random) {
+        int length = 3 + random.nextInt(6);
+        StringBuilder sb = new StringBuilder(length);
+        for(int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
@@ -15,13 +15,20 @@
  */
 package com.edmunds.etm.common.api;
 
+import com.edmunds.etm.common.util.RegexUtil;
 import com.google.common.collect.Lists;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 /**
  * @author Ryan Holmes
@@ -52,17 +59,132 @@ public class FixedUrlTokenTest {
 
     public void testToRegex() {
         UrlToken token = new FixedUrlToken("test", "v1", "v2", "v3");
-        assertEquals(token.toRegex(), "(v1|v2|v3)");
+        assertEquals(token.toRegex(), "(v[123])");
 
         List<String> values = Lists.newArrayList("v1", "v2", "v3");
         token = new FixedUrlToken("test", values);
-        assertEquals(token.toRegex(), "(v1|v2|v3)");
+        assertEquals(token.toRegex(), "(v[123])");
 
+        token = new FixedUrlToken("test");
+        assertEquals(token.toRegex(), "()");
+    }
+
+    public void testToRegexPrefixFactoring() {
+        UrlToken token = new FixedUrlToken("test", "ford", "fiat", "fisker", "bmw");
+        assertEquals(token.toRegex(), "(bmw|f(?:i(?:at|sker)|ord))");
+
+        token = new FixedUrlToken("test", "a", "ab", "abc");
+        assertEquals(token.toRegex(), "(a(?:bc?)?)");
+
+        token = new FixedUrlToken("test", "x", "x.y", "x-y");
+        assertEquals(token.toRegex(), "(x(?:-y|\\.y)?)");
+    }
+
+    public void testToRegexMatchesSameValues() {
+        List<String> values = Lists.newArrayList();
+        Random random = new Random(42);
+        for(int i = 0; i < 2000; i++) {
+            values.add(randomValue(random));
+        }
+        values.add("");
+        values.add("a*b");
+        values.add("a\\.c");
+
+        FixedUrlToken token = new FixedUrlToken("test", values);
+        Pattern pattern = Pattern.compile(token.toRegex());
+        Pattern flatPattern = Pattern.compile('(' + StringUtils.join(escapeAll(values), '|') + ')');
+        for(String value : values.subList(0, 2000)) {
+            assertTrue(pattern.matcher(value).matches(), value);
+        }
+        for(int i = 0; i < 2000; i++) {
+            String input = randomValue(random);
+            assertEquals(pattern.matcher(input).matches(), flatPattern.matcher(input).matches(), input);
+        }
+        for(String input : new String[] {"", "ab", "aab", "b", "a*b", "a.c", "a\\.c"}) {
+            assertEquals(pattern.matcher(input).matches(), flatPattern.matcher(input).matches(), input);
+            assertEquals(token.match(input), flatPattern.matcher(input).matches(), input);
+        }
+        assertTrue(token.match("aab"));
+        assertTrue(token.match("b"));
+        assertFalse(token.match("a*b"));
+    }
+
+    public void testMatchAgreesWithPattern() {
+        FixedUrlToken literal = new FixedUrlToken("test", "a.b", "c");
+        assertTrue(literal.match("a.b"));
+        assertFalse(literal.match("axb"));
+
+        FixedUrlToken empty = new FixedUrlToken("test");
+        assertEquals(empty.match(""), empty.toPattern().matcher("").matches());
+        assertFalse(empty.match("a"));
+    }
+
+    public void testRegexRebuiltOnModification() {
+        UrlToken token = new FixedUrlToken("test", "v1", "v2");
+        assertEquals(token.toRegex(), "(v[12])");
+        assertTrue(token.match("v2"));
 
+        token.addValue("v3");
+        assertEquals(token.toRegex(), "(v[123])");
+        assertTrue(token.toPattern().matcher("v3").matches());
+        assertTrue(token.match("v3"));
+
+        token.setValues(Lists.newArrayList("x"));
+        assertEquals(token.toRegex(), "(x)");
+        assertFalse(token.toPattern().matcher("v1").matches());
+        assertFalse(token.match("v1"));
+    }
+
+    public void testValuesAreCopied() {
+        List<String> values = Lists.newArrayList("v1");
+        UrlToken token = new FixedUrlToken("test", values);
+        assertEquals(token.toRegex(), "(v1)");
+
+        values.add("v2");
+        assertEquals(token.getValues().size(), 1);
+        assertEquals(token.toRegex(), "(v1)");
+    }
+
+    public void testIdenticalTokensSharePattern() {
+        UrlToken first = new FixedUrlToken("first", "a", "b");
+        UrlToken second = new FixedUrlToken("second", "b", "a");
+        assertSame(first.toPattern(), second.toPattern());
+        assertSame(first.toPattern(), first.toPattern());
+    }
+
+    public void testMatch() {
+        FixedUrlToken token = new FixedUrlToken("test", "ford", "fiat", "a.b");
+        assertTrue(token.match("ford"));
+        assertTrue(token.match(new StringBuilder("fiat")));
+        assertTrue(token.match("a.b"));
+        assertFalse(token.match("axb"));
+        assertFalse(token.match("for"));
+        assertFalse(token.match(null));
     }
 
     public void testToRegexEscaping() {
         UrlToken token = new FixedUrlToken("test", "^[a-z]\\d{9}$");
         assertEquals(token.toRegex(), "(\\^\\[a-z\\]\\d\\{9\\}\\$)");
+
+        token = new FixedUrlToken("test", "a+b", "a(b)");
+        assertEquals(token.toRegex(), "(a(?:\\(b\\)|\\+b))");
+    }
+
+    private static String randomValue(Random random) {
+        String alphabet = "abc.-1";
+        int length = 1 + random.nextInt(5);
+        StringBuilder sb = new StringBuilder(length);
+        for(int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private static List<String> escapeAll(List<String> values) {
+        List<String> escaped = Lists.newArrayListWithCapacity(values.size());
+        for(String value : values) {
+            escaped.add(RegexUtil.escapeRegex(value));
+        }
+        return escaped;
     }
 }
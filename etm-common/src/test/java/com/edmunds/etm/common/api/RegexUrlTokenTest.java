@@ -15,10 +15,13 @@
  */
 package com.edmunds.etm.common.api;
 
+import java.util.Collections;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 /**
  * @author Ryan Holmes
@@ -48,4 +51,15 @@ public class RegexUrlTokenTest {
         token = new RegexUrlToken("test", "^(1|2.*{3})$");
         assertEquals(token.toRegex(), "^(1|2.*{3})$");
     }
+
+    public void testMatch() {
+        UrlToken token = new RegexUrlToken("test", "[0-9]{4}");
+        assertTrue(token.match("2011"));
+        assertFalse(token.match("20111"));
+
+        token.setValues(Collections.singletonList("[a-z]+"));
+        assertEquals(token.toRegex(), "[a-z]+");
+        assertTrue(token.match("abc"));
+        assertFalse(token.match("2011"));
+    }
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.etm.common.api.AgentInstance;
+import com.edmunds.etm.common.api.AgentPaths;
+import com.edmunds.etm.common.api.RuleSetDeploymentEvent;
+import com.edmunds.etm.common.api.RuleSetDeploymentResult;
+import com.google.common.collect.Lists;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.zookeeper.KeeperException.Code;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class AgentRegistryTest {
+
+    private static final String CONNECTED_PATH = "/agents";
+
+    private StubZooKeeperConnection connection;
+    private ObjectSerializer objectSerializer;
+    private AgentPaths agentPaths;
+    private AgentRegistry registry;
+    private List<String> convergedDigests;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        connection = new StubZooKeeperConnection();
+        connection.createPersistent(CONNECTED_PATH, new byte[0]);
+        objectSerializer = new ObjectSerializer();
+        agentPaths = new AgentPaths(null) {
+            @Override
+            public String getConnected() {
+                return CONNECTED_PATH;
+            }
+        };
+        registry = new AgentRegistry(connection, agentPaths, objectSerializer);
+        convergedDigests = new CopyOnWriteArrayList<String>();
+        registry.addListener(new AgentRegistryListener() {
+            @Override
+            public void onConvergence(String ruleSetDigest, int agentCount) {
+                convergedDigests.add(ruleSetDigest + ":" + agentCount);
+            }
+        });
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testConnectionIsRequired() {
+        new AgentRegistry(null, agentPaths, objectSerializer);
+    }
+
+    public void testIndexes() throws Exception {
+        connect("a", agent("10.0.0.1", "1.0", "d1", RuleSetDeploymentResult.OK));
+        connect("b", agent("10.0.0.2", "1.1", "d1", RuleSetDeploymentResult.OK));
+        connect("c", agent("10.0.0.3", "1.1", "d2", RuleSetDeploymentResult.HEALTH_CHECK_FAILED));
+
+        assertEquals(registry.getAgentCount(), 3);
+        assertEquals(registry.getConvergedCount("d1"), 2);
+        assertEquals(registry.getConvergedCount("d2"), 1);
+        assertEquals(registry.getConvergedCount("d3"), 0);
+        assertEquals(registry.getVersionCount("1.1"), 2);
+        assertEquals(registry.getResultCount(RuleSetDeploymentResult.OK), 2);
+        assertEquals(registry.getAgentsWithResult(RuleSetDeploymentResult.HEALTH_CHECK_FAILED).size(), 1);
+        assertFalse(registry.isConverged("d1"));
+        assertEquals(connection.getReadCount(), 3);
+    }
+
+    public void testUpdateMovesAgentBetweenIndexes() throws Exception {
+        AgentInstance agent = agent("10.0.0.1", "1.0", "d1", RuleSetDeploymentResult.OK);
+        connect("a", agent);
+        assertEquals(registry.getAgentCount(), 1);
+
+        AgentInstance updated = new AgentInstance(agent.getId(), agent.getIpAddress(), "2.0");
+        updated.setActiveRuleSetDigest("d2");
+        update("a", updated);
+
+        assertEquals(registry.getAgentCount(), 1);
+        assertEquals(registry.getConvergedCount("d1"), 0);
+        assertEquals(registry.getConvergedCount("d2"), 1);
+        assertEquals(registry.getVersionCount("1.0"), 0);
+        assertEquals(registry.getVersionCount("2.0"), 1);
+        assertEquals(registry.getResultCount(RuleSetDeploymentResult.OK), 0);
+    }
+
+    public void testConvergenceNotification() throws Exception {
+        registry.start();
+        connect("a", agent("10.0.0.1", "1.0", "d1", RuleSetDeploymentResult.OK));
+        connect("b", agent("10.0.0.2", "1.0", "d1", RuleSetDeploymentResult.OK));
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1"));
+
+        // Rollout of d2: no notification until the last agent switches
+        update("a", agent("10.0.0.1", "1.0", "d2", RuleSetDeploymentResult.OK));
+        assertEquals(convergedDigests.size(), 1);
+        update("b", agent("10.0.0.2", "1.0", "d2", RuleSetDeploymentResult.OK));
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1", "d2:2"));
+        assertTrue(registry.isConverged("d2"));
+
+        // An agent that has not deployed yet breaks convergence; removing it restores it
+        connect("c", agent("10.0.0.3", "1.0", null, null));
+        assertFalse(registry.isConverged("d2"));
+        disconnect("c");
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1", "d2:2", "d2:2"));
+        assertEquals(registry.getAgentCount(), 2);
+    }
+
+    public void testExpiredSessionReloads() throws Exception {
+        registry.start();
+        connect("a", agent("10.0.0.1", "1.0", "d1", RuleSetDeploymentResult.OK));
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1"));
+
+        // Changes made while the session is expired trigger no watches
+        connection.expireSession();
+        connection.createPersistent(CONNECTED_PATH + "/b", data(agent("10.0.0.2", "1.0", "d2", null)));
+        connection.setData(CONNECTED_PATH + "/a", data(agent("10.0.0.1", "1.0", "d2", null)), -1);
+        assertEquals(connection.fireWatches(), 0);
+
+        // The new session reloads the registry without a getter being called
+        connection.startSession();
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1", "d2:2"));
+
+        // and sets the watches again
+        update("a", agent("10.0.0.1", "1.0", "d3", null));
+        update("b", agent("10.0.0.2", "1.0", "d3", null));
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1", "d2:2", "d3:2"));
+    }
+
+    public void testFailedRefreshReloads() throws Exception {
+        registry.start();
+        connect("a", agent("10.0.0.1", "1.0", "d1", RuleSetDeploymentResult.OK));
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1"));
+
+        connection.setData(CONNECTED_PATH + "/a", data(agent("10.0.0.1", "1.0", "d2", null)), -1);
+        connection.failNext(CONNECTED_PATH + "/a", Code.CONNECTIONLOSS);
+        connection.fireWatches();
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1", "d2:1"));
+
+        // The reload set the watches again
+        update("a", agent("10.0.0.1", "1.0", "d3", null));
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1", "d2:1", "d3:1"));
+    }
+
+    public void testFailedLoadIsRetried() throws Exception {
+        connection.createPersistent(CONNECTED_PATH + "/a", data(agent("10.0.0.1", "1.0", "d1", null)));
+        connection.failNext(CONNECTED_PATH, Code.CONNECTIONLOSS);
+        connection.failNext(CONNECTED_PATH, Code.CONNECTIONLOSS);
+        registry.setRetryDelay(1, 10);
+
+        registry.start();
+        waitForConvergence(1);
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1"));
+        assertEquals(registry.getAgentCount(), 1);
+    }
+
+    public void testDeletedParentIsReloaded() throws Exception {
+        registry.setRetryDelay(1, 10);
+        registry.start();
+        connect("a", agent("10.0.0.1", "1.0", "d1", null));
+        disconnect("a");
+        connection.delete(CONNECTED_PATH, -1);
+        connection.fireWatches();
+        assertEquals(registry.getAgentCount(), 0);
+
+        connection.createPersistent(CONNECTED_PATH, new byte[0]);
+        connection.createPersistent(CONNECTED_PATH + "/b", data(agent("10.0.0.2", "1.0", "d2", null)));
+        waitForConvergence(2);
+        assertEquals(convergedDigests, Lists.newArrayList("d1:1", "d2:1"));
+    }
+
+    public void testUndecodableAgentIsSkipped() throws Exception {
+        connection.createPersistent(CONNECTED_PATH + "/bad", "not an agent".getBytes("UTF-8"));
+        connect("a", agent("10.0.0.1", "1.0", "d1", RuleSetDeploymentResult.OK));
+
+        assertEquals(registry.getAgentCount(), 1);
+        assertTrue(registry.isConverged("d1"));
+    }
+
+    public void testClosedRegistryIgnoresWatches() throws Exception {
+        connect("a", agent("10.0.0.1", "1.0", "d1", RuleSetDeploymentResult.OK));
+        assertEquals(registry.getAgentCount(), 1);
+        int reads = connection.getReadCount();
+
+        registry.close();
+        connect("b", agent("10.0.0.2", "1.0", "d1", RuleSetDeploymentResult.OK));
+
+        assertEquals(registry.getAgentCount(), 0);
+        assertEquals(connection.getReadCount(), reads);
+    }
+
+    private void waitForConvergence(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(convergedDigests.size() < count && System.currentTimeMillis() < deadline) {
+            // A retry may set watches that fire before the wait is over
+            connection.fireWatches();
+            Thread.sleep(5);
+        }
+    }
+
+    private void connect(String name, AgentInstance agent) throws Exception {
+        connection.createPersistent(CONNECTED_PATH + "/" + name, data(agent));
+        connection.fireWatches();
+    }
+
+    private void update(String name, AgentInstance agent) throws Exception {
+        connection.setData(CONNECTED_PATH + "/" + name, data(agent), -1);
+        connection.fireWatches();
+    }
+
+    private void disconnect(String name) throws Exception {
+        connection.delete(CONNECTED_PATH + "/" + name, -1);
+        connection.fireWatches();
+    }
+
+    private byte[] data(AgentInstance agent) throws Exception {
+        return objectSerializer.writeValue(AgentInstance.writeDto(agent));
+    }
+
+    private static AgentInstance agent(String ip, String version, String digest, RuleSetDeploymentResult result) {
+        AgentInstance agent = new AgentInstance(UUID.nameUUIDFromBytes(ip.getBytes()), ip, version);
+        agent.setActiveRuleSetDigest(digest);
+        if(result != null) {
+            agent.setLastDeploymentEvent(new RuleSetDeploymentEvent(new Date(), digest, result));
+        }
+        return agent;
+    }
+}
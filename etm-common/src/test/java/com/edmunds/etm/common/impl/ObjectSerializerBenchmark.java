@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.etm.common.thrift.HostAddressDto;
+import com.edmunds.etm.common.thrift.HttpMonitorDto;
+import com.edmunds.etm.common.thrift.ManagementPoolMemberDto;
+import com.edmunds.etm.common.thrift.ManagementVipDto;
+import com.edmunds.etm.common.thrift.MavenModuleDto;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares the size and speed of each {@link PayloadFormat} on a realistic management vip.
+ * <p/>
+ * This is not a unit test; run it manually with the test classpath, optionally passing the number of pool members
+ * and URL rules.
+ */
+public class ObjectSerializerBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int MEASURED_ITERATIONS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int memberCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int ruleCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        ManagementVipDto vip = createVip(memberCount, ruleCount);
+
+        ObjectSerializer serializer = new ObjectSerializer();
+        Map<PayloadFormat, Integer> sizes = serializer.measure(vip);
+        int binarySize = sizes.get(PayloadFormat.BINARY);
+
+        System.out.println(String.format("Vip with %d pool members and %d URL rules", memberCount, ruleCount));
+        for(PayloadFormat format : PayloadFormat.values()) {
+            serializer.setPayloadFormat(format);
+            byte[] bytes = serializer.writeValue(vip);
+
+            for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+                serializer.readValue(serializer.writeValue(vip), ManagementVipDto.class);
+            }
+
+            long start = System.nanoTime();
+            for(int i = 0; i < MEASURED_ITERATIONS; i++) {
+                serializer.writeValue(vip);
+            }
+            long written = System.nanoTime();
+            for(int i = 0; i < MEASURED_ITERATIONS; i++) {
+                serializer.readValue(bytes, ManagementVipDto.class);
+            }
+            long read = System.nanoTime();
+
+            int size = sizes.get(format);
+            System.out.println(String.format("%-16s %7d bytes (%5.1f%% of binary)  write %7.1fus  read %7.1fus",
+                format, size, 100.0 * size / binarySize,
+                (written - start) / 1000.0 / MEASURED_ITERATIONS, (read - written) / 1000.0 / MEASURED_ITERATIONS));
+        }
+    }
+
+    private static ManagementVipDto createVip(int memberCount, int ruleCount) {
+        Set<ManagementPoolMemberDto> members = Sets.newHashSet();
+        for(int i = 0; i < memberCount; i++) {
+            String host = String.format("10.%d.%d.%d", i / 65536, (i / 256) % 256, i % 256);
+            members.add(new ManagementPoolMemberDto(new HostAddressDto(host, 8080)));
+        }
+
+        List<String> rules = Lists.newArrayList();
+        for(int i = 0; i < ruleCount; i++) {
+            rules.add(String.format("/[make]/[model]/[year]/section%d/**", i));
+        }
+
+        ManagementVipDto vip = new ManagementVipDto();
+        vip.setHostAddress(new HostAddressDto("10.255.0.1", 80));
+        vip.setContextPath("/inventory");
+        vip.setMavenModule(new MavenModuleDto("com.edmunds.inventory", "inventory-web", "2.4.1"));
+        vip.setUrlRules(rules);
+        vip.setHttpMonitor(new HttpMonitorDto("/inventory/health", "OK"));
+        vip.setPoolMembers(members);
+        return vip;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.etm.common.thrift.HostAddressDto;
+import com.edmunds.etm.common.thrift.UrlTokenDto;
+import com.google.common.collect.Lists;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link ObjectSerializer}.
+ */
+@Test
+public class ObjectSerializerTest {
+
+    public void testRoundTrip() throws Exception {
+        ObjectSerializer serializer = new ObjectSerializer();
+        UrlTokenDto dto = newToken("make", "acura", "bmw");
+
+        byte[] bytes = serializer.writeValue(dto);
+        assertEquals(serializer.readValue(bytes, UrlTokenDto.class), dto);
+
+        // The reused buffer must not leak data between writes
+        UrlTokenDto small = newToken("a");
+        assertEquals(serializer.readValue(serializer.writeValue(small), UrlTokenDto.class), small);
+        assertTrue(Arrays.equals(serializer.writeValue(dto), bytes));
+    }
+
+    public void testWriteTo() throws Exception {
+        ObjectSerializer serializer = new ObjectSerializer();
+        UrlTokenDto dto = newToken("make", "acura", "bmw");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.writeTo(dto, out);
+        assertTrue(Arrays.equals(out.toByteArray(), serializer.writeValue(dto)));
+    }
+
+    public void testReadFromBuffer() throws Exception {
+        ObjectSerializer serializer = new ObjectSerializer();
+        UrlTokenDto first = newToken("make", "acura");
+        UrlTokenDto second = newToken("model", "tl", "tsx");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {1, 2, 3});
+        serializer.writeTo(first, out);
+        serializer.writeTo(second, out);
+        byte[] bytes = out.toByteArray();
+
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        heap.position(3);
+        assertEquals(serializer.readFrom(heap.slice(), UrlTokenDto.class), first);
+        assertEquals(serializer.readFrom(heap, UrlTokenDto.class), first);
+        assertEquals(serializer.readFrom(heap, UrlTokenDto.class), second);
+        assertEquals(heap.remaining(), 0);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        direct.position(3);
+        assertEquals(serializer.readFrom(direct, UrlTokenDto.class), first);
+        assertEquals(serializer.readFrom(direct, UrlTokenDto.class), second);
+        assertEquals(direct.remaining(), 0);
+    }
+
+    public void testUnregisteredType() throws Exception {
+        ObjectSerializer serializer = new ObjectSerializer();
+        HostAddressDto dto = new HostAddressDto();
+        dto.setHost("10.0.0.1");
+        dto.setPort(80);
+        assertEquals(serializer.readValue(serializer.writeValue(dto), HostAddressDto.class), dto);
+    }
+
+    public void testRegisteredFactory() throws Exception {
+        ObjectSerializer serializer = new ObjectSerializer();
+        final int[] created = new int[1];
+        serializer.registerFactory(UrlTokenDto.class, new DtoFactory<UrlTokenDto>() {
+            @Override
+            public UrlTokenDto newInstance() {
+                created[0]++;
+                return new UrlTokenDto();
+            }
+        });
+
+        serializer.readValue(serializer.writeValue(newToken("make", "acura")), UrlTokenDto.class);
+        assertEquals(created[0], 1);
+    }
+
+    public void testConcurrentUse() throws Exception {
+        final ObjectSerializer serializer = new ObjectSerializer();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = Lists.newArrayList();
+            for(int i = 0; i < 8; i++) {
+                final String name = "token" + i;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for(int j = 0; j < 500; j++) {
+                            UrlTokenDto dto = newToken(name, String.valueOf(j));
+                            if(!dto.equals(serializer.readValue(serializer.writeValue(dto), UrlTokenDto.class))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for(Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testPayloadFormats() throws Exception {
+        ObjectSerializer writer = new ObjectSerializer();
+        ObjectSerializer reader = new ObjectSerializer();
+        UrlTokenDto dto = newLargeToken();
+
+        for(PayloadFormat format : PayloadFormat.values()) {
+            writer.setPayloadFormat(format);
+            byte[] bytes = writer.writeValue(dto);
+            assertEquals(reader.readValue(bytes, UrlTokenDto.class), dto, format.name());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.writeTo(dto, out);
+            writer.writeTo(newToken("next"), out);
+            ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+            assertEquals(reader.readFrom(buffer, UrlTokenDto.class), dto, format.name());
+            assertEquals(reader.readFrom(buffer, UrlTokenDto.class), newToken("next"), format.name());
+            assertEquals(buffer.remaining(), 0, format.name());
+        }
+    }
+
+    public void testLegacyBinaryFormatHasNoHeader() throws Exception {
+        ObjectSerializer serializer = new ObjectSerializer();
+        UrlTokenDto dto = newToken("make", "acura");
+        byte[] expected = new TSerializer(new TBinaryProtocol.Factory()).serialize(dto);
+        assertTrue(Arrays.equals(serializer.writeValue(dto), expected));
+    }
+
+    public void testSizeReporting() throws Exception {
+        ObjectSerializer serializer = new ObjectSerializer();
+        serializer.setPayloadFormat(PayloadFormat.COMPACT_DEFLATE);
+        UrlTokenDto dto = newLargeToken();
+
+        Map<PayloadFormat, Integer> sizes = serializer.measure(dto);
+        assertEquals(sizes.size(), PayloadFormat.values().length);
+        assertTrue(sizes.get(PayloadFormat.COMPACT_DEFLATE) < sizes.get(PayloadFormat.BINARY));
+
+        byte[] bytes = serializer.writeValue(dto);
+        assertEquals(serializer.getEncodedBytesWritten(), bytes.length);
+        assertTrue(serializer.getPayloadBytesWritten() > serializer.getEncodedBytesWritten());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testUnknownFormat() throws Exception {
+        new ObjectSerializer().readValue(new byte[] {(byte) 0xE7, 1, 99, 0}, UrlTokenDto.class);
+    }
+
+    private static UrlTokenDto newLargeToken() {
+        List<String> values = Lists.newArrayList();
+        for(int i = 0; i < 200; i++) {
+            values.add("value-number-" + i);
+        }
+        return new UrlTokenDto("large", "FIXED", values);
+    }
+
+    private static UrlTokenDto newToken(String name, String... values) {
+        return new UrlTokenDto(name, "FIXED", Lists.newArrayList(values));
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.zookeeper.connection.ZooKeeperConnection;
+import com.edmunds.zookeeper.connection.ZooKeeperConnectionListener;
+import com.edmunds.zookeeper.connection.ZooKeeperConnectionState;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * In-memory stand-in for a ZooKeeper connection.
+ * <p/>
+ * Nodes have data and a version, and child and data watches are one-shot as in ZooKeeper. Triggered watches are
+ * queued until {@link #fireWatches()} is called, which delivers them on the calling thread. Asynchronous callbacks
+ * run before the request method returns. {@link #expireSession()} drops every watch, as a real session expiry does.
+ */
+class StubZooKeeperConnection extends ZooKeeperConnection {
+
+    private final Map<String, Node> nodes = Maps.newTreeMap();
+    private final Map<String, Set<Watcher>> dataWatches = Maps.newHashMap();
+    private final Map<String, Set<Watcher>> childWatches = Maps.newHashMap();
+    private final List<Watch> triggered = Lists.newArrayList();
+    private final Map<String, LinkedList<Code>> failures = Maps.newHashMap();
+    private final List<ZooKeeperConnectionListener> listeners = Lists.newArrayList();
+    private final Map<String, Runnable> afterRead = Maps.newHashMap();
+    private final List<String> mutations = Lists.newArrayList();
+    private int readCount;
+
+    StubZooKeeperConnection() {
+        super("localhost:2181", 10000);
+    }
+
+    /**
+     * Makes the next request for a path fail. Calling it again makes the request after that fail too.
+     *
+     * @param path node path
+     * @param code error to return
+     */
+    synchronized void failNext(String path, Code code) {
+        LinkedList<Code> codes = failures.get(path);
+        if(codes == null) {
+            codes = new LinkedList<Code>();
+            failures.put(path, codes);
+        }
+        codes.add(code);
+    }
+
+    /**
+     * Expires the session: every watcher is sent an {@code Expired} event and loses its watches, and the connection
+     * listeners are told the session expired. Events are delivered on the calling thread.
+     */
+    void expireSession() {
+        Set<Watcher> watchers = Sets.newLinkedHashSet();
+        synchronized(this) {
+            for(Set<Watcher> pathWatchers : dataWatches.values()) {
+                watchers.addAll(pathWatchers);
+            }
+            for(Set<Watcher> pathWatchers : childWatches.values()) {
+                watchers.addAll(pathWatchers);
+            }
+            dataWatches.clear();
+            childWatches.clear();
+            triggered.clear();
+        }
+        for(Watcher watcher : watchers) {
+            watcher.process(new WatchedEvent(EventType.None, KeeperState.Expired, null));
+        }
+        notifyListeners(ZooKeeperConnectionState.EXPIRED);
+    }
+
+    /**
+     * Tells the connection listeners that a new session was established. Like ZooKeeper, the stub sends no event to
+     * the watchers of the expired session.
+     */
+    void startSession() {
+        notifyListeners(ZooKeeperConnectionState.INITIALIZED);
+    }
+
+    @Override
+    public synchronized void addListener(ZooKeeperConnectionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Runs an action right after the next data read of a path, as if another client changed it concurrently.
+     *
+     * @param path   node path
+     * @param action the action to run
+     */
+    synchronized void afterNextRead(String path, Runnable action) {
+        afterRead.put(path, action);
+    }
+
+    /**
+     * Gets the number of data reads made so far.
+     *
+     * @return data read count
+     */
+    synchronized int getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Gets the successful writes made so far, such as {@code "create /a"}, {@code "set /a"} or {@code "delete /a"}.
+     *
+     * @return write log in order
+     */
+    synchronized List<String> getMutations() {
+        return Lists.newArrayList(mutations);
+    }
+
+    /**
+     * Gets the current version of a node.
+     *
+     * @param path node path
+     * @return node version, or -1 if the node does not exist
+     */
+    synchronized int getVersion(String path) {
+        Node node = nodes.get(path);
+        return node != null ? node.version : -1;
+    }
+
+    /**
+     * Delivers the watches triggered since the last call.
+     *
+     * @return number of events delivered
+     */
+    int fireWatches() {
+        List<Watch> pending;
+        synchronized(this) {
+            pending = Lists.newArrayList(triggered);
+            triggered.clear();
+        }
+        for(Watch watch : pending) {
+            watch.watcher.process(watch.event);
+        }
+        return pending.size();
+    }
+
+    @Override
+    public synchronized List<String> getChildren(String path, Watcher watcher)
+        throws KeeperException, InterruptedException {
+        checkFailure(path);
+        if(!nodes.containsKey(path)) {
+            throw KeeperException.create(Code.NONODE, path);
+        }
+        addWatch(childWatches, path, watcher);
+        return children(path);
+    }
+
+    @Override
+    public byte[] getData(String path, Watcher watcher, Stat stat) throws KeeperException, InterruptedException {
+        Node node;
+        Runnable action;
+        synchronized(this) {
+            readCount++;
+            checkFailure(path);
+            node = nodes.get(path);
+            if(node == null) {
+                throw KeeperException.create(Code.NONODE, path);
+            }
+            addWatch(dataWatches, path, watcher);
+            if(stat != null) {
+                stat.setVersion(node.version);
+            }
+            action = afterRead.remove(path);
+        }
+        if(action != null) {
+            action.run();
+        }
+        return node.data;
+    }
+
+    @Override
+    public void getData(String path, Watcher watcher, DataCallback cb, Object ctx) {
+        Stat stat = new Stat();
+        byte[] data = null;
+        Code code = Code.OK;
+        try {
+            data = getData(path, watcher, stat);
+        } catch(KeeperException e) {
+            code = e.code();
+            stat = null;
+        } catch(InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        cb.processResult(code.intValue(), path, ctx, data, stat);
+    }
+
+    @Override
+    public synchronized String createPersistent(String path, byte[] data) throws KeeperException {
+        checkFailure(path);
+        if(nodes.containsKey(path)) {
+            throw KeeperException.create(Code.NODEEXISTS, path);
+        }
+        String parent = parentOf(path);
+        if(parent != null && !nodes.containsKey(parent)) {
+            throw KeeperException.create(Code.NONODE, parent);
+        }
+        nodes.put(path, new Node(data));
+        mutations.add("create " + path);
+        trigger(dataWatches, path, EventType.NodeCreated);
+        if(parent != null) {
+            trigger(childWatches, parent, EventType.NodeChildrenChanged);
+        }
+        return path;
+    }
+
+    @Override
+    public synchronized Stat setData(String path, byte[] data, int version) throws KeeperException {
+        Node node = checkVersion(path, version);
+        node.data = data;
+        node.version++;
+        mutations.add("set " + path);
+        trigger(dataWatches, path, EventType.NodeDataChanged);
+        Stat stat = new Stat();
+        stat.setVersion(node.version);
+        return stat;
+    }
+
+    @Override
+    public synchronized void delete(String path, int version) throws KeeperException {
+        checkVersion(path, version);
+        if(!children(path).isEmpty()) {
+            throw KeeperException.create(Code.NOTEMPTY, path);
+        }
+        nodes.remove(path);
+        mutations.add("delete " + path);
+        trigger(dataWatches, path, EventType.NodeDeleted);
+        trigger(childWatches, path, EventType.NodeDeleted);
+        String parent = parentOf(path);
+        if(parent != null) {
+            trigger(childWatches, parent, EventType.NodeChildrenChanged);
+        }
+    }
+
+    private Node checkVersion(String path, int version) throws KeeperException {
+        checkFailure(path);
+        Node node = nodes.get(path);
+        if(node == null) {
+            throw KeeperException.create(Code.NONODE, path);
+        }
+        if(version != -1 && version != node.version) {
+            throw KeeperException.create(Code.BADVERSION, path);
+        }
+        return node;
+    }
+
+    private void checkFailure(String path) throws KeeperException {
+        LinkedList<Code> codes = failures.get(path);
+        if(codes != null) {
+            Code code = codes.removeFirst();
+            if(codes.isEmpty()) {
+                failures.remove(path);
+            }
+            throw KeeperException.create(code, path);
+        }
+    }
+
+    private void notifyListeners(ZooKeeperConnectionState state) {
+        List<ZooKeeperConnectionListener> current;
+        synchronized(this) {
+            current = Lists.newArrayList(listeners);
+        }
+        for(ZooKeeperConnectionListener listener : current) {
+            listener.onConnectionStateChanged(state);
+        }
+    }
+
+    private List<String> children(String path) {
+        List<String> children = Lists.newArrayList();
+        String prefix = path + "/";
+        for(String nodePath : nodes.keySet()) {
+            if(nodePath.startsWith(prefix) && nodePath.indexOf('/', prefix.length()) < 0) {
+                children.add(nodePath.substring(prefix.length()));
+            }
+        }
+        return children;
+    }
+
+    private static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index > 0 ? path.substring(0, index) : null;
+    }
+
+    private static void addWatch(Map<String, Set<Watcher>> watches, String path, Watcher watcher) {
+        if(watcher == null) {
+            return;
+        }
+        Set<Watcher> watchers = watches.get(path);
+        if(watchers == null) {
+            watchers = Sets.newLinkedHashSet();
+            watches.put(path, watchers);
+        }
+        watchers.add(watcher);
+    }
+
+    private void trigger(Map<String, Set<Watcher>> watches, String path, EventType type) {
+        Set<Watcher> watchers = watches.remove(path);
+        if(watchers != null) {
+            for(Watcher watcher : watchers) {
+                triggered.add(new Watch(watcher, new WatchedEvent(type, KeeperState.SyncConnected, path)));
+            }
+        }
+    }
+
+    private static final class Node {
+        private byte[] data;
+        private int version;
+
+        private Node(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private static final class Watch {
+        private final Watcher watcher;
+        private final WatchedEvent event;
+
+        private Watch(Watcher watcher, WatchedEvent event) {
+            this.watcher = watcher;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.etm.common.api.ControllerPaths;
+import com.edmunds.etm.common.api.UrlToken;
+import com.edmunds.etm.common.api.UrlTokenType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.util.Map;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+@Test
+public class UrlTokenCacheTest {
+
+    static final String TOKENS_PATH = "/urltokens";
+
+    private StubZooKeeperConnection connection;
+    private ObjectSerializer objectSerializer;
+    private UrlTokenCache cache;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        connection = new StubZooKeeperConnection();
+        objectSerializer = new ObjectSerializer();
+        connection.createPersistent(TOKENS_PATH, new byte[0]);
+        connection.createPersistent(TOKENS_PATH + "/a", data(token("a", "1")));
+        connection.createPersistent(TOKENS_PATH + "/b", data(token("b", "2")));
+        cache = new UrlTokenCache(connection, controllerPaths(), objectSerializer);
+    }
+
+    public void testSnapshotIsLoadedOnce() {
+        Map<String, UrlToken> tokens = cache.getTokens();
+        assertEquals(tokens.keySet(), Sets.newHashSet("a", "b"));
+        assertEquals(tokens.get("b").getValues(), Lists.newArrayList("2"));
+
+        assertSame(cache.getTokens(), tokens);
+        assertEquals(connection.getReadCount(), 2);
+    }
+
+    public void testChildWatchReadsOnlyNewTokens() throws Exception {
+        cache.getTokens();
+        connection.createPersistent(TOKENS_PATH + "/c", data(token("c", "3")));
+        connection.delete(TOKENS_PATH + "/a", -1);
+        connection.fireWatches();
+
+        assertEquals(cache.getTokens().keySet(), Sets.newHashSet("b", "c"));
+        // c is read and the data watch on a finds it gone; b is not read again
+        assertEquals(connection.getReadCount(), 4);
+    }
+
+    public void testDataWatchRefreshesChangedToken() throws Exception {
+        Map<String, UrlToken> before = cache.getTokens();
+        connection.setData(TOKENS_PATH + "/b", data(token("b", "2", "22")), -1);
+        connection.fireWatches();
+
+        Map<String, UrlToken> after = cache.getTokens();
+        assertEquals(after.get("b").getValues(), Lists.newArrayList("2", "22"));
+        assertSame(after.get("a"), before.get("a"));
+        assertEquals(before.get("b").getValues(), Lists.newArrayList("2"));
+    }
+
+    public void testWatchesAreRenewed() throws Exception {
+        cache.getTokens();
+        connection.setData(TOKENS_PATH + "/a", data(token("a", "x")), -1);
+        connection.fireWatches();
+        connection.setData(TOKENS_PATH + "/a", data(token("a", "y")), -1);
+        connection.createPersistent(TOKENS_PATH + "/c", data(token("c", "3")));
+        connection.fireWatches();
+
+        Map<String, UrlToken> tokens = cache.getTokens();
+        assertEquals(tokens.get("a").getValues(), Lists.newArrayList("y"));
+        assertEquals(tokens.keySet(), Sets.newHashSet("a", "b", "c"));
+    }
+
+    public void testExpiredSessionDiscardsSnapshot() {
+        cache.getTokens();
+        cache.process(new WatchedEvent(EventType.None, KeeperState.Expired, null));
+
+        assertEquals(cache.getTokens().keySet(), Sets.newHashSet("a", "b"));
+        assertEquals(connection.getReadCount(), 4);
+    }
+
+    public void testFailedRefreshDiscardsSnapshot() throws Exception {
+        cache.getTokens();
+        connection.setData(TOKENS_PATH + "/a", data(token("a", "x")), -1);
+        connection.failNext(TOKENS_PATH + "/a", Code.CONNECTIONLOSS);
+        connection.fireWatches();
+
+        // The next read reloads everything and sets the watches again
+        assertEquals(cache.getTokens().get("a").getValues(), Lists.newArrayList("x"));
+        assertEquals(connection.getReadCount(), 5);
+    }
+
+    public void testDeletedParentDiscardsSnapshot() throws Exception {
+        cache.getTokens();
+        connection.delete(TOKENS_PATH + "/a", -1);
+        connection.delete(TOKENS_PATH + "/b", -1);
+        connection.delete(TOKENS_PATH, -1);
+        connection.fireWatches();
+
+        assertNull(cache.getTokens());
+    }
+
+    public void testWritesAreVisibleBeforeWatchFires() throws Exception {
+        cache.getTokens();
+        UrlToken written = token("c", "3");
+        connection.createPersistent(TOKENS_PATH + "/c", data(written));
+        cache.tokenWritten(written);
+        connection.delete(TOKENS_PATH + "/a", -1);
+        cache.tokenDeleted("a");
+
+        Map<String, UrlToken> tokens = cache.getTokens();
+        assertEquals(tokens.keySet(), Sets.newHashSet("b", "c"));
+
+        // The cache holds a copy of the written token
+        written.addValue("33");
+        assertEquals(cache.getTokens().get("c").getValues(), Lists.newArrayList("3"));
+
+        connection.fireWatches();
+        assertEquals(cache.getTokens().keySet(), Sets.newHashSet("b", "c"));
+    }
+
+    public void testWritesBeforeLoadAreIgnored() {
+        cache.tokenWritten(token("c", "3"));
+        cache.tokenDeleted("a");
+
+        assertEquals(connection.getReadCount(), 0);
+        assertEquals(cache.getTokens().keySet(), Sets.newHashSet("a", "b"));
+    }
+
+    public void testClosedCacheIgnoresWatches() throws Exception {
+        cache.getTokens();
+        cache.close();
+        connection.createPersistent(TOKENS_PATH + "/c", data(token("c", "3")));
+        connection.fireWatches();
+
+        assertNull(cache.getTokens());
+        assertEquals(connection.getReadCount(), 2);
+    }
+
+    public void testUndecodableTokenIsSkipped() throws Exception {
+        connection.createPersistent(TOKENS_PATH + "/bad", "not a token".getBytes("UTF-8"));
+
+        Map<String, UrlToken> tokens = cache.getTokens();
+        assertNotNull(tokens);
+        assertEquals(tokens.keySet(), Sets.newHashSet("a", "b"));
+    }
+
+    private byte[] data(UrlToken token) throws Exception {
+        return objectSerializer.writeValue(UrlToken.writeDto(token));
+    }
+
+    static ControllerPaths controllerPaths() {
+        return new ControllerPaths(null) {
+            @Override
+            public String getUrlTokens() {
+                return TOKENS_PATH;
+            }
+        };
+    }
+
+    static UrlToken token(String name, String... values) {
+        return UrlToken.newUrlToken(UrlTokenType.FIXED, name, Lists.newArrayList(values));
+    }
+}
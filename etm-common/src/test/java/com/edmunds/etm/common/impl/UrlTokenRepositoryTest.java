@@ -0,0 +1,215 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.impl;
+
+import com.edmunds.etm.common.api.UrlToken;
+import com.edmunds.etm.common.xml.TestDataProvider;
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.edmunds.etm.common.impl.UrlTokenCacheTest.TOKENS_PATH;
+import static com.edmunds.etm.common.impl.UrlTokenCacheTest.controllerPaths;
+import static com.edmunds.etm.common.impl.UrlTokenCacheTest.token;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class UrlTokenRepositoryTest {
+
+    private StubZooKeeperConnection connection;
+    private ObjectSerializer objectSerializer;
+    private UrlTokenRepository repository;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        connection = new StubZooKeeperConnection();
+        objectSerializer = new ObjectSerializer();
+        connection.createPersistent(TOKENS_PATH, new byte[0]);
+        repository = new UrlTokenRepository(connection, controllerPaths(), objectSerializer);
+    }
+
+    public void testGetAllTokens() throws Exception {
+        store(token("a", "1"));
+        store(token("b", "2", "3"));
+
+        UrlTokenReadResult result = repository.getAllTokens();
+        assertTrue(result.isComplete());
+        assertEquals(Lists.newArrayList(result.getTokens().keySet()), Lists.newArrayList("a", "b"));
+        assertEquals(result.getTokens().get("b").getValues(), Lists.newArrayList("2", "3"));
+    }
+
+    public void testGetAllTokensWithoutTokens() {
+        UrlTokenReadResult result = repository.getAllTokens();
+        assertTrue(result.isComplete());
+        assertTrue(result.getTokens().isEmpty());
+    }
+
+    public void testTokenDeletedAfterListingIsOmitted() throws Exception {
+        store(token("a", "1"));
+        store(token("b", "2"));
+        connection.failNext(TOKENS_PATH + "/a", Code.NONODE);
+
+        UrlTokenReadResult result = repository.getAllTokens();
+        assertTrue(result.isComplete());
+        assertEquals(Lists.newArrayList(result.getTokens().keySet()), Lists.newArrayList("b"));
+    }
+
+    public void testFailuresAreRecordedPerNode() throws Exception {
+        store(token("a", "1"));
+        store(token("b", "2"));
+        store(token("c", "3"));
+        connection.setData(TOKENS_PATH + "/a", "not a token".getBytes("UTF-8"), -1);
+        connection.failNext(TOKENS_PATH + "/c", Code.CONNECTIONLOSS);
+
+        UrlTokenReadResult result = repository.getAllTokens();
+        assertFalse(result.isComplete());
+        assertEquals(Lists.newArrayList(result.getTokens().keySet()), Lists.newArrayList("b"));
+        assertEquals(Lists.newArrayList(result.getErrors().keySet()),
+            Lists.newArrayList(TOKENS_PATH + "/a", TOKENS_PATH + "/c"));
+        assertTrue(result.getErrors().get(TOKENS_PATH + "/a") instanceof IOException);
+        assertEquals(((KeeperException) result.getErrors().get(TOKENS_PATH + "/c")).code(), Code.CONNECTIONLOSS);
+    }
+
+    public void testListingFailure() throws Exception {
+        store(token("a", "1"));
+        connection.failNext(TOKENS_PATH, Code.CONNECTIONLOSS);
+
+        UrlTokenReadResult result = repository.getAllTokens();
+        assertFalse(result.isComplete());
+        assertTrue(result.getTokens().isEmpty());
+        assertEquals(Lists.newArrayList(result.getErrors().keySet()), Lists.newArrayList(TOKENS_PATH));
+    }
+
+    public void testSyncTokens() throws Exception {
+        store(token("a", "1"));
+        store(token("b", "2"));
+        store(token("c", "3"));
+        connection.setData(TOKENS_PATH + "/b", data(token("b", "2")), -1);
+        int mutations = connection.getMutations().size();
+
+        UrlTokenSyncResult result = repository.syncTokens(Lists.newArrayList(
+            token("d", "4"), token("b", "2", "22"), token("a", "1")));
+
+        assertEquals(result.getCreated(), Lists.newArrayList("d"));
+        assertEquals(result.getUpdated(), Lists.newArrayList("b"));
+        assertEquals(result.getDeleted(), Lists.newArrayList("c"));
+        assertEquals(result.getUnchanged(), Lists.newArrayList("a"));
+        assertTrue(result.getConflicts().isEmpty());
+        assertTrue(result.isChanged());
+
+        // Creates and updates come before deletes, and unchanged tokens are not written
+        assertEquals(connection.getMutations().subList(mutations, connection.getMutations().size()),
+            Lists.newArrayList("create " + TOKENS_PATH + "/d", "set " + TOKENS_PATH + "/b",
+                "delete " + TOKENS_PATH + "/c"));
+        assertEquals(connection.getVersion(TOKENS_PATH + "/a"), 0);
+        assertEquals(connection.getVersion(TOKENS_PATH + "/b"), 2);
+        assertEquals(repository.getToken("b").getValues(), Lists.newArrayList("2", "22"));
+    }
+
+    public void testSyncTokensWithoutDifferences() throws Exception {
+        store(token("a", "1"));
+        int mutations = connection.getMutations().size();
+
+        UrlTokenSyncResult result = repository.syncTokens(Lists.newArrayList(token("a", "1")));
+        assertFalse(result.isChanged());
+        assertEquals(result.getUnchanged(), Lists.newArrayList("a"));
+        assertEquals(connection.getMutations().size(), mutations);
+    }
+
+    public void testSyncTokensReportsConcurrentChanges() throws Exception {
+        store(token("a", "1"));
+        store(token("b", "2"));
+        final byte[] concurrentA = data(token("a", "other"));
+        final byte[] concurrentB = data(token("b", "other"));
+        connection.afterNextRead(TOKENS_PATH + "/a", new Runnable() {
+            @Override
+            public void run() {
+                setData(TOKENS_PATH + "/a", concurrentA);
+            }
+        });
+        connection.afterNextRead(TOKENS_PATH + "/b", new Runnable() {
+            @Override
+            public void run() {
+                setData(TOKENS_PATH + "/b", concurrentB);
+            }
+        });
+        connection.failNext(TOKENS_PATH + "/c", Code.NODEEXISTS);
+
+        UrlTokenSyncResult result = repository.syncTokens(Lists.newArrayList(token("a", "11"), token("c", "3")));
+
+        // The update of a and the delete of b were made against the version read before the concurrent writes
+        assertEquals(result.getConflicts(), Lists.newArrayList("a", "c", "b"));
+        assertTrue(result.getCreated().isEmpty());
+        assertTrue(result.getUpdated().isEmpty());
+        assertTrue(result.getDeleted().isEmpty());
+        assertEquals(repository.getToken("a").getValues(), Lists.newArrayList("other"));
+        assertEquals(repository.getToken("b").getValues(), Lists.newArrayList("other"));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSyncTokensRequiresCompleteRead() throws Exception {
+        store(token("a", "1"));
+        connection.failNext(TOKENS_PATH + "/a", Code.CONNECTIONLOSS);
+        int mutations = connection.getMutations().size();
+        try {
+            repository.syncTokens(Lists.newArrayList(token("b", "2")));
+        } finally {
+            assertEquals(connection.getMutations().size(), mutations);
+        }
+    }
+
+    public void testLoadTokensFromFileReplacesThroughSync() throws Exception {
+        File file = new File(getClass().getResource(TestDataProvider.URL_TOKENS_FILE).toURI());
+        List<UrlToken> fileTokens = repository.readTokensFromFile(file);
+        UrlToken first = fileTokens.get(0);
+        store(first);
+        store(token("obsolete", "1"));
+
+        repository.loadTokensFromFile(file, true);
+
+        List<String> expected = Lists.newArrayList();
+        for(UrlToken token : fileTokens) {
+            expected.add(token.getName());
+        }
+        Collections.sort(expected);
+        assertEquals(Lists.newArrayList(repository.getAllTokens().getTokens().keySet()), expected);
+        assertEquals(connection.getVersion(TOKENS_PATH + "/" + first.getName()), 0);
+    }
+
+    private void setData(String path, byte[] data) {
+        try {
+            connection.setData(path, data, -1);
+        } catch(KeeperException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] data(UrlToken token) throws IOException {
+        return objectSerializer.writeValue(UrlToken.writeDto(token));
+    }
+
+    private void store(UrlToken token) throws Exception {
+        connection.createPersistent(TOKENS_PATH + "/" + token.getName(), data(token));
+    }
+}
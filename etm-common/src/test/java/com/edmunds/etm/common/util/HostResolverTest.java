@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.util;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class HostResolverTest {
+
+    private FakeResolver resolver;
+
+    @AfterMethod
+    public void tearDown() {
+        if(resolver != null) {
+            resolver.shutdown();
+        }
+    }
+
+    public void testGetDoesNotBlock() throws Exception {
+        resolver = new FakeResolver();
+        resolver.release = new CountDownLatch(1);
+
+        long start = System.nanoTime();
+        assertNull(resolver.getHostName("10.0.0.1"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        resolver.release.countDown();
+        assertEquals(resolver.resolveHostName("10.0.0.1", 5, TimeUnit.SECONDS), "host-10.0.0.1");
+        assertEquals(resolver.getHostName("10.0.0.1"), "host-10.0.0.1");
+        assertEquals(resolver.lookups.get(), 1);
+    }
+
+    public void testLiteralAddressIsNotLookedUp() {
+        resolver = new FakeResolver();
+        assertEquals(resolver.getIpAddress("10.0.0.1"), "10.0.0.1");
+        assertEquals(resolver.getIpAddress("::1"), "::1");
+        assertEquals(resolver.lookups.get(), 0);
+    }
+
+    public void testUnresolvableOnlyAfterFailedLookup() throws Exception {
+        resolver = new FakeResolver();
+
+        assertFalse(resolver.isUnresolvable("unknown"));
+        assertFalse(resolver.isUnresolvable("known"));
+        resolver.getIpAddress("unknown");
+        resolver.getIpAddress("known");
+        waitForLookups(2);
+
+        assertTrue(resolver.isUnresolvable("unknown"));
+        assertFalse(resolver.isUnresolvable("known"));
+        assertEquals(resolver.getIpAddress("known"), "1.2.3.4");
+        assertFalse(resolver.isUnresolvable("10.0.0.1"));
+    }
+
+    public void testCacheIsBounded() throws Exception {
+        resolver = new FakeResolver();
+        resolver.setMaxEntries(8);
+
+        for(int i = 0; i < 50; i++) {
+            resolver.getIpAddress("host" + i);
+            waitForLookups(i + 1);
+        }
+        assertTrue(resolver.size() <= 9, "size " + resolver.size());
+
+        // Recent entries survive eviction.
+        assertEquals(resolver.getIpAddress("host49"), "1.2.3.4");
+    }
+
+    public void testNewEntryIsNotEvicted() throws Exception {
+        resolver = new FakeResolver();
+        resolver.setMaxEntries(1);
+
+        resolver.getIpAddress("host1");
+        waitForLookups(1);
+        resolver.getIpAddress("host2");
+        waitForLookups(2);
+
+        assertEquals(resolver.getIpAddress("host2"), "1.2.3.4");
+        assertEquals(resolver.lookups.get(), 2);
+        assertEquals(resolver.size(), 1);
+    }
+
+    public void testNegativeCaching() throws Exception {
+        resolver = new FakeResolver();
+        resolver.setNegativeTtl(TimeUnit.MINUTES.toMillis(1));
+
+        assertNull(resolver.resolveHostName("unknown", 5, TimeUnit.SECONDS));
+        assertNull(resolver.getHostName("unknown"));
+        assertNull(resolver.getHostName("unknown"));
+        assertEquals(resolver.lookups.get(), 1);
+    }
+
+    public void testExpiredEntryServesStaleValueWhileRefreshing() throws Exception {
+        resolver = new FakeResolver();
+        resolver.setPositiveTtl(0);
+
+        assertEquals(resolver.resolveHostName("10.0.0.2", 5, TimeUnit.SECONDS), "host-10.0.0.2");
+
+        // Refresh fails, the previously resolved name is kept
+        resolver.fail = true;
+        resolver.release = new CountDownLatch(1);
+        assertEquals(resolver.getHostName("10.0.0.2"), "host-10.0.0.2");
+        resolver.release.countDown();
+        waitForLookups(2);
+        assertEquals(resolver.getHostName("10.0.0.2"), "host-10.0.0.2");
+    }
+
+    public void testFullQueueDropsLookup() throws Exception {
+        resolver = new FakeResolver(1, 1);
+        resolver.release = new CountDownLatch(1);
+
+        resolver.getHostName("a");
+        waitForStarted(1);
+        resolver.getHostName("b");
+        assertNull(resolver.getHostName("c"));
+
+        resolver.release.countDown();
+        waitForLookups(2);
+        assertEquals(resolver.resolveHostName("c", 5, TimeUnit.SECONDS), "host-c");
+    }
+
+    private void waitForLookups(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(resolver.lookups.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(resolver.lookups.get() >= count);
+        Thread.sleep(50);
+    }
+
+    private void waitForStarted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(resolver.started.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static class FakeResolver extends HostResolver {
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger lookups = new AtomicInteger();
+        private volatile CountDownLatch release = new CountDownLatch(0);
+        private volatile boolean fail;
+
+        FakeResolver() {
+            this(2, 16);
+        }
+
+        FakeResolver(int threads, int queueSize) {
+            super(threads, queueSize);
+        }
+
+        @Override
+        protected String lookupAddress(String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if("unknown".equals(host)) {
+                throw new UnknownHostException(host);
+            }
+            return "1.2.3.4";
+        }
+
+        @Override
+        protected String lookupHostName(String host) throws UnknownHostException {
+            started.incrementAndGet();
+            try {
+                release.await();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lookups.incrementAndGet();
+            if(fail || "unknown".equals(host)) {
+                throw new UnknownHostException(host);
+            }
+            return "host-" + host;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.common.xml;
+
+import java.io.ByteArrayInputStream;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import org.testng.annotations.Test;
+
+import static com.edmunds.etm.common.xml.TestDataProvider.*;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for {@link ValidatingStreamReader}.
+ */
+@Test
+public class ValidatingStreamReaderTest {
+
+    public void testValidDocuments() throws Exception {
+        assertNull(read(loadConfigurationFromFile(DRR_CONFIG_FILE), XmlValidator.CLIENT_CONFIG_XSD));
+        assertNull(read(loadConfigurationFromFile(URL_TOKENS_FILE), XmlValidator.URL_TOKENS_XSD));
+    }
+
+    public void testInvalidDocument() throws Exception {
+        String xml = "<urlTokens><bogus/></urlTokens>";
+        assertNotNull(read(xml.getBytes("UTF-8"), XmlValidator.URL_TOKENS_XSD));
+    }
+
+    public void testWrongRootElement() throws Exception {
+        assertNotNull(read(loadConfigurationFromFile(URL_TOKENS_FILE), XmlValidator.CLIENT_CONFIG_XSD));
+    }
+
+    private static Exception read(byte[] xml, String schemaFile) throws Exception {
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        Schema schema = factory.newSchema(new StreamSource(XmlValidator.class.getResourceAsStream(schemaFile)));
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(xml));
+        ValidatingStreamReader validatingReader = new ValidatingStreamReader(reader, schema.newValidatorHandler());
+        try {
+            validatingReader.finish();
+        } catch(XMLStreamException e) {
+            if(validatingReader.getValidationError() == null) {
+                fail("Validation error not recorded", e);
+            }
+            return e;
+        }
+        return null;
+    }
+}
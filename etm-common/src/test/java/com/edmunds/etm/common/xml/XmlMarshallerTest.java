@@ -17,9 +17,14 @@ package com.edmunds.etm.common.xml;
 
 import com.edmunds.etm.common.thrift.ClientConfigDto;
 import com.edmunds.etm.common.thrift.UrlTokenCollectionDto;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import org.testng.annotations.Test;
 
 import static com.edmunds.etm.common.xml.TestDataProvider.*;
+import static com.edmunds.etm.common.xml.XmlValidator.CLIENT_CONFIG_XSD;
+import static com.edmunds.etm.common.xml.XmlValidator.URL_TOKENS_XSD;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 
 /**
@@ -71,4 +76,30 @@ public class XmlMarshallerTest {
         ClientConfigDto config = TestDataProvider.createNewClientConfig();
         XmlMarshaller.marshalToXMLAndSave(config, ".");
     }
+
+    public void testStreamingUnmarshallClientConfigOk() throws XmlValidationException {
+        InputStream in = new ByteArrayInputStream(loadConfigurationFromFile(DRR_CONFIG_FILE));
+        ClientConfigDto config = new XmlValidator().unmarshal(in, CLIENT_CONFIG_XSD, ClientConfigDto.class);
+        assertNotNull(config);
+    }
+
+    public void testStreamingUnmarshallUrlTokensOk() throws XmlValidationException {
+        byte[] bytes = loadConfigurationFromFile(URL_TOKENS_FILE);
+        UrlTokenCollectionDto expected = XmlMarshaller.unmarshal(bytes, UrlTokenCollectionDto.class);
+        UrlTokenCollectionDto dto = new XmlValidator().unmarshal(
+            new ByteArrayInputStream(bytes), URL_TOKENS_XSD, UrlTokenCollectionDto.class);
+        assertEquals(dto.getTokens(), expected.getTokens());
+    }
+
+    @Test(expectedExceptions = XmlValidationException.class)
+    public void testStreamingUnmarshallInvalidDocument() throws XmlValidationException {
+        InputStream in = new ByteArrayInputStream("<urlTokens><bogus/></urlTokens>".getBytes());
+        new XmlValidator().unmarshal(in, URL_TOKENS_XSD, UrlTokenCollectionDto.class);
+    }
+
+    @Test(expectedExceptions = XmlValidationException.class)
+    public void testStreamingUnmarshallMalformedDocument() throws XmlValidationException {
+        InputStream in = new ByteArrayInputStream("failure".getBytes());
+        new XmlValidator().unmarshal(in, CLIENT_CONFIG_XSD, ClientConfigDto.class);
+    }
 }
@@ -15,12 +15,21 @@
  */
 package com.edmunds.etm.common.xml;
 
+import com.google.common.collect.Lists;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.testng.annotations.Test;
 
 import static com.edmunds.etm.common.xml.TestDataProvider.*;
 import static com.edmunds.etm.common.xml.XmlValidator.CLIENT_CONFIG_XSD;
 import static com.edmunds.etm.common.xml.XmlValidator.URL_TOKENS_XSD;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 /**
  * Test for configValidator. <p/> <p/> Copyright (C) 2010 Edmunds.com <p/> <p/> Date: Mar 3, 2010
@@ -54,4 +63,59 @@ public class XmlValidatorTest {
         XmlValidator xmlValidator = new XmlValidator();
         xmlValidator.validate("failure".getBytes(), null);
     }
+
+    public void testPreloadSchemas() {
+        new XmlValidator().preloadSchemas();
+    }
+
+    public void testStatistics() throws IOException {
+        XmlValidator xmlValidator = new XmlValidator();
+        ValidationStatistics stats = xmlValidator.getStatistics(URL_TOKENS_XSD);
+        long count = stats.getCount();
+        long failures = stats.getFailureCount();
+
+        try {
+            xmlValidator.validate(loadConfigurationFromFile(URL_TOKENS_FILE), URL_TOKENS_XSD);
+            xmlValidator.validate("failure".getBytes(), URL_TOKENS_XSD);
+        } catch(XmlValidationException e) {
+            // expected for the second document
+        }
+
+        assertEquals(stats.getCount(), count + 2);
+        assertEquals(stats.getFailureCount(), failures + 1);
+        assertTrue(stats.getMaxTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    public void testConcurrentValidation() throws Exception {
+        final XmlValidator xmlValidator = new XmlValidator();
+        final byte[] valid = loadConfigurationFromFile(DRR_CONFIG_FILE);
+        final byte[] invalid = loadConfigurationFromFile(URL_TOKENS_FILE);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = Lists.newArrayList();
+            for(int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int failures = 0;
+                        for(int j = 0; j < 100; j++) {
+                            xmlValidator.validate(valid, CLIENT_CONFIG_XSD);
+                            try {
+                                xmlValidator.validate(invalid, CLIENT_CONFIG_XSD);
+                            } catch(XmlValidationException e) {
+                                failures++;
+                            }
+                        }
+                        return failures;
+                    }
+                }));
+            }
+            for(Future<Integer> future : futures) {
+                assertEquals(future.get().intValue(), 100);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.HttpMonitor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of {@link LoadBalancerConnection}.
+ * <p/>
+ * Every method returns immediately with a {@link Future}. A failed call completes its future with an
+ * {@link java.util.concurrent.ExecutionException} wrapping the exception the blocking method would have thrown. Each
+ * call takes a timeout, measured from submission; a call still queued or running when it expires is interrupted and
+ * its future fails with a {@link java.util.concurrent.TimeoutException} cause. A timeout of zero or less means no
+ * timeout. Cancelling a future removes a queued call or interrupts a running one.
+ * <p/>
+ * Unlike {@link LoadBalancerConnection}, implementations are safe to use from multiple threads.
+ */
+public interface AsyncLoadBalancerConnection {
+
+    public Future<Boolean> connect(long timeout, TimeUnit unit);
+
+    public Future<Boolean> isActive(long timeout, TimeUnit unit);
+
+    public Future<Set<VirtualServer>> getAllVirtualServers(long timeout, TimeUnit unit);
+
+    public Future<VirtualServer> getVirtualServer(String serverName, long timeout, TimeUnit unit);
+
+    public Future<Boolean> isVirtualServerDefined(String serverName, long timeout, TimeUnit unit);
+
+    public Future<Map<String, AvailabilityStatus>> getAvailabilityStatus(List<String> serverNames,
+                                                                         long timeout, TimeUnit unit);
+
+    public Future<HostAddress> createVirtualServer(VirtualServer server, VirtualServerConfig virtualServerConfig,
+                                                   HttpMonitor httpMonitor, long timeout, TimeUnit unit);
+
+    public Future<Void> verifyVirtualServer(VirtualServer server, HttpMonitor httpMonitor,
+                                            long timeout, TimeUnit unit);
+
+    public Future<Void> deleteVirtualServer(VirtualServer server, long timeout, TimeUnit unit);
+
+    public Future<Void> addPoolMember(String serverName, PoolMember member, long timeout, TimeUnit unit);
+
+    public Future<Void> removePoolMember(String serverName, PoolMember member, long timeout, TimeUnit unit);
+
+    public Future<LoadBalancerChangeSetResult> execute(LoadBalancerChangeSet changeSet, long timeout, TimeUnit unit);
+
+    public Future<Boolean> saveConfiguration(long timeout, TimeUnit unit);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+/**
+ * A load balancer connection that can apply several changes at once.
+ * <p/>
+ * Drivers implement this interface when their device accepts multiple changes per request. Callers should not invoke
+ * {@link #execute(LoadBalancerChangeSet)} directly but use {@link LoadBalancerChangeSet#execute}, which falls back to
+ * individual calls for connections without batch support.
+ */
+public interface BatchLoadBalancerConnection extends LoadBalancerConnection {
+
+    /**
+     * Applies a change set. Implementations must attempt every operation, report a result for each one in change set
+     * order and must not save the configuration.
+     *
+     * @param changeSet the changes to apply
+     * @return the result of each operation
+     */
+    public LoadBalancerChangeSetResult execute(LoadBalancerChangeSet changeSet);
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.HttpMonitor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang.Validate;
+
+import java.util.List;
+
+/**
+ * An ordered set of changes to apply to a load balancer.
+ * <p/>
+ * A change set is built by the caller and executed with {@link #execute(LoadBalancerConnection)}. Connections that
+ * implement {@link BatchLoadBalancerConnection} receive the whole change set and may apply it in as few round trips as
+ * the device allows; other connections receive one call per operation. Either way every operation is attempted and
+ * its outcome is reported separately, so a failed operation does not prevent the rest from being applied. The
+ * configuration is not saved; callers still call {@link LoadBalancerConnection#saveConfiguration()}.
+ */
+public class LoadBalancerChangeSet {
+
+    private final List<LoadBalancerOperation> operations = Lists.newArrayList();
+
+    /**
+     * Adds the creation of a virtual server.
+     *
+     * @param server     the virtual server
+     * @param config     virtual server configuration
+     * @param httpMonitor health monitor for the pool members
+     * @return this change set
+     */
+    public LoadBalancerChangeSet createVirtualServer(VirtualServer server,
+                                                     VirtualServerConfig config,
+                                                     HttpMonitor httpMonitor) {
+        operations.add(LoadBalancerOperation.createVirtualServer(server, config, httpMonitor));
+        return this;
+    }
+
+    /**
+     * Adds the deletion of a virtual server.
+     *
+     * @param server the virtual server
+     * @return this change set
+     */
+    public LoadBalancerChangeSet deleteVirtualServer(VirtualServer server) {
+        operations.add(LoadBalancerOperation.deleteVirtualServer(server));
+        return this;
+    }
+
+    /**
+     * Adds a pool member to a virtual server.
+     *
+     * @param serverName virtual server name
+     * @param member     the pool member
+     * @return this change set
+     */
+    public LoadBalancerChangeSet addPoolMember(String serverName, PoolMember member) {
+        operations.add(LoadBalancerOperation.addPoolMember(serverName, member));
+        return this;
+    }
+
+    /**
+     * Removes a pool member from a virtual server.
+     *
+     * @param serverName virtual server name
+     * @param member     the pool member
+     * @return this change set
+     */
+    public LoadBalancerChangeSet removePoolMember(String serverName, PoolMember member) {
+        operations.add(LoadBalancerOperation.removePoolMember(serverName, member));
+        return this;
+    }
+
+    /**
+     * Gets the operations in the order they were added.
+     *
+     * @return immutable list of operations
+     */
+    public List<LoadBalancerOperation> getOperations() {
+        return ImmutableList.copyOf(operations);
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Applies this change set through the specified connection.
+     *
+     * @param connection load balancer connection
+     * @return the result of each operation
+     */
+    public LoadBalancerChangeSetResult execute(LoadBalancerConnection connection) {
+        Validate.notNull(connection, "connection is null");
+        if (connection instanceof BatchLoadBalancerConnection) {
+            return ((BatchLoadBalancerConnection) connection).execute(this);
+        }
+        return executeSequentially(connection);
+    }
+
+    /**
+     * Applies this change set with one connection call per operation, in order.
+     * <p/>
+     * Batch drivers can use this as a fallback for operations their device cannot batch.
+     *
+     * @param connection load balancer connection
+     * @return the result of each operation
+     */
+    public LoadBalancerChangeSetResult executeSequentially(LoadBalancerConnection connection) {
+        Validate.notNull(connection, "connection is null");
+        List<LoadBalancerOperationResult> results = Lists.newArrayListWithCapacity(operations.size());
+        for (LoadBalancerOperation operation : operations) {
+            results.add(executeOperation(connection, operation));
+        }
+        return new LoadBalancerChangeSetResult(results);
+    }
+
+    private static LoadBalancerOperationResult executeOperation(LoadBalancerConnection connection,
+                                                                LoadBalancerOperation operation) {
+        HostAddress createdAddress = null;
+        try {
+            switch (operation.getType()) {
+                case CREATE_VIRTUAL_SERVER:
+                    createdAddress = connection.createVirtualServer(
+                        operation.getVirtualServer(), operation.getVirtualServerConfig(), operation.getHttpMonitor());
+                    break;
+                case DELETE_VIRTUAL_SERVER:
+                    connection.deleteVirtualServer(operation.getVirtualServer());
+                    break;
+                case ADD_POOL_MEMBER:
+                    connection.addPoolMember(operation.getServerName(), operation.getPoolMember());
+                    break;
+                case REMOVE_POOL_MEMBER:
+                    connection.removePoolMember(operation.getServerName(), operation.getPoolMember());
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation type: " + operation.getType());
+            }
+        } catch (Exception e) {
+            return LoadBalancerOperationResult.failure(operation, e);
+        }
+        return LoadBalancerOperationResult.success(operation, createdAddress);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * The outcome of executing a {@link LoadBalancerChangeSet}, with one result per operation.
+ */
+public class LoadBalancerChangeSetResult {
+
+    private final List<LoadBalancerOperationResult> results;
+
+    public LoadBalancerChangeSetResult(List<LoadBalancerOperationResult> results) {
+        this.results = ImmutableList.copyOf(results);
+    }
+
+    /**
+     * Gets the operation results in the order the operations appear in the change set.
+     *
+     * @return immutable list of results
+     */
+    public List<LoadBalancerOperationResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Gets the results of the operations that failed.
+     *
+     * @return failed results
+     */
+    public List<LoadBalancerOperationResult> getFailures() {
+        List<LoadBalancerOperationResult> failures = Lists.newArrayList();
+        for (LoadBalancerOperationResult result : results) {
+            if (!result.isSuccess()) {
+                failures.add(result);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Indicates whether every operation succeeded.
+     *
+     * @return true if no operation failed
+     */
+    public boolean isSuccess() {
+        for (LoadBalancerOperationResult result : results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadBalancerChangeSetResult" + results;
+    }
+}
@@ -33,6 +33,8 @@ import java.util.Set;
  * <pre>
  * \@Scope("prototype")
  * </pre>
+ * Drivers for devices that accept several changes per request should also implement
+ * {@link BatchLoadBalancerConnection}.
  *
  * @author Ryan Holmes
  */
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import com.edmunds.etm.management.api.HttpMonitor;
+import org.apache.commons.lang.Validate;
+
+/**
+ * A single change to a load balancer, executed as part of a {@link LoadBalancerChangeSet}.
+ * <p/>
+ * Operations are created through the change set and are immutable.
+ */
+public class LoadBalancerOperation {
+
+    /**
+     * The kind of change an operation makes.
+     */
+    public enum Type {
+        CREATE_VIRTUAL_SERVER,
+        DELETE_VIRTUAL_SERVER,
+        ADD_POOL_MEMBER,
+        REMOVE_POOL_MEMBER
+    }
+
+    private final Type type;
+    private final String serverName;
+    private final VirtualServer virtualServer;
+    private final VirtualServerConfig virtualServerConfig;
+    private final HttpMonitor httpMonitor;
+    private final PoolMember poolMember;
+
+    private LoadBalancerOperation(Type type,
+                                  String serverName,
+                                  VirtualServer virtualServer,
+                                  VirtualServerConfig virtualServerConfig,
+                                  HttpMonitor httpMonitor,
+                                  PoolMember poolMember) {
+        this.type = type;
+        this.serverName = serverName;
+        this.virtualServer = virtualServer;
+        this.virtualServerConfig = virtualServerConfig;
+        this.httpMonitor = httpMonitor;
+        this.poolMember = poolMember;
+    }
+
+    static LoadBalancerOperation createVirtualServer(VirtualServer server,
+                                                     VirtualServerConfig config,
+                                                     HttpMonitor httpMonitor) {
+        Validate.notNull(server, "server is null");
+        return new LoadBalancerOperation(Type.CREATE_VIRTUAL_SERVER, server.getName(), server, config, httpMonitor,
+            null);
+    }
+
+    static LoadBalancerOperation deleteVirtualServer(VirtualServer server) {
+        Validate.notNull(server, "server is null");
+        return new LoadBalancerOperation(Type.DELETE_VIRTUAL_SERVER, server.getName(), server, null, null, null);
+    }
+
+    static LoadBalancerOperation addPoolMember(String serverName, PoolMember member) {
+        Validate.notEmpty(serverName, "serverName is empty");
+        Validate.notNull(member, "member is null");
+        return new LoadBalancerOperation(Type.ADD_POOL_MEMBER, serverName, null, null, null, member);
+    }
+
+    static LoadBalancerOperation removePoolMember(String serverName, PoolMember member) {
+        Validate.notEmpty(serverName, "serverName is empty");
+        Validate.notNull(member, "member is null");
+        return new LoadBalancerOperation(Type.REMOVE_POOL_MEMBER, serverName, null, null, null, member);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the name of the virtual server the operation applies to.
+     *
+     * @return virtual server name
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * Gets the virtual server to create or delete.
+     *
+     * @return virtual server, or null for pool member operations
+     */
+    public VirtualServer getVirtualServer() {
+        return virtualServer;
+    }
+
+    /**
+     * Gets the configuration of a virtual server to create.
+     *
+     * @return virtual server configuration, or null for other operations
+     */
+    public VirtualServerConfig getVirtualServerConfig() {
+        return virtualServerConfig;
+    }
+
+    /**
+     * Gets the health monitor of a virtual server to create.
+     *
+     * @return http monitor, or null for other operations
+     */
+    public HttpMonitor getHttpMonitor() {
+        return httpMonitor;
+    }
+
+    /**
+     * Gets the pool member to add or remove.
+     *
+     * @return pool member, or null for virtual server operations
+     */
+    public PoolMember getPoolMember() {
+        return poolMember;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(type);
+        sb.append(' ').append(serverName);
+        if (poolMember != null) {
+            sb.append(' ').append(poolMember);
+        }
+        return sb.toString();
+    }
+}
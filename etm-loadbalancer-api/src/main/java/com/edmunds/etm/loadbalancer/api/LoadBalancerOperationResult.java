@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import com.edmunds.etm.management.api.HostAddress;
+import org.apache.commons.lang.Validate;
+
+/**
+ * The outcome of a single {@link LoadBalancerOperation}.
+ */
+public class LoadBalancerOperationResult {
+
+    private final LoadBalancerOperation operation;
+    private final HostAddress createdAddress;
+    private final Exception error;
+
+    private LoadBalancerOperationResult(LoadBalancerOperation operation, HostAddress createdAddress, Exception error) {
+        Validate.notNull(operation, "operation is null");
+        this.operation = operation;
+        this.createdAddress = createdAddress;
+        this.error = error;
+    }
+
+    /**
+     * Creates a successful result.
+     *
+     * @param operation      the operation
+     * @param createdAddress address assigned to a created virtual server, or null
+     * @return a successful result
+     */
+    public static LoadBalancerOperationResult success(LoadBalancerOperation operation, HostAddress createdAddress) {
+        return new LoadBalancerOperationResult(operation, createdAddress, null);
+    }
+
+    /**
+     * Creates a failed result.
+     *
+     * @param operation the operation
+     * @param error     the cause of the failure
+     * @return a failed result
+     */
+    public static LoadBalancerOperationResult failure(LoadBalancerOperation operation, Exception error) {
+        Validate.notNull(error, "error is null");
+        return new LoadBalancerOperationResult(operation, null, error);
+    }
+
+    public LoadBalancerOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Gets the address assigned to a created virtual server.
+     *
+     * @return virtual server address, or null if the operation was not a successful create
+     */
+    public HostAddress getCreatedAddress() {
+        return createdAddress;
+    }
+
+    /**
+     * Gets the exception that caused the operation to fail. This is one of the exceptions declared by the
+     * corresponding {@link LoadBalancerConnection} method, or a runtime exception.
+     *
+     * @return the error, or null if the operation succeeded
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return operation + (error == null ? ": OK" : ": " + error);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import com.edmunds.etm.management.api.HttpMonitor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.Validate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered plan of load balancer operations, grouped into phases.
+ * <p/>
+ * Phases run in the order of {@link PhaseType}: virtual servers are created before members are added to existing
+ * servers, and members are removed before obsolete servers are deleted. Within a phase the operations for each
+ * virtual server form one {@link LoadBalancerChangeSet}; change sets for different servers are independent and may
+ * run in parallel.
+ */
+public class LoadBalancerPlan {
+
+    /**
+     * Kinds of phase, in execution order.
+     */
+    public enum PhaseType {
+        CREATE_VIRTUAL_SERVERS,
+        ADD_POOL_MEMBERS,
+        REMOVE_POOL_MEMBERS,
+        DELETE_VIRTUAL_SERVERS
+    }
+
+    private final Map<PhaseType, Map<String, LoadBalancerChangeSet>> phases = Maps.newEnumMap(PhaseType.class);
+
+    public LoadBalancerPlan() {
+        for (PhaseType type : PhaseType.values()) {
+            phases.put(type, Maps.<String, LoadBalancerChangeSet>newLinkedHashMap());
+        }
+    }
+
+    /**
+     * Adds the creation of a virtual server, including its initial pool members.
+     *
+     * @param server      the virtual server
+     * @param config      virtual server configuration
+     * @param httpMonitor health monitor for the pool members
+     * @return this plan
+     */
+    public LoadBalancerPlan createVirtualServer(VirtualServer server, VirtualServerConfig config,
+                                                HttpMonitor httpMonitor) {
+        Validate.notNull(server, "server is null");
+        changeSet(PhaseType.CREATE_VIRTUAL_SERVERS, server.getName()).createVirtualServer(server, config, httpMonitor);
+        return this;
+    }
+
+    /**
+     * Adds a pool member to an existing virtual server.
+     *
+     * @param serverName virtual server name
+     * @param member     the pool member
+     * @return this plan
+     */
+    public LoadBalancerPlan addPoolMember(String serverName, PoolMember member) {
+        changeSet(PhaseType.ADD_POOL_MEMBERS, serverName).addPoolMember(serverName, member);
+        return this;
+    }
+
+    /**
+     * Removes a pool member from an existing virtual server.
+     *
+     * @param serverName virtual server name
+     * @param member     the pool member
+     * @return this plan
+     */
+    public LoadBalancerPlan removePoolMember(String serverName, PoolMember member) {
+        changeSet(PhaseType.REMOVE_POOL_MEMBERS, serverName).removePoolMember(serverName, member);
+        return this;
+    }
+
+    /**
+     * Adds the deletion of a virtual server.
+     *
+     * @param server the virtual server
+     * @return this plan
+     */
+    public LoadBalancerPlan deleteVirtualServer(VirtualServer server) {
+        Validate.notNull(server, "server is null");
+        changeSet(PhaseType.DELETE_VIRTUAL_SERVERS, server.getName()).deleteVirtualServer(server);
+        return this;
+    }
+
+    /**
+     * Gets the change sets of a phase, one per virtual server, in the order the servers were first added.
+     *
+     * @param type the phase
+     * @return unmodifiable collection of change sets
+     */
+    public Collection<LoadBalancerChangeSet> getChangeSets(PhaseType type) {
+        return Collections.unmodifiableCollection(phases.get(type).values());
+    }
+
+    /**
+     * Gets the phases that contain operations, in execution order.
+     *
+     * @return non-empty phases
+     */
+    public List<PhaseType> getPhases() {
+        List<PhaseType> types = Lists.newArrayList();
+        for (Map.Entry<PhaseType, Map<String, LoadBalancerChangeSet>> entry : phases.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                types.add(entry.getKey());
+            }
+        }
+        return ImmutableList.copyOf(types);
+    }
+
+    /**
+     * Gets the total number of operations in all phases.
+     *
+     * @return operation count
+     */
+    public int getOperationCount() {
+        int count = 0;
+        for (Map<String, LoadBalancerChangeSet> changeSets : phases.values()) {
+            for (LoadBalancerChangeSet changeSet : changeSets.values()) {
+                count += changeSet.size();
+            }
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return getOperationCount() == 0;
+    }
+
+    private LoadBalancerChangeSet changeSet(PhaseType type, String serverName) {
+        Validate.notEmpty(serverName, "serverName is empty");
+        Map<String, LoadBalancerChangeSet> changeSets = phases.get(type);
+        LoadBalancerChangeSet changeSet = changeSets.get(serverName);
+        if (changeSet == null) {
+            changeSet = new LoadBalancerChangeSet();
+            changeSets.put(serverName, changeSet);
+        }
+        return changeSet;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadBalancerPlan" + phases;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import com.edmunds.etm.management.api.HostAddress;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.Validate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of executing a {@link LoadBalancerPlan}, with the operation results and save status of each phase.
+ */
+public class LoadBalancerPlanResult {
+
+    private final Map<LoadBalancerPlan.PhaseType, List<LoadBalancerOperationResult>> results =
+        Maps.newEnumMap(LoadBalancerPlan.PhaseType.class);
+    private final Map<LoadBalancerPlan.PhaseType, Boolean> saved = Maps.newEnumMap(LoadBalancerPlan.PhaseType.class);
+
+    /**
+     * Records the outcome of a phase.
+     *
+     * @param type    the phase
+     * @param results results of every operation in the phase
+     * @param saved   whether the configuration was saved at the end of the phase
+     */
+    public void addPhase(LoadBalancerPlan.PhaseType type, List<LoadBalancerOperationResult> results, boolean saved) {
+        Validate.notNull(type, "type is null");
+        Validate.notNull(results, "results is null");
+        this.results.put(type, ImmutableList.copyOf(results));
+        this.saved.put(type, saved);
+    }
+
+    /**
+     * Gets the phases that were executed, in execution order.
+     *
+     * @return executed phases
+     */
+    public List<LoadBalancerPlan.PhaseType> getPhases() {
+        return ImmutableList.copyOf(results.keySet());
+    }
+
+    /**
+     * Gets the operation results of a phase.
+     *
+     * @param type the phase
+     * @return the results, empty if the phase was not executed
+     */
+    public List<LoadBalancerOperationResult> getResults(LoadBalancerPlan.PhaseType type) {
+        List<LoadBalancerOperationResult> phaseResults = results.get(type);
+        return phaseResults != null ? phaseResults : ImmutableList.<LoadBalancerOperationResult>of();
+    }
+
+    /**
+     * Indicates whether the configuration was saved at the end of a phase.
+     *
+     * @param type the phase
+     * @return true if the phase was executed and saved
+     */
+    public boolean isSaved(LoadBalancerPlan.PhaseType type) {
+        Boolean phaseSaved = saved.get(type);
+        return phaseSaved != null && phaseSaved;
+    }
+
+    /**
+     * Gets the results of all operations that failed.
+     *
+     * @return failed results in execution order
+     */
+    public List<LoadBalancerOperationResult> getFailures() {
+        List<LoadBalancerOperationResult> failures = Lists.newArrayList();
+        for (List<LoadBalancerOperationResult> phaseResults : results.values()) {
+            for (LoadBalancerOperationResult result : phaseResults) {
+                if (!result.isSuccess()) {
+                    failures.add(result);
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Gets the addresses the load balancer assigned to the virtual servers that were created.
+     *
+     * @return created addresses by virtual server name
+     */
+    public Map<String, HostAddress> getCreatedAddresses() {
+        Map<String, HostAddress> addresses = Maps.newLinkedHashMap();
+        for (LoadBalancerOperationResult result : getResults(LoadBalancerPlan.PhaseType.CREATE_VIRTUAL_SERVERS)) {
+            if (result.isSuccess()) {
+                addresses.put(result.getOperation().getServerName(), result.getCreatedAddress());
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Indicates whether every operation succeeded and every phase was saved.
+     *
+     * @return true if the plan was applied completely
+     */
+    public boolean isSuccess() {
+        return getFailures().isEmpty() && !saved.containsValue(Boolean.FALSE);
+    }
+
+    @Override
+    public String toString() {
+        return "LoadBalancerPlanResult{results=" + results + ", saved=" + saved + '}';
+    }
+}
@@ -60,12 +60,7 @@ public class PoolMember implements Serializable {
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
-        String hostName = hostAddress.getHostName();
-        if (hostName != null) {
-            sb.append(hostName);
-        } else {
-            sb.append(hostAddress.getHost());
-        }
+        sb.append(hostAddress.getHostName());
         sb.append(':');
         sb.append(hostAddress.getPort());
         return sb.toString();
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import java.rmi.RemoteException;
+
+/**
+ * A load balancer connection that can report cheaply whether the device configuration has changed.
+ * <p/>
+ * Drivers implement this interface when the device exposes a configuration revision, checksum or last-modified time
+ * that is much cheaper to read than the configuration itself. {@link
+ * com.edmunds.etm.loadbalancer.impl.CachingLoadBalancerConnection} uses it to avoid reloading an unchanged
+ * configuration.
+ */
+public interface VersionedLoadBalancerConnection extends LoadBalancerConnection {
+
+    /**
+     * Gets a token that changes whenever the virtual server configuration changes.
+     *
+     * @return opaque change token
+     * @throws RemoteException if the device cannot be reached
+     */
+    public String getChangeToken() throws RemoteException;
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.impl;
+
+import com.edmunds.etm.loadbalancer.api.AsyncLoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.AvailabilityStatus;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSet;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSetResult;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.PoolMember;
+import com.edmunds.etm.loadbalancer.api.VirtualServer;
+import com.edmunds.etm.loadbalancer.api.VirtualServerConfig;
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.HttpMonitor;
+import org.apache.commons.lang.Validate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a blocking {@link LoadBalancerConnection} driver behind the {@link AsyncLoadBalancerConnection} interface.
+ * <p/>
+ * Blocking connections must not be used by more than one thread at a time, so the adapter owns one worker thread per
+ * connection instance it is given; to keep several calls in flight against a device, pass several prototype
+ * instances of the driver. Calls wait in a bounded queue and {@link java.util.concurrent.RejectedExecutionException}
+ * is thrown when it is full.
+ * <p/>
+ * Each instance holds its own session, so {@link #connect}, {@link #isActive} and {@link #saveConfiguration} are sent
+ * to every instance: they wait until all instances are idle, run on each in turn and succeed only if every instance
+ * does. This also makes a save a barrier behind the calls submitted before it.
+ */
+public class AsyncLoadBalancerConnectionAdapter implements AsyncLoadBalancerConnection {
+
+    private final BlockingQueue<LoadBalancerConnection> idleConnections;
+    private final int connectionCount;
+    private final Lock broadcastLock = new ReentrantLock();
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Creates an adapter that runs one call at a time.
+     *
+     * @param connection blocking connection
+     * @param queueSize  maximum number of waiting calls
+     */
+    public AsyncLoadBalancerConnectionAdapter(LoadBalancerConnection connection, int queueSize) {
+        this(Collections.singletonList(connection), queueSize);
+    }
+
+    /**
+     * Creates an adapter that runs up to one call per connection concurrently.
+     *
+     * @param connections separate instances of a blocking connection
+     * @param queueSize   maximum number of waiting calls
+     */
+    public AsyncLoadBalancerConnectionAdapter(Collection<? extends LoadBalancerConnection> connections, int queueSize) {
+        Validate.notEmpty(connections, "connections is empty");
+        Validate.noNullElements(connections, "connections contains null");
+        Validate.isTrue(queueSize > 0, "queueSize must be positive");
+
+        int threads = connections.size();
+        // Fair, so that a call waiting for every instance is not starved by calls that need only one
+        this.idleConnections = new ArrayBlockingQueue<LoadBalancerConnection>(threads, true, connections);
+        this.connectionCount = threads;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory("etm-lb-async"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("etm-lb-timeout"));
+    }
+
+    /**
+     * Stops the worker threads. Queued calls are discarded and running calls are interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Gets the number of calls waiting for a connection.
+     *
+     * @return queued call count
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public Future<Boolean> connect(long timeout, TimeUnit unit) {
+        return submitToAll(new Call<Boolean>() {
+            @Override
+            public Boolean call(LoadBalancerConnection connection) {
+                return connection.connect();
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Boolean> isActive(long timeout, TimeUnit unit) {
+        return submitToAll(new Call<Boolean>() {
+            @Override
+            public Boolean call(LoadBalancerConnection connection) {
+                return connection.isActive();
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Set<VirtualServer>> getAllVirtualServers(long timeout, TimeUnit unit) {
+        return submit(new Call<Set<VirtualServer>>() {
+            @Override
+            public Set<VirtualServer> call(LoadBalancerConnection connection) throws Exception {
+                return connection.getAllVirtualServers();
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<VirtualServer> getVirtualServer(final String serverName, long timeout, TimeUnit unit) {
+        return submit(new Call<VirtualServer>() {
+            @Override
+            public VirtualServer call(LoadBalancerConnection connection) throws Exception {
+                return connection.getVirtualServer(serverName);
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Boolean> isVirtualServerDefined(final String serverName, long timeout, TimeUnit unit) {
+        return submit(new Call<Boolean>() {
+            @Override
+            public Boolean call(LoadBalancerConnection connection) throws Exception {
+                return connection.isVirtualServerDefined(serverName);
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Map<String, AvailabilityStatus>> getAvailabilityStatus(final List<String> serverNames,
+                                                                         long timeout, TimeUnit unit) {
+        return submit(new Call<Map<String, AvailabilityStatus>>() {
+            @Override
+            public Map<String, AvailabilityStatus> call(LoadBalancerConnection connection) throws Exception {
+                return connection.getAvailabilityStatus(serverNames);
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<HostAddress> createVirtualServer(final VirtualServer server,
+                                                   final VirtualServerConfig virtualServerConfig,
+                                                   final HttpMonitor httpMonitor,
+                                                   long timeout, TimeUnit unit) {
+        return submit(new Call<HostAddress>() {
+            @Override
+            public HostAddress call(LoadBalancerConnection connection) throws Exception {
+                return connection.createVirtualServer(server, virtualServerConfig, httpMonitor);
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Void> verifyVirtualServer(final VirtualServer server, final HttpMonitor httpMonitor,
+                                            long timeout, TimeUnit unit) {
+        return submit(new Call<Void>() {
+            @Override
+            public Void call(LoadBalancerConnection connection) {
+                connection.verifyVirtualServer(server, httpMonitor);
+                return null;
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Void> deleteVirtualServer(final VirtualServer server, long timeout, TimeUnit unit) {
+        return submit(new Call<Void>() {
+            @Override
+            public Void call(LoadBalancerConnection connection) throws Exception {
+                connection.deleteVirtualServer(server);
+                return null;
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Void> addPoolMember(final String serverName, final PoolMember member,
+                                      long timeout, TimeUnit unit) {
+        return submit(new Call<Void>() {
+            @Override
+            public Void call(LoadBalancerConnection connection) throws Exception {
+                connection.addPoolMember(serverName, member);
+                return null;
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Void> removePoolMember(final String serverName, final PoolMember member,
+                                         long timeout, TimeUnit unit) {
+        return submit(new Call<Void>() {
+            @Override
+            public Void call(LoadBalancerConnection connection) throws Exception {
+                connection.removePoolMember(serverName, member);
+                return null;
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<LoadBalancerChangeSetResult> execute(final LoadBalancerChangeSet changeSet,
+                                                       long timeout, TimeUnit unit) {
+        return submit(new Call<LoadBalancerChangeSetResult>() {
+            @Override
+            public LoadBalancerChangeSetResult call(LoadBalancerConnection connection) {
+                return changeSet.execute(connection);
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public Future<Boolean> saveConfiguration(long timeout, TimeUnit unit) {
+        return submitToAll(new Call<Boolean>() {
+            @Override
+            public Boolean call(LoadBalancerConnection connection) {
+                return connection.saveConfiguration();
+            }
+        }, timeout, unit);
+    }
+
+    private <T> Future<T> submit(final Call<T> call, long timeout, TimeUnit unit) {
+        return submitTask(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                LoadBalancerConnection connection = idleConnections.take();
+                try {
+                    return call.call(connection);
+                } finally {
+                    idleConnections.add(connection);
+                }
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Runs a call on every connection instance once all of them are idle.
+     *
+     * @return true if the call returned true on every instance
+     */
+    private Future<Boolean> submitToAll(final Call<Boolean> call, long timeout, TimeUnit unit) {
+        return submitTask(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                // Only one call may collect instances at a time, otherwise two of them could each hold some and wait
+                // forever for the rest
+                broadcastLock.lockInterruptibly();
+                List<LoadBalancerConnection> connections = new ArrayList<LoadBalancerConnection>(connectionCount);
+                try {
+                    while (connections.size() < connectionCount) {
+                        connections.add(idleConnections.take());
+                    }
+                    boolean result = true;
+                    for (LoadBalancerConnection connection : connections) {
+                        result &= Boolean.TRUE.equals(call.call(connection));
+                    }
+                    return result;
+                } finally {
+                    idleConnections.addAll(connections);
+                    broadcastLock.unlock();
+                }
+            }
+        }, timeout, unit);
+    }
+
+    private <T> Future<T> submitTask(Callable<T> callable, long timeout, TimeUnit unit) {
+        final TimedTask<T> task = new TimedTask<T>(callable);
+
+        executor.execute(task);
+        if (timeout > 0) {
+            task.setTimeoutFuture(timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    task.expire();
+                }
+            }, timeout, unit));
+        }
+        return task;
+    }
+
+    /**
+     * A call to make on a blocking connection.
+     */
+    private interface Call<T> {
+        T call(LoadBalancerConnection connection) throws Exception;
+    }
+
+    /**
+     * A future that fails with a {@link TimeoutException} if it is not done when its timeout expires.
+     */
+    private final class TimedTask<T> extends FutureTask<T> {
+
+        private Thread runner;
+        private ScheduledFuture<?> timeoutFuture;
+
+        TimedTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                super.run();
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // Clear an interrupt aimed at this task so it does not leak into the next one
+                Thread.interrupted();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                executor.remove(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            ScheduledFuture<?> future;
+            synchronized (this) {
+                future = timeoutFuture;
+            }
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        synchronized void setTimeoutFuture(ScheduledFuture<?> timeoutFuture) {
+            this.timeoutFuture = timeoutFuture;
+        }
+
+        void expire() {
+            if (isDone()) {
+                return;
+            }
+            setException(new TimeoutException("Load balancer call timed out"));
+            executor.remove(this);
+            synchronized (this) {
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Names threads with a prefix and a sequence number and makes them daemons.
+     */
+    static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
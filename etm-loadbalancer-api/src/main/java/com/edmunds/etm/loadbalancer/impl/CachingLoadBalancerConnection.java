@@ -0,0 +1,224 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.impl;
+
+import com.edmunds.etm.loadbalancer.api.AvailabilityStatus;
+import com.edmunds.etm.loadbalancer.api.BatchLoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSet;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSetResult;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.PoolMember;
+import com.edmunds.etm.loadbalancer.api.PoolMemberExistsException;
+import com.edmunds.etm.loadbalancer.api.PoolMemberNotFoundException;
+import com.edmunds.etm.loadbalancer.api.VersionedLoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.VirtualServer;
+import com.edmunds.etm.loadbalancer.api.VirtualServerConfig;
+import com.edmunds.etm.loadbalancer.api.VirtualServerExistsException;
+import com.edmunds.etm.loadbalancer.api.VirtualServerNotFoundException;
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.HttpMonitor;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decorates a {@link LoadBalancerConnection} with a cached snapshot of {@link #getAllVirtualServers()}.
+ * <p/>
+ * The snapshot is an immutable set of immutable virtual servers, so callers can keep and share it without copying;
+ * modifying its pool members throws {@link UnsupportedOperationException}. It is discarded whenever a change is made
+ * through this connection and reloaded when it is older than the maximum age. If the delegate implements {@link
+ * VersionedLoadBalancerConnection}, an expired snapshot is first revalidated with the change token and only reloaded
+ * when the token differs.
+ * <p/>
+ * Refreshes happen on the calling thread, because the underlying connection must not be used concurrently. Like other
+ * connections, this class is not thread-safe. All other methods are passed through unchanged.
+ */
+public class CachingLoadBalancerConnection implements BatchLoadBalancerConnection {
+
+    private static final Logger logger = Logger.getLogger(CachingLoadBalancerConnection.class);
+
+    private final LoadBalancerConnection delegate;
+    private final long maxAgeMillis;
+
+    private Set<VirtualServer> snapshot;
+    private String snapshotToken;
+    private long validatedAt;
+
+    private long hitCount;
+    private long loadCount;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate     the connection to decorate
+     * @param maxAgeMillis time after which the snapshot is revalidated or reloaded
+     */
+    public CachingLoadBalancerConnection(LoadBalancerConnection delegate, long maxAgeMillis) {
+        Validate.notNull(delegate, "delegate is null");
+        Validate.isTrue(maxAgeMillis >= 0, "maxAgeMillis is negative");
+        this.delegate = delegate;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Gets all virtual servers, from the snapshot if it is still current.
+     *
+     * @return immutable set of immutable virtual servers
+     * @throws RemoteException if the configuration must be reloaded and the device cannot be reached
+     */
+    @Override
+    public Set<VirtualServer> getAllVirtualServers() throws RemoteException {
+        long now = System.currentTimeMillis();
+        if (snapshot != null && now - validatedAt < maxAgeMillis) {
+            hitCount++;
+            return snapshot;
+        }
+
+        String token = getChangeToken();
+        if (snapshot != null && token != null && token.equals(snapshotToken)) {
+            validatedAt = now;
+            hitCount++;
+            return snapshot;
+        }
+
+        Set<VirtualServer> servers = delegate.getAllVirtualServers();
+        snapshot = immutableCopy(servers);
+        snapshotToken = token;
+        validatedAt = now;
+        loadCount++;
+        logger.debug(String.format("Loaded %d virtual servers", snapshot.size()));
+        return snapshot;
+    }
+
+    /**
+     * Discards the snapshot so the next call to {@link #getAllVirtualServers()} reloads it.
+     */
+    public void invalidate() {
+        snapshot = null;
+        snapshotToken = null;
+    }
+
+    /**
+     * Gets the number of calls served from the snapshot.
+     *
+     * @return cache hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of times the configuration was loaded from the device.
+     *
+     * @return load count
+     */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    @Override
+    public boolean connect() {
+        invalidate();
+        return delegate.connect();
+    }
+
+    @Override
+    public boolean isActive() {
+        return delegate.isActive();
+    }
+
+    @Override
+    public VirtualServer getVirtualServer(String serverName) throws VirtualServerNotFoundException, RemoteException {
+        return delegate.getVirtualServer(serverName);
+    }
+
+    @Override
+    public boolean isVirtualServerDefined(String serverName) throws RemoteException {
+        return delegate.isVirtualServerDefined(serverName);
+    }
+
+    @Override
+    public Map<String, AvailabilityStatus> getAvailabilityStatus(List<String> serverNames)
+        throws VirtualServerNotFoundException, RemoteException {
+        return delegate.getAvailabilityStatus(serverNames);
+    }
+
+    @Override
+    public HostAddress createVirtualServer(VirtualServer server, VirtualServerConfig virtualServerConfig,
+                                          HttpMonitor httpMonitor) throws VirtualServerExistsException,
+        RemoteException {
+        invalidate();
+        return delegate.createVirtualServer(server, virtualServerConfig, httpMonitor);
+    }
+
+    @Override
+    public void verifyVirtualServer(VirtualServer server, HttpMonitor httpMonitor) {
+        invalidate();
+        delegate.verifyVirtualServer(server, httpMonitor);
+    }
+
+    @Override
+    public void deleteVirtualServer(VirtualServer server) throws VirtualServerNotFoundException, RemoteException {
+        invalidate();
+        delegate.deleteVirtualServer(server);
+    }
+
+    @Override
+    public void addPoolMember(String serverName, PoolMember member)
+        throws PoolMemberExistsException, RemoteException {
+        invalidate();
+        delegate.addPoolMember(serverName, member);
+    }
+
+    @Override
+    public void removePoolMember(String serverName, PoolMember member)
+        throws PoolMemberNotFoundException, RemoteException {
+        invalidate();
+        delegate.removePoolMember(serverName, member);
+    }
+
+    @Override
+    public LoadBalancerChangeSetResult execute(LoadBalancerChangeSet changeSet) {
+        invalidate();
+        return changeSet.execute(delegate);
+    }
+
+    @Override
+    public boolean saveConfiguration() {
+        return delegate.saveConfiguration();
+    }
+
+    private String getChangeToken() throws RemoteException {
+        if (delegate instanceof VersionedLoadBalancerConnection) {
+            return ((VersionedLoadBalancerConnection) delegate).getChangeToken();
+        }
+        return null;
+    }
+
+    private static Set<VirtualServer> immutableCopy(Set<VirtualServer> servers) {
+        ImmutableSet.Builder<VirtualServer> builder = ImmutableSet.builder();
+        for (VirtualServer server : servers) {
+            builder.add(new VirtualServer(server.getName(), server.getHostAddress(),
+                ImmutableSet.copyOf(server.getPoolMembers())));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.impl;
+
+import com.edmunds.etm.loadbalancer.api.AsyncLoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSet;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSetResult;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerOperation;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerOperationResult;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerPlan;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerPlanResult;
+import com.edmunds.etm.loadbalancer.api.PoolMember;
+import com.edmunds.etm.loadbalancer.api.VirtualServer;
+import com.edmunds.etm.loadbalancer.api.VirtualServerConfig;
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.ManagementPoolMember;
+import com.edmunds.etm.management.api.ManagementVip;
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.MavenModule;
+import com.edmunds.etm.management.api.VipChange;
+import com.edmunds.etm.management.api.VipChangeSet;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.CREATE_REQUEST;
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.DELETE_REQUEST;
+
+/**
+ * Turns vip deltas into a {@link LoadBalancerPlan} and executes the plan against a load balancer.
+ * <p/>
+ * Each phase of the plan is executed as one change set per virtual server. Up to {@link #getMaxConcurrency()} change
+ * sets are in flight on the device at a time; as soon as any of them completes the next one is submitted, so a slow
+ * virtual server does not hold back the others. The configuration is saved once when all change sets of the phase
+ * have completed. Every operation is attempted even if others fail; failures are reported in the result.
+ * <p/>
+ * To keep several change sets running in parallel, the {@link AsyncLoadBalancerConnection} must have at least as many
+ * connections and queue slots as the concurrency limit; see {@link AsyncLoadBalancerConnectionAdapter}. That adapter
+ * runs the save on every driver instance, so the changes made through each instance's session are saved.
+ */
+public class LoadBalancerPlanner {
+
+    private static final Logger logger = Logger.getLogger(LoadBalancerPlanner.class);
+
+    /**
+     * Default number of change sets in flight on a device.
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+    /**
+     * Default time limit for each change set and save, in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60000;
+
+    private final Function<MavenModule, String> serverNameFunction;
+    private final VirtualServerConfig virtualServerConfig;
+
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * Constructor.
+     *
+     * @param serverNameFunction  maps the maven module of a vip to its virtual server name
+     * @param virtualServerConfig configuration for new virtual servers
+     */
+    public LoadBalancerPlanner(Function<MavenModule, String> serverNameFunction,
+                               VirtualServerConfig virtualServerConfig) {
+        Validate.notNull(serverNameFunction, "serverNameFunction is null");
+        this.serverNameFunction = serverNameFunction;
+        this.virtualServerConfig = virtualServerConfig;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of change sets in flight on the device at a time.
+     *
+     * @param maxConcurrency concurrency limit, at least 1
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        Validate.isTrue(maxConcurrency > 0, "maxConcurrency must be positive");
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the time limit for each change set and configuration save.
+     *
+     * @param timeout time limit
+     * @param unit    time unit
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        Validate.isTrue(timeout > 0, "timeout must be positive");
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Plans the operations for a change set.
+     * <p/>
+     * Created vips become virtual servers with their pool members, deleted vips are deleted, and updated vips have
+     * the added and removed members applied. Attribute-only updates need no load balancer operations.
+     *
+     * @param changeSet the vip changes
+     * @return the plan
+     */
+    public LoadBalancerPlan plan(VipChangeSet changeSet) {
+        Validate.notNull(changeSet, "changeSet is null");
+
+        LoadBalancerPlan plan = new LoadBalancerPlan();
+        for (VipChange change : changeSet.getChanges()) {
+            String serverName = serverNameFunction.apply(change.getMavenModule());
+            switch (change.getType()) {
+                case CREATE:
+                    ManagementVip vip = change.getNewVip();
+                    plan.createVirtualServer(
+                        new VirtualServer(serverName, vip.getHostAddress(), poolMembers(change.getAddedMembers())),
+                        virtualServerConfig, vip.getHttpMonitor());
+                    break;
+                case DELETE:
+                    plan.deleteVirtualServer(new VirtualServer(serverName, change.getOldVip().getHostAddress()));
+                    break;
+                case UPDATE:
+                    for (HostAddress address : change.getAddedMembers()) {
+                        plan.addPoolMember(serverName, new PoolMember(address));
+                    }
+                    for (HostAddress address : change.getRemovedMembers()) {
+                        plan.removePoolMember(serverName, new PoolMember(address));
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown change type: " + change.getType());
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Plans the operations for a delta calculated by {@link com.edmunds.etm.management.util.VipDeltaCalculator}.
+     * <p/>
+     * Vips and pool members flagged with {@code CREATE_REQUEST} or {@code DELETE_REQUEST} are planned; active ones
+     * are left alone.
+     *
+     * @param deltaVips the delta
+     * @return the plan
+     */
+    public LoadBalancerPlan plan(ManagementVips deltaVips) {
+        Validate.notNull(deltaVips, "deltaVips is null");
+
+        LoadBalancerPlan plan = new LoadBalancerPlan();
+        for (ManagementVip vip : deltaVips.getVips()) {
+            String serverName = serverNameFunction.apply(vip.getMavenModule());
+            if (vip.getLoadBalancerState() == CREATE_REQUEST) {
+                List<HostAddress> addresses = Lists.newArrayList();
+                for (ManagementPoolMember member : vip.getPoolMembers().values()) {
+                    if (member.getLoadBalancerState() != DELETE_REQUEST) {
+                        addresses.add(member.getHostAddress());
+                    }
+                }
+                plan.createVirtualServer(new VirtualServer(serverName, vip.getHostAddress(), poolMembers(addresses)),
+                    virtualServerConfig, vip.getHttpMonitor());
+            } else if (vip.getLoadBalancerState() == DELETE_REQUEST) {
+                plan.deleteVirtualServer(new VirtualServer(serverName, vip.getHostAddress()));
+            } else {
+                for (ManagementPoolMember member : vip.getPoolMembers().values()) {
+                    if (member.getLoadBalancerState() == CREATE_REQUEST) {
+                        plan.addPoolMember(serverName, new PoolMember(member.getHostAddress()));
+                    } else if (member.getLoadBalancerState() == DELETE_REQUEST) {
+                        plan.removePoolMember(serverName, new PoolMember(member.getHostAddress()));
+                    }
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Executes a plan phase by phase.
+     * <p/>
+     * A phase starts only after every change set of the previous phase has completed and the configuration has been
+     * saved. Phases without operations are skipped and not saved.
+     *
+     * @param plan       the plan to execute
+     * @param connection connection to the load balancer
+     * @return the outcome of each phase
+     * @throws InterruptedException if interrupted while waiting; operations still in flight are cancelled
+     */
+    public LoadBalancerPlanResult execute(LoadBalancerPlan plan, AsyncLoadBalancerConnection connection)
+        throws InterruptedException {
+        Validate.notNull(plan, "plan is null");
+        Validate.notNull(connection, "connection is null");
+
+        LoadBalancerPlanResult result = new LoadBalancerPlanResult();
+        if (plan.getPhases().isEmpty()) {
+            return result;
+        }
+
+        // Futures have no completion callback, so one thread per change set in flight waits on its future and posts
+        // it to a completion queue
+        ExecutorService waiters = Executors.newFixedThreadPool(maxConcurrency,
+            new AsyncLoadBalancerConnectionAdapter.DaemonThreadFactory("etm-lb-planner"));
+        try {
+            for (LoadBalancerPlan.PhaseType type : plan.getPhases()) {
+                Collection<LoadBalancerChangeSet> changeSets = plan.getChangeSets(type);
+                List<LoadBalancerOperationResult> results = executePhase(changeSets, connection, waiters);
+                boolean saved = saveConfiguration(connection);
+
+                int failures = 0;
+                for (LoadBalancerOperationResult operationResult : results) {
+                    if (!operationResult.isSuccess()) {
+                        failures++;
+                    }
+                }
+                logger.info(String.format("Phase %s: %d operations on %d virtual servers, %d failed, saved=%s",
+                    type, results.size(), changeSets.size(), failures, saved));
+
+                result.addPhase(type, results, saved);
+            }
+        } finally {
+            waiters.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Runs the change sets of a phase, submitting the next one whenever any change set in flight completes.
+     *
+     * @return the operation results, in the order of the change sets
+     */
+    private List<LoadBalancerOperationResult> executePhase(Collection<LoadBalancerChangeSet> changeSets,
+                                                           AsyncLoadBalancerConnection connection,
+                                                           ExecutorService waiters)
+        throws InterruptedException {
+
+        BlockingQueue<InFlight> completed = new LinkedBlockingQueue<InFlight>();
+        List<InFlight> submitted = Lists.newArrayListWithCapacity(changeSets.size());
+        int running = 0;
+        try {
+            for (LoadBalancerChangeSet changeSet : changeSets) {
+                if (running >= maxConcurrency) {
+                    completed.take().collect();
+                    running--;
+                }
+                InFlight inFlight;
+                try {
+                    inFlight = new InFlight(changeSet,
+                        connection.execute(changeSet, timeoutMillis, TimeUnit.MILLISECONDS), completed);
+                } catch (RejectedExecutionException e) {
+                    inFlight = new InFlight(changeSet, null, completed);
+                    failAll(changeSet, e, inFlight.results);
+                    submitted.add(inFlight);
+                    continue;
+                }
+                submitted.add(inFlight);
+                waiters.execute(inFlight);
+                running++;
+            }
+            while (running > 0) {
+                completed.take().collect();
+                running--;
+            }
+        } catch (InterruptedException e) {
+            for (InFlight pending : submitted) {
+                if (pending.future != null) {
+                    pending.future.cancel(true);
+                }
+            }
+            throw e;
+        }
+
+        List<LoadBalancerOperationResult> results = Lists.newArrayList();
+        for (InFlight inFlight : submitted) {
+            results.addAll(inFlight.results);
+        }
+        return results;
+    }
+
+    private boolean saveConfiguration(AsyncLoadBalancerConnection connection) throws InterruptedException {
+        try {
+            Boolean saved = connection.saveConfiguration(timeoutMillis, TimeUnit.MILLISECONDS).get();
+            if (saved == null || !saved) {
+                logger.error("Load balancer configuration was not saved");
+                return false;
+            }
+            return true;
+        } catch (ExecutionException e) {
+            logger.error("Unable to save load balancer configuration", e.getCause());
+        } catch (CancellationException e) {
+            logger.error("Load balancer configuration save was cancelled", e);
+        } catch (RejectedExecutionException e) {
+            logger.error("Unable to save load balancer configuration", e);
+        }
+        return false;
+    }
+
+    private static void failAll(LoadBalancerChangeSet changeSet, Exception error,
+                                List<LoadBalancerOperationResult> results) {
+        for (LoadBalancerOperation operation : changeSet.getOperations()) {
+            results.add(LoadBalancerOperationResult.failure(operation, error));
+        }
+    }
+
+    private static Set<PoolMember> poolMembers(Collection<HostAddress> addresses) {
+        Set<PoolMember> members = Sets.newHashSetWithExpectedSize(addresses.size());
+        for (HostAddress address : addresses) {
+            members.add(new PoolMember(address));
+        }
+        return members;
+    }
+
+    /**
+     * A change set submitted to the device. Running it waits for the change set to complete and then posts it to the
+     * completion queue.
+     */
+    private static final class InFlight implements Runnable {
+        private final LoadBalancerChangeSet changeSet;
+        private final Future<LoadBalancerChangeSetResult> future;
+        private final BlockingQueue<InFlight> completed;
+        private final List<LoadBalancerOperationResult> results = Lists.newArrayList();
+
+        private InFlight(LoadBalancerChangeSet changeSet, Future<LoadBalancerChangeSetResult> future,
+                         BlockingQueue<InFlight> completed) {
+            this.changeSet = changeSet;
+            this.future = future;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // Reported by collect()
+            } finally {
+                completed.add(this);
+            }
+        }
+
+        private void collect() throws InterruptedException {
+            try {
+                results.addAll(future.get().getResults());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                failAll(changeSet, cause instanceof Exception ? (Exception) cause : e, results);
+            } catch (CancellationException e) {
+                failAll(changeSet, e, results);
+            }
+        }
+    }
+}
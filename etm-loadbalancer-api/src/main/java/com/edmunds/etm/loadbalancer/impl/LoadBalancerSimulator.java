@@ -0,0 +1,464 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.impl;
+
+import com.edmunds.etm.loadbalancer.api.AvailabilityStatus;
+import com.edmunds.etm.loadbalancer.api.BatchLoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSet;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSetResult;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerConfig;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerOperation;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerOperationResult;
+import com.edmunds.etm.loadbalancer.api.PoolMember;
+import com.edmunds.etm.loadbalancer.api.PoolMemberExistsException;
+import com.edmunds.etm.loadbalancer.api.PoolMemberNotFoundException;
+import com.edmunds.etm.loadbalancer.api.VersionedLoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.VirtualServer;
+import com.edmunds.etm.loadbalancer.api.VirtualServerConfig;
+import com.edmunds.etm.loadbalancer.api.VirtualServerExistsException;
+import com.edmunds.etm.loadbalancer.api.VirtualServerNotFoundException;
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.HttpMonitor;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang.Validate;
+
+import java.rmi.RemoteException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory load balancer for tests and benchmarks.
+ * <p/>
+ * The simulator holds the virtual server configuration of a single device. Connections obtained from {@link
+ * #newConnection()} share that configuration, like several driver instances talking to the same device. They throw the
+ * same exceptions a device would, for example {@link VirtualServerExistsException} when creating a duplicate virtual
+ * server, and return copies so callers cannot change the device state directly.
+ * <p/>
+ * Every call on a connection is one round trip: it is counted, delayed by the configured latency, throttled to the
+ * maximum call rate and may fail with an injected {@link RemoteException}. A {@link LoadBalancerChangeSet} is applied
+ * as a single round trip, so the simulator can be used to compare batched and unbatched delta application.
+ */
+public class LoadBalancerSimulator {
+
+    private final LoadBalancerConfig config;
+    private final Inet4AddressPool addressPool;
+    private final Map<String, VirtualServer> servers = Maps.newHashMap();
+    private final ConcurrentMap<String, AtomicLong> callCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final Map<String, Queue<RemoteException>> injectedFailures = Maps.newHashMap();
+    private final AtomicLong totalCalls = new AtomicLong();
+    private final Random random = new Random();
+
+    private long revision;
+    private int saveCount;
+
+    private volatile long minLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile double failureRate;
+    private long callIntervalNanos;
+    private long nextCallSlot;
+
+    /**
+     * Constructor.
+     *
+     * @param config supplies the virtual server address range and default port
+     */
+    public LoadBalancerSimulator(LoadBalancerConfig config) {
+        Validate.notNull(config, "config is null");
+        this.config = config;
+        this.addressPool = new Inet4AddressPool(config);
+    }
+
+    /**
+     * Creates a new connection to the simulated device.
+     *
+     * @return a new connection
+     */
+    public Connection newConnection() {
+        return new Connection(true);
+    }
+
+    /**
+     * Sets the time each call takes. The delay of each call is chosen uniformly between the minimum and maximum.
+     *
+     * @param min  minimum latency
+     * @param max  maximum latency
+     * @param unit unit of the latency values
+     */
+    public void setLatency(long min, long max, TimeUnit unit) {
+        Validate.isTrue(min >= 0 && max >= min, "Invalid latency range");
+        this.minLatencyNanos = unit.toNanos(min);
+        this.maxLatencyNanos = unit.toNanos(max);
+    }
+
+    /**
+     * Sets the probability that a call fails with a {@link RemoteException}.
+     *
+     * @param failureRate probability between 0 and 1
+     */
+    public void setFailureRate(double failureRate) {
+        Validate.isTrue(failureRate >= 0 && failureRate <= 1, "failureRate must be between 0 and 1");
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Limits the rate of calls across all connections. Calls above the limit wait for their turn.
+     *
+     * @param callsPerSecond maximum calls per second, or 0 for no limit
+     */
+    public synchronized void setMaxCallsPerSecond(int callsPerSecond) {
+        Validate.isTrue(callsPerSecond >= 0, "callsPerSecond is negative");
+        this.callIntervalNanos = callsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / callsPerSecond : 0;
+    }
+
+    /**
+     * Makes the next call of the named connection method fail with the specified exception. Failures injected for
+     * the same method are used in order.
+     *
+     * @param method    connection method name, e.g. "addPoolMember"
+     * @param exception the exception to throw
+     */
+    public synchronized void injectFailure(String method, RemoteException exception) {
+        Validate.notEmpty(method, "method is empty");
+        Validate.notNull(exception, "exception is null");
+        Queue<RemoteException> queue = injectedFailures.get(method);
+        if (queue == null) {
+            queue = new LinkedList<RemoteException>();
+            injectedFailures.put(method, queue);
+        }
+        queue.add(exception);
+    }
+
+    /**
+     * Gets the number of calls received by the named connection method.
+     *
+     * @param method connection method name
+     * @return call count
+     */
+    public long getCallCount(String method) {
+        AtomicLong count = callCounts.get(method);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Gets the number of calls received by all connection methods.
+     *
+     * @return total call count
+     */
+    public long getTotalCallCount() {
+        return totalCalls.get();
+    }
+
+    /**
+     * Resets all call counts to zero.
+     */
+    public void resetCallCounts() {
+        callCounts.clear();
+        totalCalls.set(0);
+    }
+
+    /**
+     * Gets the number of times the configuration was saved.
+     *
+     * @return save count
+     */
+    public synchronized int getSaveCount() {
+        return saveCount;
+    }
+
+    /**
+     * Gets the number of virtual servers on the device.
+     *
+     * @return virtual server count
+     */
+    public synchronized int getVirtualServerCount() {
+        return servers.size();
+    }
+
+    /**
+     * Simulates one round trip to the device.
+     *
+     * @param method name of the connection method
+     * @throws RemoteException if a failure is injected
+     */
+    private void roundTrip(String method) throws RemoteException {
+        totalCalls.incrementAndGet();
+        AtomicLong count = callCounts.get(method);
+        if (count == null) {
+            callCounts.putIfAbsent(method, new AtomicLong());
+            count = callCounts.get(method);
+        }
+        count.incrementAndGet();
+
+        long delay = reserveCallSlot() + latency();
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted during " + method, e);
+            }
+        }
+
+        RemoteException failure = nextFailure(method);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized long reserveCallSlot() {
+        if (callIntervalNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long slot = Math.max(now, nextCallSlot);
+        nextCallSlot = slot + callIntervalNanos;
+        return slot - now;
+    }
+
+    private long latency() {
+        long min = minLatencyNanos;
+        long max = maxLatencyNanos;
+        if (max == 0) {
+            return 0;
+        }
+        return min + (long) (random.nextDouble() * (max - min));
+    }
+
+    private synchronized RemoteException nextFailure(String method) {
+        Queue<RemoteException> queue = injectedFailures.get(method);
+        if (queue != null && !queue.isEmpty()) {
+            return queue.remove();
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            return new RemoteException("Simulated failure in " + method);
+        }
+        return null;
+    }
+
+    private static VirtualServer copyOf(VirtualServer server) {
+        return new VirtualServer(server.getName(), server.getHostAddress(),
+            Sets.newHashSet(server.getPoolMembers()));
+    }
+
+    /**
+     * A connection to the simulated device.
+     */
+    public final class Connection implements VersionedLoadBalancerConnection, BatchLoadBalancerConnection {
+
+        private final boolean remote;
+        private volatile boolean active;
+
+        private Connection(boolean remote) {
+            this.remote = remote;
+        }
+
+        @Override
+        public boolean connect() {
+            try {
+                call("connect");
+            } catch (RemoteException e) {
+                return false;
+            }
+            active = true;
+            return true;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public String getChangeToken() throws RemoteException {
+            call("getChangeToken");
+            synchronized (LoadBalancerSimulator.this) {
+                return String.valueOf(revision);
+            }
+        }
+
+        @Override
+        public Set<VirtualServer> getAllVirtualServers() throws RemoteException {
+            call("getAllVirtualServers");
+            synchronized (LoadBalancerSimulator.this) {
+                Set<VirtualServer> copies = Sets.newHashSetWithExpectedSize(servers.size());
+                for (VirtualServer server : servers.values()) {
+                    copies.add(copyOf(server));
+                }
+                return copies;
+            }
+        }
+
+        @Override
+        public VirtualServer getVirtualServer(String serverName)
+            throws VirtualServerNotFoundException, RemoteException {
+            call("getVirtualServer");
+            synchronized (LoadBalancerSimulator.this) {
+                return copyOf(getServer(serverName));
+            }
+        }
+
+        @Override
+        public boolean isVirtualServerDefined(String serverName) throws RemoteException {
+            call("isVirtualServerDefined");
+            synchronized (LoadBalancerSimulator.this) {
+                return servers.containsKey(serverName);
+            }
+        }
+
+        @Override
+        public Map<String, AvailabilityStatus> getAvailabilityStatus(List<String> serverNames)
+            throws VirtualServerNotFoundException, RemoteException {
+            call("getAvailabilityStatus");
+            synchronized (LoadBalancerSimulator.this) {
+                Map<String, AvailabilityStatus> statuses = Maps.newHashMap();
+                for (String serverName : serverNames) {
+                    VirtualServer server = getServer(serverName);
+                    statuses.put(serverName,
+                        server.getPoolSize() > 0 ? AvailabilityStatus.AVAILABLE : AvailabilityStatus.UNAVAILABLE);
+                }
+                return statuses;
+            }
+        }
+
+        @Override
+        public HostAddress createVirtualServer(VirtualServer server, VirtualServerConfig virtualServerConfig,
+                                              HttpMonitor httpMonitor)
+            throws VirtualServerExistsException, RemoteException {
+            call("createVirtualServer");
+            synchronized (LoadBalancerSimulator.this) {
+                if (servers.containsKey(server.getName())) {
+                    throw new VirtualServerExistsException("Virtual server exists: " + server.getName());
+                }
+                OrderedInet4Address address = addressPool.issueAddress();
+                if (address == null) {
+                    throw new RemoteException("No virtual server addresses available");
+                }
+                int port = virtualServerConfig != null ? virtualServerConfig.getPort() : config.getDefaultVipPort();
+                HostAddress hostAddress = new HostAddress(address.toString(), port);
+                servers.put(server.getName(), new VirtualServer(server.getName(), hostAddress,
+                    Sets.newHashSet(server.getPoolMembers())));
+                revision++;
+                return hostAddress;
+            }
+        }
+
+        @Override
+        public void verifyVirtualServer(VirtualServer server, HttpMonitor httpMonitor) {
+            try {
+                call("verifyVirtualServer");
+            } catch (RemoteException e) {
+                // Verification is best effort, as on a real device
+            }
+        }
+
+        @Override
+        public void deleteVirtualServer(VirtualServer server) throws VirtualServerNotFoundException, RemoteException {
+            call("deleteVirtualServer");
+            synchronized (LoadBalancerSimulator.this) {
+                VirtualServer existing = getServer(server.getName());
+                servers.remove(server.getName());
+                addressPool.releaseAddress(existing.getHostAddress().getHost());
+                revision++;
+            }
+        }
+
+        @Override
+        public void addPoolMember(String serverName, PoolMember member)
+            throws PoolMemberExistsException, RemoteException {
+            call("addPoolMember");
+            synchronized (LoadBalancerSimulator.this) {
+                VirtualServer server = servers.get(serverName);
+                if (server == null) {
+                    throw new RemoteException("Virtual server not found: " + serverName);
+                }
+                if (server.getPoolMembers().contains(member)) {
+                    throw new PoolMemberExistsException(String.format("Pool member exists: %s %s", serverName, member));
+                }
+                server.addPoolMember(member);
+                revision++;
+            }
+        }
+
+        @Override
+        public void removePoolMember(String serverName, PoolMember member)
+            throws PoolMemberNotFoundException, RemoteException {
+            call("removePoolMember");
+            synchronized (LoadBalancerSimulator.this) {
+                VirtualServer server = servers.get(serverName);
+                if (server == null) {
+                    throw new RemoteException("Virtual server not found: " + serverName);
+                }
+                if (!server.getPoolMembers().contains(member)) {
+                    throw new PoolMemberNotFoundException(
+                        String.format("Pool member not found: %s %s", serverName, member));
+                }
+                server.removePoolMember(member);
+                revision++;
+            }
+        }
+
+        @Override
+        public LoadBalancerChangeSetResult execute(LoadBalancerChangeSet changeSet) {
+            try {
+                call("execute");
+            } catch (RemoteException e) {
+                List<LoadBalancerOperationResult> results = Lists.newArrayListWithCapacity(changeSet.size());
+                for (LoadBalancerOperation operation : changeSet.getOperations()) {
+                    results.add(LoadBalancerOperationResult.failure(operation, e));
+                }
+                return new LoadBalancerChangeSetResult(results);
+            }
+            return changeSet.executeSequentially(new Connection(false));
+        }
+
+        @Override
+        public boolean saveConfiguration() {
+            try {
+                call("saveConfiguration");
+            } catch (RemoteException e) {
+                return false;
+            }
+            synchronized (LoadBalancerSimulator.this) {
+                saveCount++;
+            }
+            return true;
+        }
+
+        private void call(String method) throws RemoteException {
+            if (remote) {
+                roundTrip(method);
+            }
+        }
+
+        private VirtualServer getServer(String serverName) throws VirtualServerNotFoundException {
+            VirtualServer server = servers.get(serverName);
+            if (server == null) {
+                throw new VirtualServerNotFoundException("Virtual server not found: " + serverName);
+            }
+            return server;
+        }
+    }
+}
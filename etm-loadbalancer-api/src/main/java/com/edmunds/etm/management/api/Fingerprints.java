@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+/**
+ * 64-bit content fingerprints for the management value objects.
+ * <p/>
+ * Fingerprints are deterministic functions of content: equal objects always have equal fingerprints, so a
+ * fingerprint mismatch proves two objects differ without comparing them. Equal fingerprints make equality very
+ * likely but not certain, so they must not replace {@code equals()}.
+ */
+final class Fingerprints {
+
+    /**
+     * Fingerprint of an empty sequence.
+     */
+    static final long SEED = 0xcbf29ce484222325L;
+
+    private static final long NULL = 0x9e3779b97f4a7c15L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fingerprints() {
+    }
+
+    /**
+     * Appends a value to an ordered fingerprint.
+     *
+     * @param fingerprint the fingerprint so far
+     * @param value       the value to append
+     * @return the extended fingerprint
+     */
+    static long add(long fingerprint, long value) {
+        return mix(fingerprint * PRIME + value);
+    }
+
+    /**
+     * Appends a string to an ordered fingerprint.
+     *
+     * @param fingerprint the fingerprint so far
+     * @param value       the string to append, may be null
+     * @return the extended fingerprint
+     */
+    static long add(long fingerprint, String value) {
+        return add(fingerprint, of(value));
+    }
+
+    /**
+     * Computes the fingerprint of a string with 64-bit FNV-1a.
+     *
+     * @param value the string, may be null
+     * @return the fingerprint
+     */
+    static long of(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        long hash = SEED;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Scrambles a fingerprint before it is summed into an unordered set fingerprint.
+     *
+     * @param fingerprint the element fingerprint
+     * @return the set contribution
+     */
+    static long setElement(long fingerprint) {
+        return mix(fingerprint ^ NULL);
+    }
+
+    /**
+     * MurmurHash3 64-bit finalizer.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
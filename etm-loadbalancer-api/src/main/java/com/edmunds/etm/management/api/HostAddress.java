@@ -16,12 +16,11 @@
 package com.edmunds.etm.management.api;
 
 import com.edmunds.etm.common.thrift.HostAddressDto;
+import com.edmunds.etm.common.util.HostResolver;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 
 import java.io.Serializable;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.Properties;
 
 /**
@@ -32,9 +31,6 @@ public class HostAddress implements Comparable<HostAddress>, Serializable {
     private final String host;
     private final int port;
 
-    private String ipAddress;
-    private String hostName;
-
     /**
      * Initializes the HostAddress object using a Properties object (loaded from the ZooKeeper node).
      *
@@ -76,38 +72,30 @@ public class HostAddress implements Comparable<HostAddress>, Serializable {
     }
 
     /**
-     * Gets the host ip address.
+     * Gets the host ip address. <p/> Lookups are cached and performed in the background by {@link HostResolver}, so
+     * this method never blocks.
      *
-     * @return host ip address
+     * @return host ip address, the host as originally defined while it has not been resolved yet, or null if the host
+     *         cannot be resolved
      */
     public String getIpAddress() {
-        if (ipAddress == null) {
-            try {
-                InetAddress addr = InetAddress.getByName(host);
-                ipAddress = addr.getHostAddress();
-            } catch (UnknownHostException e) {
-                ipAddress = null;
-            }
+        HostResolver resolver = HostResolver.getDefault();
+        String ipAddress = resolver.getIpAddress(host);
+        if (ipAddress != null) {
+            return ipAddress;
         }
-
-        return ipAddress;
+        return resolver.isUnresolvable(host) ? null : host;
     }
 
     /**
-     * Gets the host name.
+     * Gets the host name. <p/> Lookups are cached and performed in the background by {@link HostResolver}, so this
+     * method never blocks.
      *
-     * @return host name
+     * @return host name, or the host as originally defined if it has not been resolved yet or cannot be resolved
      */
     public String getHostName() {
-        if (hostName == null) {
-            try {
-                InetAddress addr = InetAddress.getByName(host);
-                hostName = addr.getHostName();
-            } catch (UnknownHostException e) {
-                hostName = null;
-            }
-        }
-        return hostName;
+        String hostName = HostResolver.getDefault().getHostName(host);
+        return hostName != null ? hostName : host;
     }
 
     @Override
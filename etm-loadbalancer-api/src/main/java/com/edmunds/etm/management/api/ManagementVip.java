@@ -26,7 +26,6 @@ import com.google.common.collect.Sets;
 import org.apache.commons.lang.Validate;
 import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -97,7 +96,9 @@ public class ManagementVip implements Comparable<ManagementVip> {
     private final List<String> rules;
     private final HttpMonitor httpMonitor;
 
-    private final int hashCode;
+    private final long poolMemberHostsFingerprint;
+    private final long contentFingerprint;
+    private final long fingerprint;
 
     /**
      * Standard constructor validates that rootContext and rules are in sync with the maven module parameter.
@@ -130,16 +131,9 @@ public class ManagementVip implements Comparable<ManagementVip> {
         this.rules = rules;
         this.httpMonitor = httpMonitor;
 
-        // Not using poolMembers in hashCode calculation.
-        this.hashCode = new HashCodeBuilder()
-            .append(mavenModule)
-            .append(hostAddress)
-            .append(rootContext)
-            .append(rules)
-            .append(vipType)
-            .append(loadBalancerState)
-            .append(httpMonitor)
-            .toHashCode();
+        this.poolMemberHostsFingerprint = calculatePoolMemberHostsFingerprint();
+        this.contentFingerprint = calculateContentFingerprint();
+        this.fingerprint = Fingerprints.add(contentFingerprint, loadBalancerState.ordinal());
 
         // Ensure data is consistent.
         if (loadBalancerState == CREATE_REQUEST) {
@@ -148,6 +142,90 @@ public class ManagementVip implements Comparable<ManagementVip> {
         }
     }
 
+    /**
+     * Copy constructor that changes only the load balancer state. The pool members are shared, not copied.
+     *
+     * @param vip               the vip to copy.
+     * @param loadBalancerState the new load balancer state.
+     */
+    private ManagementVip(ManagementVip vip, ManagementLoadBalancerState loadBalancerState) {
+        this.vipType = vip.vipType;
+        this.loadBalancerState = loadBalancerState;
+        this.mavenModule = vip.mavenModule;
+        this.hostAddress = vip.hostAddress;
+        this.poolMembers = vip.poolMembers;
+        this.rootContext = vip.rootContext;
+        this.rules = vip.rules;
+        this.httpMonitor = vip.httpMonitor;
+        this.poolMemberHostsFingerprint = vip.poolMemberHostsFingerprint;
+        this.contentFingerprint = vip.contentFingerprint;
+        this.fingerprint = Fingerprints.add(contentFingerprint, loadBalancerState.ordinal());
+    }
+
+    private long calculatePoolMemberHostsFingerprint() {
+        long fp = Fingerprints.add(Fingerprints.SEED, poolMembers.size());
+        for (HostAddress host : poolMembers.keySet()) {
+            fp = addHostAddress(fp, host);
+        }
+        return fp;
+    }
+
+    /**
+     * Fingerprints every field except the vip's own load balancer state, which is added separately so that
+     * {@link #withLoadBalancerState} does not need to walk the pool members again.
+     */
+    private long calculateContentFingerprint() {
+        long fp = Fingerprints.add(Fingerprints.SEED, vipType.ordinal());
+        fp = Fingerprints.add(fp, mavenModule.getGroupId());
+        fp = Fingerprints.add(fp, mavenModule.getArtifactId());
+        fp = Fingerprints.add(fp, mavenModule.getVersion());
+        fp = addHostAddress(fp, hostAddress);
+        fp = Fingerprints.add(fp, rootContext);
+
+        fp = Fingerprints.add(fp, rules.size());
+        for (String rule : rules) {
+            fp = Fingerprints.add(fp, rule);
+        }
+
+        fp = Fingerprints.add(fp, httpMonitor != null ? 1 : 0);
+        if (httpMonitor != null) {
+            fp = Fingerprints.add(fp, httpMonitor.getUrl());
+            fp = Fingerprints.add(fp, httpMonitor.getContent());
+        }
+
+        // Pool members are sorted by host address, so equal maps are visited in the same order.
+        fp = Fingerprints.add(fp, poolMembers.size());
+        for (ManagementPoolMember member : poolMembers.values()) {
+            fp = addHostAddress(fp, member.getHostAddress());
+            fp = Fingerprints.add(fp, member.getLoadBalancerState().ordinal());
+        }
+        return fp;
+    }
+
+    private static long addHostAddress(long fp, HostAddress address) {
+        if (address == null) {
+            return Fingerprints.add(fp, 0);
+        }
+        return Fingerprints.add(Fingerprints.add(Fingerprints.add(fp, 1), address.getHost()), address.getPort());
+    }
+
+    /**
+     * Returns a vip identical to this one but with the given load balancer state.
+     * <p/>
+     * The pool members and their states are unchanged, and no sorting is done. If the state is already the requested
+     * one, this vip is returned.
+     *
+     * @param state the load balancer state.
+     * @return a vip with the given state.
+     */
+    public ManagementVip withLoadBalancerState(ManagementLoadBalancerState state) {
+        Validate.notNull(state, "state is null");
+        if (state == loadBalancerState) {
+            return this;
+        }
+        return new ManagementVip(this, state);
+    }
+
     public ManagementVipType getVipType() {
         return vipType;
     }
@@ -180,6 +258,29 @@ public class ManagementVip implements Comparable<ManagementVip> {
         return httpMonitor;
     }
 
+    /**
+     * Gets a 64-bit fingerprint of the vip's content, including pool members and all load balancer states.
+     * <p/>
+     * Equal vips have equal fingerprints, so vips with different fingerprints are known to differ.
+     *
+     * @return the content fingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Gets a 64-bit fingerprint of the pool member host addresses, ignoring member states.
+     * <p/>
+     * Vips whose pool members are on the same hosts have equal host fingerprints. The converse does not hold, so a
+     * mismatch proves the hosts differ but a match must be confirmed by comparing them.
+     *
+     * @return the pool member hosts fingerprint
+     */
+    public long getPoolMemberHostsFingerprint() {
+        return poolMemberHostsFingerprint;
+    }
+
     /**
      * Indicates whether this vip has any changed data.
      *
@@ -208,6 +309,10 @@ public class ManagementVip implements Comparable<ManagementVip> {
         }
         ManagementVip other = (ManagementVip) o;
 
+        if (fingerprint != other.fingerprint) {
+            return false;
+        }
+
         // Probably only the first to will be used.
         return new EqualsBuilder()
             .append(mavenModule, other.mavenModule)
@@ -223,7 +328,7 @@ public class ManagementVip implements Comparable<ManagementVip> {
 
     @Override
     public int hashCode() {
-        return hashCode;
+        return (int) (fingerprint ^ (fingerprint >>> 32));
     }
 
     @Override
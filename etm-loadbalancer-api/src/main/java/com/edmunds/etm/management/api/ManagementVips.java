@@ -15,43 +15,80 @@
  */
 package com.edmunds.etm.management.api;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.apache.commons.lang.Validate;
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
 
+import java.util.AbstractCollection;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
-import static com.edmunds.etm.management.api.ManagementVip.MAVEN_MODULE_FUNCTION;
 import static com.edmunds.etm.management.api.ManagementVip.MAVEN_MODULE_VALID;
-import static com.edmunds.etm.management.api.ManagementVip.createSortedMap;
 import static com.google.common.collect.Collections2.filter;
 
 /**
  * Wrapper that contains the vips.
+ * <p/>
+ * The vips are held in a persistent sorted map keyed by maven module, so {@link #withVip}, {@link #withoutVip},
+ * {@link #addAll} and {@link #removeAll} cost O(log n) per vip and the result shares all untouched vips with the
+ * receiver. The hash code is maintained incrementally as vips are added and removed, and each node of the map holds
+ * the combined fingerprint of its subtree, so the content fingerprint is updated along the same path.
  *
  * @author David Trott
  * @author Ryan Holmes
  */
 public class ManagementVips {
+    private static final Comparator<ManagementVip> MAVEN_MODULE_ORDER = new Comparator<ManagementVip>() {
+        @Override
+        public int compare(ManagementVip vip1, ManagementVip vip2) {
+            return vip1.getMavenModule().compareTo(vip2.getMavenModule());
+        }
+    };
+
     public static final ManagementVips EMPTY_INSTANCE =
             new ManagementVips(ManagementVipType.COMPLETE, Collections.<ManagementVip>emptyList());
 
-    private final Map<MavenModule, ManagementVip> vipsByMavenModule;
-    private final int hashCode;
+    private final PersistentSortedMap<MavenModule, ManagementVip> vipsByMavenModule;
+    private final int entriesHashCode;
     private final ManagementVipType vipType;
 
     public ManagementVips(ManagementVipType vipType, Collection<ManagementVip> vips) {
         Validate.isTrue(filter(vips, vipType.getCannotContainVipPredicate()).isEmpty());
 
+        List<ManagementVip> sortedVips = Lists.newArrayList(filter(vips, MAVEN_MODULE_VALID));
+        Collections.sort(sortedVips, MAVEN_MODULE_ORDER);
+
+        List<MavenModule> keys = Lists.newArrayListWithCapacity(sortedVips.size());
+        List<Long> fingerprints = Lists.newArrayListWithCapacity(sortedVips.size());
+        int hash = 0;
+        MavenModule previous = null;
+        for (ManagementVip vip : sortedVips) {
+            MavenModule key = vip.getMavenModule();
+            if (key.equals(previous)) {
+                throw new IllegalArgumentException("duplicate key: " + key);
+            }
+            keys.add(key);
+            fingerprints.add(entryFingerprint(vip));
+            hash += entryHashCode(key, vip);
+            previous = key;
+        }
+
+        this.vipType = vipType;
+        this.vipsByMavenModule = PersistentSortedMap.fromSorted(keys, sortedVips, fingerprints);
+        this.entriesHashCode = hash;
+    }
+
+    private ManagementVips(ManagementVipType vipType,
+                           PersistentSortedMap<MavenModule, ManagementVip> vipsByMavenModule,
+                           int entriesHashCode) {
         this.vipType = vipType;
-        vipsByMavenModule = createSortedMap(filter(vips, MAVEN_MODULE_VALID), MAVEN_MODULE_FUNCTION);
-        hashCode = new HashCodeBuilder()
-                .append(vipsByMavenModule)
-                .toHashCode();
+        this.vipsByMavenModule = vipsByMavenModule;
+        this.entriesHashCode = entriesHashCode;
     }
 
     public ManagementVipType getVipType() {
@@ -59,16 +96,52 @@ public class ManagementVips {
     }
 
     public ManagementVip getVip(MavenModule mavenModule) {
-        return vipsByMavenModule.get(mavenModule);
+        return mavenModule == null ? null : vipsByMavenModule.get(mavenModule);
     }
 
     /**
      * Fetches the collection of vips.
+     * <p/>
+     * The returned collection is an unmodifiable view sorted by maven module.
      *
      * @return the collection of vips
      */
     public Collection<ManagementVip> getVips() {
-        return vipsByMavenModule.values();
+        return new AbstractCollection<ManagementVip>() {
+            @Override
+            public Iterator<ManagementVip> iterator() {
+                return vipsByMavenModule.valueIterator();
+            }
+
+            @Override
+            public int size() {
+                return vipsByMavenModule.size();
+            }
+        };
+    }
+
+    /**
+     * Gets a 64-bit fingerprint of the vips.
+     * <p/>
+     * The fingerprint is the root of a tree of fingerprints: every node of the vip map combines the fingerprint of its
+     * vip with those of its two subtrees, so an update recomputes only the nodes on its path. Subtrees are combined
+     * independently of the tree shape, so equal objects have equal fingerprints; comparing a fingerprint with one
+     * taken from an earlier snapshot tells whether anything may have changed since.
+     *
+     * @return the content fingerprint
+     * @see ManagementVip#getFingerprint()
+     */
+    public long getFingerprint() {
+        return vipsByMavenModule.fingerprint();
+    }
+
+    /**
+     * Returns the number of vips.
+     *
+     * @return vip count
+     */
+    public int size() {
+        return vipsByMavenModule.size();
     }
 
     /**
@@ -87,18 +160,72 @@ public class ManagementVips {
         return matchingVips;
     }
 
+    /**
+     * Returns a copy of this object with the specified vip added, replacing any vip with the same maven module.
+     *
+     * @param vip the vip to add
+     * @return a new ManagementVips object, or this object if the vip is already present
+     */
+    public ManagementVips withVip(ManagementVip vip) {
+        Validate.notNull(vip, "vip is null");
+        Validate.notNull(vip.getMavenModule(), "vip mavenModule is null");
+        validateVipType(vip);
+
+        MavenModule key = vip.getMavenModule();
+        ManagementVip existing = vipsByMavenModule.get(key);
+        if (vip.equals(existing)) {
+            return this;
+        }
+
+        int hash = entriesHashCode + entryHashCode(key, vip);
+        if (existing != null) {
+            hash -= entryHashCode(key, existing);
+        }
+        return new ManagementVips(vipType, vipsByMavenModule.put(key, vip, entryFingerprint(vip)), hash);
+    }
+
+    /**
+     * Returns a copy of this object without the vip for the specified maven module.
+     *
+     * @param mavenModule the maven module of the vip to remove
+     * @return a new ManagementVips object, or this object if there is no such vip
+     */
+    public ManagementVips withoutVip(MavenModule mavenModule) {
+        Validate.notNull(mavenModule, "mavenModule is null");
+
+        ManagementVip existing = vipsByMavenModule.get(mavenModule);
+        if (existing == null) {
+            return this;
+        }
+        return new ManagementVips(vipType, vipsByMavenModule.remove(mavenModule),
+            entriesHashCode - entryHashCode(mavenModule, existing));
+    }
+
     /**
      * Adds the specified vips and returns the resulting ManagementVips object.
      * <p/>
-     * This method does not modify the receiver, but instead creates a copy with the specified vips added.
+     * This method does not modify the receiver, but instead creates a copy with the specified vips added. Vips that
+     * are already present are ignored; a vip whose maven module is mapped to a different vip is rejected.
      *
      * @param vips the vips to add
      * @return a new ManagementVips object
      */
     public ManagementVips addAll(Collection<ManagementVip> vips) {
-        Set<ManagementVip> vipSet = Sets.newHashSet(getVips());
-        vipSet.addAll(vips);
-        return new ManagementVips(this.vipType, vipSet);
+        Validate.isTrue(filter(vips, vipType.getCannotContainVipPredicate()).isEmpty());
+
+        PersistentSortedMap<MavenModule, ManagementVip> map = vipsByMavenModule;
+        int hash = entriesHashCode;
+        for (ManagementVip vip : filter(vips, MAVEN_MODULE_VALID)) {
+            MavenModule key = vip.getMavenModule();
+            ManagementVip existing = map.get(key);
+            if (existing == null) {
+                map = map.put(key, vip, entryFingerprint(vip));
+                hash += entryHashCode(key, vip);
+            } else if (!existing.equals(vip)) {
+                throw new IllegalArgumentException("duplicate key: " + key);
+            }
+        }
+        return new ManagementVips(vipType, map, hash);
     }
 
     /**
@@ -110,9 +237,30 @@ public class ManagementVips {
      * @return a new ManagementVips object
      */
     public ManagementVips removeAll(Collection<ManagementVip> vips) {
-        Set<ManagementVip> vipSet = Sets.newHashSet(getVips());
-        vipSet.removeAll(vips);
-        return new ManagementVips(this.vipType, vipSet);
+        PersistentSortedMap<MavenModule, ManagementVip> map = vipsByMavenModule;
+        int hash = entriesHashCode;
+        for (ManagementVip vip : filter(vips, MAVEN_MODULE_VALID)) {
+            MavenModule key = vip.getMavenModule();
+            ManagementVip existing = map.get(key);
+            if (existing != null && existing.equals(vip)) {
+                map = map.remove(key);
+                hash -= entryHashCode(key, existing);
+            }
+        }
+        return new ManagementVips(vipType, map, hash);
+    }
+
+    /**
+     * Reports the vips that differ between this object and a newer one.
+     * <p/>
+     * Subtrees of vips that both objects share are skipped, so after a few updates the cost depends on the number of
+     * updates rather than on the number of vips.
+     *
+     * @param newer   the newer vips
+     * @param visitor receives each maven module whose vip was added, removed or replaced
+     */
+    void diff(ManagementVips newer, PersistentSortedMap.DiffVisitor<MavenModule, ManagementVip> visitor) {
+        vipsByMavenModule.diff(newer.vipsByMavenModule, visitor);
     }
 
     public boolean containsChanges() {
@@ -130,19 +278,50 @@ public class ManagementVips {
             return true;
         }
 
-        // Optimize using the hashCode.
-        if (o == null || getClass() != o.getClass() || hashCode != o.hashCode()) {
+        if (o == null || getClass() != o.getClass()) {
             return false;
         }
         ManagementVips other = (ManagementVips) o;
 
-        return new EqualsBuilder()
-                .append(vipsByMavenModule, other.vipsByMavenModule)
-                .isEquals();
+        // Optimize using the fingerprint.
+        if (getFingerprint() != other.getFingerprint()) {
+            return false;
+        }
+
+        if (vipsByMavenModule.isSameTree(other.vipsByMavenModule)) {
+            return true;
+        }
+        if (size() != other.size()) {
+            return false;
+        }
+
+        // Both maps are sorted by maven module, so equal maps yield the same sequence of vips.
+        Iterator<ManagementVip> it = other.vipsByMavenModule.valueIterator();
+        for (ManagementVip vip : getVips()) {
+            if (!vip.equals(it.next())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return hashCode;
+        // Matches HashCodeBuilder().append(map) over a Map<MavenModule, ManagementVip>.
+        return 17 * 37 + entriesHashCode;
+    }
+
+    private void validateVipType(ManagementVip vip) {
+        Predicate<ManagementVip> cannotContain = vipType.getCannotContainVipPredicate();
+        Validate.isTrue(!cannotContain.apply(vip), "vip is not compatible with vipType " + vipType);
+    }
+
+    private static long entryFingerprint(ManagementVip vip) {
+        return Fingerprints.setElement(vip.getFingerprint());
+    }
+
+    private static int entryHashCode(MavenModule key, ManagementVip vip) {
+        // Same contribution as Map.Entry.hashCode().
+        return key.hashCode() ^ vip.hashCode();
     }
 }
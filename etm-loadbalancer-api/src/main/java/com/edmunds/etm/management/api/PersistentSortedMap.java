@@ -0,0 +1,505 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable sorted map that shares structure between versions.
+ * <p/>
+ * The map is a persistent AVL tree: {@link #put} and {@link #remove} return a new map in O(log n) time, copying only
+ * the nodes on the path to the changed key and sharing every other node with the original. Iteration is in ascending
+ * key order.
+ * <p/>
+ * Every entry carries a caller-supplied fingerprint and every node holds the combined fingerprint of its subtree, so
+ * the fingerprint of the whole map is available in constant time and is updated along the copied path. Subtrees are
+ * combined by addition, which makes the result independent of the tree shape: maps with the same entries have the
+ * same fingerprint however they were built. {@link #diff} walks two maps side by side and skips every subtree they
+ * share.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class PersistentSortedMap<K extends Comparable<? super K>, V> implements Iterable<Map.Entry<K, V>> {
+
+    private static final PersistentSortedMap<?, ?> EMPTY = new PersistentSortedMap<Comparable<Object>, Object>(null);
+
+    private final Node<K, V> root;
+
+    private PersistentSortedMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return (PersistentSortedMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Builds a map from values sorted by key, in linear time.
+     *
+     * @param keys         keys in ascending order
+     * @param values       the value of each key, in the same order
+     * @param fingerprints the fingerprint of each entry, in the same order
+     * @return a balanced map
+     */
+    static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> fromSorted(List<K> keys, List<V> values,
+                                                                                    List<Long> fingerprints) {
+        if (keys.isEmpty()) {
+            return empty();
+        }
+        return new PersistentSortedMap<K, V>(build(keys, values, fingerprints, 0, keys.size()));
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Returns the combined fingerprint of all entries.
+     *
+     * @return the sum of the entry fingerprints, or 0 for an empty map
+     */
+    long fingerprint() {
+        return fingerprint(root);
+    }
+
+    V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp == 0) {
+                return node.value;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a map with the key mapped to the value.
+     *
+     * @param key         the key
+     * @param value       the value
+     * @param fingerprint the fingerprint of the entry
+     * @return the new map, or this map if the key is already mapped to the same value instance
+     */
+    PersistentSortedMap<K, V> put(K key, V value, long fingerprint) {
+        Node<K, V> newRoot = put(root, key, value, fingerprint);
+        return newRoot == root ? this : new PersistentSortedMap<K, V>(newRoot);
+    }
+
+    /**
+     * Returns a map without the key.
+     *
+     * @param key the key
+     * @return the new map, or this map if the key is not present
+     */
+    PersistentSortedMap<K, V> remove(K key) {
+        Node<K, V> newRoot = remove(root, key);
+        return newRoot == root ? this : new PersistentSortedMap<K, V>(newRoot);
+    }
+
+    /**
+     * Indicates whether this map is the same tree as another, which implies equal contents.
+     *
+     * @param other the other map
+     * @return true if both maps share the same root
+     */
+    boolean isSameTree(PersistentSortedMap<K, V> other) {
+        return root == other.root;
+    }
+
+    /**
+     * Reports the differences between this map and another.
+     * <p/>
+     * Both trees are walked in key order at the same time. A subtree that appears in both maps as the same node is
+     * skipped without being visited, so the cost is proportional to the part of the trees that was copied rather
+     * than to the size of the maps. Subtrees are never skipped because their fingerprints match, since equal
+     * fingerprints do not prove equal content. Keys mapped to the same value instance are not reported.
+     *
+     * @param other   the newer map
+     * @param visitor receives each key that was added, removed or mapped to a different value instance
+     */
+    void diff(PersistentSortedMap<K, V> other, DiffVisitor<K, V> visitor) {
+        Cursor<K, V> oldCursor = new Cursor<K, V>(root);
+        Cursor<K, V> newCursor = new Cursor<K, V>(other.root);
+
+        while (!oldCursor.isEmpty() && !newCursor.isEmpty()) {
+            Node<K, V> oldNode = oldCursor.peek();
+            Node<K, V> newNode = newCursor.peek();
+            boolean oldSubtree = oldCursor.isSubtree();
+            boolean newSubtree = newCursor.isSubtree();
+
+            if (oldSubtree && newSubtree) {
+                if (oldNode == newNode) {
+                    // Both walks continue with the same run of entries.
+                    oldCursor.pop();
+                    newCursor.pop();
+                } else if (oldNode.size > newNode.size) {
+                    oldCursor.expand();
+                } else if (newNode.size > oldNode.size) {
+                    newCursor.expand();
+                } else {
+                    oldCursor.expand();
+                    newCursor.expand();
+                }
+            } else if (oldSubtree) {
+                oldCursor.expand();
+            } else if (newSubtree) {
+                newCursor.expand();
+            } else {
+                int cmp = oldNode.key.compareTo(newNode.key);
+                if (cmp < 0) {
+                    visitor.visit(oldNode.key, oldNode.value, null);
+                    oldCursor.pop();
+                } else if (cmp > 0) {
+                    visitor.visit(newNode.key, null, newNode.value);
+                    newCursor.pop();
+                } else {
+                    if (oldNode.value != newNode.value) {
+                        visitor.visit(oldNode.key, oldNode.value, newNode.value);
+                    }
+                    oldCursor.pop();
+                    newCursor.pop();
+                }
+            }
+        }
+        for (Node<K, V> node = oldCursor.nextEntry(); node != null; node = oldCursor.nextEntry()) {
+            visitor.visit(node.key, node.value, null);
+        }
+        for (Node<K, V> node = newCursor.nextEntry(); node != null; node = newCursor.nextEntry()) {
+            visitor.visit(node.key, null, node.value);
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<K, V>(root);
+    }
+
+    /**
+     * Returns an iterator over the values in key order.
+     *
+     * @return value iterator
+     */
+    Iterator<V> valueIterator() {
+        final Iterator<Map.Entry<K, V>> entries = iterator();
+        return new Iterator<V>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public V next() {
+                return entries.next().getValue();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the maximum depth of the tree, for testing the balance.
+     *
+     * @return tree height
+     */
+    int height() {
+        return height(root);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> put(Node<K, V> node, K key, V value,
+                                                                      long fingerprint) {
+        if (node == null) {
+            return new Node<K, V>(key, value, fingerprint, null, null);
+        }
+        int cmp = key.compareTo(node.key);
+        if (cmp == 0) {
+            return node.value == value ? node : new Node<K, V>(key, value, fingerprint, node.left, node.right);
+        }
+        if (cmp < 0) {
+            Node<K, V> left = put(node.left, key, value, fingerprint);
+            return left == node.left ? node : balance(node, left, node.right);
+        }
+        Node<K, V> right = put(node.right, key, value, fingerprint);
+        return right == node.right ? node : balance(node, node.left, right);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = key.compareTo(node.key);
+        if (cmp < 0) {
+            Node<K, V> left = remove(node.left, key);
+            return left == node.left ? node : balance(node, left, node.right);
+        }
+        if (cmp > 0) {
+            Node<K, V> right = remove(node.right, key);
+            return right == node.right ? node : balance(node, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<K, V> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor, node.left, removeMin(node.right));
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> removeMin(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node, removeMin(node.left), node.right);
+    }
+
+    /**
+     * Creates a node holding the entry of another node, rotating if the children differ in height by more than one.
+     */
+    private static <K extends Comparable<? super K>, V> Node<K, V> balance(
+        Node<K, V> entry, Node<K, V> left, Node<K, V> right) {
+
+        int hl = height(left);
+        int hr = height(right);
+        if (hl > hr + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<K, V>(left, left.left, new Node<K, V>(entry, left.right, right));
+            }
+            Node<K, V> lr = left.right;
+            return new Node<K, V>(lr,
+                new Node<K, V>(left, left.left, lr.left),
+                new Node<K, V>(entry, lr.right, right));
+        }
+        if (hr > hl + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<K, V>(right, new Node<K, V>(entry, left, right.left), right.right);
+            }
+            Node<K, V> rl = right.left;
+            return new Node<K, V>(rl,
+                new Node<K, V>(entry, left, rl.left),
+                new Node<K, V>(right, rl.right, right.right));
+        }
+        return new Node<K, V>(entry, left, right);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> build(List<K> keys, List<V> values,
+                                                                        List<Long> fingerprints, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        return new Node<K, V>(keys.get(mid), values.get(mid), fingerprints.get(mid),
+            build(keys, values, fingerprints, from, mid), build(keys, values, fingerprints, mid + 1, to));
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static long fingerprint(Node<?, ?> node) {
+        return node == null ? 0L : node.fingerprint;
+    }
+
+    /**
+     * Receives the differences found by {@link #diff}.
+     *
+     * @param <K> key type
+     * @param <V> value type
+     */
+    interface DiffVisitor<K, V> {
+        /**
+         * Called once per changed key, in ascending key order.
+         *
+         * @param key      the key
+         * @param oldValue the value in the older map, or null if the key was added
+         * @param newValue the value in the newer map, or null if the key was removed
+         */
+        void visit(K key, V oldValue, V newValue);
+    }
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        private final K key;
+        private final V value;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final long entryFingerprint;
+        private final long fingerprint;
+        private final int height;
+        private final int size;
+
+        Node(K key, V value, long entryFingerprint, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.entryFingerprint = entryFingerprint;
+            this.left = left;
+            this.right = right;
+            this.fingerprint = entryFingerprint + fingerprint(left) + fingerprint(right);
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        Node(Node<K, V> entry, Node<K, V> left, Node<K, V> right) {
+            this(entry.key, entry.value, entry.entryFingerprint, left, right);
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Position in an in-order walk that keeps unvisited subtrees whole until they have to be opened.
+     * <p/>
+     * The top of the stack is the next part of the walk: either a whole subtree or a single entry whose left subtree
+     * has already been walked.
+     */
+    private static final class Cursor<K, V> {
+        private final List<Node<K, V>> nodes = new ArrayList<Node<K, V>>();
+        private final List<Boolean> subtrees = new ArrayList<Boolean>();
+
+        Cursor(Node<K, V> root) {
+            pushSubtree(root);
+        }
+
+        boolean isEmpty() {
+            return nodes.isEmpty();
+        }
+
+        Node<K, V> peek() {
+            return nodes.get(nodes.size() - 1);
+        }
+
+        boolean isSubtree() {
+            return subtrees.get(subtrees.size() - 1);
+        }
+
+        void pop() {
+            nodes.remove(nodes.size() - 1);
+            subtrees.remove(subtrees.size() - 1);
+        }
+
+        /**
+         * Replaces the subtree on top with its left subtree, its entry and its right subtree.
+         */
+        void expand() {
+            Node<K, V> node = peek();
+            pop();
+            pushSubtree(node.right);
+            nodes.add(node);
+            subtrees.add(Boolean.FALSE);
+            pushSubtree(node.left);
+        }
+
+        /**
+         * Removes and returns the next entry, opening subtrees as needed.
+         *
+         * @return the next entry, or null at the end of the walk
+         */
+        Node<K, V> nextEntry() {
+            while (!isEmpty() && isSubtree()) {
+                expand();
+            }
+            if (isEmpty()) {
+                return null;
+            }
+            Node<K, V> node = peek();
+            pop();
+            return node;
+        }
+
+        private void pushSubtree(Node<K, V> node) {
+            if (node != null) {
+                nodes.add(node);
+                subtrees.add(Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * In-order iterator using an explicit stack of left spines.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final List<Node<K, V>> stack = new ArrayList<Node<K, V>>();
+
+        EntryIterator(Node<K, V> root) {
+            pushLeft(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> node = stack.remove(stack.size() - 1);
+            pushLeft(node.right);
+            return node;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void pushLeft(Node<K, V> node) {
+            while (node != null) {
+                stack.add(node);
+                node = node.left;
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.Validate;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A change to a single vip between two snapshots.
+ * <p/>
+ * A change holds the vip as it was before ({@code null} for a create) and as it is after ({@code null} for a
+ * delete). The pool members added and removed by an update are derived from the two vips, so an update with no
+ * member changes only changes the vip's attributes.
+ */
+public final class VipChange {
+
+    /**
+     * Kind of change.
+     */
+    public enum Type {
+        CREATE,
+        DELETE,
+        UPDATE
+    }
+
+    private final Type type;
+    private final ManagementVip oldVip;
+    private final ManagementVip newVip;
+    private final List<HostAddress> addedMembers;
+    private final List<HostAddress> removedMembers;
+
+    private VipChange(Type type, ManagementVip oldVip, ManagementVip newVip,
+                      List<HostAddress> addedMembers, List<HostAddress> removedMembers) {
+        this.type = type;
+        this.oldVip = oldVip;
+        this.newVip = newVip;
+        this.addedMembers = addedMembers;
+        this.removedMembers = removedMembers;
+    }
+
+    /**
+     * Creates the change that turns one vip into another.
+     *
+     * @param oldVip the vip before the change, or null if it did not exist
+     * @param newVip the vip after the change, or null if it no longer exists
+     * @return the change, or null if the vips are equal
+     */
+    public static VipChange between(ManagementVip oldVip, ManagementVip newVip) {
+        if (oldVip == null && newVip == null) {
+            return null;
+        }
+        if (oldVip == null) {
+            List<HostAddress> added = Lists.newArrayList(newVip.getPoolMembers().keySet());
+            return new VipChange(Type.CREATE, null, newVip, added, Collections.<HostAddress>emptyList());
+        }
+        if (newVip == null) {
+            List<HostAddress> removed = Lists.newArrayList(oldVip.getPoolMembers().keySet());
+            return new VipChange(Type.DELETE, oldVip, null, Collections.<HostAddress>emptyList(), removed);
+        }
+
+        Validate.isTrue(oldVip.getMavenModule().equals(newVip.getMavenModule()), "maven modules differ");
+        if (oldVip.equals(newVip)) {
+            return null;
+        }
+
+        // Compare the members even when the host fingerprints match, since fingerprints can collide
+        List<HostAddress> added = Lists.newArrayList();
+        List<HostAddress> removed = Lists.newArrayList();
+        diffHosts(oldVip, newVip, added, removed);
+        return new VipChange(Type.UPDATE, oldVip, newVip, added, removed);
+    }
+
+    /**
+     * Merges the sorted host addresses of both vips in a single pass.
+     */
+    private static void diffHosts(ManagementVip oldVip, ManagementVip newVip,
+                                  List<HostAddress> added, List<HostAddress> removed) {
+        Iterator<HostAddress> oldIterator = oldVip.getPoolMembers().keySet().iterator();
+        Iterator<HostAddress> newIterator = newVip.getPoolMembers().keySet().iterator();
+        HostAddress oldHost = oldIterator.hasNext() ? oldIterator.next() : null;
+        HostAddress newHost = newIterator.hasNext() ? newIterator.next() : null;
+
+        while (oldHost != null || newHost != null) {
+            int cmp;
+            if (oldHost == null) {
+                cmp = 1;
+            } else if (newHost == null) {
+                cmp = -1;
+            } else {
+                cmp = oldHost.compareTo(newHost);
+            }
+
+            if (cmp < 0) {
+                removed.add(oldHost);
+                oldHost = oldIterator.hasNext() ? oldIterator.next() : null;
+            } else if (cmp > 0) {
+                added.add(newHost);
+                newHost = newIterator.hasNext() ? newIterator.next() : null;
+            } else {
+                oldHost = oldIterator.hasNext() ? oldIterator.next() : null;
+                newHost = newIterator.hasNext() ? newIterator.next() : null;
+            }
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public MavenModule getMavenModule() {
+        return newVip != null ? newVip.getMavenModule() : oldVip.getMavenModule();
+    }
+
+    /**
+     * Gets the vip before the change.
+     *
+     * @return the old vip, or null for a create
+     */
+    public ManagementVip getOldVip() {
+        return oldVip;
+    }
+
+    /**
+     * Gets the vip after the change, with all of its new attributes and pool members.
+     *
+     * @return the new vip, or null for a delete
+     */
+    public ManagementVip getNewVip() {
+        return newVip;
+    }
+
+    /**
+     * Gets the pool members added by this change, sorted by host address.
+     * <p/>
+     * For a create these are all members of the new vip.
+     *
+     * @return added member addresses
+     */
+    public List<HostAddress> getAddedMembers() {
+        return Collections.unmodifiableList(addedMembers);
+    }
+
+    /**
+     * Gets the pool members removed by this change, sorted by host address.
+     * <p/>
+     * For a delete these are all members of the old vip.
+     *
+     * @return removed member addresses
+     */
+    public List<HostAddress> getRemovedMembers() {
+        return Collections.unmodifiableList(removedMembers);
+    }
+
+    /**
+     * Indicates whether an update changes anything other than the pool member list, such as the vip address, the
+     * rules or the health monitor.
+     *
+     * @return true if the vip attributes changed, false for member-only updates
+     */
+    public boolean hasAttributeChanges() {
+        if (type != Type.UPDATE) {
+            return true;
+        }
+        return !ObjectUtils.equals(oldVip.getHostAddress(), newVip.getHostAddress())
+            || !ObjectUtils.equals(oldVip.getRootContext(), newVip.getRootContext())
+            || !ObjectUtils.equals(oldVip.getRules(), newVip.getRules())
+            || !ObjectUtils.equals(oldVip.getHttpMonitor(), newVip.getHttpMonitor())
+            || oldVip.getLoadBalancerState() != newVip.getLoadBalancerState();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        VipChange other = (VipChange) o;
+        return ObjectUtils.equals(oldVip, other.oldVip) && ObjectUtils.equals(newVip, other.newVip);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * ObjectUtils.hashCode(oldVip) + ObjectUtils.hashCode(newVip);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("VipChange");
+        sb.append("{type=").append(type);
+        sb.append(", mavenModule=").append(getMavenModule());
+        sb.append(", addedMembers=").append(addedMembers);
+        sb.append(", removedMembers=").append(removedMembers);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A change to the published vips, as delivered to one subscriber.
+ * <p/>
+ * The changes lead from the snapshot of the subscriber's previous event to {@link #getSnapshot()}. The first event
+ * of a subscription is an initial event whose changes create every vip of the latest snapshot. When a subscriber
+ * falls behind, the snapshots it missed are coalesced into one event.
+ */
+public class VipChangeEvent {
+
+    private final ManagementVips snapshot;
+    private final VipChangeSet changes;
+    private final boolean initial;
+    private final int publishCount;
+
+    public VipChangeEvent(ManagementVips snapshot, VipChangeSet changes, boolean initial, int publishCount) {
+        Validate.notNull(snapshot, "snapshot is null");
+        Validate.notNull(changes, "changes is null");
+        this.snapshot = snapshot;
+        this.changes = changes;
+        this.initial = initial;
+        this.publishCount = publishCount;
+    }
+
+    /**
+     * Gets the vips after the changes.
+     *
+     * @return the snapshot
+     */
+    public ManagementVips getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Gets the vip and pool member changes since the previous event.
+     *
+     * @return the changes
+     */
+    public VipChangeSet getChanges() {
+        return changes;
+    }
+
+    /**
+     * Indicates whether this is the first event of the subscription, starting from an empty set of vips.
+     *
+     * @return true for the initial event
+     */
+    public boolean isInitial() {
+        return initial;
+    }
+
+    /**
+     * Gets the number of published snapshots coalesced into this event, not counting the initial snapshot.
+     *
+     * @return publish count
+     */
+    public int getPublishCount() {
+        return publishCount;
+    }
+
+    @Override
+    public String toString() {
+        return "VipChangeEvent{initial=" + initial + ", publishCount=" + publishCount + ", changes=" + changes + '}';
+    }
+}
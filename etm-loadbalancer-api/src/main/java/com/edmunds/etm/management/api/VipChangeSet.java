@@ -0,0 +1,207 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.Validate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * The changes between two vip snapshots, without the vips that stayed the same.
+ * <p/>
+ * Unlike the result of a full delta, which repeats every vip and member with an {@code ACTIVE} state, a change set
+ * only holds the vips that were created, deleted or updated. {@link #apply} turns the old snapshot into the new one
+ * and {@link #merge} coalesces successive change sets into one.
+ */
+public final class VipChangeSet {
+
+    public static final VipChangeSet EMPTY = new VipChangeSet(Maps.<MavenModule, VipChange>newTreeMap());
+
+    private final SortedMap<MavenModule, VipChange> changes;
+
+    private VipChangeSet(SortedMap<MavenModule, VipChange> changes) {
+        this.changes = Collections.unmodifiableSortedMap(changes);
+    }
+
+    /**
+     * Computes the changes that turn one snapshot into another.
+     * <p/>
+     * Both snapshots are walked in maven module order at the same time. When the new snapshot was derived from the
+     * old one, the subtrees of vips they share are skipped without being visited, so the cost follows the size of the
+     * change rather than the size of the snapshots. Vips that are the same object or have equal content are skipped.
+     *
+     * @param oldVips the old snapshot, or null for an empty snapshot
+     * @param newVips the new snapshot
+     * @return the change set
+     */
+    public static VipChangeSet between(ManagementVips oldVips, ManagementVips newVips) {
+        Validate.notNull(newVips, "newVips is null");
+        if (oldVips == null) {
+            oldVips = ManagementVips.EMPTY_INSTANCE;
+        }
+        if (oldVips.equals(newVips)) {
+            return EMPTY;
+        }
+
+        final SortedMap<MavenModule, VipChange> changes = Maps.newTreeMap();
+        oldVips.diff(newVips, new PersistentSortedMap.DiffVisitor<MavenModule, ManagementVip>() {
+            @Override
+            public void visit(MavenModule key, ManagementVip oldVip, ManagementVip newVip) {
+                put(changes, VipChange.between(oldVip, newVip));
+            }
+        });
+        return changes.isEmpty() ? EMPTY : new VipChangeSet(changes);
+    }
+
+    /**
+     * Applies the changes to a snapshot.
+     * <p/>
+     * The snapshot must be the one the changes were computed from, at least for the vips that changed. Vips that did
+     * not change are shared with the result.
+     *
+     * @param vips the snapshot to update
+     * @return the updated snapshot
+     * @throws IllegalArgumentException if a changed vip does not match the vip in the snapshot
+     */
+    public ManagementVips apply(ManagementVips vips) {
+        Validate.notNull(vips, "vips is null");
+
+        ManagementVips result = vips;
+        for (VipChange change : changes.values()) {
+            MavenModule mavenModule = change.getMavenModule();
+            if (!ObjectUtils.equals(result.getVip(mavenModule), change.getOldVip())) {
+                throw new IllegalArgumentException("Vips do not match change base for " + mavenModule);
+            }
+            if (change.getType() == VipChange.Type.DELETE) {
+                result = result.withoutVip(mavenModule);
+            } else {
+                result = result.withVip(change.getNewVip());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Coalesces this change set with the one that follows it.
+     * <p/>
+     * For each vip the result goes from the vip before this change set to the vip after the next one, so a create
+     * followed by a delete cancels out and two updates become one.
+     *
+     * @param next the change set computed from the snapshot this change set produces
+     * @return the combined change set
+     * @throws IllegalArgumentException if the change sets are not successive
+     */
+    public VipChangeSet merge(VipChangeSet next) {
+        Validate.notNull(next, "next is null");
+        if (next.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return next;
+        }
+
+        SortedMap<MavenModule, VipChange> merged = Maps.newTreeMap(changes);
+        for (VipChange nextChange : next.changes.values()) {
+            MavenModule mavenModule = nextChange.getMavenModule();
+            VipChange change = merged.remove(mavenModule);
+            if (change == null) {
+                merged.put(mavenModule, nextChange);
+                continue;
+            }
+            if (!ObjectUtils.equals(change.getNewVip(), nextChange.getOldVip())) {
+                throw new IllegalArgumentException("Change sets are not successive for " + mavenModule);
+            }
+            put(merged, VipChange.between(change.getOldVip(), nextChange.getNewVip()));
+        }
+        return merged.isEmpty() ? EMPTY : new VipChangeSet(merged);
+    }
+
+    /**
+     * Gets all changes sorted by maven module.
+     *
+     * @return the changes
+     */
+    public Collection<VipChange> getChanges() {
+        return changes.values();
+    }
+
+    /**
+     * Gets the changes of one type sorted by maven module.
+     *
+     * @param type the type of change
+     * @return the matching changes
+     */
+    public List<VipChange> getChanges(VipChange.Type type) {
+        List<VipChange> result = Lists.newArrayList();
+        for (VipChange change : changes.values()) {
+            if (change.getType() == type) {
+                result.add(change);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the change to a vip.
+     *
+     * @param mavenModule the maven module of the vip
+     * @return the change, or null if the vip did not change
+     */
+    public VipChange getChange(MavenModule mavenModule) {
+        return changes.get(mavenModule);
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return changes.equals(((VipChangeSet) o).changes);
+    }
+
+    @Override
+    public int hashCode() {
+        return changes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "VipChangeSet" + changes.values();
+    }
+
+    private static void put(SortedMap<MavenModule, VipChange> changes, VipChange change) {
+        if (change != null) {
+            changes.put(change.getMavenModule(), change);
+        }
+    }
+}
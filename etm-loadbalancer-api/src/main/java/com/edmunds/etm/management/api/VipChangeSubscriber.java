@@ -0,0 +1,52 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+/**
+ * Receives vip change events.
+ * <p/>
+ * Methods are called one at a time for each subscriber, starting with {@link #onSubscribe}. No events are delivered
+ * until the subscriber requests them through its subscription. If a method throws an exception, the subscription is
+ * cancelled.
+ */
+public interface VipChangeSubscriber {
+
+    /**
+     * Called once before any other method.
+     *
+     * @param subscription the subscription, used to request events
+     */
+    public void onSubscribe(VipChangeSubscription subscription);
+
+    /**
+     * Called with the next event.
+     *
+     * @param event the changes since the previous event
+     */
+    public void onNext(VipChangeEvent event);
+
+    /**
+     * Called when the subscription fails; no further methods are called.
+     *
+     * @param error the cause
+     */
+    public void onError(Throwable error);
+
+    /**
+     * Called when the publisher is closed; no further methods are called.
+     */
+    public void onComplete();
+}
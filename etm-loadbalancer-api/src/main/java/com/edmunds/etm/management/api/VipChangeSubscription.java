@@ -0,0 +1,37 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+/**
+ * Link between a {@link VipChangeSubscriber} and the publisher it subscribed to.
+ * <p/>
+ * The subscriber signals demand with {@link #request}; the publisher never delivers more events than requested.
+ * Changes published while there is no demand are coalesced into the next event.
+ */
+public interface VipChangeSubscription {
+
+    /**
+     * Requests more events.
+     *
+     * @param n number of additional events, must be positive
+     */
+    public void request(long n);
+
+    /**
+     * Stops the delivery of events. Events already being delivered may still arrive.
+     */
+    public void cancel();
+}
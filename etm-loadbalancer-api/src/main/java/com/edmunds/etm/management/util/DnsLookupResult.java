@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.google.common.collect.ImmutableList;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The outcome of resolving a single host with a {@link DnsResolver}.
+ */
+public class DnsLookupResult {
+
+    private final String host;
+    private final List<InetAddress> addresses;
+    private final int attempts;
+    private final boolean timedOut;
+
+    DnsLookupResult(String host, InetAddress[] addresses, int attempts, boolean timedOut) {
+        this.host = host;
+        this.addresses = addresses != null ? ImmutableList.copyOf(Arrays.asList(addresses))
+            : ImmutableList.<InetAddress>of();
+        this.attempts = attempts;
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * Gets the host that was resolved.
+     *
+     * @return host name or ip address
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Gets the addresses of the host.
+     *
+     * @return addresses, empty if the host could not be resolved
+     */
+    public List<InetAddress> getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * Gets the number of lookups attempted before the host was resolved or the resolver gave up.
+     *
+     * @return number of attempts, or 0 if the lookup never completed
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Indicates whether at least one address was found.
+     *
+     * @return true if the host was resolved
+     */
+    public boolean isResolved() {
+        return !addresses.isEmpty();
+    }
+
+    /**
+     * Indicates whether the deadline passed before the lookup completed.
+     *
+     * @return true if the lookup timed out
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("DnsLookupResult");
+        sb.append("{host='").append(host).append('\'');
+        sb.append(", addresses=").append(addresses);
+        sb.append(", attempts=").append(attempts);
+        sb.append(", timedOut=").append(timedOut);
+        sb.append('}');
+        return sb.toString();
+    }
+}
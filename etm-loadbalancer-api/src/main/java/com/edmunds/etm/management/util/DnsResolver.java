@@ -0,0 +1,254 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves host names in parallel within a bounded time.
+ * <p/>
+ * Each host is looked up on the supplied executor. A failed lookup is retried with exponential backoff and random
+ * jitter until it succeeds, the maximum number of attempts is reached or the deadline passes; a successful lookup is
+ * never repeated. Results are handed to a {@link DnsLookupListener} in the order they complete, and lookups still
+ * running at the deadline are cancelled and reported as timed out.
+ */
+public class DnsResolver {
+
+    private static final Logger logger = Logger.getLogger(DnsResolver.class);
+
+    /**
+     * Default maximum time to spend resolving, in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 30000;
+
+    /**
+     * Default maximum number of lookups per host.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    /**
+     * Default wait before the first retry, in milliseconds.
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF = 250;
+
+    /**
+     * Default maximum wait between retries, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_BACKOFF = 5000;
+
+    private static final Random random = new Random();
+
+    private final ExecutorService executor;
+
+    private long timeout = DEFAULT_TIMEOUT;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+    /**
+     * Constructor.
+     *
+     * @param executor executor that runs the lookups; its size bounds the number of concurrent lookups
+     */
+    public DnsResolver(ExecutorService executor) {
+        Validate.notNull(executor, "executor is null");
+        this.executor = executor;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the maximum time to spend resolving, measured from the start of each call.
+     *
+     * @param timeout timeout in milliseconds
+     */
+    public void setTimeout(long timeout) {
+        Validate.isTrue(timeout > 0, "timeout must be positive");
+        this.timeout = timeout;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the maximum number of lookups per host.
+     *
+     * @param maxAttempts maximum attempts, at least one
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        Validate.isTrue(maxAttempts > 0, "maxAttempts must be positive");
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the backoff between retries. The wait doubles after each failure up to the maximum, and a random jitter of
+     * up to half the wait is subtracted so that many resolvers do not retry in lock step.
+     *
+     * @param initialBackoff wait before the first retry in milliseconds
+     * @param maxBackoff     maximum wait in milliseconds
+     */
+    public void setBackoff(long initialBackoff, long maxBackoff) {
+        Validate.isTrue(initialBackoff > 0, "initialBackoff must be positive");
+        Validate.isTrue(maxBackoff >= initialBackoff, "maxBackoff is less than initialBackoff");
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Resolves a single host on the calling thread.
+     *
+     * @param host host name or IP address
+     * @return the lookup result
+     */
+    public DnsLookupResult resolve(String host) {
+        Validate.isTrue(StringUtils.isNotBlank(host), "Host name is blank");
+        return resolveWithRetry(host.trim(), System.currentTimeMillis() + timeout);
+    }
+
+    /**
+     * Resolves hosts in parallel. Blank and duplicate host names are ignored.
+     *
+     * @param hosts    host names or IP addresses
+     * @param listener notified as each lookup completes, may be null
+     * @return results in completion order, followed by any lookups that timed out
+     */
+    public List<DnsLookupResult> resolve(Collection<String> hosts, DnsLookupListener listener) {
+        Set<String> uniqueHosts = Sets.newLinkedHashSet();
+        for (String host : hosts) {
+            if (StringUtils.isNotBlank(host)) {
+                uniqueHosts.add(host.trim());
+            }
+        }
+
+        final long deadline = System.currentTimeMillis() + timeout;
+        CompletionService<DnsLookupResult> completionService = new ExecutorCompletionService<DnsLookupResult>(executor);
+        Map<Future<DnsLookupResult>, String> pending = Maps.newHashMap();
+        for (final String host : uniqueHosts) {
+            Future<DnsLookupResult> future = completionService.submit(new Callable<DnsLookupResult>() {
+                @Override
+                public DnsLookupResult call() {
+                    return resolveWithRetry(host, deadline);
+                }
+            });
+            pending.put(future, host);
+        }
+
+        List<DnsLookupResult> results = Lists.newArrayListWithCapacity(uniqueHosts.size());
+        try {
+            while (!pending.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                Future<DnsLookupResult> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    break;
+                }
+                String host = pending.remove(future);
+                DnsLookupResult result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    logger.error(String.format("DNS lookup of %s failed", host), e.getCause());
+                    result = new DnsLookupResult(host, null, 0, false);
+                }
+                completed(result, results, listener);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Map.Entry<Future<DnsLookupResult>, String> entry : pending.entrySet()) {
+            entry.getKey().cancel(true);
+            logger.warn(String.format("DNS lookup of %s timed out", entry.getValue()));
+            completed(new DnsLookupResult(entry.getValue(), null, 0, true), results, listener);
+        }
+        return results;
+    }
+
+    /**
+     * Looks up all addresses of a host. Called once per attempt.
+     *
+     * @param host host name or IP address
+     * @return addresses of the host
+     * @throws UnknownHostException if the host cannot be resolved
+     */
+    protected InetAddress[] lookup(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    private DnsLookupResult resolveWithRetry(String host, long deadline) {
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            try {
+                return new DnsLookupResult(host, lookup(host), attempts, false);
+            } catch (UnknownHostException e) {
+                logger.debug(String.format("DNS lookup of %s failed (attempt %d)", host, attempts));
+            }
+
+            if (attempts >= maxAttempts) {
+                break;
+            }
+            long wait = backoff(attempts);
+            if (System.currentTimeMillis() + wait >= deadline) {
+                return new DnsLookupResult(host, null, attempts, true);
+            }
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new DnsLookupResult(host, null, attempts, true);
+            }
+        }
+        return new DnsLookupResult(host, null, attempts, false);
+    }
+
+    private long backoff(int attempts) {
+        long wait = initialBackoff << Math.min(attempts - 1, 30);
+        if (wait <= 0 || wait > maxBackoff) {
+            wait = maxBackoff;
+        }
+        return wait - (long) (random.nextDouble() * (wait / 2));
+    }
+
+    private static void completed(DnsLookupResult result, List<DnsLookupResult> results, DnsLookupListener listener) {
+        results.add(result);
+        if (listener != null) {
+            listener.lookupCompleted(result);
+        }
+    }
+}
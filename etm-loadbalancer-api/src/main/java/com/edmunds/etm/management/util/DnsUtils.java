@@ -18,15 +18,31 @@ package com.edmunds.etm.management.util;
 import org.apache.commons.lang.StringUtils;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * DNS utilities.
  * <p/>
+ * Lookups are delegated to a {@link DnsResolver}: multiple hosts are resolved in parallel, retries back off
+ * exponentially up to five seconds and stop as soon as a lookup succeeds.
+ * <p/>
+ * All resolvers share a pool of eight threads with room for 64 waiting lookups. When the queue is full the calling
+ * thread runs the lookup itself, which slows large batches down instead of dropping hosts.
+ * <p/>
+ * The pool is separate from the one behind {@link com.edmunds.etm.common.util.HostResolver}: that pool makes single
+ * cache-refreshing lookups, while these lookups sleep between retries for up to five seconds and would keep its
+ * threads away from refreshes.
+ * <p/>
  * The contents of this class should be moved to com.edmunds.common:configuration-dns.
  *
  * @author Ryan Holmes
@@ -35,6 +51,12 @@ public final class DnsUtils {
 
     private static final long CONNECT_RETRY_WAIT_MILLIS = 5000;
 
+    private static final int MAX_LOOKUP_THREADS = 8;
+
+    private static final int MAX_QUEUED_LOOKUPS = 64;
+
+    private static final ExecutorService executor = createExecutor(MAX_LOOKUP_THREADS, MAX_QUEUED_LOOKUPS);
+
     private DnsUtils() {
         // This class should never be instantiated
     }
@@ -52,6 +74,9 @@ public final class DnsUtils {
 
     /**
      * Returns a set of all IP addresses for the given host names.
+     * <p/>
+     * The hosts are resolved in parallel. The call returns after at most {@code retryCount} times the maximum retry
+     * wait, leaving out hosts that could not be resolved in that time.
      *
      * @param hosts      collection of host names or IP addresses
      * @param retryCount maximum number of times to retry DNS lookups
@@ -60,15 +85,13 @@ public final class DnsUtils {
     public static Set<InetAddress> getAddressesByHost(Collection<String> hosts, int retryCount) {
 
         Set<InetAddress> allAddresses = new HashSet<InetAddress>();
+        if (retryCount <= 0) {
+            return allAddresses;
+        }
 
-        for (String host : hosts) {
-            if (StringUtils.isBlank(host)) {
-                continue;
-            }
-            InetAddress[] hostAddresses = getAddressesByHost(host, retryCount);
-            if (hostAddresses != null) {
-                allAddresses.addAll(Arrays.asList(hostAddresses));
-            }
+        List<DnsLookupResult> results = newResolver(retryCount).resolve(hosts, null);
+        for (DnsLookupResult result : results) {
+            allAddresses.addAll(result.getAddresses());
         }
         return allAddresses;
     }
@@ -88,21 +111,51 @@ public final class DnsUtils {
         if (StringUtils.isBlank(host)) {
             throw new IllegalArgumentException("Host name is blank");
         }
+        if (retryCount <= 0) {
+            return null;
+        }
 
-        InetAddress[] addresses = null;
-        for (int i = 0; i < retryCount; i++) {
-
-            try {
-                addresses = InetAddress.getAllByName(host.trim());
-            } catch (UnknownHostException e) {
-                try {
-                    Thread.sleep(CONNECT_RETRY_WAIT_MILLIS);
-                } catch (InterruptedException e1) {
-                    Thread.currentThread().interrupt();
-                }
-            }
+        DnsLookupResult result = newResolver(retryCount).resolve(host);
+        if (!result.isResolved()) {
+            return null;
         }
+        return result.getAddresses().toArray(new InetAddress[result.getAddresses().size()]);
+    }
+
+    /**
+     * Creates a resolver that makes at most {@code retryCount} attempts per host.
+     *
+     * @param retryCount maximum number of attempts
+     * @return a new resolver
+     */
+    public static DnsResolver newResolver(int retryCount) {
+        DnsResolver resolver = new DnsResolver(executor);
+        resolver.setMaxAttempts(retryCount);
+        resolver.setTimeout(retryCount * CONNECT_RETRY_WAIT_MILLIS);
+        resolver.setBackoff(DnsResolver.DEFAULT_INITIAL_BACKOFF, CONNECT_RETRY_WAIT_MILLIS);
+        return resolver;
+    }
 
-        return addresses;
+    /**
+     * Creates the lookup pool. Lookups that do not fit in the queue run on the submitting thread.
+     *
+     * @param threads   maximum number of concurrent lookups
+     * @param queueSize maximum number of waiting lookups
+     * @return a new executor
+     */
+    static ThreadPoolExecutor createExecutor(int threads, int queueSize) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "etm-dns-lookup-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.common.impl.ObjectSerializer;
+import com.edmunds.etm.common.thrift.ManagementVipDto;
+import com.edmunds.etm.management.api.ManagementVip;
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.MavenModule;
+import com.edmunds.zookeeper.treewatcher.ZooKeeperTreeNode;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.ACTIVE;
+import static com.edmunds.etm.management.api.ManagementVipType.COMPLETE;
+
+/**
+ * Maintains a ManagementVips object from per-znode change notifications.
+ * <p/>
+ * Unlike {@link VipsBuilder}, which decodes every vip node on every rebuild, this builder keeps the decoded vip of
+ * each znode keyed by path together with the modification zxid (mzxid) it was decoded from. A node is decoded
+ * again only when its mzxid changes, so the cost of an update is proportional to the number of nodes that changed.
+ * Nodes that cannot be decoded are logged and left out, as in {@link VipsBuilder}.
+ * <p/>
+ * If several nodes hold a vip for the same maven module, the node that changed most recently provides the vip and a
+ * warning is logged. The other nodes are remembered, so when that node is deleted the vip of the next most recently
+ * changed node takes its place.
+ */
+public class IncrementalVipsBuilder {
+
+    private static final Logger logger = Logger.getLogger(IncrementalVipsBuilder.class);
+
+    /**
+     * Marker version for nodes supplied without a zxid, which are compared by content instead.
+     */
+    private static final long UNKNOWN_ZXID = -1;
+
+    private final ObjectSerializer objectSerializer;
+    private final Map<String, VipEntry> entries = Maps.newHashMap();
+    private final Map<MavenModule, Set<String>> pathsByMavenModule = Maps.newHashMap();
+
+    private ManagementVips vips = ManagementVips.EMPTY_INSTANCE;
+    private long decodeCount;
+
+    /**
+     * Constructor.
+     *
+     * @param objectSerializer object serializer
+     */
+    public IncrementalVipsBuilder(ObjectSerializer objectSerializer) {
+        Validate.notNull(objectSerializer, "objectSerializer is null");
+        this.objectSerializer = objectSerializer;
+    }
+
+    /**
+     * Records that a vip node was created or its data changed.
+     * <p/>
+     * The data is decoded only if the mzxid differs from the one previously recorded for the path.
+     *
+     * @param path  path of the vip node
+     * @param mzxid zxid of the last modification of the node
+     * @param data  node data
+     * @return true if the node was decoded, false if it was already current
+     */
+    public synchronized boolean nodeChanged(String path, long mzxid, byte[] data) {
+        Validate.notNull(path, "path is null");
+        Validate.notNull(data, "data is null");
+
+        VipEntry entry = entries.get(path);
+        if (entry != null && entry.mzxid == mzxid && mzxid != UNKNOWN_ZXID) {
+            return false;
+        }
+        putEntry(path, mzxid, data);
+        return true;
+    }
+
+    /**
+     * Records that a vip node was deleted.
+     *
+     * @param path path of the vip node
+     * @return true if the node was known
+     */
+    public synchronized boolean nodeDeleted(String path) {
+        Validate.notNull(path, "path is null");
+
+        VipEntry entry = entries.remove(path);
+        if (entry != null) {
+            removePath(path, entry.vip);
+        }
+        return entry != null;
+    }
+
+    /**
+     * Brings the builder up to date with a ZooKeeper node tree.
+     * <p/>
+     * Tree nodes carry no zxid, so each node's data is compared with the data it was last decoded from and only
+     * nodes whose bytes differ are decoded. Nodes that are no longer present are removed.
+     *
+     * @param rootNode the root node of the ZooKeeper tree structure
+     * @return the current ManagementVips object
+     */
+    public synchronized ManagementVips update(ZooKeeperTreeNode rootNode) {
+        Validate.notNull(rootNode, "rootNode is null");
+
+        Collection<ZooKeeperTreeNode> children = rootNode.getChildren().values();
+        Set<String> paths = Sets.newHashSetWithExpectedSize(children.size());
+        for (ZooKeeperTreeNode vipNode : children) {
+            String path = vipNode.getPath();
+            byte[] data = vipNode.getData();
+            paths.add(path);
+
+            VipEntry entry = entries.get(path);
+            if (data != null && (entry == null || !Arrays.equals(entry.data, data))) {
+                putEntry(path, UNKNOWN_ZXID, data);
+            }
+        }
+
+        Iterator<Map.Entry<String, VipEntry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, VipEntry> entry = it.next();
+            if (!paths.contains(entry.getKey())) {
+                it.remove();
+                removePath(entry.getKey(), entry.getValue().vip);
+            }
+        }
+
+        return getVips();
+    }
+
+    /**
+     * Returns the ManagementVips object reflecting all changes recorded so far.
+     * <p/>
+     * Each change is applied to the current ManagementVips as it is recorded, so the result shares every unchanged
+     * vip with the previous one. The same instance is returned until another change is recorded.
+     *
+     * @return the current ManagementVips object
+     */
+    public synchronized ManagementVips getVips() {
+        return vips;
+    }
+
+    /**
+     * Gets the number of vip nodes decoded since this builder was created.
+     *
+     * @return decode count
+     */
+    public synchronized long getDecodeCount() {
+        return decodeCount;
+    }
+
+    private void putEntry(String path, long mzxid, byte[] data) {
+        ManagementVip vip = null;
+        try {
+            decodeCount++;
+            ManagementVipDto vipDto = objectSerializer.readValue(data, ManagementVipDto.class);
+            vip = ManagementVip.readDto(vipDto, ACTIVE);
+        } catch (IOException e) {
+            logger.error(String.format("Unable to read vip node: %s", path), e);
+        }
+
+        // Generate as complete since we have maven module and ip address.
+        if (vip != null && COMPLETE.getCannotContainVipPredicate().apply(vip)) {
+            logger.error(String.format("Vip node is not a complete vip: %s", path));
+            vip = null;
+        }
+
+        VipEntry previous = entries.put(path, new VipEntry(mzxid, mzxid == UNKNOWN_ZXID ? data : null, vip));
+        if (previous != null) {
+            removePath(path, previous.vip);
+        }
+        if (vip != null) {
+            addPath(path, vip.getMavenModule());
+        }
+    }
+
+    private void addPath(String path, MavenModule mavenModule) {
+        Set<String> paths = pathsByMavenModule.get(mavenModule);
+        if (paths == null) {
+            paths = new LinkedHashSet<String>();
+            pathsByMavenModule.put(mavenModule, paths);
+        }
+        paths.add(path);
+        if (paths.size() > 1) {
+            logger.warn(String.format("Vip nodes %s have the same maven module %s, using %s",
+                paths, mavenModule, path));
+        }
+        vips = vips.withVip(entries.get(path).vip);
+    }
+
+    private void removePath(String path, ManagementVip vip) {
+        if (vip == null) {
+            return;
+        }
+        MavenModule mavenModule = vip.getMavenModule();
+        Set<String> paths = pathsByMavenModule.get(mavenModule);
+        paths.remove(path);
+        if (paths.isEmpty()) {
+            pathsByMavenModule.remove(mavenModule);
+            vips = vips.withoutVip(mavenModule);
+        } else {
+            // Fall back to the most recently changed of the remaining nodes.
+            String current = null;
+            for (String remaining : paths) {
+                current = remaining;
+            }
+            vips = vips.withVip(entries.get(current).vip);
+        }
+    }
+
+    /**
+     * Decoded vip of a single znode.
+     */
+    private static final class VipEntry {
+        private final long mzxid;
+        private final byte[] data;
+        private final ManagementVip vip;
+
+        private VipEntry(long mzxid, byte[] data, ManagementVip vip) {
+            this.mzxid = mzxid;
+            this.data = data;
+            this.vip = vip;
+        }
+    }
+}
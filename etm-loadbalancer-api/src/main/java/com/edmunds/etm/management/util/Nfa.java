@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable non-deterministic finite automaton used while compiling URL rules.
+ * <p/>
+ * States are identified by consecutive integers starting at zero. Each state holds a list of epsilon transitions and
+ * a list of character range transitions. The automaton is only used during compilation and is discarded once the
+ * deterministic automaton has been built.
+ */
+class Nfa {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int stateCount;
+    private int[][] epsilons = new int[INITIAL_CAPACITY][];
+    private int[] epsilonCounts = new int[INITIAL_CAPACITY];
+    private int[][] ranges = new int[INITIAL_CAPACITY][];
+    private int[] rangeCounts = new int[INITIAL_CAPACITY];
+    private int[] accepts = new int[INITIAL_CAPACITY];
+
+    /**
+     * Adds a new state to the automaton.
+     *
+     * @return the new state id
+     */
+    int newState() {
+        if (stateCount == accepts.length) {
+            int capacity = stateCount * 2;
+            epsilons = Arrays.copyOf(epsilons, capacity);
+            epsilonCounts = Arrays.copyOf(epsilonCounts, capacity);
+            ranges = Arrays.copyOf(ranges, capacity);
+            rangeCounts = Arrays.copyOf(rangeCounts, capacity);
+            accepts = Arrays.copyOf(accepts, capacity);
+        }
+        accepts[stateCount] = Integer.MAX_VALUE;
+        return stateCount++;
+    }
+
+    int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Adds an epsilon transition between two states.
+     *
+     * @param from source state
+     * @param to   target state
+     */
+    void addEpsilon(int from, int to) {
+        int[] list = epsilons[from];
+        int count = epsilonCounts[from];
+        if (list == null) {
+            list = new int[2];
+        } else if (count == list.length) {
+            list = Arrays.copyOf(list, count * 2);
+        }
+        list[count] = to;
+        epsilons[from] = list;
+        epsilonCounts[from] = count + 1;
+    }
+
+    /**
+     * Adds a transition on the inclusive character range {@code [lo, hi]}.
+     *
+     * @param from source state
+     * @param lo   lowest character of the range
+     * @param hi   highest character of the range
+     * @param to   target state
+     */
+    void addRange(int from, int lo, int hi, int to) {
+        int[] list = ranges[from];
+        int count = rangeCounts[from];
+        if (list == null) {
+            list = new int[6];
+        } else if (count + 3 > list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+        }
+        list[count] = lo;
+        list[count + 1] = hi;
+        list[count + 2] = to;
+        ranges[from] = list;
+        rangeCounts[from] = count + 3;
+    }
+
+    /**
+     * Marks a state as accepting for the given rule. The lowest rule index wins if a state accepts several rules.
+     *
+     * @param state     the accepting state
+     * @param ruleIndex index of the rule
+     */
+    void setAccept(int state, int ruleIndex) {
+        accepts[state] = Math.min(accepts[state], ruleIndex);
+    }
+
+    int getAccept(int state) {
+        return accepts[state];
+    }
+
+    int[] getEpsilons(int state) {
+        return epsilons[state];
+    }
+
+    int getEpsilonCount(int state) {
+        return epsilonCounts[state];
+    }
+
+    /**
+     * Gets the range transitions of a state as consecutive {@code (lo, hi, target)} triples.
+     *
+     * @param state the state
+     * @return range triples, or null if the state has no range transitions
+     */
+    int[] getRanges(int state) {
+        return ranges[state];
+    }
+
+    int getRangeLength(int state) {
+        return rangeCounts[state];
+    }
+}
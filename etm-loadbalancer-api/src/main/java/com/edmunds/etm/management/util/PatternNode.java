@@ -0,0 +1,239 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Node of the pattern tree used to compile URL rules and token expressions into an {@link Nfa}.
+ * <p/>
+ * A pattern tree is immutable and may be instantiated into an automaton any number of times, which allows bounded
+ * repetition and shared token definitions to be expanded without re-parsing.
+ */
+abstract class PatternNode {
+
+    /**
+     * Highest character value.
+     */
+    static final int MAX_CHAR = Character.MAX_VALUE;
+
+    /**
+     * Matches any character except the path separator.
+     */
+    static final PatternNode NOT_SLASH = new CharSet(new int[]{0, '/' - 1, '/' + 1, MAX_CHAR});
+
+    /**
+     * Matches the empty string.
+     */
+    static final PatternNode EMPTY = new Concat(Lists.<PatternNode>newArrayList());
+
+    /**
+     * Adds the states and transitions for this node to the automaton.
+     *
+     * @param nfa   the automaton
+     * @param start the state from which this node is entered
+     * @return the state reached after this node has been matched
+     */
+    abstract int build(Nfa nfa, int start);
+
+    /**
+     * Creates a node matching a literal string.
+     *
+     * @param text the literal text
+     * @return a pattern node
+     */
+    static PatternNode literal(CharSequence text) {
+        List<PatternNode> chars = Lists.newArrayListWithCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            chars.add(CharSet.of(text.charAt(i)));
+        }
+        return new Concat(chars);
+    }
+
+    /**
+     * Matches a single character from a set of inclusive ranges.
+     */
+    static final class CharSet extends PatternNode {
+
+        private final int[] ranges;
+
+        /**
+         * Creates a character set.
+         *
+         * @param ranges sorted, non-overlapping {@code (lo, hi)} pairs
+         */
+        CharSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CharSet of(char ch) {
+            return new CharSet(new int[]{ch, ch});
+        }
+
+        /**
+         * Creates a character set from unsorted, possibly overlapping ranges.
+         *
+         * @param pairs {@code (lo, hi)} pairs
+         * @param count number of array elements in use
+         * @param negate true to match every character not in the given ranges
+         * @return the normalized character set
+         */
+        static CharSet normalize(int[] pairs, int count, boolean negate) {
+            long[] sorted = new long[count / 2];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = ((long) pairs[i * 2] << 32) | pairs[i * 2 + 1];
+            }
+            Arrays.sort(sorted);
+
+            int[] merged = new int[count];
+            int size = 0;
+            for (long pair : sorted) {
+                int lo = (int) (pair >>> 32);
+                int hi = (int) pair;
+                if (size > 0 && lo <= merged[size - 1] + 1) {
+                    merged[size - 1] = Math.max(merged[size - 1], hi);
+                } else {
+                    merged[size++] = lo;
+                    merged[size++] = hi;
+                }
+            }
+
+            if (!negate) {
+                return new CharSet(Arrays.copyOf(merged, size));
+            }
+
+            int[] complement = new int[size + 2];
+            int csize = 0;
+            int next = 0;
+            for (int i = 0; i < size; i += 2) {
+                if (merged[i] > next) {
+                    complement[csize++] = next;
+                    complement[csize++] = merged[i] - 1;
+                }
+                next = merged[i + 1] + 1;
+            }
+            if (next <= MAX_CHAR) {
+                complement[csize++] = next;
+                complement[csize++] = MAX_CHAR;
+            }
+            return new CharSet(Arrays.copyOf(complement, csize));
+        }
+
+        int[] getRanges() {
+            return ranges;
+        }
+
+        @Override
+        int build(Nfa nfa, int start) {
+            int end = nfa.newState();
+            for (int i = 0; i < ranges.length; i += 2) {
+                nfa.addRange(start, ranges[i], ranges[i + 1], end);
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Matches a sequence of nodes.
+     */
+    static final class Concat extends PatternNode {
+
+        private final List<PatternNode> nodes;
+
+        Concat(List<PatternNode> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        int build(Nfa nfa, int start) {
+            int state = start;
+            for (PatternNode node : nodes) {
+                state = node.build(nfa, state);
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Matches any one of several alternatives.
+     */
+    static final class Alternation extends PatternNode {
+
+        private final List<PatternNode> nodes;
+
+        Alternation(List<PatternNode> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        int build(Nfa nfa, int start) {
+            int end = nfa.newState();
+            for (PatternNode node : nodes) {
+                int branch = nfa.newState();
+                nfa.addEpsilon(start, branch);
+                nfa.addEpsilon(node.build(nfa, branch), end);
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Matches a node repeated between {@code min} and {@code max} times.
+     */
+    static final class Repeat extends PatternNode {
+
+        /**
+         * Indicates an unbounded repetition.
+         */
+        static final int UNBOUNDED = -1;
+
+        private final PatternNode node;
+        private final int min;
+        private final int max;
+
+        Repeat(PatternNode node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        int build(Nfa nfa, int start) {
+            int state = start;
+            for (int i = 0; i < min; i++) {
+                state = node.build(nfa, state);
+            }
+
+            int end = nfa.newState();
+            if (max == UNBOUNDED) {
+                int loop = nfa.newState();
+                nfa.addEpsilon(state, loop);
+                nfa.addEpsilon(node.build(nfa, loop), loop);
+                nfa.addEpsilon(loop, end);
+            } else {
+                nfa.addEpsilon(state, end);
+                for (int i = min; i < max; i++) {
+                    state = node.build(nfa, state);
+                    nfa.addEpsilon(state, end);
+                }
+            }
+            return end;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.management.util.PatternNode.Alternation;
+import com.edmunds.etm.management.util.PatternNode.CharSet;
+import com.edmunds.etm.management.util.PatternNode.Concat;
+import com.edmunds.etm.management.util.PatternNode.Repeat;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses the regular subset of {@link java.util.regex.Pattern} syntax into a {@link PatternNode} tree.
+ * <p/>
+ * Supported constructs are literals, escapes, {@code .}, character classes with ranges and negation, the predefined
+ * classes {@code \d \D \w \W \s \S}, capturing and non-capturing groups, alternation, and the greedy or reluctant
+ * quantifiers {@code * + ? {n} {n,} {n,m}}. Anything else (anchors, back references, look-around, flags, possessive
+ * quantifiers, etc.) cannot be expressed as a finite automaton and causes an {@link IllegalArgumentException}.
+ */
+class PatternParser {
+
+    private static final int[] DIGIT = {'0', '9'};
+    private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+    private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+    private static final int[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029};
+
+    private final String regex;
+    private int pos;
+
+    private PatternParser(String regex) {
+        this.regex = regex;
+    }
+
+    /**
+     * Parses the given regular expression.
+     *
+     * @param regex a regular expression in {@link java.util.regex.Pattern} syntax
+     * @return the pattern tree
+     * @throws IllegalArgumentException if the expression is invalid or uses an unsupported construct
+     */
+    static PatternNode parse(String regex) {
+        PatternParser parser = new PatternParser(regex);
+        PatternNode node = parser.parseAlternation();
+        if (parser.pos < regex.length()) {
+            throw parser.error("Unexpected character");
+        }
+        return node;
+    }
+
+    private PatternNode parseAlternation() {
+        List<PatternNode> branches = Lists.newArrayList();
+        branches.add(parseConcat());
+        while (peek('|')) {
+            pos++;
+            branches.add(parseConcat());
+        }
+        return branches.size() == 1 ? branches.get(0) : new Alternation(branches);
+    }
+
+    private PatternNode parseConcat() {
+        List<PatternNode> nodes = Lists.newArrayList();
+        while (pos < regex.length() && !peek('|') && !peek(')')) {
+            nodes.add(parseQuantified());
+        }
+        return nodes.size() == 1 ? nodes.get(0) : new Concat(nodes);
+    }
+
+    private PatternNode parseQuantified() {
+        PatternNode atom = parseAtom();
+        while (pos < regex.length()) {
+            int min;
+            int max;
+            char ch = regex.charAt(pos);
+            if (ch == '*') {
+                min = 0;
+                max = Repeat.UNBOUNDED;
+                pos++;
+            } else if (ch == '+') {
+                min = 1;
+                max = Repeat.UNBOUNDED;
+                pos++;
+            } else if (ch == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (ch == '{') {
+                pos++;
+                min = parseNumber();
+                max = min;
+                if (peek(',')) {
+                    pos++;
+                    max = peek('}') ? Repeat.UNBOUNDED : parseNumber();
+                }
+                expect('}');
+                if (max != Repeat.UNBOUNDED && max < min) {
+                    throw error("Illegal repetition range");
+                }
+            } else {
+                break;
+            }
+
+            // Reluctant quantifiers match the same language; possessive ones do not.
+            if (peek('?')) {
+                pos++;
+            } else if (peek('+')) {
+                throw error("Possessive quantifiers are not supported");
+            }
+            atom = new Repeat(atom, min, max);
+        }
+        return atom;
+    }
+
+    private PatternNode parseAtom() {
+        char ch = regex.charAt(pos++);
+        switch (ch) {
+            case '(':
+                if (peek('?')) {
+                    pos++;
+                    expect(':');
+                }
+                PatternNode group = parseAlternation();
+                expect(')');
+                return group;
+            case '[':
+                return parseClass();
+            case '.':
+                return CharSet.normalize(LINE_TERMINATORS, LINE_TERMINATORS.length, true);
+            case '\\':
+                return parseEscape();
+            case '^':
+            case '$':
+                throw error("Anchors are not supported");
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw error("Dangling quantifier");
+            default:
+                return CharSet.of(ch);
+        }
+    }
+
+    private PatternNode parseEscape() {
+        if (pos >= regex.length()) {
+            throw error("Trailing backslash");
+        }
+        char ch = regex.charAt(pos);
+        if (ch == 'Q') {
+            pos++;
+            int end = regex.indexOf("\\E", pos);
+            String quoted = end < 0 ? regex.substring(pos) : regex.substring(pos, end);
+            pos = end < 0 ? regex.length() : end + 2;
+            return PatternNode.literal(quoted);
+        }
+        int[] predefined = parsePredefined();
+        if (predefined != null) {
+            return new CharSet(predefined);
+        }
+        return CharSet.of(parseEscapedChar());
+    }
+
+    /**
+     * Parses a predefined character class escape at the current position.
+     *
+     * @return normalized ranges, or null if the current position is not a predefined class
+     */
+    private int[] parsePredefined() {
+        int[] ranges;
+        boolean negate;
+        switch (regex.charAt(pos)) {
+            case 'd':
+            case 'D':
+                ranges = DIGIT;
+                break;
+            case 'w':
+            case 'W':
+                ranges = WORD;
+                break;
+            case 's':
+            case 'S':
+                ranges = SPACE;
+                break;
+            default:
+                return null;
+        }
+        negate = Character.isUpperCase(regex.charAt(pos));
+        pos++;
+        return CharSet.normalize(ranges, ranges.length, negate).getRanges();
+    }
+
+    private char parseEscapedChar() {
+        char ch = regex.charAt(pos++);
+        switch (ch) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            case 'e':
+                return '\u001B';
+            case 'x':
+                return (char) parseHex(2);
+            case 'u':
+                return (char) parseHex(4);
+            default:
+                if (Character.isLetterOrDigit(ch)) {
+                    throw error("Unsupported escape sequence");
+                }
+                return ch;
+        }
+    }
+
+    private PatternNode parseClass() {
+        boolean negate = false;
+        if (peek('^')) {
+            negate = true;
+            pos++;
+        }
+
+        int[] pairs = new int[8];
+        int count = 0;
+        boolean first = true;
+        while (true) {
+            if (pos >= regex.length()) {
+                throw error("Unclosed character class");
+            }
+            char ch = regex.charAt(pos);
+            if (ch == ']' && !first) {
+                pos++;
+                break;
+            }
+            if (ch == '[' || ch == ']' || regex.startsWith("&&", pos)) {
+                throw error("Nested character classes are not supported");
+            }
+            first = false;
+
+            int[] items;
+            if (ch == '\\') {
+                pos++;
+                if (pos >= regex.length()) {
+                    throw error("Trailing backslash");
+                }
+                int[] predefined = parsePredefined();
+                if (predefined != null) {
+                    items = predefined;
+                } else {
+                    items = parseClassRange(parseEscapedChar());
+                }
+            } else {
+                pos++;
+                items = parseClassRange(ch);
+            }
+
+            if (count + items.length > pairs.length) {
+                pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, count + items.length));
+            }
+            System.arraycopy(items, 0, pairs, count, items.length);
+            count += items.length;
+        }
+        return CharSet.normalize(pairs, count, negate);
+    }
+
+    private int[] parseClassRange(char lo) {
+        if (peek('-') && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+            pos++;
+            char hi = regex.charAt(pos++);
+            if (hi == '\\') {
+                if (pos >= regex.length()) {
+                    throw error("Trailing backslash");
+                }
+                hi = parseEscapedChar();
+            } else if (hi == '[') {
+                throw error("Nested character classes are not supported");
+            }
+            if (hi < lo) {
+                throw error("Illegal character range");
+            }
+            return new int[]{lo, hi};
+        }
+        return new int[]{lo, lo};
+    }
+
+    private int parseNumber() {
+        int start = pos;
+        while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error("Number expected");
+        }
+        return Integer.parseInt(regex.substring(start, pos));
+    }
+
+    private int parseHex(int digits) {
+        if (pos + digits > regex.length()) {
+            throw error("Illegal hexadecimal escape sequence");
+        }
+        try {
+            int value = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+            pos += digits;
+            return value;
+        } catch (NumberFormatException e) {
+            throw error("Illegal hexadecimal escape sequence");
+        }
+    }
+
+    private boolean peek(char ch) {
+        return pos < regex.length() && regex.charAt(pos) == ch;
+    }
+
+    private void expect(char ch) {
+        if (!peek(ch)) {
+            throw error(String.format("'%s' expected", ch));
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(String.format("%s near index %d: %s", message, pos, regex));
+    }
+}
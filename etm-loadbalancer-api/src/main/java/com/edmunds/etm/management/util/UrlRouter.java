@@ -0,0 +1,166 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.management.api.MavenModule;
+import org.apache.commons.lang.Validate;
+
+import java.util.regex.Pattern;
+
+/**
+ * Maps request paths to the {@link MavenModule} whose URL rule matches the path.
+ * <p/>
+ * Rules are compiled into deterministic automata, so a lookup takes time linear in the length of the path regardless
+ * of how many rules are defined. Usually a single automaton holds every rule; rule sets whose combined automaton would
+ * grow too large (typically many {@code /**} rules) are split over a few automata that are run one after the other.
+ * When several rules match a path, the rule that appears first in the snapshot the router was built from wins. Rules
+ * that cannot be compiled at all are kept as {@link Pattern} objects and consulted only if they precede the
+ * automata's match.
+ * <p/>
+ * Routers are created by {@link UrlRouterBuilder}. A router is immutable and may be shared by any number of threads.
+ */
+public final class UrlRouter {
+
+    /**
+     * Marks the absence of a transition or an accepted rule.
+     */
+    static final int NONE = -1;
+
+    private final char[] charClasses;
+    private final int classCount;
+    private final int[][] transitions;
+    private final int[][] accepts;
+    private final String[] rules;
+    private final MavenModule[] modules;
+    private final int[] fallbackIndexes;
+    private final Pattern[] fallbackPatterns;
+
+    /**
+     * Creates a router from compiled automata.
+     *
+     * @param charClasses      maps each character to its equivalence class, shared by all automata
+     * @param classCount       number of character classes
+     * @param transitions      transition table of each automaton indexed by {@code state * classCount + charClass}
+     * @param accepts          index of the rule accepted by each state of each automaton, or {@link #NONE}
+     * @param rules            rule text indexed by rule index
+     * @param modules          maven module indexed by rule index
+     * @param fallbackIndexes  rule indexes of the rules that could not be compiled into the automaton, ascending
+     * @param fallbackPatterns patterns of the rules that could not be compiled into the automaton
+     */
+    UrlRouter(char[] charClasses, int classCount, int[][] transitions, int[][] accepts,
+              String[] rules, MavenModule[] modules, int[] fallbackIndexes, Pattern[] fallbackPatterns) {
+        this.charClasses = charClasses;
+        this.classCount = classCount;
+        this.transitions = transitions;
+        this.accepts = accepts;
+        this.rules = rules;
+        this.modules = modules;
+        this.fallbackIndexes = fallbackIndexes;
+        this.fallbackPatterns = fallbackPatterns;
+    }
+
+    /**
+     * Finds the maven module that serves the given request path.
+     *
+     * @param path the request path, without query string
+     * @return the matching maven module or null if no rule matches
+     */
+    public MavenModule route(CharSequence path) {
+        int ruleIndex = findRuleIndex(path);
+        return ruleIndex == NONE ? null : modules[ruleIndex];
+    }
+
+    /**
+     * Finds the URL rule that matches the given request path.
+     *
+     * @param path the request path, without query string
+     * @return the matching rule or null if no rule matches
+     */
+    public String findRule(CharSequence path) {
+        int ruleIndex = findRuleIndex(path);
+        return ruleIndex == NONE ? null : rules[ruleIndex];
+    }
+
+    /**
+     * Gets the number of rules known to this router.
+     *
+     * @return the rule count
+     */
+    public int getRuleCount() {
+        return rules.length;
+    }
+
+    /**
+     * Gets the number of rules that are matched with regular expressions rather than the automaton.
+     *
+     * @return the fallback rule count
+     */
+    public int getFallbackRuleCount() {
+        return fallbackIndexes.length;
+    }
+
+    /**
+     * Gets the number of compiled automata.
+     *
+     * @return the automaton count
+     */
+    public int getAutomatonCount() {
+        return accepts.length;
+    }
+
+    /**
+     * Gets the total number of states in the compiled automata.
+     *
+     * @return the state count
+     */
+    public int getStateCount() {
+        int count = 0;
+        for (int[] states : accepts) {
+            count += states.length;
+        }
+        return count;
+    }
+
+    private int findRuleIndex(CharSequence path) {
+        Validate.notNull(path, "path is null");
+
+        int ruleIndex = NONE;
+        int length = path.length();
+        for (int a = 0; a < transitions.length; a++) {
+            int[] table = transitions[a];
+            int state = 0;
+            for (int i = 0; i < length && state != NONE; i++) {
+                state = table[state * classCount + charClasses[path.charAt(i)]];
+            }
+            if (state != NONE) {
+                int accept = accepts[a][state];
+                if (accept != NONE && (ruleIndex == NONE || accept < ruleIndex)) {
+                    ruleIndex = accept;
+                }
+            }
+        }
+
+        for (int i = 0; i < fallbackIndexes.length; i++) {
+            if (ruleIndex != NONE && fallbackIndexes[i] > ruleIndex) {
+                break;
+            }
+            if (fallbackPatterns[i].matcher(path).matches()) {
+                return fallbackIndexes[i];
+            }
+        }
+        return ruleIndex;
+    }
+}
@@ -0,0 +1,645 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.common.api.UrlToken;
+import com.edmunds.etm.common.api.UrlTokenType;
+import com.edmunds.etm.common.util.PatternCache;
+import com.edmunds.etm.management.api.ManagementVip;
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.MavenModule;
+import com.edmunds.etm.management.util.PatternNode.Alternation;
+import com.edmunds.etm.management.util.PatternNode.CharSet;
+import com.edmunds.etm.management.util.PatternNode.Concat;
+import com.edmunds.etm.management.util.PatternNode.Repeat;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles the URL rules of a {@link ManagementVips} snapshot into a {@link UrlRouter}.
+ * <p/>
+ * Rules use the ETM client configuration syntax: {@code *} matches any characters within a path segment, a {@code /**}
+ * segment matches zero or more directories, {@code [name]} is replaced by the URL token with the given name and a
+ * backslash escapes the following character. Rules are first merged into a trie so that rules sharing a prefix (for
+ * example {@code /[make]/[model]/}) share a single copy of the expanded tokens. The trie is then converted into a
+ * non-deterministic automaton and finally into a deterministic one by subset construction.
+ * <p/>
+ * Some rule combinations, most notably many rules containing {@code /**}, have no compact deterministic automaton. If
+ * an automaton would exceed the state limit, its rules are split in half and compiled separately; a single rule that
+ * still exceeds the limit is matched with a regular expression instead.
+ * <p/>
+ * This class is not thread safe, but the routers it builds are.
+ */
+public class UrlRouterBuilder {
+
+    private static final Logger logger = Logger.getLogger(UrlRouterBuilder.class);
+
+    /**
+     * Default upper bound on the number of states of a single automaton.
+     */
+    public static final int DEFAULT_MAX_STATES = 20000;
+
+    private static final PatternNode ANY_SEGMENT = new Repeat(PatternNode.NOT_SLASH, 0, Repeat.UNBOUNDED);
+
+    private static final PatternNode ANY_DIRECTORIES = new Repeat(
+        new Concat(Lists.newArrayList(CharSet.of('/'), ANY_SEGMENT)), 0, Repeat.UNBOUNDED);
+
+    private final Map<String, UrlToken> tokens;
+    private final Map<String, PatternNode> tokenNodes;
+    private int maxStates = DEFAULT_MAX_STATES;
+
+    /**
+     * Creates a builder that expands rules with the given tokens.
+     *
+     * @param tokens the URL tokens that rules may refer to
+     */
+    public UrlRouterBuilder(Collection<UrlToken> tokens) {
+        Validate.notNull(tokens, "tokens is null");
+        this.tokens = Maps.newHashMapWithExpectedSize(tokens.size());
+        this.tokenNodes = Maps.newHashMap();
+        for (UrlToken token : tokens) {
+            this.tokens.put(token.getName(), token);
+        }
+    }
+
+    /**
+     * Sets the maximum number of states of a single automaton.
+     *
+     * @param maxStates the maximum number of states
+     */
+    public void setMaxStates(int maxStates) {
+        Validate.isTrue(maxStates > 0, "maxStates must be positive");
+        this.maxStates = maxStates;
+    }
+
+    /**
+     * Compiles the rules of every vip in the snapshot.
+     * <p/>
+     * Rules that refer to an undefined token are logged and skipped.
+     *
+     * @param vips the vips snapshot
+     * @return a new router
+     */
+    public UrlRouter build(ManagementVips vips) {
+        Validate.notNull(vips, "vips is null");
+
+        List<String> rules = Lists.newArrayList();
+        List<MavenModule> modules = Lists.newArrayList();
+        List<List<RuleElement>> plainRules = Lists.newArrayList();
+        List<List<RuleElement>> directoryRules = Lists.newArrayList();
+        List<Integer> plainIndexes = Lists.newArrayList();
+        List<Integer> directoryIndexes = Lists.newArrayList();
+        Map<Integer, List<RuleElement>> fallbacks = Maps.newTreeMap();
+
+        for (ManagementVip vip : vips.getVips()) {
+            for (String rule : vip.getRules()) {
+                List<RuleElement> elements;
+                try {
+                    elements = parseRule(rule);
+                } catch (IllegalArgumentException e) {
+                    logger.warn(String.format("Skipping URL rule %s of %s: %s", rule, vip.getMavenModule(),
+                        e.getMessage()));
+                    continue;
+                }
+
+                int ruleIndex = rules.size();
+                if (!isCompilable(elements)) {
+                    fallbacks.put(ruleIndex, elements);
+                } else if (elements.contains(RuleElement.DIRECTORIES)) {
+                    directoryRules.add(elements);
+                    directoryIndexes.add(ruleIndex);
+                } else {
+                    plainRules.add(elements);
+                    plainIndexes.add(ruleIndex);
+                }
+                rules.add(rule);
+                modules.add(vip.getMavenModule());
+            }
+        }
+
+        // All automata share one character partition derived from every compilable rule.
+        TrieNode all = new TrieNode();
+        insertAll(all, plainRules, plainIndexes);
+        insertAll(all, directoryRules, directoryIndexes);
+        Nfa allNfa = new Nfa();
+        all.build(allNfa, allNfa.newState());
+        CharClasses charClasses = new CharClasses(allNfa);
+
+        List<int[][]> automata = Lists.newArrayList();
+        compileGroup(plainRules, plainIndexes, charClasses, automata, fallbacks);
+        compileGroup(directoryRules, directoryIndexes, charClasses, automata, fallbacks);
+
+        int[][] transitions = new int[automata.size()][];
+        int[][] accepts = new int[automata.size()][];
+        for (int i = 0; i < automata.size(); i++) {
+            transitions[i] = automata.get(i)[0];
+            accepts[i] = automata.get(i)[1];
+        }
+
+        List<Integer> fallbackIndexes = Lists.newArrayList();
+        List<Pattern> fallbackPatterns = Lists.newArrayList();
+        for (Map.Entry<Integer, List<RuleElement>> entry : fallbacks.entrySet()) {
+            try {
+                fallbackPatterns.add(PatternCache.compile(toRegex(entry.getValue())));
+                fallbackIndexes.add(entry.getKey());
+            } catch (PatternSyntaxException e) {
+                logger.warn(String.format("Skipping URL rule %s", rules.get(entry.getKey())), e);
+            }
+        }
+        int[] fallbackArray = new int[fallbackIndexes.size()];
+        for (int i = 0; i < fallbackArray.length; i++) {
+            fallbackArray[i] = fallbackIndexes.get(i);
+        }
+
+        UrlRouter router = new UrlRouter(charClasses.classes, charClasses.count, transitions, accepts,
+            rules.toArray(new String[rules.size()]),
+            modules.toArray(new MavenModule[modules.size()]),
+            fallbackArray,
+            fallbackPatterns.toArray(new Pattern[fallbackPatterns.size()]));
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Compiled %d URL rules into %d automata with %d states (%d regex fallbacks)",
+                router.getRuleCount(), router.getAutomatonCount(), router.getStateCount(),
+                router.getFallbackRuleCount()));
+        }
+        return router;
+    }
+
+    /**
+     * Compiles a group of rules into one automaton, splitting the group if the automaton grows too large.
+     *
+     * @param group       the rules to compile
+     * @param indexes     rule index of each rule in the group
+     * @param charClasses the shared character partition
+     * @param automata    receives {@code {transitions, accepts}} pairs
+     * @param fallbacks   receives rules that cannot be compiled within the state limit
+     */
+    private void compileGroup(List<List<RuleElement>> group, List<Integer> indexes, CharClasses charClasses,
+                              List<int[][]> automata, Map<Integer, List<RuleElement>> fallbacks) {
+        if (group.isEmpty()) {
+            return;
+        }
+
+        TrieNode root = new TrieNode();
+        insertAll(root, group, indexes);
+        Nfa nfa = new Nfa();
+        root.build(nfa, nfa.newState());
+
+        try {
+            automata.add(new DfaCompiler(nfa, charClasses, maxStates).compile());
+        } catch (StateLimitException e) {
+            if (group.size() == 1) {
+                logger.info(String.format("URL rule %d exceeds %d automaton states and will be matched as a "
+                    + "regular expression", indexes.get(0), maxStates));
+                fallbacks.put(indexes.get(0), group.get(0));
+            } else {
+                int half = group.size() / 2;
+                compileGroup(group.subList(0, half), indexes.subList(0, half), charClasses, automata, fallbacks);
+                compileGroup(group.subList(half, group.size()), indexes.subList(half, indexes.size()),
+                    charClasses, automata, fallbacks);
+            }
+        }
+    }
+
+    private static void insertAll(TrieNode root, List<List<RuleElement>> rules, List<Integer> indexes) {
+        for (int i = 0; i < rules.size(); i++) {
+            root.insert(rules.get(i), indexes.get(i));
+        }
+    }
+
+    /**
+     * Splits a rule into its elements.
+     *
+     * @param rule the rule text
+     * @return list of rule elements
+     * @throws IllegalArgumentException if the rule refers to an undefined token
+     */
+    private List<RuleElement> parseRule(String rule) {
+        List<RuleElement> elements = Lists.newArrayListWithCapacity(rule.length());
+        int i = 0;
+        int len = rule.length();
+        while (i < len) {
+            char ch = rule.charAt(i);
+            if (ch == '/' && rule.startsWith("**", i + 1) && (i + 3 == len || rule.charAt(i + 3) == '/')) {
+                elements.add(RuleElement.DIRECTORIES);
+                i += 3;
+            } else if (ch == '*') {
+                elements.add(RuleElement.SEGMENT);
+                while (i < len && rule.charAt(i) == '*') {
+                    i++;
+                }
+            } else if (ch == '\\' && i + 1 < len) {
+                elements.add(RuleElement.literal(rule.charAt(i + 1)));
+                i += 2;
+            } else if (ch == '[' && rule.indexOf(']', i) > i + 1) {
+                int end = rule.indexOf(']', i);
+                String name = rule.substring(i + 1, end);
+                UrlToken token = tokens.get(name);
+                if (token == null) {
+                    throw new IllegalArgumentException(String.format("Undefined URL token: %s", name));
+                }
+                elements.add(RuleElement.token(token));
+                i = end + 1;
+            } else {
+                elements.add(RuleElement.literal(ch));
+                i++;
+            }
+        }
+        return elements;
+    }
+
+    private boolean isCompilable(List<RuleElement> elements) {
+        for (RuleElement element : elements) {
+            if (element.token != null && getTokenNode(element.token) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the pattern tree of a token, parsing it on first use.
+     *
+     * @param token the URL token
+     * @return the pattern tree or null if the token cannot be expressed as a finite automaton
+     */
+    private PatternNode getTokenNode(UrlToken token) {
+        if (tokenNodes.containsKey(token.getName())) {
+            return tokenNodes.get(token.getName());
+        }
+
+        PatternNode node;
+        if (token.getType() == UrlTokenType.FIXED) {
+            List<PatternNode> values = Lists.newArrayListWithCapacity(token.getValues().size());
+            for (String value : token.getValues()) {
+                values.add(PatternNode.literal(value));
+            }
+            node = new Alternation(values);
+        } else {
+            try {
+                node = PatternParser.parse(token.toRegex());
+            } catch (IllegalArgumentException e) {
+                logger.info(String.format("URL token %s will be matched as a regular expression: %s",
+                    token.getName(), e.getMessage()));
+                node = null;
+            }
+        }
+        tokenNodes.put(token.getName(), node);
+        return node;
+    }
+
+    private static String toRegex(List<RuleElement> elements) {
+        StringBuilder sb = new StringBuilder();
+        for (RuleElement element : elements) {
+            if (element == RuleElement.SEGMENT) {
+                sb.append("[^/]*");
+            } else if (element == RuleElement.DIRECTORIES) {
+                sb.append("(?:/[^/]*)*");
+            } else if (element.token != null) {
+                sb.append("(?:").append(element.token.toRegex()).append(')');
+            } else {
+                char ch = element.literal;
+                if (ch < 128 && !Character.isLetterOrDigit(ch)) {
+                    sb.append('\\');
+                }
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Element of a parsed URL rule: a literal character, a wildcard or a token reference.
+     */
+    private static final class RuleElement {
+
+        static final RuleElement SEGMENT = new RuleElement('*', null);
+        static final RuleElement DIRECTORIES = new RuleElement('/', null);
+
+        private final char literal;
+        private final UrlToken token;
+
+        private RuleElement(char literal, UrlToken token) {
+            this.literal = literal;
+            this.token = token;
+        }
+
+        static RuleElement literal(char ch) {
+            return new RuleElement(ch, null);
+        }
+
+        static RuleElement token(UrlToken token) {
+            return new RuleElement('[', token);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RuleElement) || this == SEGMENT || this == DIRECTORIES
+                || o == SEGMENT || o == DIRECTORIES) {
+                return false;
+            }
+            RuleElement that = (RuleElement) o;
+            if (token == null || that.token == null) {
+                return token == that.token && literal == that.literal;
+            }
+            return token.getName().equals(that.token.getName());
+        }
+
+        @Override
+        public int hashCode() {
+            return token != null ? token.getName().hashCode() : literal;
+        }
+    }
+
+    /**
+     * Prefix tree of rule elements.
+     */
+    private final class TrieNode {
+
+        private final Map<RuleElement, TrieNode> children = Maps.newLinkedHashMap();
+        private int ruleIndex = Integer.MAX_VALUE;
+
+        void insert(List<RuleElement> elements, int index) {
+            TrieNode node = this;
+            for (RuleElement element : elements) {
+                TrieNode child = node.children.get(element);
+                if (child == null) {
+                    child = new TrieNode();
+                    node.children.put(element, child);
+                }
+                node = child;
+            }
+            node.ruleIndex = Math.min(node.ruleIndex, index);
+        }
+
+        void build(Nfa nfa, int state) {
+            if (ruleIndex != Integer.MAX_VALUE) {
+                nfa.setAccept(state, ruleIndex);
+            }
+            for (Map.Entry<RuleElement, TrieNode> entry : children.entrySet()) {
+                RuleElement element = entry.getKey();
+                PatternNode node;
+                if (element == RuleElement.SEGMENT) {
+                    node = ANY_SEGMENT;
+                } else if (element == RuleElement.DIRECTORIES) {
+                    node = ANY_DIRECTORIES;
+                } else if (element.token != null) {
+                    node = getTokenNode(element.token);
+                } else {
+                    node = CharSet.of(element.literal);
+                }
+                entry.getValue().build(nfa, node.build(nfa, state));
+            }
+        }
+    }
+
+    /**
+     * Partition of the character set into classes that no transition distinguishes.
+     */
+    private static final class CharClasses {
+
+        private final char[] classes;
+        private final int count;
+
+        CharClasses(Nfa nfa) {
+            boolean[] boundaries = new boolean[PatternNode.MAX_CHAR + 2];
+            boundaries[0] = true;
+            for (int state = 0; state < nfa.getStateCount(); state++) {
+                int[] ranges = nfa.getRanges(state);
+                int length = nfa.getRangeLength(state);
+                for (int r = 0; r < length; r += 3) {
+                    boundaries[ranges[r]] = true;
+                    boundaries[ranges[r + 1] + 1] = true;
+                }
+            }
+
+            classes = new char[PatternNode.MAX_CHAR + 1];
+            int current = -1;
+            for (int ch = 0; ch <= PatternNode.MAX_CHAR; ch++) {
+                if (boundaries[ch]) {
+                    current++;
+                }
+                classes[ch] = (char) current;
+            }
+            count = current + 1;
+        }
+    }
+
+    /**
+     * Indicates that an automaton would exceed the state limit.
+     */
+    private static final class StateLimitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Converts a non-deterministic automaton into a deterministic one by subset construction.
+     */
+    private static final class DfaCompiler {
+
+        private final Nfa nfa;
+        private final char[] charClasses;
+        private final int classCount;
+        private final int maxStates;
+        private final int[] marks;
+        private int generation;
+        private int[] stack = new int[64];
+
+        private final Map<StateSet, Integer> stateIds = Maps.newHashMap();
+        private final List<int[]> stateSets = Lists.newArrayList();
+
+        DfaCompiler(Nfa nfa, CharClasses charClasses, int maxStates) {
+            this.nfa = nfa;
+            this.charClasses = charClasses.classes;
+            this.classCount = charClasses.count;
+            this.maxStates = maxStates;
+            this.marks = new int[nfa.getStateCount()];
+        }
+
+        /**
+         * Builds the automaton.
+         *
+         * @return the transition table and accepted rule of each state
+         * @throws StateLimitException if the automaton would exceed the state limit
+         */
+        int[][] compile() {
+            int[] transitions = new int[classCount * 16];
+            getStateId(closure(new int[]{0}, 1));
+
+            int[] bucketSizes = new int[classCount];
+            int[][] buckets = new int[classCount][];
+            for (int dfaState = 0; dfaState < stateSets.size(); dfaState++) {
+                int[] set = stateSets.get(dfaState);
+                Arrays.fill(bucketSizes, 0);
+
+                for (int nfaState : set) {
+                    int[] ranges = nfa.getRanges(nfaState);
+                    int length = nfa.getRangeLength(nfaState);
+                    for (int r = 0; r < length; r += 3) {
+                        int last = charClasses[ranges[r + 1]];
+                        for (int c = charClasses[ranges[r]]; c <= last; c++) {
+                            if (buckets[c] == null) {
+                                buckets[c] = new int[4];
+                            } else if (bucketSizes[c] == buckets[c].length) {
+                                buckets[c] = Arrays.copyOf(buckets[c], bucketSizes[c] * 2);
+                            }
+                            buckets[c][bucketSizes[c]++] = ranges[r + 2];
+                        }
+                    }
+                }
+
+                int required = (dfaState + 1) * classCount;
+                if (transitions.length < required) {
+                    transitions = Arrays.copyOf(transitions, Math.max(required, transitions.length * 2));
+                }
+
+                Map<StateSet, Integer> targets = Maps.newHashMap();
+                for (int c = 0; c < classCount; c++) {
+                    int target = UrlRouter.NONE;
+                    if (bucketSizes[c] > 0) {
+                        StateSet seeds = new StateSet(sortUnique(buckets[c], bucketSizes[c]));
+                        Integer id = targets.get(seeds);
+                        if (id == null) {
+                            id = getStateId(closure(seeds.states, seeds.states.length));
+                            targets.put(seeds, id);
+                        }
+                        target = id;
+                    }
+                    transitions[dfaState * classCount + c] = target;
+                }
+            }
+
+            int[] accepts = new int[stateSets.size()];
+            for (int i = 0; i < accepts.length; i++) {
+                int accept = Integer.MAX_VALUE;
+                for (int nfaState : stateSets.get(i)) {
+                    accept = Math.min(accept, nfa.getAccept(nfaState));
+                }
+                accepts[i] = accept == Integer.MAX_VALUE ? UrlRouter.NONE : accept;
+            }
+
+            return new int[][]{Arrays.copyOf(transitions, accepts.length * classCount), accepts};
+        }
+
+        private int getStateId(int[] states) {
+            StateSet key = new StateSet(states);
+            Integer id = stateIds.get(key);
+            if (id == null) {
+                if (stateSets.size() >= maxStates) {
+                    throw new StateLimitException();
+                }
+                id = stateSets.size();
+                stateIds.put(key, id);
+                stateSets.add(states);
+            }
+            return id;
+        }
+
+        /**
+         * Computes the epsilon closure of a set of states.
+         *
+         * @param seeds the initial states
+         * @param count number of initial states
+         * @return sorted array of all states reachable through epsilon transitions
+         */
+        private int[] closure(int[] seeds, int count) {
+            generation++;
+            int size = 0;
+            int[] result = new int[Math.max(count, 8)];
+            int top = 0;
+
+            for (int i = 0; i < count; i++) {
+                top = push(seeds[i], top);
+            }
+            while (top > 0) {
+                int state = stack[--top];
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, size * 2);
+                }
+                result[size++] = state;
+
+                int[] epsilons = nfa.getEpsilons(state);
+                for (int i = nfa.getEpsilonCount(state) - 1; i >= 0; i--) {
+                    top = push(epsilons[i], top);
+                }
+            }
+
+            result = Arrays.copyOf(result, size);
+            Arrays.sort(result);
+            return result;
+        }
+
+        private int push(int state, int top) {
+            if (marks[state] == generation) {
+                return top;
+            }
+            marks[state] = generation;
+            if (top == stack.length) {
+                stack = Arrays.copyOf(stack, top * 2);
+            }
+            stack[top] = state;
+            return top + 1;
+        }
+
+        private static int[] sortUnique(int[] values, int count) {
+            int[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (size == 0 || sorted[size - 1] != sorted[i]) {
+                    sorted[size++] = sorted[i];
+                }
+            }
+            return size == count ? sorted : Arrays.copyOf(sorted, size);
+        }
+    }
+
+    /**
+     * Hash key for a sorted set of automaton states.
+     */
+    private static final class StateSet {
+
+        private final int[] states;
+        private final int hashCode;
+
+        StateSet(int[] states) {
+            this.states = states;
+            this.hashCode = Arrays.hashCode(states);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateSet && Arrays.equals(states, ((StateSet) o).states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.VipChangeEvent;
+import com.edmunds.etm.management.api.VipChangeSet;
+import com.edmunds.etm.management.api.VipChangeSubscriber;
+import com.edmunds.etm.management.api.VipChangeSubscription;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Publishes the changes between successive ManagementVips snapshots to subscribers.
+ * <p/>
+ * The producer, typically the code that builds vips with {@link IncrementalVipsBuilder} or {@link VipsBuilder},
+ * calls {@link #publish} with each new snapshot. The publisher computes the {@link VipChangeSet} once and hands it to
+ * every subscriber. Events are delivered on the executor, one at a time per subscriber, and only as many as the
+ * subscriber has requested. While a subscriber has no demand, further changes are merged into its pending change
+ * set, so a slow subscriber receives one coalesced event instead of a backlog and the publisher never blocks.
+ * <p/>
+ * A subscriber that joins late first receives an initial event that creates every vip of the latest snapshot.
+ */
+public class VipChangePublisher {
+
+    private static final Logger logger = Logger.getLogger(VipChangePublisher.class);
+
+    private final Executor executor;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    private ManagementVips snapshot = ManagementVips.EMPTY_INSTANCE;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param executor executor that delivers events to subscribers
+     */
+    public VipChangePublisher(Executor executor) {
+        Validate.notNull(executor, "executor is null");
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a subscriber. Its first event, once requested, contains the latest snapshot.
+     *
+     * @param subscriber the subscriber
+     */
+    public void subscribe(VipChangeSubscriber subscriber) {
+        Validate.notNull(subscriber, "subscriber is null");
+
+        Subscription subscription;
+        synchronized (this) {
+            subscription = new Subscription(subscriber,
+                VipChangeSet.between(ManagementVips.EMPTY_INSTANCE, snapshot), snapshot);
+            if (closed) {
+                subscription.complete();
+            } else {
+                subscriptions.add(subscription);
+            }
+        }
+        subscription.schedule();
+    }
+
+    /**
+     * Publishes a new snapshot.
+     *
+     * @param vips the new snapshot
+     * @return the changes since the previous snapshot, empty if nothing changed
+     */
+    public VipChangeSet publish(ManagementVips vips) {
+        Validate.notNull(vips, "vips is null");
+
+        VipChangeSet changes;
+        synchronized (this) {
+            Validate.isTrue(!closed, "publisher is closed");
+            changes = VipChangeSet.between(snapshot, vips);
+            if (changes.isEmpty()) {
+                return changes;
+            }
+            snapshot = vips;
+
+            // Offer under the lock so every subscriber sees the change sets in publish order.
+            for (Subscription subscription : subscriptions) {
+                subscription.offer(changes, vips);
+            }
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+        return changes;
+    }
+
+    /**
+     * Completes all subscriptions. Events already requested are delivered before {@code onComplete()}.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.complete();
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Gets the latest published snapshot.
+     *
+     * @return the snapshot
+     */
+    public synchronized ManagementVips getSnapshot() {
+        return snapshot;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Per-subscriber state. Signals are delivered by a drain loop that runs on the executor; at most one loop runs
+     * for a subscription at a time.
+     */
+    private final class Subscription implements VipChangeSubscription, Runnable {
+        private final VipChangeSubscriber subscriber;
+
+        private VipChangeSet pending;
+        private ManagementVips pendingSnapshot;
+        private boolean pendingInitial = true;
+        private int pendingPublishCount;
+        private long demand;
+        private boolean subscribed;
+        private boolean completed;
+        private boolean cancelled;
+        private Throwable error;
+        private boolean draining;
+
+        private Subscription(VipChangeSubscriber subscriber, VipChangeSet initial, ManagementVips initialSnapshot) {
+            this.subscriber = subscriber;
+            this.pending = initial;
+            this.pendingSnapshot = initialSnapshot;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Requested events must be positive: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                pending = null;
+            }
+            subscriptions.remove(this);
+        }
+
+        private synchronized void offer(VipChangeSet changes, ManagementVips vips) {
+            if (cancelled) {
+                return;
+            }
+            pending = pending == null ? changes : pending.merge(changes);
+            pendingSnapshot = vips;
+            pendingPublishCount++;
+
+            // Changes that cancel out leave nothing to deliver.
+            if (pending.isEmpty() && !pendingInitial) {
+                pending = null;
+                pendingPublishCount = 0;
+            }
+        }
+
+        private synchronized void complete() {
+            completed = true;
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (draining || cancelled) {
+                    return;
+                }
+                draining = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                logger.error("Unable to deliver vip change events", e);
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (drainOnce()) {
+                    // Deliver until there is nothing to do.
+                }
+            } catch (RuntimeException e) {
+                logger.error("Vip change subscriber failed, cancelling subscription", e);
+                cancel();
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+
+        /**
+         * Delivers one signal.
+         *
+         * @return true if a signal was delivered, false if the loop should stop
+         */
+        private boolean drainOnce() {
+            VipChangeEvent event = null;
+            Throwable failure = null;
+            boolean complete = false;
+
+            synchronized (this) {
+                if (cancelled) {
+                    draining = false;
+                    return false;
+                }
+                if (error != null) {
+                    failure = error;
+                    cancelled = true;
+                } else if (pending != null && demand > 0) {
+                    event = new VipChangeEvent(pendingSnapshot, pending, pendingInitial, pendingPublishCount);
+                    demand--;
+                    pending = null;
+                    pendingInitial = false;
+                    pendingPublishCount = 0;
+                } else if (completed) {
+                    // Changes nobody asked for are dropped on completion.
+                    complete = true;
+                    cancelled = true;
+                } else {
+                    draining = false;
+                    return false;
+                }
+            }
+
+            if (failure != null) {
+                subscriptions.remove(this);
+                subscriber.onError(failure);
+            } else if (complete) {
+                subscriptions.remove(this);
+                subscriber.onComplete();
+            } else {
+                subscriber.onNext(event);
+            }
+            return true;
+        }
+    }
+}
@@ -19,14 +19,54 @@ import com.edmunds.etm.management.api.ManagementVips;
 import org.apache.commons.lang.Validate;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.ExecutorService;
+
 import static com.edmunds.etm.management.api.ManagementVipType.COMPLETE;
 
 /**
  * Provides the logic to delta to vips.
+ * <p/>
+ * If an executor is set, deltas with at least {@link #getParallelThreshold()} vips are calculated in parallel. The
+ * result is the same either way.
  */
 @Component
 public class VipDeltaCalculator {
 
+    /**
+     * Default minimum number of vips for a parallel delta.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 2000;
+
+    private ExecutorService executor;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for parallel deltas. The executor is not shut down by this class.
+     *
+     * @param executor the executor, or null to calculate all deltas on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the minimum number of vips for a delta to be calculated in parallel.
+     *
+     * @param parallelThreshold the threshold
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        Validate.isTrue(parallelThreshold > 0, "parallelThreshold must be positive");
+        this.parallelThreshold = parallelThreshold;
+    }
+
     /**
      * Performs a delta operation on vips managed at the load balancer.
      *
@@ -39,7 +79,7 @@ public class VipDeltaCalculator {
         Validate.isTrue(loadBalancerVips.getVipType() == COMPLETE);
 
         // Always copy the load balancer vips since they have the valid IP's
-        return new VipDeltaLogic(loadBalancerVips, clientVips, false).delta();
+        return new VipDeltaLogic(loadBalancerVips, clientVips, false).delta(executor, parallelThreshold);
     }
 
     /**
@@ -53,7 +93,7 @@ public class VipDeltaCalculator {
         Validate.isTrue(newVips.getVipType() == COMPLETE);
 
         // Always copy the new vips since they have the most up to date info.
-        return new VipDeltaLogic(oldVips, newVips, true).delta();
+        return new VipDeltaLogic(oldVips, newVips, true).delta(executor, parallelThreshold);
     }
 
     /**
@@ -72,6 +112,6 @@ public class VipDeltaCalculator {
         Validate.isTrue(loadBalancerVips.getVipType() == COMPLETE);
 
         // Use the most current info.
-        return new VipDeltaLogic(localVips, loadBalancerVips, true).delta();
+        return new VipDeltaLogic(localVips, loadBalancerVips, true).delta(executor, parallelThreshold);
     }
 }
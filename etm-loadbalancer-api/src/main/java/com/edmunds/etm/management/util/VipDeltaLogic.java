@@ -26,8 +26,13 @@ import org.apache.commons.lang.Validate;
 import org.apache.log4j.Logger;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static com.edmunds.etm.management.api.ManagementLoadBalancerState.ACTIVE;
 import static com.edmunds.etm.management.api.ManagementLoadBalancerState.CREATE_REQUEST;
@@ -43,6 +48,11 @@ public class VipDeltaLogic {
      */
     private static final Logger logger = Logger.getLogger(VipDeltaLogic.class);
 
+    /**
+     * Number of chunks per processor when the delta runs in parallel, so uneven vips still balance across threads.
+     */
+    private static final int CHUNKS_PER_CPU = 4;
+
     private final ManagementVips oldVips;
     private final ManagementVips newVips;
     private final ManagementVipType vipsType;
@@ -94,41 +104,122 @@ public class VipDeltaLogic {
      */
 
     public ManagementVips delta() {
+        return delta(null, Integer.MAX_VALUE);
+    }
 
-        // Result
-        List<ManagementVip> deltaVips = Lists.newArrayList();
+    /**
+     * Apply the delta operation, splitting the per-vip work across an executor when there are enough vips.
+     * <p/>
+     * The work is divided into a few chunks per processor; the calling thread handles the first chunk and waits for
+     * the rest. The result is identical to {@link #delta()}.
+     *
+     * @param executor          executor for the parallel chunks, or null to always run on the calling thread
+     * @param parallelThreshold minimum number of vips for the work to be split
+     * @return the delta result.
+     */
+    public ManagementVips delta(ExecutorService executor, int parallelThreshold) {
+        final List<ManagementVip[]> pairs = pairVips();
+
+        if (executor == null || pairs.size() < parallelThreshold) {
+            return new ManagementVips(vipsType, deltaVips(pairs, 0, pairs.size()));
+        }
+
+        final int chunkCount = Math.min(pairs.size(), Runtime.getRuntime().availableProcessors() * CHUNKS_PER_CPU);
+        final int chunkSize = (pairs.size() + chunkCount - 1) / chunkCount;
+
+        List<Future<List<ManagementVip>>> futures = Lists.newArrayList();
+        for (int from = chunkSize; from < pairs.size(); from += chunkSize) {
+            final int start = from;
+            final int end = Math.min(from + chunkSize, pairs.size());
+            futures.add(executor.submit(new Callable<List<ManagementVip>>() {
+                @Override
+                public List<ManagementVip> call() {
+                    return deltaVips(pairs, start, end);
+                }
+            }));
+        }
+
+        List<ManagementVip> deltaVips = Lists.newArrayListWithCapacity(pairs.size());
+        deltaVips.addAll(deltaVips(pairs, 0, Math.min(chunkSize, pairs.size())));
+        try {
+            for (Future<List<ManagementVip>> future : futures) {
+                deltaVips.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while calculating vip delta", e);
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Vip delta failed", e.getCause());
+        }
+
+        return new ManagementVips(vipsType, deltaVips);
+    }
+
+    /**
+     * Matches old and new vips by maven module.
+     *
+     * @return pairs of {old, new} vips, where old is null for created vips and new is null for deleted vips
+     */
+    private List<ManagementVip[]> pairVips() {
+        List<ManagementVip[]> pairs = Lists.newArrayList();
 
         if (oldVips == null) {
             for (ManagementVip newVip : newVips.getVips()) {
-                deltaVips.add(updateState(CREATE_REQUEST, newVip));
+                pairs.add(new ManagementVip[] {null, newVip});
             }
         } else {
             // Handle when the entire vip is deleted.
             for (ManagementVip oldVip : oldVips.getVips()) {
                 if (newVips.getVip(oldVip.getMavenModule()) == null) {
-                    deltaVips.add(updateState(DELETE_REQUEST, oldVip));
+                    pairs.add(new ManagementVip[] {oldVip, null});
                 }
             }
 
             // Handle all other cases
             for (ManagementVip newVip : newVips.getVips()) {
-                final ManagementVip oldVip = oldVips.getVip(newVip.getMavenModule());
-
-                if (oldVip == null) {
-                    // Doesn't exist so create it.
-                    deltaVips.add(updateState(CREATE_REQUEST, newVip));
-                } else {
-                    // Exists so check the members to see if they have changed.
-                    deltaVips.add(deltaMembers(oldVip, newVip));
-                }
+                pairs.add(new ManagementVip[] {oldVips.getVip(newVip.getMavenModule()), newVip});
+            }
+        }
+        return pairs;
+    }
+
+    private List<ManagementVip> deltaVips(List<ManagementVip[]> pairs, int from, int to) {
+        List<ManagementVip> deltaVips = Lists.newArrayListWithCapacity(to - from);
+
+        for (ManagementVip[] pair : pairs.subList(from, to)) {
+            final ManagementVip oldVip = pair[0];
+            final ManagementVip newVip = pair[1];
+
+            if (newVip == null) {
+                deltaVips.add(updateState(DELETE_REQUEST, oldVip));
+            } else if (oldVip == null) {
+                // Doesn't exist so create it.
+                deltaVips.add(updateState(CREATE_REQUEST, newVip));
+            } else {
+                // Exists so check the members to see if they have changed.
+                deltaVips.add(deltaMembers(oldVip, newVip));
             }
         }
+        return deltaVips;
+    }
 
-        return new ManagementVips(vipsType, deltaVips);
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
     }
 
     /**
      * Performs a delta of each vip's pool members.
+     * <p/>
+     * Pool members are stored sorted by host address, so the two member lists are merged in a single pass. When both
+     * vips have the same members and all members of the vip being copied are active, that vip is reused and only
+     * relabeled active. Differing pool member host fingerprints rule that case out without walking the members.
      *
      * @param oldVip the old vip.
      * @param newVip the new vip.
@@ -137,30 +228,83 @@ public class VipDeltaLogic {
     private ManagementVip deltaMembers(ManagementVip oldVip, ManagementVip newVip) {
         final Map<HostAddress, ManagementPoolMember> oldMembers = oldVip.getPoolMembers();
         final Map<HostAddress, ManagementPoolMember> newMembers = newVip.getPoolMembers();
+        final ManagementVip sourceVip = copyNew ? newVip : oldVip;
 
-        // Result
-        List<ManagementPoolMember> deltaMembers = Lists.newArrayList();
+        final boolean maybeSameHosts =
+            oldVip.getPoolMemberHostsFingerprint() == newVip.getPoolMemberHostsFingerprint();
 
-        // Handle Pool Member Deletions
-        for (ManagementPoolMember oldMember : oldMembers.values()) {
-            final HostAddress hostAddress = oldMember.getHostAddress();
+        if (maybeSameHosts && sameHosts(oldMembers, newMembers) && allActive(sourceVip.getPoolMembers())) {
+            return sourceVip.withLoadBalancerState(ACTIVE);
+        }
+
+        // Result
+        List<ManagementPoolMember> deltaMembers = Lists.newArrayListWithCapacity(
+            Math.max(oldMembers.size(), newMembers.size()));
+
+        final Iterator<ManagementPoolMember> oldIterator = oldMembers.values().iterator();
+        final Iterator<ManagementPoolMember> newIterator = newMembers.values().iterator();
+        ManagementPoolMember oldMember = next(oldIterator);
+        ManagementPoolMember newMember = next(newIterator);
+
+        while (oldMember != null || newMember != null) {
+            final int cmp;
+            if (oldMember == null) {
+                cmp = 1;
+            } else if (newMember == null) {
+                cmp = -1;
+            } else {
+                cmp = compareHosts(oldMember.getHostAddress(), newMember.getHostAddress());
+            }
 
-            if (!newMembers.containsKey(hostAddress)) {
-                deltaMembers.add(new ManagementPoolMember(DELETE_REQUEST, hostAddress));
+            if (cmp < 0) {
+                // Handle Pool Member Deletions
+                deltaMembers.add(new ManagementPoolMember(DELETE_REQUEST, oldMember.getHostAddress()));
+                oldMember = next(oldIterator);
+            } else if (cmp > 0) {
+                deltaMembers.add(new ManagementPoolMember(CREATE_REQUEST, newMember.getHostAddress()));
+                newMember = next(newIterator);
+            } else {
+                deltaMembers.add(new ManagementPoolMember(ACTIVE, newMember.getHostAddress()));
+                oldMember = next(oldIterator);
+                newMember = next(newIterator);
             }
         }
 
-        for (ManagementPoolMember newMember : newMembers.values()) {
-            final HostAddress hostAddress = newMember.getHostAddress();
+        return copyVip(ACTIVE, sourceVip, deltaMembers);
+    }
 
-            if (oldMembers.containsKey(hostAddress)) {
-                deltaMembers.add(new ManagementPoolMember(ACTIVE, hostAddress));
-            } else {
-                deltaMembers.add(new ManagementPoolMember(CREATE_REQUEST, hostAddress));
+    private static boolean sameHosts(Map<HostAddress, ManagementPoolMember> oldMembers,
+                                     Map<HostAddress, ManagementPoolMember> newMembers) {
+        if (oldMembers.size() != newMembers.size()) {
+            return false;
+        }
+        final Iterator<HostAddress> newIterator = newMembers.keySet().iterator();
+        for (HostAddress oldHost : oldMembers.keySet()) {
+            if (compareHosts(oldHost, newIterator.next()) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean allActive(Map<HostAddress, ManagementPoolMember> members) {
+        for (ManagementPoolMember member : members.values()) {
+            if (member.getLoadBalancerState() != ACTIVE) {
+                return false;
             }
         }
+        return true;
+    }
+
+    private static int compareHosts(HostAddress a, HostAddress b) {
+        if (a == null) {
+            return b == null ? 0 : -1;
+        }
+        return a.compareTo(b);
+    }
 
-        return copyVip(ACTIVE, copyNew ? newVip : oldVip, deltaMembers);
+    private static ManagementPoolMember next(Iterator<ManagementPoolMember> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
     }
 
     private ManagementVip copyVip(
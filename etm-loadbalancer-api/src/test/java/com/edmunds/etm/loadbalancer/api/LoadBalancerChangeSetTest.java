@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.api;
+
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.HttpMonitor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class LoadBalancerChangeSetTest {
+
+    private VirtualServer server;
+    private VirtualServerConfig config;
+    private HttpMonitor monitor;
+    private PoolMember member1;
+    private PoolMember member2;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new VirtualServer("crr", null);
+        config = new VirtualServerConfig(80);
+        monitor = new HttpMonitor("/crr/status", "OK");
+        member1 = new PoolMember(new HostAddress("10.0.0.1", 8080));
+        member2 = new PoolMember(new HostAddress("10.0.0.2", 8080));
+    }
+
+    public void testSequentialExecutionReportsEachOperation() throws Exception {
+        HostAddress created = new HostAddress("10.1.0.1", 80);
+        LoadBalancerConnection connection = createStrictMock(LoadBalancerConnection.class);
+        expect(connection.createVirtualServer(server, config, monitor)).andReturn(created);
+        connection.addPoolMember("crr", member1);
+        connection.addPoolMember("crr", member2);
+        expectLastCall().andThrow(new PoolMemberExistsException("exists"));
+        connection.removePoolMember("drr", member1);
+        replay(connection);
+
+        LoadBalancerChangeSet changeSet = new LoadBalancerChangeSet()
+            .createVirtualServer(server, config, monitor)
+            .addPoolMember("crr", member1)
+            .addPoolMember("crr", member2)
+            .removePoolMember("drr", member1);
+        LoadBalancerChangeSetResult result = changeSet.execute(connection);
+        verify(connection);
+
+        List<LoadBalancerOperationResult> results = result.getResults();
+        assertEquals(results.size(), 4);
+        assertSame(results.get(0).getCreatedAddress(), created);
+        assertTrue(results.get(1).isSuccess());
+        assertFalse(results.get(2).isSuccess());
+        assertTrue(results.get(2).getError() instanceof PoolMemberExistsException);
+        assertTrue(results.get(3).isSuccess());
+        assertFalse(result.isSuccess());
+        assertEquals(result.getFailures().size(), 1);
+    }
+
+    public void testBatchConnectionReceivesWholeChangeSet() {
+        LoadBalancerChangeSet changeSet = new LoadBalancerChangeSet().deleteVirtualServer(server);
+        LoadBalancerChangeSetResult expected = new LoadBalancerChangeSetResult(
+            Collections.<LoadBalancerOperationResult>emptyList());
+
+        BatchLoadBalancerConnection connection = createMock(BatchLoadBalancerConnection.class);
+        expect(connection.execute(changeSet)).andReturn(expected);
+        replay(connection);
+
+        assertSame(changeSet.execute(connection), expected);
+        verify(connection);
+    }
+
+    public void testOperations() {
+        LoadBalancerChangeSet changeSet = new LoadBalancerChangeSet();
+        assertTrue(changeSet.isEmpty());
+        changeSet.deleteVirtualServer(server).removePoolMember("crr", member1);
+
+        List<LoadBalancerOperation> operations = changeSet.getOperations();
+        assertEquals(changeSet.size(), 2);
+        assertEquals(operations.get(0).getType(), LoadBalancerOperation.Type.DELETE_VIRTUAL_SERVER);
+        assertEquals(operations.get(0).getServerName(), "crr");
+        assertEquals(operations.get(1).getType(), LoadBalancerOperation.Type.REMOVE_POOL_MEMBER);
+        assertSame(operations.get(1).getPoolMember(), member1);
+    }
+}
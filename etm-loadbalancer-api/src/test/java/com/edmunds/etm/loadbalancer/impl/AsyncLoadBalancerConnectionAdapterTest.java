@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.impl;
+
+import com.edmunds.etm.loadbalancer.api.LoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.VirtualServer;
+import com.edmunds.etm.loadbalancer.api.VirtualServerNotFoundException;
+import org.easymock.IAnswer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test
+public class AsyncLoadBalancerConnectionAdapterTest {
+
+    private AsyncLoadBalancerConnectionAdapter adapter;
+
+    @AfterMethod
+    public void tearDown() {
+        if (adapter != null) {
+            adapter.shutdown();
+        }
+    }
+
+    public void testResultsAndExceptions() throws Exception {
+        VirtualServer server = new VirtualServer("crr", null);
+        LoadBalancerConnection connection = createNiceMock(LoadBalancerConnection.class);
+        expect(connection.getVirtualServer("crr")).andReturn(server);
+        expect(connection.getVirtualServer("drr")).andThrow(new VirtualServerNotFoundException("drr"));
+        replay(connection);
+
+        adapter = new AsyncLoadBalancerConnectionAdapter(connection, 10);
+        assertEquals(adapter.getVirtualServer("crr", 1, TimeUnit.SECONDS).get(), server);
+        try {
+            adapter.getVirtualServer("drr", 1, TimeUnit.SECONDS).get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof VirtualServerNotFoundException);
+        }
+    }
+
+    public void testTimeoutInterruptsCall() throws Exception {
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(1);
+        LoadBalancerConnection connection = createNiceMock(LoadBalancerConnection.class);
+        expect(connection.saveConfiguration()).andAnswer(new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                finished.countDown();
+                return true;
+            }
+        });
+        replay(connection);
+
+        adapter = new AsyncLoadBalancerConnectionAdapter(connection, 10);
+        Future<Boolean> future = adapter.saveConfiguration(100, TimeUnit.MILLISECONDS);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+    }
+
+    public void testCancelQueuedCall() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        LoadBalancerConnection connection = createNiceMock(LoadBalancerConnection.class);
+        expect(connection.isVirtualServerDefined((String) anyObject())).andAnswer(new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() throws Throwable {
+                calls.incrementAndGet();
+                release.await();
+                return true;
+            }
+        }).anyTimes();
+        replay(connection);
+
+        adapter = new AsyncLoadBalancerConnectionAdapter(connection, 10);
+        Future<Boolean> running = adapter.isVirtualServerDefined("a", 0, TimeUnit.SECONDS);
+        Future<Boolean> queued = adapter.isVirtualServerDefined("b", 0, TimeUnit.SECONDS);
+        assertTrue(queued.cancel(false));
+        assertEquals(adapter.getQueuedCount(), 0);
+
+        release.countDown();
+        assertTrue(running.get(5, TimeUnit.SECONDS));
+        assertEquals(calls.get(), 1);
+    }
+
+    public void testOneCallPerConnection() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        IAnswer<Boolean> answer = new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() throws Throwable {
+                bothRunning.countDown();
+                return bothRunning.await(5, TimeUnit.SECONDS);
+            }
+        };
+        LoadBalancerConnection first = createNiceMock(LoadBalancerConnection.class);
+        expect(first.isVirtualServerDefined((String) anyObject())).andAnswer(answer);
+        replay(first);
+        LoadBalancerConnection second = createNiceMock(LoadBalancerConnection.class);
+        expect(second.isVirtualServerDefined((String) anyObject())).andAnswer(answer);
+        replay(second);
+
+        adapter = new AsyncLoadBalancerConnectionAdapter(Arrays.asList(first, second), 10);
+        Future<Boolean> a = adapter.isVirtualServerDefined("a", 0, TimeUnit.SECONDS);
+        Future<Boolean> b = adapter.isVirtualServerDefined("b", 0, TimeUnit.SECONDS);
+        assertTrue(a.get(5, TimeUnit.SECONDS));
+        assertTrue(b.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testConnectAndSaveReachEveryConnection() throws Exception {
+        LoadBalancerConnection first = createMock(LoadBalancerConnection.class);
+        expect(first.connect()).andReturn(true);
+        expect(first.saveConfiguration()).andReturn(true);
+        replay(first);
+        LoadBalancerConnection second = createMock(LoadBalancerConnection.class);
+        expect(second.connect()).andReturn(true);
+        expect(second.saveConfiguration()).andReturn(false);
+        replay(second);
+
+        adapter = new AsyncLoadBalancerConnectionAdapter(Arrays.asList(first, second), 10);
+        assertTrue(adapter.connect(0, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        assertFalse(adapter.saveConfiguration(0, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        verify(first, second);
+    }
+
+    public void testIsActiveRequiresEveryConnection() throws Exception {
+        LoadBalancerConnection first = createNiceMock(LoadBalancerConnection.class);
+        expect(first.isActive()).andReturn(false).andReturn(true);
+        replay(first);
+        LoadBalancerConnection second = createNiceMock(LoadBalancerConnection.class);
+        expect(second.isActive()).andReturn(true).times(2);
+        replay(second);
+
+        adapter = new AsyncLoadBalancerConnectionAdapter(Arrays.asList(first, second), 10);
+        assertFalse(adapter.isActive(0, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        assertTrue(adapter.isActive(0, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+    }
+
+    public void testSaveWaitsForRunningCalls() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean running = new AtomicBoolean();
+        IAnswer<Boolean> call = new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() throws Throwable {
+                running.set(true);
+                release.await();
+                running.set(false);
+                return true;
+            }
+        };
+        IAnswer<Boolean> save = new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() {
+                return !running.get();
+            }
+        };
+        LoadBalancerConnection first = createNiceMock(LoadBalancerConnection.class);
+        expect(first.isVirtualServerDefined((String) anyObject())).andAnswer(call).anyTimes();
+        expect(first.saveConfiguration()).andAnswer(save);
+        replay(first);
+        LoadBalancerConnection second = createNiceMock(LoadBalancerConnection.class);
+        expect(second.isVirtualServerDefined((String) anyObject())).andAnswer(call).anyTimes();
+        expect(second.saveConfiguration()).andAnswer(save);
+        replay(second);
+
+        adapter = new AsyncLoadBalancerConnectionAdapter(Arrays.asList(first, second), 10);
+        Future<Boolean> defined = adapter.isVirtualServerDefined("a", 0, TimeUnit.SECONDS);
+        // Only a call that holds a connection delays the save
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!running.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Future<Boolean> saved = adapter.saveConfiguration(0, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertFalse(saved.isDone());
+
+        release.countDown();
+        assertTrue(defined.get(5, TimeUnit.SECONDS));
+        assertTrue(saved.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testFullQueueRejectsCall() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        LoadBalancerConnection connection = createNiceMock(LoadBalancerConnection.class);
+        expect(connection.isActive()).andAnswer(new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() throws Throwable {
+                return release.await(5, TimeUnit.SECONDS);
+            }
+        }).anyTimes();
+        replay(connection);
+
+        adapter = new AsyncLoadBalancerConnectionAdapter(connection, 1);
+        adapter.isActive(0, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        adapter.isActive(0, TimeUnit.SECONDS);
+        try {
+            adapter.isActive(0, TimeUnit.SECONDS);
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            assertFalse(release.getCount() == 0);
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.impl;
+
+import com.edmunds.etm.loadbalancer.api.LoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.PoolMember;
+import com.edmunds.etm.loadbalancer.api.VersionedLoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.VirtualServer;
+import com.edmunds.etm.management.api.HostAddress;
+import com.google.common.collect.Sets;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Set;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+@Test
+public class CachingLoadBalancerConnectionTest {
+
+    private PoolMember member;
+    private Set<VirtualServer> servers;
+
+    @BeforeMethod
+    public void setUp() {
+        member = new PoolMember(new HostAddress("10.0.0.1", 8080));
+        VirtualServer server = new VirtualServer("crr", new HostAddress("10.1.0.1", 80));
+        server.addPoolMember(member);
+        servers = Sets.newHashSet(server);
+    }
+
+    public void testSnapshotIsReusedUntilMutation() throws Exception {
+        LoadBalancerConnection delegate = createMock(LoadBalancerConnection.class);
+        expect(delegate.getAllVirtualServers()).andReturn(servers).times(2);
+        delegate.removePoolMember("crr", member);
+        replay(delegate);
+
+        CachingLoadBalancerConnection connection = new CachingLoadBalancerConnection(delegate, 60000);
+        Set<VirtualServer> first = connection.getAllVirtualServers();
+        assertSame(connection.getAllVirtualServers(), first);
+        assertEquals(connection.getHitCount(), 1);
+
+        connection.removePoolMember("crr", member);
+        assertNotSame(connection.getAllVirtualServers(), first);
+        assertEquals(connection.getLoadCount(), 2);
+        verify(delegate);
+    }
+
+    public void testSnapshotIsImmutable() throws Exception {
+        LoadBalancerConnection delegate = createMock(LoadBalancerConnection.class);
+        expect(delegate.getAllVirtualServers()).andReturn(servers);
+        replay(delegate);
+
+        Set<VirtualServer> snapshot = new CachingLoadBalancerConnection(delegate, 60000).getAllVirtualServers();
+        VirtualServer server = snapshot.iterator().next();
+        assertEquals(server.getPoolMembers(), Sets.newHashSet(member));
+        try {
+            server.addPoolMember(new PoolMember(new HostAddress("10.0.0.2", 8080)));
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            snapshot.clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testExpiredSnapshotIsRevalidatedWithChangeToken() throws Exception {
+        VersionedLoadBalancerConnection delegate = createMock(VersionedLoadBalancerConnection.class);
+        expect(delegate.getChangeToken()).andReturn("1");
+        expect(delegate.getAllVirtualServers()).andReturn(servers);
+        expect(delegate.getChangeToken()).andReturn("1");
+        expect(delegate.getChangeToken()).andReturn("2");
+        expect(delegate.getAllVirtualServers()).andReturn(servers);
+        replay(delegate);
+
+        CachingLoadBalancerConnection connection = new CachingLoadBalancerConnection(delegate, 0);
+        Set<VirtualServer> first = connection.getAllVirtualServers();
+        assertSame(connection.getAllVirtualServers(), first);
+        assertNotSame(connection.getAllVirtualServers(), first);
+        assertEquals(connection.getLoadCount(), 2);
+        verify(delegate);
+    }
+}
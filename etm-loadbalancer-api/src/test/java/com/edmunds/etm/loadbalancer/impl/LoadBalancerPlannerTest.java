@@ -0,0 +1,313 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.impl;
+
+import com.edmunds.etm.loadbalancer.api.AsyncLoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSet;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSetResult;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerOperation;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerOperationResult;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerPlan;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerPlanResult;
+import com.edmunds.etm.loadbalancer.api.PoolMember;
+import com.edmunds.etm.loadbalancer.api.VirtualServer;
+import com.edmunds.etm.loadbalancer.api.VirtualServerConfig;
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.ManagementPoolMember;
+import com.edmunds.etm.management.api.ManagementVip;
+import com.edmunds.etm.management.api.ManagementVipType;
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.MavenModule;
+import com.edmunds.etm.management.api.VipChangeSet;
+import com.edmunds.etm.management.util.VipDeltaCalculator;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.edmunds.etm.loadbalancer.api.LoadBalancerPlan.PhaseType.ADD_POOL_MEMBERS;
+import static com.edmunds.etm.loadbalancer.api.LoadBalancerPlan.PhaseType.CREATE_VIRTUAL_SERVERS;
+import static com.edmunds.etm.loadbalancer.api.LoadBalancerPlan.PhaseType.DELETE_VIRTUAL_SERVERS;
+import static com.edmunds.etm.loadbalancer.api.LoadBalancerPlan.PhaseType.REMOVE_POOL_MEMBERS;
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.ACTIVE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class LoadBalancerPlannerTest {
+
+    private static final Function<MavenModule, String> SERVER_NAMES = new Function<MavenModule, String>() {
+        @Override
+        public String apply(MavenModule mavenModule) {
+            return mavenModule.getArtifactId();
+        }
+    };
+
+    private LoadBalancerPlanner planner;
+    private LoadBalancerSimulator simulator;
+    private AsyncLoadBalancerConnectionAdapter adapter;
+    private ManagementVips oldVips;
+    private ManagementVips newVips;
+
+    @BeforeMethod
+    public void setUp() {
+        planner = new LoadBalancerPlanner(SERVER_NAMES, new VirtualServerConfig(80));
+        simulator = new LoadBalancerSimulator(new TestLoadBalancerConfig());
+        oldVips = vips(vip("a", "10.0.0.1"), vip("b", "10.0.0.1", "10.0.0.2"), vip("d", "10.0.0.9"));
+        newVips = vips(vip("b", "10.0.0.2", "10.0.0.3"), vip("c", "10.0.0.4"), vip("d", "10.0.0.9"));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (adapter != null) {
+            adapter.shutdown();
+        }
+    }
+
+    public void testPlanFromChangeSet() {
+        LoadBalancerPlan plan = planner.plan(VipChangeSet.between(oldVips, newVips));
+
+        assertEquals(plan.getPhases(), Lists.newArrayList(
+            CREATE_VIRTUAL_SERVERS, ADD_POOL_MEMBERS, REMOVE_POOL_MEMBERS, DELETE_VIRTUAL_SERVERS));
+        assertEquals(plan.getOperationCount(), 4);
+
+        LoadBalancerOperation create = only(plan.getChangeSets(CREATE_VIRTUAL_SERVERS));
+        assertEquals(create.getServerName(), "c");
+        assertEquals(create.getVirtualServer().getPoolMembers(), Sets.newHashSet(member("10.0.0.4")));
+
+        assertEquals(only(plan.getChangeSets(ADD_POOL_MEMBERS)).getPoolMember(), member("10.0.0.3"));
+        assertEquals(only(plan.getChangeSets(REMOVE_POOL_MEMBERS)).getPoolMember(), member("10.0.0.1"));
+        assertEquals(only(plan.getChangeSets(DELETE_VIRTUAL_SERVERS)).getServerName(), "a");
+    }
+
+    public void testPlanFromDeltaMatchesChangeSet() {
+        ManagementVips delta = new VipDeltaCalculator().deltaWebTier(oldVips, newVips);
+
+        LoadBalancerPlan fromDelta = planner.plan(delta);
+        LoadBalancerPlan fromChangeSet = planner.plan(VipChangeSet.between(oldVips, newVips));
+        assertEquals(fromDelta.getPhases(), fromChangeSet.getPhases());
+        for (LoadBalancerPlan.PhaseType type : fromDelta.getPhases()) {
+            assertEquals(only(fromDelta.getChangeSets(type)).toString(),
+                only(fromChangeSet.getChangeSets(type)).toString());
+        }
+    }
+
+    public void testExecuteAgainstSimulator() throws Exception {
+        LoadBalancerConnection connection = simulator.newConnection();
+        connection.createVirtualServer(server("a", "10.0.0.1"), null, null);
+        connection.createVirtualServer(server("b", "10.0.0.1", "10.0.0.2"), null, null);
+        adapter = new AsyncLoadBalancerConnectionAdapter(
+            Lists.newArrayList(simulator.newConnection(), simulator.newConnection()), 10);
+
+        LoadBalancerPlanResult result = planner.execute(planner.plan(VipChangeSet.between(oldVips, newVips)), adapter);
+
+        assertTrue(result.isSuccess(), result.toString());
+        assertEquals(result.getPhases().size(), 4);
+        // Each phase saves on both driver instances
+        assertEquals(simulator.getSaveCount(), 8);
+        assertEquals(result.getCreatedAddresses().get("c"), new HostAddress("1.2.3.6", 80));
+
+        assertFalse(connection.isVirtualServerDefined("a"));
+        assertEquals(connection.getVirtualServer("b").getPoolMembers(),
+            Sets.newHashSet(member("10.0.0.2"), member("10.0.0.3")));
+        assertEquals(connection.getVirtualServer("c").getPoolMembers(), Sets.newHashSet(member("10.0.0.4")));
+    }
+
+    public void testEmptyPlanDoesNotSave() throws Exception {
+        adapter = new AsyncLoadBalancerConnectionAdapter(simulator.newConnection(), 10);
+
+        LoadBalancerPlanResult result = planner.execute(planner.plan(VipChangeSet.EMPTY), adapter);
+        assertTrue(result.isSuccess());
+        assertTrue(result.getPhases().isEmpty());
+        assertEquals(simulator.getSaveCount(), 0);
+    }
+
+    public void testConcurrencyLimitAndFailures() throws Exception {
+        simulator.setLatency(5, 10, TimeUnit.MILLISECONDS);
+        adapter = new AsyncLoadBalancerConnectionAdapter(Lists.newArrayList(simulator.newConnection(),
+            simulator.newConnection(), simulator.newConnection(), simulator.newConnection()), 20);
+        InFlightCounter counter = new InFlightCounter(adapter);
+        AsyncLoadBalancerConnection connection = (AsyncLoadBalancerConnection) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{AsyncLoadBalancerConnection.class}, counter);
+
+        // None of these servers exist, so every delete fails.
+        LoadBalancerPlan plan = new LoadBalancerPlan();
+        for (int i = 0; i < 10; i++) {
+            plan.deleteVirtualServer(new VirtualServer("missing" + i, null));
+        }
+        planner.setMaxConcurrency(2);
+        LoadBalancerPlanResult result = planner.execute(plan, connection);
+
+        assertTrue(counter.maxInFlight <= 2, "max in flight " + counter.maxInFlight);
+        assertEquals(counter.calls, 10);
+        assertEquals(result.getFailures().size(), 10);
+        assertFalse(result.isSuccess());
+        assertTrue(result.isSaved(DELETE_VIRTUAL_SERVERS));
+        assertEquals(simulator.getSaveCount(), 4);
+    }
+
+    public void testSlowChangeSetDoesNotBlockOthers() throws Exception {
+        LoadBalancerPlan plan = new LoadBalancerPlan();
+        for (String name : new String[]{"slow", "a", "b", "c"}) {
+            plan.deleteVirtualServer(new VirtualServer(name, null));
+        }
+        final CountDownLatch othersSubmitted = new CountDownLatch(3);
+        final FutureTask<LoadBalancerChangeSetResult> slow =
+            completeLater(plan.getChangeSets(DELETE_VIRTUAL_SERVERS).iterator().next());
+        AsyncLoadBalancerConnection connection = (AsyncLoadBalancerConnection) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{AsyncLoadBalancerConnection.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("saveConfiguration")) {
+                        FutureTask<Boolean> saved = new FutureTask<Boolean>(new Runnable() {
+                            @Override
+                            public void run() {
+                            }
+                        }, true);
+                        saved.run();
+                        return saved;
+                    }
+                    LoadBalancerChangeSet changeSet = (LoadBalancerChangeSet) args[0];
+                    if (changeSet.getOperations().get(0).getServerName().equals("slow")) {
+                        return slow;
+                    }
+                    othersSubmitted.countDown();
+                    FutureTask<LoadBalancerChangeSetResult> task = completeLater(changeSet);
+                    task.run();
+                    return task;
+                }
+            });
+
+        final AtomicBoolean othersFirst = new AtomicBoolean();
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    othersFirst.set(othersSubmitted.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    // Fall through and release the slow change set
+                }
+                slow.run();
+            }
+        };
+        releaser.start();
+
+        planner.setMaxConcurrency(2);
+        LoadBalancerPlanResult result = planner.execute(plan, connection);
+        releaser.join();
+
+        assertTrue(othersFirst.get(), "change sets waited behind the slow one");
+        assertTrue(result.isSuccess(), result.toString());
+        List<String> serverNames = Lists.newArrayList();
+        for (LoadBalancerOperationResult operationResult : result.getResults(DELETE_VIRTUAL_SERVERS)) {
+            serverNames.add(operationResult.getOperation().getServerName());
+        }
+        assertEquals(serverNames, Lists.newArrayList("slow", "a", "b", "c"));
+    }
+
+    /**
+     * Counts the change sets that are running when each new one is submitted.
+     */
+    private static final class InFlightCounter implements InvocationHandler {
+        private final AsyncLoadBalancerConnection delegate;
+        private final List<Future<?>> futures = Lists.newArrayList();
+        private int calls;
+        private int maxInFlight;
+
+        private InFlightCounter(AsyncLoadBalancerConnection delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = method.invoke(delegate, args);
+            if (method.getName().equals("execute")) {
+                calls++;
+                futures.add((Future<?>) result);
+                int running = 0;
+                for (Future<?> future : futures) {
+                    if (!future.isDone()) {
+                        running++;
+                    }
+                }
+                maxInFlight = Math.max(maxInFlight, running);
+            }
+            return result;
+        }
+    }
+
+    private static FutureTask<LoadBalancerChangeSetResult> completeLater(final LoadBalancerChangeSet changeSet) {
+        return new FutureTask<LoadBalancerChangeSetResult>(new Callable<LoadBalancerChangeSetResult>() {
+            @Override
+            public LoadBalancerChangeSetResult call() {
+                List<LoadBalancerOperationResult> results = Lists.newArrayList();
+                for (LoadBalancerOperation operation : changeSet.getOperations()) {
+                    results.add(LoadBalancerOperationResult.success(operation, null));
+                }
+                return new LoadBalancerChangeSetResult(results);
+            }
+        });
+    }
+
+    private static LoadBalancerOperation only(Collection<LoadBalancerChangeSet> changeSets) {
+        assertEquals(changeSets.size(), 1);
+        List<LoadBalancerOperation> operations = changeSets.iterator().next().getOperations();
+        assertEquals(operations.size(), 1);
+        return operations.get(0);
+    }
+
+    private static VirtualServer server(String name, String... ips) {
+        VirtualServer server = new VirtualServer(name, null);
+        for (String ip : ips) {
+            server.addPoolMember(member(ip));
+        }
+        return server;
+    }
+
+    private static PoolMember member(String ip) {
+        return new PoolMember(new HostAddress(ip, 8080));
+    }
+
+    private static ManagementVips vips(ManagementVip... vips) {
+        return new ManagementVips(ManagementVipType.COMPLETE, Lists.newArrayList(vips));
+    }
+
+    private static ManagementVip vip(String artifactId, String... ips) {
+        List<ManagementPoolMember> members = Lists.newArrayList();
+        for (String ip : ips) {
+            members.add(new ManagementPoolMember(ACTIVE, new HostAddress(ip, 8080)));
+        }
+        return new ManagementVip(ACTIVE, new MavenModule("com.edmunds", artifactId, "1.0"),
+            new HostAddress("10.1.0.1", 80), members, "/" + artifactId, Lists.newArrayList("/" + artifactId + "/**"),
+            null);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.loadbalancer.impl;
+
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSet;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerChangeSetResult;
+import com.edmunds.etm.loadbalancer.api.LoadBalancerConnection;
+import com.edmunds.etm.loadbalancer.api.PoolMember;
+import com.edmunds.etm.loadbalancer.api.PoolMemberExistsException;
+import com.edmunds.etm.loadbalancer.api.PoolMemberNotFoundException;
+import com.edmunds.etm.loadbalancer.api.VirtualServer;
+import com.edmunds.etm.loadbalancer.api.VirtualServerConfig;
+import com.edmunds.etm.loadbalancer.api.VirtualServerExistsException;
+import com.edmunds.etm.loadbalancer.api.VirtualServerNotFoundException;
+import com.edmunds.etm.management.api.HostAddress;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test
+public class LoadBalancerSimulatorTest {
+
+    private LoadBalancerSimulator simulator;
+    private LoadBalancerConnection connection;
+    private VirtualServer server;
+    private PoolMember member;
+
+    @BeforeMethod
+    public void setUp() {
+        simulator = new LoadBalancerSimulator(new TestLoadBalancerConfig());
+        connection = simulator.newConnection();
+        server = new VirtualServer("crr", null);
+        member = new PoolMember(new HostAddress("10.0.0.1", 8080));
+    }
+
+    public void testCreateAndModify() throws Exception {
+        HostAddress address = connection.createVirtualServer(server, new VirtualServerConfig(80), null);
+        assertEquals(address, new HostAddress("1.2.3.4", 80));
+
+        connection.addPoolMember("crr", member);
+        VirtualServer copy = simulator.newConnection().getVirtualServer("crr");
+        assertEquals(copy.getPoolMembers().size(), 1);
+
+        // Copies do not change the device
+        copy.removePoolMember(member);
+        assertEquals(connection.getVirtualServer("crr").getPoolSize(), 1);
+
+        connection.removePoolMember("crr", member);
+        connection.deleteVirtualServer(server);
+        assertFalse(connection.isVirtualServerDefined("crr"));
+        assertEquals(connection.createVirtualServer(server, null, null).getPort(), 7000);
+    }
+
+    @Test(expectedExceptions = VirtualServerExistsException.class)
+    public void testCreateDuplicate() throws Exception {
+        connection.createVirtualServer(server, null, null);
+        connection.createVirtualServer(server, null, null);
+    }
+
+    @Test(expectedExceptions = VirtualServerNotFoundException.class)
+    public void testDeleteMissing() throws Exception {
+        connection.deleteVirtualServer(server);
+    }
+
+    @Test(expectedExceptions = PoolMemberExistsException.class)
+    public void testAddDuplicateMember() throws Exception {
+        connection.createVirtualServer(server, null, null);
+        connection.addPoolMember("crr", member);
+        connection.addPoolMember("crr", member);
+    }
+
+    @Test(expectedExceptions = PoolMemberNotFoundException.class)
+    public void testRemoveMissingMember() throws Exception {
+        connection.createVirtualServer(server, null, null);
+        connection.removePoolMember("crr", member);
+    }
+
+    public void testInjectedFailure() throws Exception {
+        simulator.injectFailure("addPoolMember", new RemoteException("down"));
+        connection.createVirtualServer(server, null, null);
+        try {
+            connection.addPoolMember("crr", member);
+            fail("Expected RemoteException");
+        } catch (RemoteException e) {
+            assertEquals(e.getMessage(), "down");
+        }
+        connection.addPoolMember("crr", member);
+        assertEquals(simulator.getCallCount("addPoolMember"), 2);
+        assertEquals(simulator.getTotalCallCount(), 3);
+    }
+
+    public void testChangeSetIsOneRoundTrip() throws Exception {
+        LoadBalancerChangeSet changeSet = new LoadBalancerChangeSet()
+            .createVirtualServer(server, null, null)
+            .addPoolMember("crr", member)
+            .addPoolMember("crr", member);
+
+        LoadBalancerChangeSetResult result = changeSet.execute(connection);
+        assertEquals(simulator.getTotalCallCount(), 1);
+        assertTrue(result.getResults().get(1).isSuccess());
+        assertTrue(result.getResults().get(2).getError() instanceof PoolMemberExistsException);
+        assertEquals(connection.getVirtualServer("crr").getPoolSize(), 1);
+    }
+
+    public void testThroughputLimit() throws Exception {
+        simulator.setMaxCallsPerSecond(100);
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            connection.isVirtualServerDefined("crr");
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    public void testLatency() throws Exception {
+        simulator.setLatency(20, 20, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        connection.saveConfiguration();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(simulator.getSaveCount(), 1);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+import com.edmunds.etm.common.util.HostResolver;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+
+@Test
+public class HostAddressTest {
+
+    public void testIpAddressLiteral() {
+        assertEquals(new HostAddress("10.0.0.1", 80).getIpAddress(), "10.0.0.1");
+    }
+
+    public void testFirstCallForResolvableNameIsNotNull() throws Exception {
+        HostResolver.getDefault().clear();
+        HostAddress address = new HostAddress("localhost", 80);
+
+        // Before the lookup completes the host itself is returned, never null.
+        String ipAddress = address.getIpAddress();
+        assertNotNull(ipAddress);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (address.getIpAddress().equals("localhost") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(address.getIpAddress().equals("localhost"));
+    }
+}
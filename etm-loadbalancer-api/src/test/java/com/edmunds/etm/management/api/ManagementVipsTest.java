@@ -0,0 +1,321 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.ACTIVE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class ManagementVipsTest {
+
+    public void testVipsAreSortedByMavenModule() {
+        ManagementVips vips = vips(vip("c"), vip("a"), vip("b"));
+
+        List<String> artifactIds = Lists.newArrayList();
+        for (ManagementVip vip : vips.getVips()) {
+            artifactIds.add(vip.getMavenModule().getArtifactId());
+        }
+        assertEquals(artifactIds, Lists.newArrayList("a", "b", "c"));
+        assertEquals(vips.getVips().size(), 3);
+        assertEquals(vips.getVip(module("b")), vip("b"));
+        assertNull(vips.getVip(module("d")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateMavenModuleRejected() {
+        vips(vip("a", "10.0.0.1"), vip("a", "10.0.0.2"));
+    }
+
+    public void testHashCodeMatchesMapHashCode() {
+        ManagementVips vips = vips(vip("a", "10.0.0.1"), vip("b"), vip("c", "10.0.0.2", "10.0.0.3"));
+
+        Map<MavenModule, ManagementVip> map = Maps.newHashMap();
+        for (ManagementVip vip : vips.getVips()) {
+            map.put(vip.getMavenModule(), vip);
+        }
+        assertEquals(vips.hashCode(), new HashCodeBuilder().append(map).toHashCode());
+    }
+
+    public void testWithVipSharesUnchangedInstance() {
+        ManagementVips vips = vips(vip("a"), vip("b"));
+
+        assertSame(vips.withVip(vip("a")), vips);
+        assertSame(vips.withoutVip(module("x")), vips);
+
+        ManagementVips replaced = vips.withVip(vip("a", "10.0.0.1"));
+        assertEquals(replaced.size(), 2);
+        assertEquals(replaced.getVip(module("a")), vip("a", "10.0.0.1"));
+        assertEquals(vips.getVip(module("a")), vip("a"));
+        assertFalse(replaced.equals(vips));
+    }
+
+    public void testAddAllAndRemoveAll() {
+        ManagementVips vips = vips(vip("a"), vip("b"));
+
+        ManagementVips added = vips.addAll(Lists.newArrayList(vip("b"), vip("c")));
+        assertEquals(added, vips(vip("a"), vip("b"), vip("c")));
+
+        // Only equal vips are removed.
+        ManagementVips removed = added.removeAll(Lists.newArrayList(vip("a", "10.0.0.1"), vip("c")));
+        assertEquals(removed, vips);
+        assertEquals(removed.hashCode(), vips.hashCode());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAddAllConflictingVipRejected() {
+        vips(vip("a")).addAll(Collections.singletonList(vip("a", "10.0.0.1")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWithVipIncompatibleTypeRejected() {
+        ManagementVip mavenOnly = new ManagementVip(ACTIVE, module("a"), null,
+            Collections.<ManagementPoolMember>emptyList(), "/a", Lists.newArrayList("/a/**"), null);
+        ManagementVips.EMPTY_INSTANCE.withVip(mavenOnly);
+    }
+
+    public void testIncrementalUpdatesMatchRebuild() {
+        Random random = new Random(21);
+        Map<String, ManagementVip> expected = Maps.newHashMap();
+        ManagementVips vips = ManagementVips.EMPTY_INSTANCE;
+
+        for (int i = 0; i < 2000; i++) {
+            String artifactId = "app" + random.nextInt(200);
+            if (random.nextInt(3) == 0) {
+                expected.remove(artifactId);
+                vips = vips.withoutVip(module(artifactId));
+            } else {
+                ManagementVip vip = vip(artifactId, "10.0.0." + random.nextInt(5));
+                expected.put(artifactId, vip);
+                vips = vips.withVip(vip);
+            }
+        }
+
+        ManagementVips rebuilt = new ManagementVips(ManagementVipType.COMPLETE, expected.values());
+        assertEquals(vips, rebuilt);
+        assertEquals(vips.hashCode(), rebuilt.hashCode());
+        assertEquals(Lists.newArrayList(vips.getVips()), Lists.newArrayList(rebuilt.getVips()));
+    }
+
+    public void testFingerprintTracksContent() {
+        ManagementVips vips = vips(vip("a", "10.0.0.1"), vip("b", "10.0.0.2"));
+
+        assertEquals(vips(vip("b", "10.0.0.2"), vip("a", "10.0.0.1")).getFingerprint(), vips.getFingerprint());
+        assertEquals(ManagementVips.EMPTY_INSTANCE.getFingerprint(), 0L);
+
+        ManagementVips changed = vips.withVip(vip("b", "10.0.0.3"));
+        assertFalse(changed.getFingerprint() == vips.getFingerprint());
+        assertEquals(changed.withVip(vip("b", "10.0.0.2")).getFingerprint(), vips.getFingerprint());
+        assertEquals(vips.withoutVip(module("a")).withoutVip(module("b")).getFingerprint(), 0L);
+        assertEquals(vips.removeAll(vips.getVips()).getFingerprint(), 0L);
+        assertEquals(ManagementVips.EMPTY_INSTANCE.addAll(vips.getVips()).getFingerprint(), vips.getFingerprint());
+    }
+
+    public void testVipFingerprint() {
+        ManagementVip vip = vip("a", "10.0.0.1", "10.0.0.2");
+
+        assertEquals(vip("a", "10.0.0.2", "10.0.0.1").getFingerprint(), vip.getFingerprint());
+        assertEquals(vip("a", "10.0.0.2", "10.0.0.1").hashCode(), vip.hashCode());
+        assertFalse(vip("a", "10.0.0.1").getFingerprint() == vip.getFingerprint());
+        assertFalse(vip("b", "10.0.0.1", "10.0.0.2").getFingerprint() == vip.getFingerprint());
+
+        // The vip state changes the fingerprint but not the host fingerprint.
+        ManagementVip deleted = vip.withLoadBalancerState(ManagementLoadBalancerState.DELETE_REQUEST);
+        assertFalse(deleted.getFingerprint() == vip.getFingerprint());
+        assertFalse(deleted.equals(vip));
+        assertEquals(deleted.getPoolMemberHostsFingerprint(), vip.getPoolMemberHostsFingerprint());
+        assertEquals(deleted.withLoadBalancerState(ACTIVE).getFingerprint(), vip.getFingerprint());
+
+        // Member states change the fingerprint but not the host fingerprint.
+        ManagementVip inactiveMember = new ManagementVip(ACTIVE, module("a"), new HostAddress("10.1.0.1", 80),
+            Lists.newArrayList(new ManagementPoolMember(ACTIVE, new HostAddress("10.0.0.1", 8080)),
+                new ManagementPoolMember(ManagementLoadBalancerState.CREATE_REQUEST,
+                    new HostAddress("10.0.0.2", 8080))),
+            "/a", Lists.newArrayList("/a/**"), null);
+        assertFalse(inactiveMember.getFingerprint() == vip.getFingerprint());
+        assertEquals(inactiveMember.getPoolMemberHostsFingerprint(), vip.getPoolMemberHostsFingerprint());
+    }
+
+    public void testTreeStaysBalanced() {
+        PersistentSortedMap<Integer, Integer> map = PersistentSortedMap.empty();
+        for (int i = 0; i < 1024; i++) {
+            map = map.put(i, i, i);
+        }
+        assertEquals(map.size(), 1024);
+        assertTrue(map.height() <= 15, "height " + map.height());
+
+        for (int i = 0; i < 1024; i += 2) {
+            map = map.remove(i);
+        }
+        assertEquals(map.size(), 512);
+        assertTrue(map.height() <= 14, "height " + map.height());
+
+        int expected = 1;
+        for (Map.Entry<Integer, Integer> entry : map) {
+            assertEquals(entry.getKey().intValue(), expected);
+            expected += 2;
+        }
+    }
+
+    public void testTreeFingerprintMatchesRebuild() {
+        Random random = new Random(22);
+        Map<Integer, Integer> expected = Maps.newTreeMap();
+        PersistentSortedMap<Integer, Integer> map = PersistentSortedMap.empty();
+
+        for (int i = 0; i < 2000; i++) {
+            Integer key = random.nextInt(300);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                Integer value = random.nextInt(10);
+                expected.put(key, value);
+                map = map.put(key, value, fingerprint(key, value));
+            }
+        }
+
+        List<Integer> keys = Lists.newArrayList(expected.keySet());
+        List<Integer> values = Lists.newArrayList();
+        List<Long> fingerprints = Lists.newArrayList();
+        long sum = 0;
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            long fp = fingerprint(entry.getKey(), entry.getValue());
+            values.add(entry.getValue());
+            fingerprints.add(fp);
+            sum += fp;
+        }
+        assertEquals(map.fingerprint(), sum);
+        assertEquals(PersistentSortedMap.fromSorted(keys, values, fingerprints).fingerprint(), sum);
+        assertEquals(PersistentSortedMap.<Integer, Integer>empty().fingerprint(), 0L);
+    }
+
+    public void testDiffMatchesMerge() {
+        Random random = new Random(23);
+        PersistentSortedMap<Integer, Integer> map = PersistentSortedMap.empty();
+        for (int i = 0; i < 500; i++) {
+            map = map.put(i, i, i);
+        }
+
+        for (int round = 0; round < 200; round++) {
+            PersistentSortedMap<Integer, Integer> next = map;
+            int edits = random.nextInt(round % 10 == 0 ? 200 : 5);
+            for (int i = 0; i < edits; i++) {
+                Integer key = random.nextInt(600);
+                if (random.nextBoolean()) {
+                    next = next.remove(key);
+                } else {
+                    Integer value = random.nextInt(1000);
+                    next = next.put(key, value, value);
+                }
+            }
+
+            assertEquals(diff(map, next), mergeDiff(map, next));
+            assertEquals(diff(next, map), mergeDiff(next, map));
+            map = next;
+        }
+        assertTrue(diff(map, map).isEmpty());
+    }
+
+    public void testDiffReportsOnlyChangedVips() {
+        ManagementVips vips = ManagementVips.EMPTY_INSTANCE;
+        for (int i = 0; i < 100; i++) {
+            vips = vips.withVip(vip("app" + i, "10.0.0.1"));
+        }
+        ManagementVips changed = vips.withVip(vip("app42", "10.0.0.2")).withoutVip(module("app7"))
+            .withVip(vip("new", "10.0.0.1"));
+
+        final List<String> visited = Lists.newArrayList();
+        vips.diff(changed, new PersistentSortedMap.DiffVisitor<MavenModule, ManagementVip>() {
+            @Override
+            public void visit(MavenModule key, ManagementVip oldVip, ManagementVip newVip) {
+                visited.add(key.getArtifactId() + ":" + (oldVip != null) + ":" + (newVip != null));
+            }
+        });
+        assertEquals(visited, Lists.newArrayList("app42:true:true", "app7:true:false", "new:false:true"));
+    }
+
+    private static List<String> diff(PersistentSortedMap<Integer, Integer> oldMap,
+                                     PersistentSortedMap<Integer, Integer> newMap) {
+        final List<String> changes = Lists.newArrayList();
+        oldMap.diff(newMap, new PersistentSortedMap.DiffVisitor<Integer, Integer>() {
+            @Override
+            public void visit(Integer key, Integer oldValue, Integer newValue) {
+                changes.add(key + ":" + oldValue + "->" + newValue);
+            }
+        });
+        return changes;
+    }
+
+    private static List<String> mergeDiff(PersistentSortedMap<Integer, Integer> oldMap,
+                                          PersistentSortedMap<Integer, Integer> newMap) {
+        Map<Integer, Integer> oldEntries = Maps.newTreeMap();
+        for (Map.Entry<Integer, Integer> entry : oldMap) {
+            oldEntries.put(entry.getKey(), entry.getValue());
+        }
+        Map<Integer, Integer> newEntries = Maps.newTreeMap();
+        for (Map.Entry<Integer, Integer> entry : newMap) {
+            newEntries.put(entry.getKey(), entry.getValue());
+        }
+
+        Map<Integer, String> changes = Maps.newTreeMap();
+        for (Map.Entry<Integer, Integer> entry : oldEntries.entrySet()) {
+            Integer newValue = newEntries.get(entry.getKey());
+            if (newValue != entry.getValue()) {
+                changes.put(entry.getKey(), entry.getKey() + ":" + entry.getValue() + "->" + newValue);
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : newEntries.entrySet()) {
+            if (!oldEntries.containsKey(entry.getKey())) {
+                changes.put(entry.getKey(), entry.getKey() + ":null->" + entry.getValue());
+            }
+        }
+        return Lists.newArrayList(changes.values());
+    }
+
+    private static long fingerprint(Integer key, Integer value) {
+        return Fingerprints.setElement(Fingerprints.add(key, value));
+    }
+
+    private static ManagementVips vips(ManagementVip... vips) {
+        return new ManagementVips(ManagementVipType.COMPLETE, Lists.newArrayList(vips));
+    }
+
+    private static ManagementVip vip(String artifactId, String... ips) {
+        List<ManagementPoolMember> members = Lists.newArrayList();
+        for (String ip : ips) {
+            members.add(new ManagementPoolMember(ACTIVE, new HostAddress(ip, 8080)));
+        }
+        return new ManagementVip(ACTIVE, module(artifactId), new HostAddress("10.1.0.1", 80), members,
+            "/" + artifactId, Lists.newArrayList("/" + artifactId + "/**"), null);
+    }
+
+    private static MavenModule module(String artifactId) {
+        return new MavenModule("com.edmunds", artifactId, "1.0");
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.api;
+
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.ACTIVE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test
+public class VipChangeSetTest {
+
+    public void testBetweenHoldsOnlyChanges() {
+        ManagementVips oldVips = vips(vip("a", "10.0.0.1"), vip("b", "10.0.0.1", "10.0.0.2"), vip("c"));
+        ManagementVips newVips = vips(vip("b", "10.0.0.2", "10.0.0.3"), vip("c"), vip("d", "10.0.0.4"));
+
+        VipChangeSet changeSet = VipChangeSet.between(oldVips, newVips);
+        assertEquals(changeSet.size(), 3);
+        assertNull(changeSet.getChange(module("c")));
+
+        VipChange delete = changeSet.getChange(module("a"));
+        assertEquals(delete.getType(), VipChange.Type.DELETE);
+        assertEquals(delete.getRemovedMembers(), Lists.newArrayList(address("10.0.0.1")));
+
+        VipChange update = changeSet.getChange(module("b"));
+        assertEquals(update.getType(), VipChange.Type.UPDATE);
+        assertEquals(update.getAddedMembers(), Lists.newArrayList(address("10.0.0.3")));
+        assertEquals(update.getRemovedMembers(), Lists.newArrayList(address("10.0.0.1")));
+        assertFalse(update.hasAttributeChanges());
+
+        VipChange create = changeSet.getChange(module("d"));
+        assertEquals(create.getType(), VipChange.Type.CREATE);
+        assertEquals(create.getNewVip(), vip("d", "10.0.0.4"));
+
+        assertEquals(changeSet.getChanges(VipChange.Type.UPDATE), Lists.newArrayList(update));
+    }
+
+    public void testAttributeOnlyUpdate() {
+        ManagementVip oldVip = vip("a", "10.0.0.1");
+        ManagementVip newVip = new ManagementVip(ACTIVE, module("a"), new HostAddress("10.1.0.2", 80),
+            Lists.newArrayList(new ManagementPoolMember(ACTIVE, address("10.0.0.1"))), "/a",
+            Lists.newArrayList("/a/**"), null);
+
+        VipChange change = VipChange.between(oldVip, newVip);
+        assertEquals(change.getType(), VipChange.Type.UPDATE);
+        assertTrue(change.getAddedMembers().isEmpty());
+        assertTrue(change.getRemovedMembers().isEmpty());
+        assertTrue(change.hasAttributeChanges());
+        assertNull(VipChange.between(oldVip, vip("a", "10.0.0.1")));
+    }
+
+    public void testEqualSnapshots() {
+        ManagementVips vips = vips(vip("a", "10.0.0.1"));
+        assertSame(VipChangeSet.between(vips, vips(vip("a", "10.0.0.1"))), VipChangeSet.EMPTY);
+        assertSame(VipChangeSet.EMPTY.apply(vips), vips);
+    }
+
+    public void testApplyProducesNewSnapshot() {
+        ManagementVips oldVips = vips(vip("a", "10.0.0.1"), vip("b", "10.0.0.1", "10.0.0.2"), vip("c"));
+        ManagementVips newVips = vips(vip("b", "10.0.0.2", "10.0.0.3"), vip("c"), vip("d", "10.0.0.4"));
+
+        ManagementVips applied = VipChangeSet.between(oldVips, newVips).apply(oldVips);
+        assertEquals(applied, newVips);
+        assertSame(applied.getVip(module("c")), oldVips.getVip(module("c")));
+        assertEquals(VipChangeSet.between(null, newVips).apply(ManagementVips.EMPTY_INSTANCE), newVips);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testApplyToWrongBaseRejected() {
+        ManagementVips oldVips = vips(vip("a", "10.0.0.1"));
+        VipChangeSet changeSet = VipChangeSet.between(oldVips, vips(vip("a", "10.0.0.2")));
+        changeSet.apply(vips(vip("a", "10.0.0.3")));
+    }
+
+    public void testMergeCoalesces() {
+        ManagementVips v1 = vips(vip("a", "10.0.0.1"), vip("b"));
+        ManagementVips v2 = vips(vip("a", "10.0.0.2"), vip("c", "10.0.0.1"));
+        ManagementVips v3 = vips(vip("a", "10.0.0.1"), vip("b", "10.0.0.5"));
+
+        VipChangeSet merged = VipChangeSet.between(v1, v2).merge(VipChangeSet.between(v2, v3));
+        assertEquals(merged, VipChangeSet.between(v1, v3));
+
+        // a went back to its original members and c was created then deleted.
+        assertNull(merged.getChange(module("a")));
+        assertNull(merged.getChange(module("c")));
+        assertEquals(merged.size(), 1);
+        assertEquals(merged.apply(v1), v3);
+    }
+
+    public void testMergeNotSuccessiveRejected() {
+        ManagementVips v1 = vips(vip("a", "10.0.0.1"));
+        ManagementVips v2 = vips(vip("a", "10.0.0.2"));
+        try {
+            VipChangeSet.between(v1, v2).merge(VipChangeSet.between(v1, v2));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testRandomSequencesMergeAndApply() {
+        Random random = new Random(23);
+        ManagementVips first = randomVips(random);
+        ManagementVips current = first;
+        VipChangeSet merged = VipChangeSet.EMPTY;
+
+        for (int i = 0; i < 20; i++) {
+            ManagementVips next = randomVips(random);
+            VipChangeSet changeSet = VipChangeSet.between(current, next);
+            assertEquals(changeSet.apply(current), next);
+            merged = merged.merge(changeSet);
+            current = next;
+        }
+        assertEquals(merged, VipChangeSet.between(first, current));
+        assertEquals(merged.apply(first), current);
+    }
+
+    private static ManagementVips randomVips(Random random) {
+        List<ManagementVip> vips = Lists.newArrayList();
+        for (int i = 0; i < 30; i++) {
+            if (random.nextInt(3) == 0) {
+                continue;
+            }
+            vips.add(vip("app" + i, "10.0.0." + random.nextInt(3), "10.0.1." + random.nextInt(3)));
+        }
+        return new ManagementVips(ManagementVipType.COMPLETE, vips);
+    }
+
+    private static ManagementVips vips(ManagementVip... vips) {
+        return new ManagementVips(ManagementVipType.COMPLETE, Lists.newArrayList(vips));
+    }
+
+    private static ManagementVip vip(String artifactId, String... ips) {
+        List<ManagementPoolMember> members = Lists.newArrayList();
+        for (String ip : ips) {
+            members.add(new ManagementPoolMember(ACTIVE, address(ip)));
+        }
+        return new ManagementVip(ACTIVE, module(artifactId), new HostAddress("10.1.0.1", 80), members,
+            "/" + artifactId, Lists.newArrayList("/" + artifactId + "/**"), null);
+    }
+
+    private static HostAddress address(String ip) {
+        return new HostAddress(ip, 8080);
+    }
+
+    private static MavenModule module(String artifactId) {
+        return new MavenModule("com.edmunds", artifactId, "1.0");
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests {@link DnsResolver} against an in-memory name table instead of the system resolver.
+ */
+@Test
+public class DnsResolverTest {
+
+    private ExecutorService executor;
+    private FakeResolver resolver;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        resolver = new FakeResolver(executor);
+        resolver.setBackoff(10, 40);
+        resolver.setTimeout(2000);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testStopsRetryingOnSuccess() throws Exception {
+        resolver.define("web1", "10.0.0.1");
+        resolver.failures.put("web1", new AtomicInteger(2));
+
+        DnsLookupResult result = resolver.resolve("web1");
+        assertTrue(result.isResolved());
+        assertEquals(result.getAttempts(), 3);
+        assertEquals(resolver.lookupCount("web1"), 3);
+    }
+
+    public void testGivesUpAfterMaxAttempts() {
+        resolver.setMaxAttempts(3);
+        DnsLookupResult result = resolver.resolve("missing");
+        assertFalse(result.isResolved());
+        assertFalse(result.isTimedOut());
+        assertEquals(result.getAttempts(), 3);
+    }
+
+    public void testBackoffRespectsDeadline() {
+        resolver.setMaxAttempts(100);
+        resolver.setBackoff(100, 100);
+        resolver.setTimeout(250);
+
+        long start = System.currentTimeMillis();
+        DnsLookupResult result = resolver.resolve("missing");
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(result.isTimedOut());
+        assertTrue(result.getAttempts() < 10);
+    }
+
+    public void testResultsInCompletionOrder() throws Exception {
+        resolver.define("slow", "10.0.0.1");
+        resolver.define("fast", "10.0.0.2");
+        resolver.blocked.put("slow", new CountDownLatch(1));
+
+        final List<String> order = Lists.newArrayList();
+        List<DnsLookupResult> results = resolver.resolve(Arrays.asList("slow", "fast", " fast ", ""),
+            new DnsLookupListener() {
+                @Override
+                public void lookupCompleted(DnsLookupResult result) {
+                    order.add(result.getHost());
+                    if ("fast".equals(result.getHost())) {
+                        resolver.blocked.get("slow").countDown();
+                    }
+                }
+            });
+
+        assertEquals(order, Arrays.asList("fast", "slow"));
+        assertEquals(results.size(), 2);
+        assertTrue(results.get(1).isResolved());
+    }
+
+    public void testHungLookupTimesOut() throws Exception {
+        resolver.define("hung", "10.0.0.1");
+        resolver.define("ok", "10.0.0.2");
+        resolver.blocked.put("hung", new CountDownLatch(1));
+        resolver.setTimeout(200);
+
+        long start = System.currentTimeMillis();
+        List<DnsLookupResult> results = resolver.resolve(Arrays.asList("hung", "ok"), null);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        assertEquals(results.get(0).getHost(), "ok");
+        assertTrue(results.get(0).isResolved());
+        assertEquals(results.get(1).getHost(), "hung");
+        assertTrue(results.get(1).isTimedOut());
+    }
+
+    public void testFullLookupPoolRunsLookupsOnCaller() throws Exception {
+        ExecutorService pool = DnsUtils.createExecutor(1, 1);
+        try {
+            FakeResolver small = new FakeResolver(pool);
+            List<String> hosts = Lists.newArrayList();
+            for (int i = 0; i < 10; i++) {
+                small.define("web" + i, "10.0.0." + i);
+                hosts.add("web" + i);
+            }
+
+            List<DnsLookupResult> results = small.resolve(hosts, null);
+            assertEquals(results.size(), 10);
+            for (DnsLookupResult result : results) {
+                assertTrue(result.isResolved(), result.getHost());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static class FakeResolver extends DnsResolver {
+        private final Map<String, InetAddress> names = Maps.newHashMap();
+        private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<String, AtomicInteger>();
+        private final Map<String, CountDownLatch> blocked = new ConcurrentHashMap<String, CountDownLatch>();
+        private final Map<String, AtomicInteger> lookups = new ConcurrentHashMap<String, AtomicInteger>();
+
+        FakeResolver(ExecutorService executor) {
+            super(executor);
+        }
+
+        void define(String host, String ip) throws UnknownHostException {
+            names.put(host, InetAddress.getByName(ip));
+        }
+
+        int lookupCount(String host) {
+            return lookups.get(host).get();
+        }
+
+        @Override
+        protected InetAddress[] lookup(String host) throws UnknownHostException {
+            AtomicInteger count = lookups.get(host);
+            if (count == null) {
+                lookups.put(host, new AtomicInteger());
+                count = lookups.get(host);
+            }
+            count.incrementAndGet();
+
+            CountDownLatch latch = blocked.get(host);
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new UnknownHostException(host);
+                }
+            }
+            AtomicInteger remainingFailures = failures.get(host);
+            if (remainingFailures != null && remainingFailures.getAndDecrement() > 0) {
+                throw new UnknownHostException(host);
+            }
+            InetAddress address = names.get(host);
+            if (address == null) {
+                throw new UnknownHostException(host);
+            }
+            return new InetAddress[] {address};
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.common.impl.ObjectSerializer;
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.ManagementPoolMember;
+import com.edmunds.etm.management.api.ManagementVip;
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.MavenModule;
+import com.edmunds.zookeeper.treewatcher.ZooKeeperTreeNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.ACTIVE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class IncrementalVipsBuilderTest {
+
+    private static final MavenModule CRR = new MavenModule("com.edmunds", "crr", "1.0");
+    private static final MavenModule DRR = new MavenModule("com.edmunds", "drr", "1.0");
+
+    private ObjectSerializer objectSerializer;
+    private IncrementalVipsBuilder builder;
+
+    @BeforeMethod
+    public void setUp() {
+        objectSerializer = new ObjectSerializer();
+        builder = new IncrementalVipsBuilder(objectSerializer);
+    }
+
+    public void testNodeChangedDecodesOnlyNewVersions() throws Exception {
+        assertTrue(builder.nodeChanged("/vips/crr", 10, data(CRR, "10.0.0.1")));
+        assertTrue(builder.nodeChanged("/vips/drr", 11, data(DRR, "10.0.0.2")));
+        ManagementVips vips = builder.getVips();
+        assertEquals(vips.getVips().size(), 2);
+        assertEquals(builder.getDecodeCount(), 2);
+
+        // Same mzxid is not decoded again and the snapshot is reused
+        assertFalse(builder.nodeChanged("/vips/crr", 10, data(CRR, "10.0.0.1")));
+        assertSame(builder.getVips(), vips);
+        assertEquals(builder.getDecodeCount(), 2);
+
+        assertTrue(builder.nodeChanged("/vips/crr", 12, data(CRR, "10.0.0.1", "10.0.0.3")));
+        assertEquals(builder.getVips().getVip(CRR).getPoolMembers().size(), 2);
+        assertEquals(builder.getDecodeCount(), 3);
+    }
+
+    public void testNodeDeleted() throws Exception {
+        builder.nodeChanged("/vips/crr", 10, data(CRR, "10.0.0.1"));
+        builder.nodeChanged("/vips/drr", 11, data(DRR, "10.0.0.2"));
+
+        assertTrue(builder.nodeDeleted("/vips/crr"));
+        assertFalse(builder.nodeDeleted("/vips/crr"));
+        assertEquals(builder.getVips().getVips().size(), 1);
+        assertNotNull(builder.getVips().getVip(DRR));
+    }
+
+    public void testUnreadableNodeIsSkipped() throws Exception {
+        builder.nodeChanged("/vips/crr", 10, data(CRR, "10.0.0.1"));
+        builder.nodeChanged("/vips/bad", 11, new byte[] {(byte) 0xE7, 1, 99});
+        assertEquals(builder.getVips().getVips().size(), 1);
+    }
+
+    public void testDuplicateMavenModuleRestoresSurvivor() throws Exception {
+        builder.nodeChanged("/vips/crr-a", 10, data(CRR, "10.0.0.1"));
+        builder.nodeChanged("/vips/crr-b", 11, data(CRR, "10.0.0.2"));
+        assertTrue(builder.getVips().getVip(CRR).getPoolMembers().containsKey(new HostAddress("10.0.0.2", 8080)));
+
+        // Removing the node that provides the vip restores the other one
+        assertTrue(builder.nodeDeleted("/vips/crr-b"));
+        assertTrue(builder.getVips().getVip(CRR).getPoolMembers().containsKey(new HostAddress("10.0.0.1", 8080)));
+
+        // Removing the node that does not provide the vip leaves it in place
+        builder.nodeChanged("/vips/crr-b", 12, data(CRR, "10.0.0.2"));
+        assertTrue(builder.nodeDeleted("/vips/crr-a"));
+        assertTrue(builder.getVips().getVip(CRR).getPoolMembers().containsKey(new HostAddress("10.0.0.2", 8080)));
+
+        // A node that moves to another maven module releases the old one
+        builder.nodeChanged("/vips/crr-a", 13, data(CRR, "10.0.0.1"));
+        builder.nodeChanged("/vips/crr-a", 14, data(DRR, "10.0.0.3"));
+        assertTrue(builder.getVips().getVip(CRR).getPoolMembers().containsKey(new HostAddress("10.0.0.2", 8080)));
+        assertNotNull(builder.getVips().getVip(DRR));
+
+        assertTrue(builder.nodeDeleted("/vips/crr-b"));
+        assertNull(builder.getVips().getVip(CRR));
+        assertEquals(builder.getVips().getVips().size(), 1);
+    }
+
+    public void testUpdateFromTree() throws Exception {
+        Map<String, ZooKeeperTreeNode> children = Maps.newHashMap();
+        children.put("crr", new ZooKeeperTreeNode("/vips/crr", data(CRR, "10.0.0.1"),
+            Collections.<String, ZooKeeperTreeNode>emptyMap()));
+        children.put("drr", new ZooKeeperTreeNode("/vips/drr", data(DRR, "10.0.0.2"),
+            Collections.<String, ZooKeeperTreeNode>emptyMap()));
+        ManagementVips vips = builder.update(new ZooKeeperTreeNode("/vips", new byte[0], children));
+        assertEquals(vips.getVips().size(), 2);
+        assertEquals(builder.getDecodeCount(), 2);
+
+        // Unchanged data is not decoded again
+        Map<String, ZooKeeperTreeNode> copy = Maps.newHashMap(children);
+        assertSame(builder.update(new ZooKeeperTreeNode("/vips", new byte[0], copy)), vips);
+        assertEquals(builder.getDecodeCount(), 2);
+
+        copy.remove("drr");
+        copy.put("crr", new ZooKeeperTreeNode("/vips/crr", data(CRR, "10.0.0.5"),
+            Collections.<String, ZooKeeperTreeNode>emptyMap()));
+        vips = builder.update(new ZooKeeperTreeNode("/vips", new byte[0], copy));
+        assertEquals(vips.getVips().size(), 1);
+        assertTrue(vips.getVip(CRR).getPoolMembers().containsKey(new HostAddress("10.0.0.5", 8080)));
+        assertEquals(builder.getDecodeCount(), 3);
+    }
+
+    private byte[] data(MavenModule module, String... memberIps) throws Exception {
+        ManagementVip vip = new ManagementVip(ACTIVE, module, new HostAddress("10.1.0.1", 80),
+            members(memberIps), "/" + module.getArtifactId(), Lists.newArrayList("/" + module.getArtifactId() + "/**"),
+            null);
+        return objectSerializer.writeValue(ManagementVip.writeDto(vip));
+    }
+
+    private static List<ManagementPoolMember> members(String... ips) {
+        List<ManagementPoolMember> members = Lists.newArrayList();
+        for (String ip : ips) {
+            members.add(new ManagementPoolMember(ACTIVE, new HostAddress(ip, 8080)));
+        }
+        return members;
+    }
+}
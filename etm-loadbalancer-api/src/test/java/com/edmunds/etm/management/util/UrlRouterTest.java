@@ -0,0 +1,171 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.common.api.FixedUrlToken;
+import com.edmunds.etm.common.api.RegexUrlToken;
+import com.edmunds.etm.common.api.UrlToken;
+import com.edmunds.etm.management.api.ManagementPoolMember;
+import com.edmunds.etm.management.api.ManagementVip;
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.MavenModule;
+import com.google.common.collect.Lists;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.ACTIVE;
+import static com.edmunds.etm.management.api.ManagementVipType.MAVEN_ONLY;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+@Test
+public class UrlRouterTest {
+
+    private static final MavenModule CRR = new MavenModule("com.edmunds", "crr", "1.0");
+    private static final MavenModule DRR = new MavenModule("com.edmunds", "drr", "1.0");
+    private static final MavenModule SITE = new MavenModule("com.edmunds", "site", "1.0");
+
+    private UrlRouterBuilder builder;
+
+    @BeforeMethod
+    public void setUp() {
+        List<UrlToken> tokens = Lists.newArrayList();
+        tokens.add(new FixedUrlToken("make", "ford", "honda", "toyota"));
+        tokens.add(new FixedUrlToken("model", "accord", "civic", "focus"));
+        tokens.add(new RegexUrlToken("year", "(19|20)\\d{2}"));
+        tokens.add(new RegexUrlToken("zipcode", "\\d{5}(?=x)"));
+        builder = new UrlRouterBuilder(tokens);
+    }
+
+    public void testLiteralAndTokenRules() {
+        UrlRouter router = builder.build(vips(
+            vip(CRR, "/[make]/[model]/[year]/review.html", "/[make]/[model]/"),
+            vip(DRR, "/dealers/[make]/*")));
+
+        assertEquals(router.route("/honda/civic/2010/review.html"), CRR);
+        assertEquals(router.route("/ford/focus/"), CRR);
+        assertEquals(router.route("/dealers/toyota/anything.html"), DRR);
+        assertNull(router.route("/dealers/toyota/sub/dir.html"));
+        assertNull(router.route("/bmw/x5/"));
+        assertNull(router.route("/honda/civic/1899/review.html"));
+        assertNull(router.route(""));
+    }
+
+    public void testDirectoryWildcard() {
+        UrlRouter router = builder.build(vips(vip(SITE, "/**/sitemap.xml", "/static/**")));
+
+        assertEquals(router.route("/sitemap.xml"), SITE);
+        assertEquals(router.route("/a/b/c/sitemap.xml"), SITE);
+        assertEquals(router.route("/static"), SITE);
+        assertEquals(router.route("/static/css/site.css"), SITE);
+        assertNull(router.route("/a/b/sitemap.xmlx"));
+    }
+
+    public void testFirstRuleWins() {
+        UrlRouter router = builder.build(vips(vip(CRR, "/[make]/*"), vip(DRR, "/honda/*", "/*/civic")));
+
+        // CRR sorts before DRR, so its rule takes precedence.
+        assertEquals(router.route("/honda/civic"), CRR);
+        assertEquals(router.findRule("/honda/civic"), "/[make]/*");
+        assertEquals(router.route("/bmw/civic"), DRR);
+    }
+
+    public void testEscapedCharacters() {
+        UrlRouter router = builder.build(vips(vip(CRR, "/\\[make]/a.b", "/\\*")));
+
+        assertEquals(router.route("/[make]/a.b"), CRR);
+        assertNull(router.route("/honda/a.b"));
+        assertNull(router.route("/[make]/axb"));
+        assertEquals(router.route("/*"), CRR);
+        assertNull(router.route("/x"));
+    }
+
+    public void testRegexFallback() {
+        UrlRouter router = builder.build(vips(vip(CRR, "/zip/[zipcode]x"), vip(DRR, "/zip/*")));
+
+        assertEquals(router.getFallbackRuleCount(), 1);
+        assertEquals(router.route("/zip/90404x"), CRR);
+        assertEquals(router.route("/zip/90404"), DRR);
+    }
+
+    public void testUndefinedTokenIsSkipped() {
+        UrlRouter router = builder.build(vips(vip(CRR, "/[trim]/*", "/ok")));
+
+        assertEquals(router.getRuleCount(), 1);
+        assertEquals(router.route("/ok"), CRR);
+    }
+
+    public void testEmptySnapshot() {
+        UrlRouter router = builder.build(ManagementVips.EMPTY_INSTANCE);
+
+        assertNull(router.route("/anything"));
+        assertEquals(router.getRuleCount(), 0);
+    }
+
+    public void testStateLimitFallsBackToRegex() {
+        builder.setMaxStates(4);
+        UrlRouter router = builder.build(vips(vip(CRR, "/[make]/[model]/[year]")));
+
+        assertEquals(router.getAutomatonCount(), 0);
+        assertEquals(router.getFallbackRuleCount(), 1);
+        assertEquals(router.route("/ford/focus/2011"), CRR);
+    }
+
+    public void testLargeRuleSetIsSplit() {
+        List<String> rules = Lists.newArrayList();
+        for (int i = 0; i < 200; i++) {
+            rules.add("/**/x" + i + "/*.html");
+        }
+        builder.setMaxStates(2000);
+        String[] siteRules = rules.toArray(new String[rules.size()]);
+        UrlRouter router = builder.build(vips(vip(CRR, "/[make]/"), vip(SITE, siteRules)));
+
+        assertEquals(router.getFallbackRuleCount(), 0);
+        assertEquals(router.route("/a/x12/b/x199/index.html"), SITE);
+        assertEquals(router.findRule("/x7/index.html"), "/**/x7/*.html");
+        assertEquals(router.route("/honda/"), CRR);
+        assertNull(router.route("/a/x200/index.html"));
+    }
+
+    public void testPatternParser() {
+        assertMatches("[a-c]x{2,3}", "bxx", true);
+        assertMatches("[a-c]x{2,3}", "bxxxx", false);
+        assertMatches("[^/]+\\.html?", "index.htm", true);
+        assertMatches("(?:ab|c)*d", "ababcd", true);
+        assertMatches("\\w\\s\\d", "a 1", true);
+        assertMatches("\\w\\s\\d", "a  1", false);
+    }
+
+    private void assertMatches(String regex, String path, boolean expected) {
+        UrlRouterBuilder b = new UrlRouterBuilder(
+            Collections.<UrlToken>singletonList(new RegexUrlToken("test", regex)));
+        UrlRouter router = b.build(vips(vip(CRR, "[test]")));
+        assertEquals(router.getFallbackRuleCount(), 0);
+        assertEquals(router.route(path) != null, expected, regex + " ~ " + path);
+    }
+
+    private static ManagementVips vips(ManagementVip... vips) {
+        return new ManagementVips(MAVEN_ONLY, Lists.newArrayList(vips));
+    }
+
+    private static ManagementVip vip(MavenModule module, String... rules) {
+        return new ManagementVip(ACTIVE, module, null, Collections.<ManagementPoolMember>emptyList(), "/",
+            Lists.newArrayList(rules), null);
+    }
+}
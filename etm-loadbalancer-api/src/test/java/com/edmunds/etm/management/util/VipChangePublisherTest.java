@@ -0,0 +1,268 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.management.api.ManagementVip;
+import com.edmunds.etm.management.api.ManagementVipType;
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.VipChange;
+import com.edmunds.etm.management.api.VipChangeEvent;
+import com.edmunds.etm.management.api.VipChangeSet;
+import com.edmunds.etm.management.api.VipChangeSubscriber;
+import com.edmunds.etm.management.api.VipChangeSubscription;
+import com.google.common.collect.Lists;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.edmunds.etm.management.util.VipDeltaCalculatorTest.randomVips;
+import static com.edmunds.etm.management.util.VipDeltaCalculatorTest.vip;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class VipChangePublisherTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private VipChangePublisher publisher;
+
+    @BeforeMethod
+    public void setUp() {
+        publisher = new VipChangePublisher(DIRECT);
+    }
+
+    public void testNoEventsWithoutDemand() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        publisher.publish(vips(vip("a", "10.0.0.1")));
+
+        assertNotNull(subscriber.subscription);
+        assertTrue(subscriber.events.isEmpty());
+    }
+
+    public void testEventsFollowPublishes() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+
+        ManagementVips v1 = vips(vip("a", "10.0.0.1"));
+        ManagementVips v2 = vips(vip("a", "10.0.0.1", "10.0.0.2"), vip("b"));
+        publisher.publish(v1);
+        publisher.publish(v2);
+        publisher.publish(vips(vip("a", "10.0.0.1", "10.0.0.2"), vip("b")));
+
+        assertEquals(subscriber.events.size(), 3);
+        assertTrue(subscriber.events.get(0).isInitial());
+        assertTrue(subscriber.events.get(0).getChanges().isEmpty());
+
+        VipChangeEvent event = subscriber.events.get(2);
+        assertFalse(event.isInitial());
+        assertEquals(event.getSnapshot(), v2);
+        assertEquals(event.getChanges(), VipChangeSet.between(v1, v2));
+        assertEquals(event.getChanges().getChanges(VipChange.Type.CREATE).size(), 1);
+        assertEquals(event.getChanges().getChanges(VipChange.Type.UPDATE).size(), 1);
+    }
+
+    public void testLateSubscriberStartsFromSnapshot() {
+        ManagementVips vips = vips(vip("a", "10.0.0.1"), vip("b", "10.0.0.2"));
+        publisher.publish(vips);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        publisher.subscribe(subscriber);
+
+        VipChangeEvent event = subscriber.events.get(0);
+        assertTrue(event.isInitial());
+        assertEquals(event.getChanges().getChanges(VipChange.Type.CREATE).size(), 2);
+        assertEquals(event.getChanges().apply(ManagementVips.EMPTY_INSTANCE), vips);
+    }
+
+    public void testSlowSubscriberReceivesCoalescedEvent() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        publisher.subscribe(subscriber);
+
+        ManagementVips v1 = vips(vip("a", "10.0.0.1"));
+        ManagementVips v2 = vips(vip("a", "10.0.0.2"), vip("b"));
+        ManagementVips v3 = vips(vip("a", "10.0.0.3"), vip("b"), vip("c"));
+        publisher.publish(v1);
+        publisher.publish(v2);
+        publisher.publish(v3);
+        assertEquals(subscriber.events.size(), 1);
+
+        subscriber.subscription.request(1);
+        assertEquals(subscriber.events.size(), 2);
+        VipChangeEvent event = subscriber.events.get(1);
+        assertEquals(event.getPublishCount(), 3);
+        assertEquals(event.getSnapshot(), v3);
+        assertEquals(event.getChanges(), VipChangeSet.between(ManagementVips.EMPTY_INSTANCE, v3));
+    }
+
+    public void testChangesThatCancelOutAreNotDelivered() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        publisher.subscribe(subscriber);
+
+        publisher.publish(vips(vip("a", "10.0.0.1")));
+        publisher.publish(ManagementVips.EMPTY_INSTANCE);
+        subscriber.subscription.request(1);
+
+        assertEquals(subscriber.events.size(), 1);
+    }
+
+    public void testCloseCompletesSubscribers() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        publisher.subscribe(subscriber);
+        publisher.close();
+
+        assertTrue(subscriber.completed);
+        assertEquals(publisher.getSubscriberCount(), 0);
+
+        RecordingSubscriber late = new RecordingSubscriber(1);
+        publisher.subscribe(late);
+        assertTrue(late.completed);
+    }
+
+    public void testInvalidRequestSignalsError() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(publisher.getSubscriberCount(), 0);
+    }
+
+    public void testFailingSubscriberIsCancelled() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE) {
+            @Override
+            public void onNext(VipChangeEvent event) {
+                throw new IllegalStateException("boom");
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        assertEquals(publisher.getSubscriberCount(), 0);
+        publisher.publish(vips(vip("a", "10.0.0.1")));
+    }
+
+    public void testAsyncSubscriberConverges() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            publisher = new VipChangePublisher(executor);
+            final CountDownLatch done = new CountDownLatch(1);
+            RecordingSubscriber subscriber = new RecordingSubscriber(1) {
+                @Override
+                public void onNext(VipChangeEvent event) {
+                    super.onNext(event);
+                    Thread.yield();
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onComplete() {
+                    super.onComplete();
+                    done.countDown();
+                }
+            };
+            publisher.subscribe(subscriber);
+
+            Random random = new Random(25);
+            ManagementVips last = null;
+            for (int i = 0; i < 200; i++) {
+                last = randomVips(random, 20);
+                publisher.publish(last);
+            }
+
+            // Wait for the subscriber to catch up before closing, since undelivered changes are dropped on close.
+            long deadline = System.currentTimeMillis() + 10000;
+            while (subscriber.lastSnapshot() != last && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            publisher.close();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            ManagementVips replayed = ManagementVips.EMPTY_INSTANCE;
+            int publishCount = 0;
+            for (VipChangeEvent event : subscriber.events) {
+                replayed = event.getChanges().apply(replayed);
+                assertEquals(replayed, event.getSnapshot());
+                publishCount += event.getPublishCount();
+            }
+            assertEquals(replayed, last);
+            assertTrue(publishCount <= 200);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ManagementVips vips(ManagementVip... vips) {
+        return new ManagementVips(ManagementVipType.COMPLETE, Lists.newArrayList(vips));
+    }
+
+    private static class RecordingSubscriber implements VipChangeSubscriber {
+        private final long initialRequest;
+        protected final List<VipChangeEvent> events = Lists.newArrayList();
+        protected volatile VipChangeSubscription subscription;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(VipChangeSubscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(VipChangeEvent event) {
+            synchronized (events) {
+                events.add(event);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        ManagementVips lastSnapshot() {
+            synchronized (events) {
+                return events.isEmpty() ? null : events.get(events.size() - 1).getSnapshot();
+            }
+        }
+    }
+}
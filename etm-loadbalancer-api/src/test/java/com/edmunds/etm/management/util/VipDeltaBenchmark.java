@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.management.api.ManagementVips;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares sequential and parallel vip deltas for growing numbers of vips and threads.
+ * <p/>
+ * Run from the test classpath: {@code java com.edmunds.etm.management.util.VipDeltaBenchmark}.
+ */
+public final class VipDeltaBenchmark {
+
+    private static final int[] VIP_COUNTS = {1000, 10000, 30000};
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int ITERATIONS = 10;
+
+    private VipDeltaBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        for (int vipCount : VIP_COUNTS) {
+            ManagementVips oldVips = VipDeltaCalculatorTest.randomVips(random, vipCount);
+            ManagementVips newVips = VipDeltaCalculatorTest.randomVips(random, vipCount);
+
+            VipDeltaCalculator sequential = new VipDeltaCalculator();
+            System.out.printf("%6d vips  sequential   %8.2f ms%n", vipCount, measure(sequential, oldVips, newVips));
+
+            for (int threads : THREAD_COUNTS) {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                VipDeltaCalculator parallel = new VipDeltaCalculator();
+                parallel.setExecutor(executor);
+                parallel.setParallelThreshold(1);
+                System.out.printf("%6d vips  %2d threads   %8.2f ms%n", vipCount, threads,
+                    measure(parallel, oldVips, newVips));
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static double measure(VipDeltaCalculator calculator, ManagementVips oldVips, ManagementVips newVips) {
+        // Warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            calculator.deltaWebTier(oldVips, newVips);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            calculator.deltaWebTier(oldVips, newVips);
+        }
+        return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2011 Edmunds.com, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmunds.etm.management.util;
+
+import com.edmunds.etm.management.api.HostAddress;
+import com.edmunds.etm.management.api.ManagementLoadBalancerState;
+import com.edmunds.etm.management.api.ManagementPoolMember;
+import com.edmunds.etm.management.api.ManagementVip;
+import com.edmunds.etm.management.api.ManagementVipType;
+import com.edmunds.etm.management.api.ManagementVips;
+import com.edmunds.etm.management.api.MavenModule;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.ACTIVE;
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.CREATE_REQUEST;
+import static com.edmunds.etm.management.api.ManagementLoadBalancerState.DELETE_REQUEST;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+@Test
+public class VipDeltaCalculatorTest {
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testDeltaStates() {
+        ManagementVips oldVips = vips(vip("a", "10.0.0.1", "10.0.0.2"), vip("b", "10.0.0.3"));
+        ManagementVips newVips = vips(vip("a", "10.0.0.2", "10.0.0.4"), vip("c", "10.0.0.5"));
+
+        ManagementVips delta = new VipDeltaCalculator().deltaWebTier(oldVips, newVips);
+        assertEquals(delta.getVip(module("a")).getPoolMembers().get(address("10.0.0.1")).getLoadBalancerState(),
+            DELETE_REQUEST);
+        assertEquals(delta.getVip(module("a")).getPoolMembers().get(address("10.0.0.2")).getLoadBalancerState(),
+            ACTIVE);
+        assertEquals(delta.getVip(module("a")).getPoolMembers().get(address("10.0.0.4")).getLoadBalancerState(),
+            CREATE_REQUEST);
+        assertEquals(delta.getVip(module("b")).getLoadBalancerState(), DELETE_REQUEST);
+        assertEquals(delta.getVip(module("c")).getLoadBalancerState(), CREATE_REQUEST);
+    }
+
+    public void testUnchangedVipIsReused() {
+        ManagementVip oldVip = vip("a", "10.0.0.1", "10.0.0.2");
+        ManagementVip newVip = vip("a", "10.0.0.2", "10.0.0.1");
+
+        ManagementVips delta = new VipDeltaCalculator().deltaWebTier(vips(oldVip), vips(newVip));
+        assertSame(delta.getVip(module("a")), newVip);
+
+        delta = new VipDeltaCalculator().deltaConnections(vips(oldVip), vips(newVip));
+        assertSame(delta.getVip(module("a")), oldVip);
+    }
+
+    public void testUnchangedVipIsRelabeledActive() {
+        ManagementVip oldVip = vip("a", "10.0.0.1").withLoadBalancerState(CREATE_REQUEST);
+        ManagementVip newVip = vip("a", "10.0.0.1");
+
+        ManagementVip deltaVip = new VipDeltaCalculator().deltaConnections(vips(oldVip), vips(newVip))
+            .getVip(module("a"));
+        assertEquals(deltaVip.getLoadBalancerState(), ACTIVE);
+        assertSame(deltaVip.getPoolMembers(), oldVip.getPoolMembers());
+        assertEquals(deltaVip, vip("a", "10.0.0.1"));
+    }
+
+    public void testParallelDeltaMatchesSequential() {
+        Random random = new Random(42);
+        ManagementVips oldVips = randomVips(random, 500);
+        ManagementVips newVips = randomVips(random, 500);
+
+        VipDeltaCalculator sequential = new VipDeltaCalculator();
+        VipDeltaCalculator parallel = new VipDeltaCalculator();
+        parallel.setExecutor(executor);
+        parallel.setParallelThreshold(1);
+
+        assertEquals(parallel.deltaWebTier(oldVips, newVips), sequential.deltaWebTier(oldVips, newVips));
+        assertEquals(parallel.deltaWebTier(null, newVips), sequential.deltaWebTier(null, newVips));
+        assertEquals(parallel.deltaLoadBalancer(oldVips, newVips), sequential.deltaLoadBalancer(oldVips, newVips));
+    }
+
+    public void testMemberMergeMatchesLookups() {
+        Random random = new Random(7);
+        ManagementVips oldVips = randomVips(random, 200);
+        ManagementVips newVips = randomVips(random, 200);
+        ManagementVips delta = new VipDeltaCalculator().deltaWebTier(oldVips, newVips);
+
+        for (ManagementVip newVip : newVips.getVips()) {
+            ManagementVip oldVip = oldVips.getVip(newVip.getMavenModule());
+            if (oldVip == null) {
+                continue;
+            }
+            Map<HostAddress, ManagementPoolMember> members = delta.getVip(newVip.getMavenModule()).getPoolMembers();
+            Set<HostAddress> hosts = Sets.union(oldVip.getPoolMembers().keySet(), newVip.getPoolMembers().keySet());
+            assertEquals(members.keySet(), hosts);
+            for (HostAddress host : hosts) {
+                ManagementLoadBalancerState expected;
+                if (!newVip.getPoolMembers().containsKey(host)) {
+                    expected = DELETE_REQUEST;
+                } else if (!oldVip.getPoolMembers().containsKey(host)) {
+                    expected = CREATE_REQUEST;
+                } else {
+                    expected = ACTIVE;
+                }
+                assertEquals(members.get(host).getLoadBalancerState(), expected);
+            }
+        }
+    }
+
+    static ManagementVips randomVips(Random random, int count) {
+        List<ManagementVip> vips = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(10) == 0) {
+                continue;
+            }
+            Set<String> ips = Sets.newHashSet();
+            int memberCount = random.nextInt(20);
+            for (int j = 0; j < memberCount; j++) {
+                ips.add("10.0." + random.nextInt(4) + "." + random.nextInt(30));
+            }
+            vips.add(vip("app" + i, ips.toArray(new String[ips.size()])));
+        }
+        return new ManagementVips(ManagementVipType.COMPLETE, vips);
+    }
+
+    static ManagementVip vip(String artifactId, String... ips) {
+        List<ManagementPoolMember> members = Lists.newArrayList();
+        for (String ip : ips) {
+            members.add(new ManagementPoolMember(ACTIVE, address(ip)));
+        }
+        return new ManagementVip(ACTIVE, module(artifactId), new HostAddress("10.1.0.1", 80), members, "/" + artifactId,
+            Lists.newArrayList("/" + artifactId + "/**"), null);
+    }
+
+    private static ManagementVips vips(ManagementVip... vips) {
+        return new ManagementVips(ManagementVipType.COMPLETE, Lists.newArrayList(vips));
+    }
+
+    private static MavenModule module(String artifactId) {
+        return new MavenModule("com.edmunds", artifactId, "1.0");
+    }
+
+    private static HostAddress address(String ip) {
+        return new HostAddress(ip, 8080);
+    }
+}